@@ -0,0 +1,102 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/*
+ * Measures archiving cold projects into pack files. A projects folder is
+ * generated in a temporary folder and its file count, disk usage and load
+ * times are measured before and after every project is archived, and again
+ * after one is unarchived by writing to it.
+ *
+ * Disk usage counts each file rounded up to 4 KB blocks, as most file systems
+ * allocate them. Snapshots are turned off so loads read the projects folder.
+ *
+ * Prints one JSON line per measurement.
+ *
+ * Usage: java ArchiveBenchmark [projects] [individuals per project] [meetings per project]
+ */
+public class ArchiveBenchmark {
+
+    private static final long BLOCK_BYTES = 4096;
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws IOException {
+        int projects = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int individuals = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int meetings = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        System.setProperty("projects.snapshot", "false");
+
+        Path folder = Files.createTempDirectory("archive-benchmark");
+        try {
+            List<UUID> projectIds = new DataGenerator(projects, individuals, meetings).write(folder.toFile());
+            FileManager fileManager = new FileManager(folder.toString(), 1);
+            measure("folders", folder, fileManager, projectIds.get(0));
+
+            long started = System.nanoTime();
+            for (UUID projectId : projectIds) {
+                fileManager.archiveProject(projectId);
+            }
+            System.out.println(String.format(Locale.ROOT, "{\"benchmark\":\"archive.archive\",\"projects\":%d,\"projectsPerSecond\":%.0f}",
+                    projects, projects / ((System.nanoTime() - started) / 1e9)));
+            measure("packs", folder, fileManager, projectIds.get(0));
+
+            Project project = fileManager.getProject(projectIds.get(0));
+            started = System.nanoTime();
+            fileManager.createProjectConfigFile(project);
+            System.out.println(String.format(Locale.ROOT, "{\"benchmark\":\"archive.unarchiveOnWrite\",\"ms\":%.1f}", (System.nanoTime() - started) / 1e6));
+        } finally {
+            try (Stream<Path> paths = Files.walk(folder)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    /*
+     * Prints the file count and disk usage of the projects folder and how long
+     * the usual reads of it take.
+     */
+    private static void measure(String layout, Path folder, FileManager fileManager, UUID projectId) throws IOException {
+        long files = 0;
+        long bytes = 0;
+        long allocated = 0;
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : paths.filter(Files::isRegularFile).toList()) {
+                long size = Files.size(path);
+                files++;
+                bytes += size;
+                allocated += (size + BLOCK_BYTES - 1) / BLOCK_BYTES * BLOCK_BYTES;
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "{\"benchmark\":\"archive.disk\",\"layout\":\"%s\",\"files\":%d,\"bytes\":%d,\"allocatedKb\":%d}",
+                layout, files, bytes, allocated >> 10));
+
+        time(layout, "getProjects", () -> fileManager.getProjects());
+        time(layout, "getProjectsWithMeetings", () -> {
+            long count = 0;
+            for (Project project : fileManager.getProjects()) {
+                count += project.meetings.size();
+            }
+            return count;
+        });
+        time(layout, "getProject", () -> fileManager.getProject(projectId));
+    }
+
+    /*
+     * Runs a read once to warm up and then once more timed.
+     */
+    private static void time(String layout, String name, Supplier<Object> read) {
+        sink = read.get();
+        long started = System.nanoTime();
+        sink = read.get();
+        System.out.println(String.format(Locale.ROOT, "{\"benchmark\":\"archive.%s\",\"layout\":\"%s\",\"ms\":%.2f}", name, layout, (System.nanoTime() - started) / 1e6));
+    }
+}
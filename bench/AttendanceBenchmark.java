@@ -0,0 +1,98 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/*
+ * Measures AttendanceAnalytics on one large project. The project and its
+ * individuals are written to a temporary folder, then its meetings are handed
+ * to the analytics in batches as FileManager would after writing them. The
+ * meeting files themselves are not written, as a million of them would time
+ * the file system rather than the analytics.
+ *
+ * Prints one JSON line for taking in the meetings, with the heap used
+ * afterwards, and one for each report.
+ *
+ * Usage: java AttendanceBenchmark [individuals] [meetings] [attendees per meeting]
+ */
+public class AttendanceBenchmark {
+
+    private static final int BATCH_SIZE = 10_000;
+    private static final int PAIR_QUERIES = 100_000;
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws IOException {
+        int individuals = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int meetings = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        int attendees = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        Path folder = Files.createTempDirectory("attendance-benchmark");
+        try {
+            DataGenerator generator = new DataGenerator(1, individuals, 0, attendees, DataGenerator.DEFAULT_SEED);
+            Random random = new Random(DataGenerator.DEFAULT_SEED);
+            FileManager fileManager = new FileManager(folder.toString(), 1);
+            Project project = generator.generateProject(random);
+            fileManager.createProjectFolderStructure(project.id);
+            fileManager.createProjectConfigFile(project);
+            fileManager.createIndividualFiles(project, project.individuals);
+
+            AttendanceAnalytics analytics = new AttendanceAnalytics(fileManager);
+            fileManager.addWriteListener(analytics);
+            analytics.meetingCount(project.id);
+
+            long nanos = 0;
+            for (int written = 0; written < meetings; written += BATCH_SIZE) {
+                List<Meeting> batch = new ArrayList<>(BATCH_SIZE);
+                for (int i = written; i < Math.min(meetings, written + BATCH_SIZE); i++) {
+                    batch.add(generator.generateMeeting(random, project.individuals));
+                }
+                long started = System.nanoTime();
+                analytics.meetingsWritten(project, batch);
+                nanos += System.nanoTime() - started;
+            }
+            System.gc();
+            long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            System.out.println(String.format(Locale.ROOT,
+                    "{\"benchmark\":\"attendance.add\",\"individuals\":%d,\"meetings\":%d,\"attendees\":%d,\"meetingsPerSecond\":%.0f,\"heapUsedMb\":%d}",
+                    individuals, analytics.meetingCount(project.id), attendees, meetings / (nanos / 1e9), heap >> 20));
+
+            time("attendance.byIndividual", () -> analytics.attendanceByIndividual(project.id));
+            time("attendance.neverAttended", () -> analytics.neverAttended(project.id));
+            time("attendance.topCoAttendance", () -> analytics.topCoAttendance(project.id, 10));
+            time("attendance.monthlyTrend", () -> analytics.monthlyTrend(project.id));
+            time("attendance.pairs", () -> {
+                Random pairs = new Random(DataGenerator.DEFAULT_SEED);
+                long together = 0;
+                for (int i = 0; i < PAIR_QUERIES; i++) {
+                    together += analytics.meetingsAttendedTogether(project.id, project.individuals.get(pairs.nextInt(individuals)).id,
+                            project.individuals.get(pairs.nextInt(individuals)).id);
+                }
+                return together;
+            });
+        } finally {
+            try (Stream<Path> paths = Files.walk(folder)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    /*
+     * Runs a report once to warm up and then once more timed.
+     */
+    private static void time(String name, Supplier<Object> report) {
+        sink = report.get();
+        long started = System.nanoTime();
+        sink = report.get();
+        System.out.println(String.format(Locale.ROOT, "{\"benchmark\":\"%s\",\"ms\":%.1f}", name, (System.nanoTime() - started) / 1e6));
+    }
+}
@@ -0,0 +1,607 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/*
+ * Times the persistence layer against projects written by DataGenerator and
+ * prints one result per scenario and dataset size, as JSON lines or CSV, so
+ * runs can be compared by a script and regressions spotted.
+ *
+ * Each scenario is run for a number of warmup iterations, which are thrown
+ * away, followed by the measured iterations. An iteration performs one or more
+ * operations; results are reported per operation.
+ *
+ * Usage: java Benchmark [options]
+ *     --projects 100,1000   dataset sizes to run every scenario against
+ *     --individuals 10      individuals per project
+ *     --meetings 20         meetings per project
+ *     --attendees 3         attendees per meeting
+ *     --seed 42             seed for DataGenerator
+ *     --warmup 3            warmup iterations per scenario
+ *     --iterations 10       measured iterations per scenario
+ *     --batch 100           operations per iteration for single-entity scenarios
+ *     --threads 8           writer threads for the concurrent durability scenarios
+ *     --scenarios a,b       scenarios to run, all of them by default
+ *     --format json|csv     output format, json by default
+ *     --out file            write results to a file instead of standard output
+ *     --keep                keep the generated data instead of deleting it
+ */
+public class Benchmark {
+
+    /*
+     * Prepares a scenario against a dataset, returning the operation to time.
+     */
+    private interface Scenario {
+        Operation setUp(Dataset dataset) throws Exception;
+    }
+
+    /*
+     * Runs one iteration, returning how many operations it performed.
+     */
+    private interface Operation {
+        int run() throws Exception;
+    }
+
+    private final Map<String, Scenario> scenarios = new LinkedHashMap<>();
+    private final Map<String, String> options = new LinkedHashMap<>();
+
+    public Benchmark(String[] args) {
+        options.put("projects", "100");
+        options.put("individuals", "10");
+        options.put("meetings", "20");
+        options.put("attendees", String.valueOf(DataGenerator.DEFAULT_ATTENDEES));
+        options.put("seed", String.valueOf(DataGenerator.DEFAULT_SEED));
+        options.put("warmup", "3");
+        options.put("iterations", "10");
+        options.put("batch", "100");
+        options.put("threads", "8");
+        options.put("format", "json");
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (name.equals("keep")) {
+                options.put(name, "true");
+            } else if (i + 1 < args.length) {
+                options.put(name, args[++i]);
+            } else {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+        }
+        registerScenarios();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Benchmark(args).run();
+    }
+
+    /*
+     * Every scenario, in the order they are run. Read scenarios use their own file
+     * manager with no write listeners, so only FileManager itself is timed.
+     */
+    private void registerScenarios() {
+        int batch = intOption("batch");
+
+        scenarios.put("getProjects", dataset -> {
+            FileManager fileManager = dataset.fileManager(1, false);
+            return () -> {
+                fileManager.getProjects();
+                return 1;
+            };
+        });
+
+        scenarios.put("getProjects.parallel", dataset -> {
+            FileManager fileManager = dataset.fileManager(Runtime.getRuntime().availableProcessors(), false);
+            return () -> {
+                fileManager.getProjects();
+                return 1;
+            };
+        });
+
+        scenarios.put("getProjects.snapshot", dataset -> {
+            FileManager fileManager = dataset.fileManager(1, true);
+            fileManager.getProjects(); // Writes the snapshot the measured loads read from
+            return () -> {
+                fileManager.getProjects();
+                return 1;
+            };
+        });
+
+        scenarios.put("getProjects.metrics", dataset -> {
+            // Compared with getProjects, the cost of collecting metrics
+            FileManager fileManager = dataset.metricsFileManager();
+            return () -> {
+                fileManager.getProjects();
+                return 1;
+            };
+        });
+
+        scenarios.put("getProject", dataset -> {
+            FileManager fileManager = dataset.fileManager(1, false);
+            Random random = new Random(dataset.seed);
+            return () -> {
+                for (int i = 0; i < batch; i++) {
+                    fileManager.getProject(dataset.projectIds.get(random.nextInt(dataset.projectIds.size())));
+                }
+                return batch;
+            };
+        });
+
+        scenarios.put("getProject.metrics", dataset -> {
+            FileManager fileManager = dataset.metricsFileManager();
+            Random random = new Random(dataset.seed);
+            return () -> {
+                for (int i = 0; i < batch; i++) {
+                    fileManager.getProject(dataset.projectIds.get(random.nextInt(dataset.projectIds.size())));
+                }
+                return batch;
+            };
+        });
+
+        scenarios.put("refresh", dataset -> {
+            // Nothing has changed, so every file is checked and none is read
+            FileManager fileManager = dataset.copyFileManager();
+            fileManager.refresh();
+            return () -> {
+                fileManager.refresh();
+                return 1;
+            };
+        });
+
+        scenarios.put("refresh.oneChange", dataset -> {
+            // Compared with getProjects, the cost of picking up a single changed meeting
+            FileManager fileManager = dataset.copyFileManager();
+            fileManager.refresh();
+            List<Project> projects = fileManager.getProjectCatalogue(0, Math.min(dataset.projectIds.size(), batch));
+            Random random = new Random(dataset.seed);
+            int[] changed = { 0 };
+            return () -> {
+                Project project = projects.get(random.nextInt(projects.size()));
+                if (project.meetings.isEmpty()) {
+                    return 0;
+                }
+                Meeting meeting = project.meetings.get(random.nextInt(project.meetings.size()));
+                meeting.title = "Changed " + changed[0]++;
+                fileManager.createMeetingFile(project, meeting);
+                fileManager.refresh();
+                return 1;
+            };
+        });
+
+        scenarios.put("getMeeting", dataset -> {
+            // Reading a single meeting resolves its attendees against the project's individuals
+            FileManager fileManager = dataset.fileManager(1, false);
+            List<UUID[]> meetings = new ArrayList<>();
+            for (Project project : fileManager.getProjectCatalogue(0, Math.min(dataset.projectIds.size(), batch))) {
+                for (Meeting meeting : project.meetings) {
+                    meetings.add(new UUID[] { project.id, meeting.id });
+                }
+            }
+            if (meetings.isEmpty()) {
+                return null;
+            }
+            Random random = new Random(dataset.seed);
+            return () -> {
+                for (int i = 0; i < batch; i++) {
+                    UUID[] meeting = meetings.get(random.nextInt(meetings.size()));
+                    fileManager.getMeeting(meeting[0], meeting[1]);
+                }
+                return batch;
+            };
+        });
+
+        scenarios.put("createProjectConfigFile", dataset -> {
+            FileManager fileManager = dataset.scratchFileManager();
+            DataGenerator generator = new DataGenerator(1, 0, 0, 0, dataset.seed);
+            Random random = new Random(dataset.seed);
+            return () -> {
+                for (int i = 0; i < batch; i++) {
+                    Project project = generator.generateProject(random);
+                    fileManager.createProjectFolderStructure(project.id);
+                    fileManager.createProjectConfigFile(project);
+                }
+                return batch;
+            };
+        });
+
+        scenarios.put("createIndividualFile", dataset -> {
+            FileManager fileManager = dataset.scratchFileManager();
+            Project project = dataset.scratchProject(fileManager);
+            DataGenerator generator = new DataGenerator(1, 0, 0, 0, dataset.seed);
+            Random random = new Random(dataset.seed);
+            return () -> {
+                for (int i = 0; i < batch; i++) {
+                    fileManager.createIndividualFile(project, generator.generateIndividual(random));
+                }
+                return batch;
+            };
+        });
+
+        scenarios.put("createMeetingFile", dataset -> {
+            FileManager fileManager = dataset.scratchFileManager();
+            Project project = dataset.scratchProject(fileManager);
+            DataGenerator generator = new DataGenerator(1, dataset.individuals, 0, dataset.attendees, dataset.seed);
+            Random random = new Random(dataset.seed);
+            for (int i = 0; i < dataset.individuals; i++) {
+                Individual individual = generator.generateIndividual(random);
+                fileManager.createIndividualFile(project, individual);
+                project.individuals.add(individual);
+            }
+            return () -> {
+                for (int i = 0; i < batch; i++) {
+                    fileManager.createMeetingFile(project, generator.generateMeeting(random, project.individuals));
+                }
+                return batch;
+            };
+        });
+
+        for (Durability durability : Durability.values()) {
+            String level = durability.name().toLowerCase();
+
+            // The same meetings are rewritten every iteration, so only writing is timed
+            scenarios.put("durability." + level, dataset -> {
+                MeetingBatch meetings = new MeetingBatch(dataset, durability, batch);
+                return () -> {
+                    for (Meeting meeting : meetings.meetings) {
+                        meetings.fileManager.createMeetingFile(meetings.project, meeting);
+                    }
+                    return batch;
+                };
+            });
+
+            scenarios.put("durability." + level + ".threads", dataset -> {
+                MeetingBatch meetings = new MeetingBatch(dataset, durability, batch);
+                int threads = intOption("threads");
+                ExecutorService writers = Executors.newFixedThreadPool(threads, runnable -> {
+                    Thread thread = new Thread(runnable, "benchmark-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                return () -> {
+                    List<Future<?>> writes = new ArrayList<>(batch);
+                    for (Meeting meeting : meetings.meetings) {
+                        writes.add(writers.submit(() -> {
+                            meetings.fileManager.createMeetingFile(meetings.project, meeting);
+                            return null;
+                        }));
+                    }
+                    for (Future<?> write : writes) {
+                        write.get();
+                    }
+                    return batch;
+                };
+            });
+
+            scenarios.put("durability." + level + ".bulk", dataset -> {
+                MeetingBatch meetings = new MeetingBatch(dataset, durability, batch);
+                return () -> {
+                    meetings.fileManager.createMeetingFiles(meetings.project, meetings.meetings);
+                    return batch;
+                };
+            });
+        }
+
+        // Compared with the durability scenarios, as every write-behind batch is forced to disk
+        scenarios.put("writeBehind", dataset -> {
+            MeetingBatch meetings = new MeetingBatch(dataset, Durability.NONE, batch);
+            return () -> {
+                List<CompletableFuture<Void>> writes = new ArrayList<>(batch);
+                for (Meeting meeting : meetings.meetings) {
+                    writes.add(meetings.fileManager.createMeetingFileAsync(meetings.project, meeting));
+                }
+                CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).join();
+                return batch;
+            };
+        });
+
+        scenarios.put("printProjects", dataset -> {
+            FileManager fileManager = dataset.fileManager(1, false);
+            ProjectPrinter printer = new ProjectPrinter(Writer.nullWriter());
+            ProjectFilter everything = new ProjectFilter();
+            return () -> printer.printAll(fileManager.streamProjects(), everything);
+        });
+
+        scenarios.put("bulkExport", dataset -> {
+            BulkTransfer transfer = new BulkTransfer(dataset.fileManager(1, false));
+            return () -> (int) transfer.exportTo(Writer.nullWriter());
+        });
+
+        scenarios.put("bulkImport", dataset -> {
+            // Imports the whole dataset, exported once up front, into the scratch folder
+            StringWriter export = new StringWriter();
+            int records = (int) new BulkTransfer(dataset.fileManager(1, false)).exportTo(export);
+            BulkTransfer transfer = new BulkTransfer(dataset.scratchFileManager());
+            return () -> {
+                BulkTransfer.ImportResult result = transfer.importFrom(new StringReader(export.toString()));
+                if (result.failedRows > 0) {
+                    throw new IllegalStateException(result.errors.get(0).toString());
+                }
+                return records;
+            };
+        });
+    }
+
+    /*
+     * Generates a dataset for each requested size and runs the selected scenarios
+     * against it.
+     */
+    public void run() throws Exception {
+        List<String> selected = options.containsKey("scenarios")
+                ? Arrays.asList(options.get("scenarios").split(","))
+                : new ArrayList<>(scenarios.keySet());
+        for (String name : selected) {
+            if (!scenarios.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown scenario " + name + ", expected one of " + scenarios.keySet());
+            }
+        }
+
+        boolean csv = options.get("format").equals("csv");
+        PrintStream out = options.containsKey("out") ? new PrintStream(options.get("out"), "UTF-8") : System.out;
+        if (csv) {
+            out.println(Result.CSV_HEADER);
+        }
+
+        try {
+            for (String size : options.get("projects").split(",")) {
+                Path folder = Files.createTempDirectory("project-benchmark");
+                try {
+                    DataGenerator generator = new DataGenerator(Integer.parseInt(size.trim()), intOption("individuals"),
+                            intOption("meetings"), intOption("attendees"), Long.parseLong(options.get("seed")));
+                    System.err.println("Generating " + generator.projects + " projects in " + folder);
+                    Dataset dataset = new Dataset(folder.toFile(), generator);
+
+                    for (String name : selected) {
+                        System.err.println("Running " + name);
+                        Result result = measure(name, scenarios.get(name).setUp(dataset), dataset);
+                        if (result != null) {
+                            out.println(csv ? result.toCsv() : result.toJson());
+                            out.flush();
+                        }
+                    }
+                } finally {
+                    if (!options.containsKey("keep")) {
+                        delete(folder);
+                    }
+                }
+            }
+        } finally {
+            if (out != System.out) {
+                out.close();
+            }
+        }
+    }
+
+    private Result measure(String name, Operation operation, Dataset dataset) throws Exception {
+        if (operation == null) {
+            System.err.println("Skipping " + name + ", the dataset has nothing for it to do");
+            return null;
+        }
+        for (int i = 0; i < intOption("warmup"); i++) {
+            operation.run();
+        }
+
+        int iterations = intOption("iterations");
+        double[] nanosPerOperation = new double[iterations];
+        long totalNanos = 0;
+        long totalOperations = 0;
+        for (int i = 0; i < iterations; i++) {
+            long started = System.nanoTime();
+            int operations = operation.run();
+            long elapsed = System.nanoTime() - started;
+            nanosPerOperation[i] = (double) elapsed / operations;
+            totalNanos += elapsed;
+            totalOperations += operations;
+        }
+        return new Result(name, dataset, iterations, totalOperations, totalNanos, nanosPerOperation);
+    }
+
+    private int intOption(String name) {
+        return Integer.parseInt(options.get(name));
+    }
+
+    private static void delete(Path folder) throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /*
+     * Generated projects read by the read scenarios, plus a separate scratch folder
+     * the write scenarios write to so they never change what is being read.
+     */
+    private static class Dataset {
+        final File projectsFolder;
+        final File scratchFolder;
+        final List<UUID> projectIds;
+        final int individuals;
+        final int meetings;
+        final int attendees;
+        final long seed;
+
+        Dataset(File folder, DataGenerator generator) throws IOException {
+            this.projectsFolder = new File(folder, "projects");
+            this.scratchFolder = new File(folder, "scratch");
+            this.projectIds = generator.write(projectsFolder);
+            this.individuals = generator.individuals;
+            this.meetings = generator.meetings;
+            this.attendees = generator.attendees;
+            this.seed = generator.seed;
+        }
+
+        /*
+         * Returns a file manager reading the generated projects. Whether it uses the
+         * binary snapshot is fixed when it is created, from the projects.snapshot
+         * system property.
+         */
+        FileManager fileManager(int loadParallelism, boolean snapshot) {
+            return withProperty("projects.snapshot", String.valueOf(snapshot), () -> new FileManager(projectsFolder.getPath(), loadParallelism));
+        }
+
+        /*
+         * Returns a file manager reading the generated projects, without the
+         * snapshot, that collects metrics.
+         */
+        FileManager metricsFileManager() {
+            return withProperty("projects.metrics", "true", () -> fileManager(1, false));
+        }
+
+        /*
+         * Returns a file manager on a fresh copy of the generated projects, for
+         * scenarios that change them, once the copy is old enough for a refresh
+         * to trust its modification times.
+         */
+        FileManager copyFileManager() throws IOException {
+            Path copy = Files.createTempDirectory(scratchFolder.getParentFile().toPath(), "copy");
+            try (Stream<Path> paths = Files.walk(projectsFolder.toPath())) {
+                for (Path path : paths.toList()) {
+                    Path target = copy.resolve(projectsFolder.toPath().relativize(path).toString());
+                    if (Files.isDirectory(path)) {
+                        Files.createDirectories(target);
+                    } else if (!path.getFileName().toString().equals(ProjectSnapshot.SNAPSHOT_FILE_NAME)) {
+                        Files.copy(path, target);
+                    }
+                }
+            }
+            // Files changed this recently are always hashed by a refresh, in case they change again within their time's granularity
+            try {
+                Thread.sleep(ProjectManifest.RACY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return withProperty("projects.snapshot", "false", () -> new FileManager(copy.toString(), 1));
+        }
+
+        FileManager scratchFileManager() {
+            return scratchFileManager(Durability.NONE);
+        }
+
+        FileManager scratchFileManager(Durability durability) {
+            scratchFolder.mkdirs();
+            return withProperty("projects.durability", durability.name(), () -> new FileManager(scratchFolder.getPath(), 1));
+        }
+
+        /*
+         * Creates a file manager with a system property it reads on creation set to
+         * the given value, restoring the property afterwards.
+         */
+        private static FileManager withProperty(String name, String value, Supplier<FileManager> create) {
+            String previous = System.getProperty(name);
+            System.setProperty(name, value);
+            try {
+                return create.get();
+            } finally {
+                if (previous == null) {
+                    System.clearProperty(name);
+                } else {
+                    System.setProperty(name, previous);
+                }
+            }
+        }
+
+        Project scratchProject(FileManager fileManager) throws IOException {
+            Project project = new DataGenerator(1, 0, 0, 0, seed).generateProject(new Random(seed));
+            fileManager.createProjectFolderStructure(project.id);
+            fileManager.createProjectConfigFile(project);
+            return project;
+        }
+    }
+
+    /*
+     * A project in the scratch folder with its individuals written, and a batch of
+     * meetings ready to be written to it.
+     */
+    private static class MeetingBatch {
+        final FileManager fileManager;
+        final Project project;
+        final List<Meeting> meetings = new ArrayList<>();
+
+        MeetingBatch(Dataset dataset, Durability durability, int size) throws IOException {
+            fileManager = dataset.scratchFileManager(durability);
+            project = dataset.scratchProject(fileManager);
+            DataGenerator generator = new DataGenerator(1, dataset.individuals, 0, dataset.attendees, dataset.seed);
+            Random random = new Random(dataset.seed);
+            for (int i = 0; i < dataset.individuals; i++) {
+                project.individuals.add(generator.generateIndividual(random));
+            }
+            fileManager.createIndividualFiles(project, project.individuals);
+            for (int i = 0; i < size; i++) {
+                meetings.add(generator.generateMeeting(random, project.individuals));
+            }
+        }
+    }
+
+    private static class Result {
+        static final String CSV_HEADER = "benchmark,projects,individuals,meetings,iterations,operations,opsPerSecond,meanUs,p50Us,p99Us,minUs,maxUs";
+
+        final String benchmark;
+        final int projects;
+        final int individuals;
+        final int meetings;
+        final int iterations;
+        final long operations;
+        final double opsPerSecond;
+        final double meanUs;
+        final double p50Us;
+        final double p99Us;
+        final double minUs;
+        final double maxUs;
+
+        Result(String benchmark, Dataset dataset, int iterations, long operations, long totalNanos, double[] nanosPerOperation) {
+            this.benchmark = benchmark;
+            this.projects = dataset.projectIds.size();
+            this.individuals = dataset.individuals;
+            this.meetings = dataset.meetings;
+            this.iterations = iterations;
+            this.operations = operations;
+            this.opsPerSecond = operations / (totalNanos / 1e9);
+
+            double[] sorted = nanosPerOperation.clone();
+            Arrays.sort(sorted);
+            this.meanUs = totalNanos / 1e3 / operations;
+            this.p50Us = percentile(sorted, 0.50) / 1e3;
+            this.p99Us = percentile(sorted, 0.99) / 1e3;
+            this.minUs = sorted[0] / 1e3;
+            this.maxUs = sorted[sorted.length - 1] / 1e3;
+        }
+
+        private static double percentile(double[] sorted, double percentile) {
+            int index = (int) Math.ceil(percentile * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        }
+
+        String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"benchmark\":\"%s\",\"projects\":%d,\"individuals\":%d,\"meetings\":%d,\"iterations\":%d,\"operations\":%d,"
+                            + "\"opsPerSecond\":%.2f,\"meanUs\":%.3f,\"p50Us\":%.3f,\"p99Us\":%.3f,\"minUs\":%.3f,\"maxUs\":%.3f}",
+                    benchmark, projects, individuals, meetings, iterations, operations, opsPerSecond, meanUs, p50Us, p99Us, minUs, maxUs);
+        }
+
+        String toCsv() {
+            return String.format(Locale.ROOT, "%s,%d,%d,%d,%d,%d,%.2f,%.3f,%.3f,%.3f,%.3f,%.3f",
+                    benchmark, projects, individuals, meetings, iterations, operations, opsPerSecond, meanUs, p50Us, p99Us, minUs, maxUs);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.LongFunction;
+import java.util.stream.Stream;
+
+/*
+ * Runs a million commands, by default, through both ways of driving the store
+ * without a person at the keyboard: CommandRunner reading a generated script,
+ * and the interactive menus reading piped input. Each runs on a thread with a
+ * small stack, so a command loop that grew the stack with every command would
+ * overflow long before the end. Prints one JSON line per mode.
+ *
+ * The script cycles through reads of generated projects, with a write every
+ * hundred commands. The menu input enters and leaves the search screen, which
+ * is two commands.
+ *
+ * Usage: java CommandStress [commands] [projects]
+ */
+public class CommandStress {
+
+    private static final int STACK_BYTES = 256 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        long commands = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        int projectCount = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        Path folder = Files.createTempDirectory("command-stress");
+        try {
+            new DataGenerator(projectCount, 5, 5).write(folder.toFile());
+            List<Project> projects = new FileManager(folder.toString(), 1).getProjects();
+            System.out.println(runScript(new FileManager(folder.toString(), 1), projects, commands));
+            System.out.println(runMenus(folder, commands));
+        } finally {
+            try (Stream<Path> paths = Files.walk(folder)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private static String runScript(FileManager fileManager, List<Project> projects, long commands) throws Exception {
+        List<String> reads = new ArrayList<>();
+        for (Project project : projects) {
+            reads.add("count-projects");
+            for (Individual individual : project.individuals) {
+                reads.add("get-individual " + project.id + " " + individual.id);
+            }
+            for (Meeting meeting : project.meetings) {
+                reads.add("get-meeting " + project.id + " " + meeting.id);
+            }
+        }
+        LongFunction<String> script = i -> i % 100 == 99
+                ? "add-individual " + projects.get((int) (i % projects.size())).id + " \"Stress " + i + "\" Tester"
+                : reads.get((int) (i % reads.size()));
+
+        CommandRunner.RunResult[] result = new CommandRunner.RunResult[1];
+        long started = System.nanoTime();
+        runWithSmallStack(() -> result[0] = new CommandRunner(fileManager).run(new ScriptReader(script, commands), Writer.nullWriter()));
+        long nanos = System.nanoTime() - started;
+        if (result[0].commands != commands || result[0].failed != 0) {
+            throw new IllegalStateException("Expected " + commands + " successful commands, got " + result[0]);
+        }
+        return line("commands.script", commands, nanos);
+    }
+
+    /*
+     * Feeds the menus through System.in, before Main is first used so its scanner
+     * and printer pick up the replaced streams.
+     */
+    private static String runMenus(Path folder, long commands) throws Exception {
+        InputStream in = System.in;
+        PrintStream out = System.out;
+        System.setProperty("projects.root", folder.toString());
+        System.setIn(new RepeatingInputStream("3\n\n".getBytes(), commands / 2));
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long started = System.nanoTime();
+        try {
+            runWithSmallStack(() -> Main.main(new String[0]));
+        } finally {
+            System.setIn(in);
+            System.setOut(out);
+        }
+        return line("commands.menus", commands / 2 * 2, System.nanoTime() - started);
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private static void runWithSmallStack(Task task) throws Exception {
+        Exception[] failure = new Exception[1];
+        Throwable[] error = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                failure[0] = e;
+            } catch (StackOverflowError e) {
+                error[0] = e;
+            }
+        }, "command-stress", STACK_BYTES);
+        thread.start();
+        thread.join();
+        if (error[0] != null) {
+            throw new IllegalStateException("The command loop overflowed a " + STACK_BYTES + " byte stack", error[0]);
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    private static String line(String benchmark, long commands, long nanos) {
+        return String.format(Locale.ROOT, "{\"benchmark\":\"%s\",\"commands\":%d,\"millis\":%d,\"commandsPerSecond\":%.0f,\"stackBytes\":%d}",
+                benchmark, commands, nanos / 1_000_000, commands / (nanos / 1e9), STACK_BYTES);
+    }
+
+    /*
+     * Produces the lines of a script on demand, so a million commands never need
+     * to be held in memory.
+     */
+    private static class ScriptReader extends Reader {
+        private final LongFunction<String> lines;
+        private final long count;
+        private long next;
+        private String current = "";
+        private int position;
+
+        ScriptReader(LongFunction<String> lines, long count) {
+            this.lines = lines;
+            this.count = count;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (position == current.length()) {
+                if (next == count) {
+                    return -1;
+                }
+                current = lines.apply(next++) + "\n";
+                position = 0;
+            }
+            int read = Math.min(length, current.length() - position);
+            current.getChars(position, position + read, buffer, offset);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /*
+     * Repeats the same bytes a number of times, then ends.
+     */
+    private static class RepeatingInputStream extends InputStream {
+        private final byte[] pattern;
+        private long remaining;
+        private InputStream current = InputStream.nullInputStream();
+
+        RepeatingInputStream(byte[] pattern, long times) {
+            this.pattern = pattern;
+            this.remaining = times;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0];
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = current.read(buffer, offset, length);
+            while (read <= 0 && remaining > 0) {
+                current = new ByteArrayInputStream(pattern);
+                remaining--;
+                read = current.read(buffer, offset, length);
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/*
+ * Writes synthetic projects in the on-disk layout used by FileManager, for
+ * benchmarks and scale tests. The same seed always produces the same projects,
+ * ids and dates, so results from different runs are comparable.
+ *
+ * Usage: java DataGenerator <folder> <projects> <individuals> <meetings> [attendees] [seed]
+ */
+public class DataGenerator {
+
+    public static final long DEFAULT_SEED = 42;
+    public static final int DEFAULT_ATTENDEES = 3;
+
+    private static final String[] WORDS = { "budget", "launch", "review", "design", "planning", "retro", "sync",
+            "hiring", "roadmap", "release", "security", "testing", "migration", "customer", "support", "metrics",
+            "onboarding", "pricing", "research", "infrastructure", "quarterly", "weekly", "kickoff", "demo" };
+    private static final String[] FIRST_NAMES = { "Alice", "Bob", "Carol", "Dan", "Erin", "Frank", "Grace", "Heidi",
+            "Ivan", "Judy", "Mallory", "Niaj", "Olivia", "Peggy", "Rupert", "Sybil", "Trent", "Victor", "Walter" };
+    private static final String[] ROLES = { "Engineer", "Designer", "Product Manager", "Tester", "Analyst",
+            "Team Lead", "Director" };
+
+    public final int projects;
+    public final int individuals;
+    public final int meetings;
+    public final int attendees;
+    public final long seed;
+
+    public DataGenerator(int projects, int individuals, int meetings) {
+        this(projects, individuals, meetings, DEFAULT_ATTENDEES, DEFAULT_SEED);
+    }
+
+    public DataGenerator(int projects, int individuals, int meetings, int attendees, long seed) {
+        this.projects = projects;
+        this.individuals = individuals;
+        this.meetings = meetings;
+        this.attendees = Math.min(attendees, individuals);
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.out.println("Usage: java DataGenerator <folder> <projects> <individuals> <meetings> [attendees] [seed]");
+            return;
+        }
+        DataGenerator generator = new DataGenerator(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+                args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_ATTENDEES, args.length > 5 ? Long.parseLong(args[5]) : DEFAULT_SEED);
+        long started = System.nanoTime();
+        List<UUID> projectIds = generator.write(new File(args[0]));
+        System.out.println("Wrote " + projectIds.size() + " projects to " + args[0] + " in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+    }
+
+    /*
+     * Writes every project to the given folder, returning their ids in the order
+     * they were written.
+     */
+    public List<UUID> write(File folder) throws IOException {
+        folder.mkdirs();
+        FileManager fileManager = new FileManager(folder.getPath(), 1);
+        Random random = new Random(seed);
+        List<UUID> projectIds = new ArrayList<>(projects);
+        for (int i = 0; i < projects; i++) {
+            Project project = generateProject(random);
+            fileManager.createProjectFolderStructure(project.id);
+            fileManager.createProjectConfigFile(project);
+            for (Individual individual : project.individuals) {
+                fileManager.createIndividualFile(project, individual);
+            }
+            for (Meeting meeting : project.meetings) {
+                fileManager.createMeetingFile(project, meeting);
+            }
+            projectIds.add(project.id);
+        }
+        return projectIds;
+    }
+
+    /*
+     * Returns the next project, with its individuals and meetings, without
+     * writing anything.
+     */
+    public Project generateProject(Random random) {
+        Project project = new Project();
+        project.id = uuid(random);
+        project.title = phrase(random, 3);
+        project.goal = phrase(random, 8);
+        project.startDate = date(random);
+        for (int i = 0; i < individuals; i++) {
+            project.individuals.add(generateIndividual(random));
+        }
+        for (int i = 0; i < meetings; i++) {
+            project.meetings.add(generateMeeting(random, project.individuals));
+        }
+        return project;
+    }
+
+    public Individual generateIndividual(Random random) {
+        Individual individual = new Individual();
+        individual.id = uuid(random);
+        individual.name = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + (char) ('A' + random.nextInt(26)) + ".";
+        individual.role = ROLES[random.nextInt(ROLES.length)];
+        return individual;
+    }
+
+    public Meeting generateMeeting(Random random, List<Individual> candidates) {
+        Meeting meeting = new Meeting();
+        meeting.id = uuid(random);
+        meeting.title = phrase(random, 2);
+        meeting.date = date(random);
+        meeting.summary = phrase(random, 20);
+        int first = candidates.isEmpty() ? 0 : random.nextInt(candidates.size());
+        for (int i = 0; i < attendees && i < candidates.size(); i++) {
+            meeting.attendees.add(candidates.get((first + i) % candidates.size()));
+        }
+        return meeting;
+    }
+
+    private static UUID uuid(Random random) {
+        // Version 4 and IETF variant bits, so the ids look like any other random UUID
+        long most = (random.nextLong() & ~0xf000L) | 0x4000L;
+        long least = (random.nextLong() & ~(0x3L << 62)) | (0x2L << 62);
+        return new UUID(most, least);
+    }
+
+    private static String phrase(Random random, int words) {
+        StringBuilder phrase = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            phrase.append(i == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : " " + word);
+        }
+        return phrase.toString();
+    }
+
+    private static Date date(Random random) {
+        Calendar calendar = new GregorianCalendar(2020, Calendar.JANUARY, 1);
+        calendar.add(Calendar.DAY_OF_YEAR, random.nextInt(6 * 365));
+        return calendar.getTime();
+    }
+}
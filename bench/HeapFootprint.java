@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/*
+ * Measures how much heap a loaded project takes per meeting, as read by
+ * FileManager and after being converted to a CompactProject. Projects are
+ * written by DataGenerator to a temporary folder and loaded back, so the
+ * figures include the strings and dates FileManager creates for each file.
+ *
+ * The heap in use is sampled after repeated garbage collections before the
+ * projects are loaded and again while each model holds them; the difference is
+ * what they retain. Prints one JSON line per model.
+ *
+ * Usage: java HeapFootprint [projects] [individuals] [meetings] [attendees]
+ */
+public class HeapFootprint {
+
+    public static void main(String[] args) throws IOException {
+        int projects = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int individuals = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int meetings = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int attendees = args.length > 3 ? Integer.parseInt(args[3]) : DataGenerator.DEFAULT_ATTENDEES;
+
+        Path folder = Files.createTempDirectory("heap-footprint");
+        try {
+            new DataGenerator(projects, individuals, meetings, attendees, DataGenerator.DEFAULT_SEED).write(folder.toFile());
+            FileManager fileManager = new FileManager(folder.toString(), 1);
+            long totalMeetings = (long) projects * meetings;
+
+            long baseline = usedHeap();
+            List<Project> loaded = fileManager.getProjects();
+            print("Project", projects, individuals, meetings, attendees, usedHeap() - baseline, totalMeetings);
+
+            List<CompactProject> compact = compact(loaded);
+            loaded = null;
+            print("CompactProject", projects, individuals, meetings, attendees, usedHeap() - baseline, totalMeetings);
+            Reference.reachabilityFence(compact);
+        } finally {
+            try (Stream<Path> paths = Files.walk(folder)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    /*
+     * Converts the projects in a method of its own, so no iterator over the loaded
+     * list is left in main's frame to keep it reachable.
+     */
+    private static List<CompactProject> compact(List<Project> projects) {
+        List<CompactProject> compact = new ArrayList<>(projects.size());
+        for (Project project : projects) {
+            compact.add(CompactProject.of(project));
+        }
+        return compact;
+    }
+
+    /*
+     * Returns the heap in use by reachable objects once the garbage collector has
+     * settled.
+     */
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+
+    private static void print(String model, int projects, int individuals, int meetings, int attendees, long retained, long totalMeetings) {
+        System.out.println(String.format(Locale.ROOT,
+                "{\"model\":\"%s\",\"projects\":%d,\"individuals\":%d,\"meetings\":%d,\"attendees\":%d,\"retainedBytes\":%d,\"bytesPerMeeting\":%.1f}",
+                model, projects, individuals, meetings, attendees, retained, (double) retained / totalMeetings));
+    }
+}
@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/*
+ * Measures what keeping project history costs and how fast old versions are
+ * read. A projects folder is generated in a temporary folder, then the same
+ * number of edits is made to its projects twice, once through a file manager
+ * without history and once through one with it. Each edit renames an
+ * individual, changes a meeting's summary or adds a meeting. The first edit
+ * to each project with history also has the whole project recorded, in the
+ * background, so the first round of edits is timed and sized on its own.
+ *
+ * The size of the history logs is compared with the size of the projects
+ * folder, which is what a full copy per version would cost, and openAsOf is
+ * timed for the oldest, middle and latest versions of a project, both on a
+ * history that has to replay the log first and on one that has already read
+ * it, averaged over several runs. Snapshots are turned off so reads use the
+ * projects folder.
+ *
+ * Prints one JSON line per measurement.
+ *
+ * Usage: java HistoryBenchmark [projects] [edits per project] [individuals per project] [meetings per project]
+ */
+public class HistoryBenchmark {
+
+    private static final int WARMUP_RUNS = 20;
+    private static final int TIMED_RUNS = 50;
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws IOException {
+        int projects = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int edits = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int individuals = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int meetings = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        System.setProperty("projects.snapshot", "false");
+
+        Path folder = Files.createTempDirectory("history-benchmark");
+        try {
+            new DataGenerator(projects, individuals, meetings).write(folder.toFile());
+            FileManager plain = new FileManager(folder.toString(), 1);
+            FileManager withHistory = new FileManager(folder.toString(), 1);
+            ProjectHistory history = ProjectHistory.open(withHistory);
+            withHistory.addWriteListener(history);
+            List<Project> loaded = plain.getProjects();
+
+            Random random = new Random(DataGenerator.DEFAULT_SEED);
+            edit("none", plain, loaded, 0, edits, random);
+            edit("history.first", withHistory, loaded, 0, 1, random);
+            for (Project project : loaded) {
+                history.versionTimes(project.id); // Waits for the whole project to be recorded
+            }
+            long baselineBytes = size(folder.resolve(ProjectHistory.HISTORY_FOLDER_NAME));
+            edit("history", withHistory, loaded, 1, edits, random);
+
+            long historyBytes = size(folder.resolve(ProjectHistory.HISTORY_FOLDER_NAME));
+            long folderBytes = size(folder) - historyBytes;
+            UUID projectId = loaded.get(0).id;
+            List<Long> times = history.versionTimes(projectId);
+            System.out.println(String.format(Locale.ROOT,
+                    "{\"benchmark\":\"history.disk\",\"projects\":%d,\"edits\":%d,\"folderBytes\":%d,\"historyBytes\":%d,\"baselineBytes\":%d,"
+                            + "\"bytesPerEdit\":%.1f,\"versionsPerProject\":%d,\"fullCopyBytes\":%d}",
+                    projects, (long) projects * edits, folderBytes, historyBytes, baselineBytes,
+                    (double) (historyBytes - baselineBytes) / ((long) projects * Math.max(1, edits - 1)), times.size(), folderBytes * times.size()));
+
+            long[] points = { times.get(0), times.get(times.size() / 2), times.get(times.size() - 1) };
+            String[] names = { "oldest", "middle", "latest" };
+            for (int i = 0; i < points.length; i++) {
+                long started = System.nanoTime();
+                sink = new ProjectHistory(withHistory).openAsOf(projectId, points[i]);
+                double coldMs = (System.nanoTime() - started) / 1e6;
+                for (int run = 0; run < WARMUP_RUNS; run++) {
+                    sink = history.openAsOf(projectId, points[i]);
+                }
+                started = System.nanoTime();
+                for (int run = 0; run < TIMED_RUNS; run++) {
+                    sink = history.openAsOf(projectId, points[i]);
+                }
+                double warmMs = (System.nanoTime() - started) / 1e6 / TIMED_RUNS;
+                System.out.println(String.format(Locale.ROOT, "{\"benchmark\":\"history.openAsOf\",\"version\":\"%s\",\"coldMs\":%.3f,\"warmMs\":%.3f}",
+                        names[i], coldMs, warmMs));
+            }
+            long started = System.nanoTime();
+            sink = withHistory.getProject(projectId);
+            System.out.println(String.format(Locale.ROOT, "{\"benchmark\":\"history.getProject\",\"ms\":%.3f}", (System.nanoTime() - started) / 1e6));
+        } finally {
+            try (Stream<Path> paths = Files.walk(folder)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    /*
+     * Makes one edit to every project per round, for the given rounds, and
+     * prints how many edits were made per second.
+     */
+    private static void edit(String history, FileManager fileManager, List<Project> projects, int fromRound, int toRound, Random random) throws IOException {
+        DataGenerator generator = new DataGenerator(1, 0, 0, DataGenerator.DEFAULT_ATTENDEES, DataGenerator.DEFAULT_SEED);
+        long started = System.nanoTime();
+        for (int round = fromRound; round < toRound; round++) {
+            for (Project project : projects) {
+                switch (round % 3) {
+                    case 0:
+                        Individual individual = project.individuals.get(random.nextInt(project.individuals.size()));
+                        individual.name = individual.name + "'";
+                        fileManager.createIndividualFile(project, individual);
+                        break;
+                    case 1:
+                        Meeting meeting = project.meetings.get(random.nextInt(project.meetings.size()));
+                        meeting.summary = "Revised " + round + ": " + meeting.summary;
+                        fileManager.createMeetingFile(project, meeting);
+                        break;
+                    default:
+                        Meeting added = generator.generateMeeting(random, project.individuals);
+                        fileManager.createMeetingFile(project, added);
+                        project.meetings.add(added);
+                        break;
+                }
+            }
+        }
+        long count = (long) projects.size() * (toRound - fromRound);
+        System.out.println(String.format(Locale.ROOT, "{\"benchmark\":\"history.edit\",\"history\":\"%s\",\"edits\":%d,\"editsPerSecond\":%.0f}",
+                history, count, count / ((System.nanoTime() - started) / 1e9)));
+    }
+
+    private static long size(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        long bytes = 0;
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path file : paths.filter(Files::isRegularFile).toList()) {
+                bytes += Files.size(file);
+            }
+        }
+        return bytes;
+    }
+}
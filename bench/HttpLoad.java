@@ -0,0 +1,194 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/*
+ * Load tests ProjectServer over localhost. Writes a generated set of projects,
+ * starts a server on them, then has client threads request project pages,
+ * projects, meeting pages and single meetings at random for a fixed time. Every
+ * other request repeats one already made with the ETag it returned, which the
+ * server should answer with 304 Not Modified.
+ *
+ * Prints one JSON line with the request rate, the number of 304s and errors,
+ * and how many projects the server's cache had to read from disk while the
+ * clients ran, which should be none once it has been warmed up.
+ *
+ * Usage: java HttpLoad [options]
+ *     --projects 50         projects written
+ *     --individuals 10      individuals per project
+ *     --meetings 50         meetings per project
+ *     --clients 8           client threads
+ *     --seconds 10          length of the measured run, after as long again warming up
+ */
+public class HttpLoad {
+
+    public static void main(String[] args) throws Exception {
+        int projectCount = 50;
+        int individuals = 10;
+        int meetings = 50;
+        int clients = 8;
+        int seconds = 10;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            int value = Integer.parseInt(args[i + 1]);
+            switch (args[i]) {
+                case "--projects":
+                    projectCount = value;
+                    break;
+                case "--individuals":
+                    individuals = value;
+                    break;
+                case "--meetings":
+                    meetings = value;
+                    break;
+                case "--clients":
+                    clients = value;
+                    break;
+                case "--seconds":
+                    seconds = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        // Keep one connection open per client rather than the default five
+        System.setProperty("http.maxConnections", String.valueOf(clients));
+
+        Path folder = Files.createTempDirectory("http-load");
+        ProjectServer server = null;
+        try {
+            new DataGenerator(projectCount, individuals, meetings).write(folder.toFile());
+            FileManager fileManager = new FileManager(folder.toString(), 1);
+            List<Project> projects = fileManager.getProjects();
+            server = new ProjectServer(fileManager, 0);
+            server.start();
+
+            List<String> paths = paths(projects);
+            String base = "http://localhost:" + server.getPort();
+            run(base, paths, clients, seconds);
+            long missesBefore = server.getCache().getMisses();
+            Result result = run(base, paths, clients, seconds);
+            long misses = server.getCache().getMisses() - missesBefore;
+
+            System.out.println(String.format(Locale.ROOT,
+                    "{\"benchmark\":\"http\",\"clients\":%d,\"virtualThreads\":%b,\"requests\":%d,\"requestsPerSecond\":%.0f,"
+                            + "\"notModified\":%d,\"errors\":%d,\"projectsReadFromDisk\":%d}",
+                    clients, server.usesVirtualThreads(), result.requests, result.requests / (result.nanos / 1e9),
+                    result.notModified, result.errors, misses));
+        } finally {
+            if (server != null) {
+                server.stop(0);
+            }
+            try (Stream<Path> paths = Files.walk(folder)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    /*
+     * Returns the paths the clients pick from: the pages of projects, and each
+     * project, its first page of meetings and its first meeting.
+     */
+    private static List<String> paths(List<Project> projects) {
+        List<String> paths = new ArrayList<>();
+        for (int page = 0; page * ProjectServer.DEFAULT_PAGE_SIZE < projects.size(); page++) {
+            paths.add("/projects?page=" + page);
+        }
+        for (Project project : projects) {
+            paths.add("/projects/" + project.id);
+            paths.add("/projects/" + project.id + "/meetings?page=0&size=10");
+            if (!project.meetings.isEmpty()) {
+                paths.add("/projects/" + project.id + "/meetings/" + project.meetings.get(0).id);
+            }
+        }
+        return paths;
+    }
+
+    private static Result run(String base, List<String> paths, int clients, int seconds) throws InterruptedException {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        Client[] threads = new Client[clients];
+        long started = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            threads[i] = new Client(base, paths, deadline, i);
+            threads[i].start();
+        }
+        Result result = new Result();
+        for (Client client : threads) {
+            client.join();
+            result.requests += client.requests;
+            result.notModified += client.notModified;
+            result.errors += client.errors;
+        }
+        result.nanos = System.nanoTime() - started;
+        return result;
+    }
+
+    private static class Result {
+        long requests;
+        long notModified;
+        long errors;
+        long nanos;
+    }
+
+    private static class Client extends Thread {
+        final String base;
+        final List<String> paths;
+        final long deadline;
+        final Random random;
+        final Map<String, String> etags = new HashMap<>();
+        long requests;
+        long notModified;
+        long errors;
+
+        Client(String base, List<String> paths, long deadline, long seed) {
+            this.base = base;
+            this.paths = paths;
+            this.deadline = deadline;
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[8192];
+            while (System.nanoTime() < deadline) {
+                String path = paths.get(random.nextInt(paths.size()));
+                boolean conditional = requests % 2 == 1 && etags.containsKey(path);
+                try {
+                    HttpURLConnection connection = (HttpURLConnection) new URL(base + path).openConnection();
+                    if (conditional) {
+                        connection.setRequestProperty("If-None-Match", etags.get(path));
+                    }
+                    int status = connection.getResponseCode();
+                    if (status == 200) {
+                        etags.put(path, connection.getHeaderField("ETag"));
+                        // Read to the end so the connection is kept open for the next request
+                        try (InputStream body = connection.getInputStream()) {
+                            while (body.read(buffer) != -1) {
+                                // Discarded
+                            }
+                        }
+                    } else if (status == 304 && conditional) {
+                        notModified++;
+                    } else {
+                        errors++;
+                    }
+                } catch (IOException e) {
+                    errors++;
+                }
+                requests++;
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/*
+ * Shows how the time to load a project grows with its size. One project is
+ * generated at each step, every step doubling the individuals and meetings of
+ * the one before, and FileManager.getProject is timed on each, averaged over
+ * several runs after a warmup. Snapshots are turned off so every load parses
+ * the project's files.
+ *
+ * Loading resolves each meeting's attendees against the project's individuals
+ * once they are read, so the time per individual and meeting should stay about
+ * the same from step to step, and each doubling should roughly double the load
+ * time. A load that compared every meeting with every individual would instead
+ * show the time per entity doubling too.
+ *
+ * Prints one JSON line per step, then one comparing the last step with the
+ * first.
+ *
+ * Usage: java LoadScaling [steps] [individuals at first step] [meetings at first step]
+ */
+public class LoadScaling {
+
+    private static final int WARMUP_RUNS = 10;
+    private static final int TIMED_RUNS = 10;
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws IOException {
+        int steps = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+        int individuals = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int meetings = args.length > 2 ? Integer.parseInt(args[2]) : 250;
+        System.setProperty("projects.snapshot", "false");
+
+        double firstNanosPerEntity = 0;
+        double lastNanosPerEntity = 0;
+        double previousMs = 0;
+        for (int step = 0; step < steps; step++) {
+            int stepIndividuals = individuals << step;
+            int stepMeetings = meetings << step;
+            Path folder = Files.createTempDirectory("load-scaling");
+            try {
+                UUID projectId = new DataGenerator(1, stepIndividuals, stepMeetings).write(folder.toFile()).get(0);
+                FileManager fileManager = new FileManager(folder.toString(), 1);
+                for (int run = 0; run < WARMUP_RUNS; run++) {
+                    sink = fileManager.getProject(projectId);
+                }
+                long started = System.nanoTime();
+                for (int run = 0; run < TIMED_RUNS; run++) {
+                    sink = fileManager.getProject(projectId);
+                }
+                double ms = (System.nanoTime() - started) / 1e6 / TIMED_RUNS;
+                double nanosPerEntity = ms * 1e6 / (stepIndividuals + stepMeetings);
+                if (step == 0) {
+                    firstNanosPerEntity = nanosPerEntity;
+                }
+                lastNanosPerEntity = nanosPerEntity;
+                System.out.println(String.format(Locale.ROOT,
+                        "{\"benchmark\":\"load.scaling\",\"individuals\":%d,\"meetings\":%d,\"ms\":%.3f,\"nanosPerEntity\":%.1f,\"growth\":%s}",
+                        stepIndividuals, stepMeetings, ms, nanosPerEntity, step == 0 ? "null" : String.format(Locale.ROOT, "%.2f", ms / previousMs)));
+                previousMs = ms;
+            } finally {
+                delete(folder);
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "{\"benchmark\":\"load.scaling.summary\",\"sizeRatio\":%d,\"perEntityRatio\":%.2f}",
+                1 << (steps - 1), lastNanosPerEntity / firstNanosPerEntity));
+    }
+
+    private static void delete(Path folder) throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            List<Path> sorted = paths.sorted(Comparator.reverseOrder()).toList();
+            for (Path path : sorted) {
+                Files.delete(path);
+            }
+        }
+    }
+}
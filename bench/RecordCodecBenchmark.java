@@ -0,0 +1,175 @@
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.UUID;
+
+import com.sun.management.ThreadMXBean;
+
+/*
+ * Compares how fast meeting, individual and project files are parsed by
+ * RecordCodec and by the Scanner and split(":") parser it replaced, which is
+ * kept here as it was. Files are generated and encoded up front, so only
+ * parsing is timed, not reading from disk.
+ *
+ * Each parser is run for a number of warmup rounds, which are thrown away, and
+ * then measured rounds, each parsing every file once. Prints one JSON line per
+ * parser and file kind with the files parsed per second and the bytes
+ * allocated per file.
+ *
+ * Usage: java RecordCodecBenchmark [files] [warmup rounds] [measured rounds]
+ */
+public class RecordCodecBenchmark {
+
+    private static final String[] PROJECT_KEYS = { "id", "title", "goal", "startDate" };
+    private static final String[] INDIVIDUAL_KEYS = { "id", "name", "role" };
+    private static final String[] MEETING_KEYS = { "id", "title", "date", "summary", "attendees" };
+
+    private static volatile Object sink;
+
+    private interface Parser {
+        Object parse(byte[] file);
+    }
+
+    public static void main(String[] args) {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int warmup = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        DataGenerator generator = new DataGenerator(1, 10, 0, 3, DataGenerator.DEFAULT_SEED);
+        Random random = new Random(DataGenerator.DEFAULT_SEED);
+        List<byte[]> projects = new ArrayList<>();
+        List<byte[]> individuals = new ArrayList<>();
+        List<byte[]> meetings = new ArrayList<>();
+        while (meetings.size() < files) {
+            Project project = generator.generateProject(random);
+            projects.add(encode(RecordCodec.format(PROJECT_KEYS, project.id.toString(), project.title, project.goal, Dates.format(project.startDate))));
+            for (Individual individual : project.individuals) {
+                individuals.add(encode(RecordCodec.format(INDIVIDUAL_KEYS, individual.id.toString(), individual.name, individual.role)));
+            }
+            for (int i = 0; i < 10; i++) {
+                Meeting meeting = generator.generateMeeting(random, project.individuals);
+                List<String> attendeeIds = new ArrayList<>();
+                for (Individual attendee : meeting.attendees) {
+                    attendeeIds.add(attendee.id.toString());
+                }
+                meetings.add(encode(RecordCodec.format(MEETING_KEYS, meeting.id.toString(), meeting.title, Dates.format(meeting.date),
+                        meeting.summary, String.join(",", attendeeIds))));
+            }
+        }
+
+        run("meeting", meetings, "scanner", RecordCodecBenchmark::scannerMeeting, warmup, rounds);
+        run("meeting", meetings, "codec", RecordCodecBenchmark::codecMeeting, warmup, rounds);
+        run("individual", individuals, "scanner", RecordCodecBenchmark::scannerIndividual, warmup, rounds);
+        run("individual", individuals, "codec", RecordCodecBenchmark::codecIndividual, warmup, rounds);
+        run("project", projects, "scanner", RecordCodecBenchmark::scannerProject, warmup, rounds);
+        run("project", projects, "codec", RecordCodecBenchmark::codecProject, warmup, rounds);
+    }
+
+    private static byte[] encode(String record) {
+        return record.getBytes(Charset.defaultCharset());
+    }
+
+    private static void run(String kind, List<byte[]> files, String parserName, Parser parser, int warmup, int rounds) {
+        for (int i = 0; i < warmup; i++) {
+            parseAll(files, parser);
+        }
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long started = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            parseAll(files, parser);
+        }
+        long nanos = System.nanoTime() - started;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+        long parsed = (long) files.size() * rounds;
+        System.out.println(String.format(Locale.ROOT,
+                "{\"benchmark\":\"parse.%s.%s\",\"files\":%d,\"rounds\":%d,\"filesPerSecond\":%.0f,\"nsPerFile\":%.0f,\"bytesAllocatedPerFile\":%d}",
+                kind, parserName, files.size(), rounds, parsed / (nanos / 1e9), (double) nanos / parsed, allocated / parsed));
+    }
+
+    private static void parseAll(List<byte[]> files, Parser parser) {
+        for (byte[] file : files) {
+            sink = parser.parse(file);
+        }
+    }
+
+    /*
+     * The parsers as they were before RecordCodec, reading from a Scanner over
+     * the file's text as new Scanner(File) did.
+     */
+    private static Object scannerMeeting(byte[] file) {
+        Scanner scanner = new Scanner(new String(file, Charset.defaultCharset()));
+        Meeting meeting = new Meeting();
+        meeting.id = UUID.fromString(scanner.nextLine().split(":")[1]);
+        meeting.title = scanner.nextLine().split(":")[1];
+        meeting.date = Dates.parse(scanner.nextLine().split(":")[1]);
+        meeting.summary = scanner.nextLine().split(":")[1];
+        String attendees = scanner.nextLine().split(":")[1];
+        scanner.close();
+        for (String attendeeId : attendees.split(",")) {
+            sink = UUID.fromString(attendeeId.trim());
+        }
+        return meeting;
+    }
+
+    private static Object scannerIndividual(byte[] file) {
+        Scanner scanner = new Scanner(new String(file, Charset.defaultCharset()));
+        Individual individual = new Individual();
+        individual.id = UUID.fromString(scanner.nextLine().split(":")[1]);
+        individual.name = scanner.nextLine().split(":")[1];
+        individual.role = scanner.nextLine().split(":")[1].intern();
+        scanner.close();
+        return individual;
+    }
+
+    private static Object scannerProject(byte[] file) {
+        Scanner scanner = new Scanner(new String(file, Charset.defaultCharset()));
+        Project project = new Project();
+        project.id = UUID.fromString(scanner.nextLine().split(":")[1]);
+        project.title = scanner.nextLine().split(":")[1];
+        project.goal = scanner.nextLine().split(":")[1];
+        project.startDate = Dates.parse(scanner.nextLine().split(":")[1]);
+        scanner.close();
+        return project;
+    }
+
+    /*
+     * The same work done with RecordCodec, as FileManager now does it.
+     */
+    private static Object codecMeeting(byte[] file) {
+        String[] values = RecordCodec.parse(file, file.length, MEETING_KEYS);
+        Meeting meeting = new Meeting();
+        meeting.id = UUID.fromString(values[0]);
+        meeting.title = values[1];
+        meeting.date = Dates.parse(values[2]);
+        meeting.summary = values[3];
+        for (String attendeeId : values[4].split(",")) {
+            sink = UUID.fromString(attendeeId.trim());
+        }
+        return meeting;
+    }
+
+    private static Object codecIndividual(byte[] file) {
+        String[] values = RecordCodec.parse(file, file.length, INDIVIDUAL_KEYS);
+        Individual individual = new Individual();
+        individual.id = UUID.fromString(values[0]);
+        individual.name = values[1];
+        individual.role = values[2].intern();
+        return individual;
+    }
+
+    private static Object codecProject(byte[] file) {
+        String[] values = RecordCodec.parse(file, file.length, PROJECT_KEYS);
+        Project project = new Project();
+        project.id = UUID.fromString(values[0]);
+        project.title = values[1];
+        project.goal = values[2];
+        project.startDate = Dates.parse(values[3]);
+        return project;
+    }
+}
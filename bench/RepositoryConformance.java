@@ -0,0 +1,558 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/*
+ * Checks that every ProjectRepository behaves the same way, and measures how
+ * fast each one is, so a new store can be compared with the ones it replaces.
+ *
+ * Each check runs against a new, empty repository: what is written is read
+ * back whole, dates are kept to the day, text survives any characters the
+ * platform charset holds, objects written or read are not shared with the
+ * store, meetings skip attendees that are not individuals of their project,
+ * projects are listed in the order their names sort, and writers on many
+ * threads lose nothing. A failed check prints a line naming it and the program
+ * exits with status 1.
+ *
+ * Throughput is then measured for creating projects, adding individuals and
+ * batches of meetings, reading projects back one at a time and all together,
+ * and a mix of writes and reads from many threads.
+ *
+ * Prints one JSON line per failed check, per backend checked and per
+ * measurement.
+ *
+ * Usage: java RepositoryConformance [options]
+ *     --backends memory,files,journal   repositories to check and measure
+ *     --projects 200                    projects written for each measurement
+ *     --threads 4                       threads for the concurrent check and mix
+ *     --operations 400                  operations per thread in the mix
+ */
+public class RepositoryConformance {
+
+    private static final int INDIVIDUALS = 5;
+    private static final int MEETINGS = 10;
+    private static final int ATTENDEES = 3;
+    private static final int BATCH_SIZE = 5;
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws Exception {
+        String backends = "memory,files,journal";
+        int projectCount = 200;
+        int threads = 4;
+        int operations = 400;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--backends":
+                    backends = args[i + 1];
+                    break;
+                case "--projects":
+                    projectCount = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--operations":
+                    operations = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        System.setProperty("projects.snapshot", "false");
+
+        int failures = 0;
+        for (String backend : backends.split(",")) {
+            failures += check(backend.trim(), threads);
+            measure(backend.trim(), projectCount, threads, operations);
+        }
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /*
+     * Opens a new, empty repository of the given kind. Stores on disk use a new
+     * temporary folder, removed again when the store is closed.
+     */
+    private static Store open(String backend) throws IOException {
+        if (backend.equals("memory")) {
+            return new Store(new InMemoryProjectRepository(), null, null);
+        }
+        Path folder = Files.createTempDirectory("repository-conformance");
+        switch (backend) {
+            case "files":
+                return new Store(new LockingProjectRepository(new FileManager(folder.toString(), 1)), folder, null);
+            case "journal":
+                JournalStorage journal = new JournalStorage(folder.resolve(JournalStorage.DEFAULT_JOURNAL_PATH).toFile());
+                return new Store(new LockingProjectRepository(new FileManager(folder.toString(), 1, journal)), folder, journal);
+            default:
+                delete(folder);
+                throw new IllegalArgumentException("Unknown backend " + backend);
+        }
+    }
+
+    private static class Store implements Closeable {
+        final ProjectRepository repository;
+        final Path folder;
+        final Closeable storage;
+
+        Store(ProjectRepository repository, Path folder, Closeable storage) {
+            this.repository = repository;
+            this.folder = folder;
+            this.storage = storage;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (storage != null) {
+                storage.close();
+            }
+            if (folder != null) {
+                delete(folder);
+            }
+        }
+    }
+
+    private interface Check {
+        void run(ProjectRepository repository) throws Exception;
+    }
+
+    /*
+     * Runs every check against the backend and returns the number that failed.
+     */
+    private static int check(String backend, int threads) throws IOException {
+        List<String> names = List.of("empty", "createProject", "updateProject", "addIndividuals", "addMeetings",
+                "replace", "unknownAttendee", "copies", "text", "order", "concurrentWrites");
+        List<Check> checks = List.of(
+                RepositoryConformance::checkEmpty,
+                RepositoryConformance::checkCreateProject,
+                RepositoryConformance::checkUpdateProject,
+                RepositoryConformance::checkAddIndividuals,
+                RepositoryConformance::checkAddMeetings,
+                RepositoryConformance::checkReplace,
+                RepositoryConformance::checkUnknownAttendee,
+                RepositoryConformance::checkCopies,
+                RepositoryConformance::checkText,
+                RepositoryConformance::checkOrder,
+                repository -> checkConcurrentWrites(repository, threads));
+
+        int failed = 0;
+        for (int i = 0; i < checks.size(); i++) {
+            try (Store store = open(backend)) {
+                checks.get(i).run(store.repository);
+            } catch (Exception | AssertionError e) {
+                failed++;
+                System.out.println(String.format(Locale.ROOT, "{\"benchmark\":\"conformance\",\"backend\":\"%s\",\"check\":\"%s\",\"ok\":false,\"error\":\"%s\"}",
+                        backend, names.get(i), escape(String.valueOf(e))));
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "{\"benchmark\":\"conformance\",\"backend\":\"%s\",\"checks\":%d,\"failed\":%d}",
+                backend, checks.size(), failed));
+        return failed;
+    }
+
+    private static void checkEmpty(ProjectRepository repository) {
+        expect(repository.getProjectIds().isEmpty(), "ids of an empty repository");
+        expect(repository.getProjects().isEmpty(), "projects of an empty repository");
+        expect(repository.countProjects() == 0, "count of an empty repository");
+        UUID missing = UUID.randomUUID();
+        expect(repository.getProject(missing) == null, "missing project");
+        expect(repository.getMeeting(missing, UUID.randomUUID()) == null, "meeting of a missing project");
+        expect(repository.getIndividual(missing, UUID.randomUUID()) == null, "individual of a missing project");
+    }
+
+    private static void checkCreateProject(ProjectRepository repository) throws IOException {
+        Project project = project("Bridge", "Cross the river");
+        project.startDate = new Date(Dates.toDate(19000).getTime() + 13 * 3600_000L + 1234);
+        repository.createProject(project);
+
+        Project read = repository.getProject(project.id);
+        expect(read != null, "created project is read back");
+        expect(project.title.equals(read.title) && project.goal.equals(read.goal), "title and goal");
+        expect(Dates.toEpochDay(read.startDate) == 19000, "start date kept to the day");
+        expect(read.startDate.equals(Dates.toDate(19000)), "start date read back as the start of its day");
+        expect(read.individuals.isEmpty() && read.meetings.isEmpty(), "new project is empty");
+        expect(repository.getProjectIds().equals(List.of(project.id)), "created project is listed");
+        expect(repository.countProjects() == 1, "created project is counted");
+    }
+
+    private static void checkUpdateProject(ProjectRepository repository) throws IOException {
+        Project project = project("Before", "Old goal");
+        repository.createProject(project);
+        Individual individual = individual("Ada", "Lead");
+        repository.addIndividual(project, individual);
+
+        project.title = "After";
+        project.goal = "New goal";
+        project.startDate = Dates.toDate(20000);
+        repository.updateProject(project);
+        Project read = repository.getProject(project.id);
+        expect(read.title.equals("After") && read.goal.equals("New goal"), "updated title and goal");
+        expect(Dates.toEpochDay(read.startDate) == 20000, "updated start date");
+        expect(read.individuals.size() == 1, "update keeps individuals");
+        expect(repository.countProjects() == 1, "update adds no project");
+    }
+
+    private static void checkAddIndividuals(ProjectRepository repository) throws IOException {
+        Project project = project("People", "Hold individuals");
+        repository.createProject(project);
+        Individual first = individual("Ada", "Lead");
+        repository.addIndividual(project, first);
+        List<Individual> more = List.of(individual("Grace", "Engineer"), individual("Alan", "Analyst"));
+        repository.addIndividuals(project, more);
+
+        expect(project.individuals.size() == 3, "individuals added to the project passed in");
+        Project read = repository.getProject(project.id);
+        expect(read.individuals.size() == 3, "individuals read back");
+        for (Individual individual : project.individuals) {
+            Individual stored = repository.getIndividual(project.id, individual.id);
+            expect(stored != null && stored.name.equals(individual.name) && stored.role.equals(individual.role),
+                    "individual " + individual.name + " read back");
+        }
+        expect(repository.getIndividual(project.id, UUID.randomUUID()) == null, "missing individual");
+    }
+
+    private static void checkAddMeetings(ProjectRepository repository) throws IOException {
+        Project project = project("Meetings", "Hold meetings");
+        repository.createProject(project);
+        Individual ada = individual("Ada", "Lead");
+        Individual grace = individual("Grace", "Engineer");
+        repository.addIndividuals(project, List.of(ada, grace));
+
+        Meeting kickoff = meeting("Kickoff", 19500, ada, grace);
+        repository.addMeeting(project, kickoff);
+        repository.addMeetings(project, List.of(meeting("Review", 19510, grace), meeting("Retro", 19520)));
+        expect(project.meetings.size() == 3, "meetings added to the project passed in");
+
+        Meeting read = repository.getMeeting(project.id, kickoff.id);
+        expect(read != null, "meeting read back");
+        expect(read.title.equals("Kickoff") && read.summary.equals(kickoff.summary), "meeting title and summary");
+        expect(Dates.toEpochDay(read.date) == 19500, "meeting date");
+        expect(read.attendees.size() == 2 && read.attendees.get(0).id.equals(ada.id) && read.attendees.get(1).id.equals(grace.id),
+                "attendees in the order written");
+        expect(read.attendees.get(0).name.equals("Ada"), "attendees read as whole individuals");
+        expect(repository.getProject(project.id).meetings.size() == 3, "meetings in the loaded project");
+        expect(repository.getMeeting(project.id, UUID.randomUUID()) == null, "missing meeting");
+    }
+
+    private static void checkReplace(ProjectRepository repository) throws IOException {
+        Project project = project("Replace", "Write twice");
+        repository.createProject(project);
+        Individual individual = individual("Ada", "Lead");
+        repository.addIndividual(project, individual);
+        Meeting meeting = meeting("First", 19500, individual);
+        repository.addMeeting(project, meeting);
+
+        Individual renamed = individual("Ada L.", "Director");
+        renamed.id = individual.id;
+        repository.addIndividual(project, renamed);
+        Meeting retitled = meeting("Second", 19501);
+        retitled.id = meeting.id;
+        repository.addMeeting(project, retitled);
+
+        Project read = repository.getProject(project.id);
+        expect(read.individuals.size() == 1 && read.individuals.get(0).name.equals("Ada L."), "individual replaced by id");
+        expect(read.meetings.size() == 1 && read.meetings.get(0).title.equals("Second"), "meeting replaced by id");
+        expect(read.meetings.get(0).attendees.isEmpty(), "replaced meeting has its new attendees");
+    }
+
+    private static void checkUnknownAttendee(ProjectRepository repository) throws IOException {
+        Project project = project("Strangers", "Meet outsiders");
+        repository.createProject(project);
+        Individual member = individual("Ada", "Lead");
+        repository.addIndividual(project, member);
+        Individual stranger = individual("Eve", "Visitor");
+        Meeting meeting = meeting("Open day", 19500, stranger, member);
+        repository.addMeeting(project, meeting);
+
+        Meeting read = repository.getMeeting(project.id, meeting.id);
+        expect(read.attendees.size() == 1 && read.attendees.get(0).id.equals(member.id), "unknown attendee skipped");
+    }
+
+    private static void checkCopies(ProjectRepository repository) throws IOException {
+        Project project = project("Copies", "Share nothing");
+        repository.createProject(project);
+        Individual individual = individual("Ada", "Lead");
+        repository.addIndividual(project, individual);
+        Meeting meeting = meeting("Kickoff", 19500, individual);
+        repository.addMeeting(project, meeting);
+
+        individual.name = "Changed";
+        meeting.title = "Changed";
+        meeting.attendees.clear();
+        project.title = "Changed";
+        Project read = repository.getProject(project.id);
+        expect(read.title.equals("Copies"), "later changes to a project are not stored");
+        expect(read.individuals.get(0).name.equals("Ada"), "later changes to an individual are not stored");
+        expect(read.meetings.get(0).title.equals("Kickoff") && read.meetings.get(0).attendees.size() == 1,
+                "later changes to a meeting are not stored");
+
+        read.title = "Changed";
+        read.individuals.get(0).name = "Changed";
+        read.meetings.get(0).attendees.clear();
+        read.individuals.clear();
+        Project again = repository.getProject(project.id);
+        expect(again.title.equals("Copies") && again.individuals.size() == 1, "changes to a read project are not stored");
+        expect(again.individuals.get(0).name.equals("Ada"), "changes to a read individual are not stored");
+        expect(again.meetings.get(0).attendees.size() == 1, "changes to a read meeting are not stored");
+        expect(repository.getIndividual(project.id, individual.id) != repository.getIndividual(project.id, individual.id),
+                "every read returns new objects");
+    }
+
+    private static void checkText(ProjectRepository repository) throws IOException {
+        String text = "a,b; \"quoted\" 'single' back\\slash\ttab\nsecond line\r\n\\n id:1 ::";
+        // Files are in the platform charset, so other characters are only checked where it can hold them
+        String unicode = " \u00dcn\u00efc\u00f8d\u00e9 \u2013 \u65e5\u672c\u8a9e \ud83d\ude80";
+        if (Charset.defaultCharset().newEncoder().canEncode(unicode)) {
+            text += unicode;
+        }
+        Project project = project(text, text);
+        repository.createProject(project);
+        Individual individual = individual(text, text);
+        repository.addIndividual(project, individual);
+        Meeting meeting = meeting(text, 19500, individual);
+        meeting.summary = text;
+        repository.addMeeting(project, meeting);
+
+        Project read = repository.getProject(project.id);
+        expect(read.title.equals(text) && read.goal.equals(text), "project text round-trip");
+        expect(read.individuals.get(0).name.equals(text) && read.individuals.get(0).role.equals(text), "individual text round-trip");
+        Meeting readMeeting = read.meetings.get(0);
+        expect(readMeeting.title.equals(text) && readMeeting.summary.equals(text), "meeting text round-trip");
+
+        Project blank = project("", "");
+        repository.createProject(blank);
+        Project readBlank = repository.getProject(blank.id);
+        expect(readBlank.title.equals("") && readBlank.goal.equals(""), "empty text round-trip");
+    }
+
+    private static void checkOrder(ProjectRepository repository) throws IOException {
+        List<UUID> expected = new ArrayList<>();
+        Random random = new Random(DataGenerator.DEFAULT_SEED);
+        for (int i = 0; i < 20; i++) {
+            Project project = project("Project " + i, "Sort");
+            // Ids whose halves are negative as signed longs, so sorting them as numbers would differ from their names
+            project.id = new UUID(random.nextLong(), random.nextLong());
+            repository.createProject(project);
+            expected.add(project.id);
+        }
+        expected.sort(Comparator.comparing(UUID::toString));
+        expect(repository.getProjectIds().equals(expected), "ids in the order their names sort");
+        List<UUID> loaded = new ArrayList<>();
+        for (Project project : repository.getProjects()) {
+            loaded.add(project.id);
+        }
+        expect(loaded.equals(expected), "projects in the same order as their ids");
+        expect(repository.countProjects() == expected.size(), "every project counted");
+    }
+
+    /*
+     * Writers on many threads add batches of meetings to a few shared projects,
+     * and every meeting must be stored and in the shared Project objects.
+     */
+    private static void checkConcurrentWrites(ProjectRepository repository, int threads) throws Exception {
+        List<Project> projects = createProjects(repository, 4, new Random(DataGenerator.DEFAULT_SEED));
+        int batches = 50;
+        runThreads(threads, thread -> {
+            Random random = new Random(thread);
+            DataGenerator generator = new DataGenerator(1, 0, 0, ATTENDEES, DataGenerator.DEFAULT_SEED);
+            for (int i = 0; i < batches; i++) {
+                Project project = projects.get(random.nextInt(projects.size()));
+                List<Meeting> batch = new ArrayList<>(BATCH_SIZE);
+                for (int j = 0; j < BATCH_SIZE; j++) {
+                    batch.add(generator.generateMeeting(random, project.individuals));
+                }
+                repository.addMeetings(project, batch);
+            }
+        });
+
+        long expected = (long) threads * batches * BATCH_SIZE;
+        long inMemory = 0;
+        long stored = 0;
+        for (Project project : projects) {
+            inMemory += project.meetings.size();
+            stored += repository.getProject(project.id).meetings.size();
+        }
+        expect(inMemory == expected, "meetings in the shared projects: " + inMemory + " of " + expected);
+        expect(stored == expected, "meetings stored: " + stored + " of " + expected);
+    }
+
+    /*
+     * Measures each operation on a new repository of the backend, once the
+     * projects it works on have been written.
+     */
+    private static void measure(String backend, int projectCount, int threads, int operations) throws Exception {
+        DataGenerator generator = new DataGenerator(projectCount, INDIVIDUALS, MEETINGS, ATTENDEES, DataGenerator.DEFAULT_SEED);
+        try (Store store = open(backend)) {
+            ProjectRepository repository = store.repository;
+            Random random = new Random(DataGenerator.DEFAULT_SEED);
+            List<Project> generated = new ArrayList<>(projectCount);
+            for (int i = 0; i < projectCount; i++) {
+                generated.add(generator.generateProject(random));
+            }
+
+            List<Project> projects = new ArrayList<>(projectCount);
+            long started = System.nanoTime();
+            for (Project source : generated) {
+                Project project = project(source.title, source.goal);
+                project.id = source.id;
+                project.startDate = source.startDate;
+                repository.createProject(project);
+                projects.add(project);
+            }
+            report(backend, "createProject", projectCount, System.nanoTime() - started);
+
+            started = System.nanoTime();
+            for (int i = 0; i < projectCount; i++) {
+                for (Individual individual : generated.get(i).individuals) {
+                    repository.addIndividual(projects.get(i), individual);
+                }
+            }
+            report(backend, "addIndividual", projectCount * INDIVIDUALS, System.nanoTime() - started);
+
+            started = System.nanoTime();
+            for (int i = 0; i < projectCount; i++) {
+                repository.addMeetings(projects.get(i), generated.get(i).meetings);
+            }
+            report(backend, "addMeetings", projectCount, System.nanoTime() - started);
+
+            started = System.nanoTime();
+            for (Project project : projects) {
+                sink = repository.getProject(project.id);
+            }
+            report(backend, "getProject", projectCount, System.nanoTime() - started);
+
+            sink = repository.getProjects();
+            started = System.nanoTime();
+            sink = repository.getProjects();
+            report(backend, "getProjects", 1, System.nanoTime() - started);
+
+            // One operation in four reads a project, the rest add a meeting to one
+            started = System.nanoTime();
+            runThreads(threads, thread -> {
+                Random threadRandom = new Random(thread);
+                DataGenerator threadGenerator = new DataGenerator(1, 0, 0, ATTENDEES, DataGenerator.DEFAULT_SEED);
+                for (int i = 0; i < operations; i++) {
+                    Project project = projects.get(threadRandom.nextInt(projects.size()));
+                    if (i % 4 == 3) {
+                        sink = repository.getProject(project.id);
+                    } else {
+                        repository.addMeeting(project, threadGenerator.generateMeeting(threadRandom, project.individuals));
+                    }
+                }
+            });
+            report(backend, "mixed", threads * operations, System.nanoTime() - started, threads);
+        }
+    }
+
+    private static void report(String backend, String operation, long count, long nanos) {
+        report(backend, operation, count, nanos, 1);
+    }
+
+    private static void report(String backend, String operation, long count, long nanos, int threads) {
+        System.out.println(String.format(Locale.ROOT, "{\"benchmark\":\"repository.%s\",\"backend\":\"%s\",\"threads\":%d,\"operations\":%d,\"opsPerSecond\":%.1f}",
+                operation, backend, threads, count, count / (nanos / 1e9)));
+    }
+
+    private interface Work {
+        void run(int thread) throws Exception;
+    }
+
+    /*
+     * Runs the work on the given number of threads at once and rethrows the
+     * first failure.
+     */
+    private static void runThreads(int threads, Work work) throws Exception {
+        Exception[] failures = new Exception[threads];
+        Thread[] running = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            int thread = i;
+            running[i] = new Thread(() -> {
+                try {
+                    work.run(thread);
+                } catch (Exception e) {
+                    failures[thread] = e;
+                }
+            });
+            running[i].start();
+        }
+        for (Thread thread : running) {
+            thread.join();
+        }
+        for (Exception failure : failures) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private static List<Project> createProjects(ProjectRepository repository, int count, Random random) throws IOException {
+        DataGenerator generator = new DataGenerator(1, INDIVIDUALS, 0, ATTENDEES, DataGenerator.DEFAULT_SEED);
+        List<Project> projects = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Project project = generator.generateProject(random);
+            List<Individual> individuals = new ArrayList<>(project.individuals);
+            project.individuals.clear();
+            repository.createProject(project);
+            repository.addIndividuals(project, individuals);
+            projects.add(project);
+        }
+        return projects;
+    }
+
+    private static Project project(String title, String goal) {
+        Project project = new Project();
+        project.id = UUID.randomUUID();
+        project.title = title;
+        project.goal = goal;
+        project.startDate = Dates.toDate(19000);
+        return project;
+    }
+
+    private static Individual individual(String name, String role) {
+        Individual individual = new Individual();
+        individual.id = UUID.randomUUID();
+        individual.name = name;
+        individual.role = role;
+        return individual;
+    }
+
+    private static Meeting meeting(String title, int day, Individual... attendees) {
+        Meeting meeting = new Meeting();
+        meeting.id = UUID.randomUUID();
+        meeting.title = title;
+        meeting.date = Dates.toDate(day);
+        meeting.summary = title + " summary";
+        meeting.attendees.addAll(List.of(attendees));
+        return meeting;
+    }
+
+    private static void expect(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static void delete(Path folder) throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/*
+ * Hammers a LockingProjectRepository from many threads, and optionally from
+ * other processes, to check that concurrent writers lose nothing and readers
+ * never see a write half done, and to show how throughput scales with threads.
+ *
+ * Every writer adds meetings in batches of BATCH_SIZE with addMeetings, so a
+ * project always holds a whole number of batches unless a reader catches a
+ * batch part way through being written. Readers load whole projects and count
+ * any that do not. Threads pick projects at random, so they often share one.
+ * Once every writer has finished, each project's meetings are counted on disk
+ * and compared with the number written to it.
+ *
+ * Prints one JSON line per thread count.
+ *
+ * Usage: java RepositoryStress [options]
+ *     --threads 1,2,4,8     thread counts to run
+ *     --projects 16         projects shared by all threads
+ *     --operations 400      operations per thread, one in four a read
+ *     --processes 0         other processes writing to the same projects
+ */
+public class RepositoryStress {
+
+    private static final int BATCH_SIZE = 5;
+    private static final int INDIVIDUALS = 3;
+    private static final int ATTENDEES = 2;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("child")) {
+            runChild(args);
+            return;
+        }
+
+        String threadCounts = "1,2,4,8";
+        int projectCount = 16;
+        int operations = 400;
+        int processes = 0;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--threads":
+                    threadCounts = args[i + 1];
+                    break;
+                case "--projects":
+                    projectCount = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--operations":
+                    operations = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--processes":
+                    processes = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        for (String threads : threadCounts.split(",")) {
+            System.out.println(run(Integer.parseInt(threads.trim()), projectCount, operations, processes));
+        }
+    }
+
+    private static String run(int threads, int projectCount, int operations, int processes) throws Exception {
+        Path folder = Files.createTempDirectory("repository-stress");
+        try {
+            LockingProjectRepository repository = new LockingProjectRepository(new FileManager(folder.toString(), 1));
+            List<Project> projects = new ArrayList<>();
+            Random random = new Random(DataGenerator.DEFAULT_SEED);
+            DataGenerator generator = new DataGenerator(1, INDIVIDUALS, 0, ATTENDEES, DataGenerator.DEFAULT_SEED);
+            for (int i = 0; i < projectCount; i++) {
+                Project project = generator.generateProject(random);
+                List<Individual> individuals = new ArrayList<>(project.individuals);
+                project.individuals.clear();
+                repository.createProject(project);
+                repository.addIndividuals(project, individuals);
+                projects.add(project);
+            }
+
+            List<Process> children = new ArrayList<>();
+            for (int i = 0; i < processes; i++) {
+                children.add(startChild(folder, projects, operations, i));
+            }
+
+            Worker[] workers = new Worker[threads];
+            long started = System.nanoTime();
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new Worker(repository, projects, operations, i);
+                workers[i].start();
+            }
+            for (Worker worker : workers) {
+                worker.join();
+                if (worker.failure != null) {
+                    throw worker.failure;
+                }
+            }
+            long nanos = System.nanoTime() - started;
+
+            long inconsistentReads = 0;
+            long writes = 0;
+            for (Worker worker : workers) {
+                inconsistentReads += worker.inconsistentReads;
+                writes += worker.writes;
+            }
+            long childMeetings = 0;
+            for (Process child : children) {
+                String[] counts = waitForChild(child).split(" ");
+                childMeetings += Long.parseLong(counts[0]);
+                inconsistentReads += Long.parseLong(counts[1]);
+            }
+
+            // Writers in this process share the Project objects, so their lists must hold every meeting too
+            long inMemory = 0;
+            for (Project project : projects) {
+                inMemory += project.meetings.size();
+            }
+            long written = writes * BATCH_SIZE + childMeetings;
+            long onDisk = 0;
+            FileManager check = new FileManager(folder.toString(), 1);
+            for (Project project : projects) {
+                onDisk += check.getProject(project.id).meetings.size();
+            }
+
+            return String.format(Locale.ROOT,
+                    "{\"benchmark\":\"repository\",\"threads\":%d,\"processes\":%d,\"projects\":%d,\"operations\":%d,\"opsPerSecond\":%.1f,"
+                            + "\"meetingsWritten\":%d,\"lostOnDisk\":%d,\"lostInMemory\":%d,\"inconsistentReads\":%d}",
+                    threads, processes, projectCount, (long) threads * operations, threads * operations / (nanos / 1e9),
+                    written, written - onDisk, writes * BATCH_SIZE - inMemory, inconsistentReads);
+        } finally {
+            try (Stream<Path> paths = Files.walk(folder)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    /*
+     * Adds batches of meetings to random projects, reading one back every fourth
+     * operation.
+     */
+    private static class Worker extends Thread {
+        final LockingProjectRepository repository;
+        final List<Project> projects;
+        final int operations;
+        final Random random;
+        final DataGenerator generator = new DataGenerator(1, INDIVIDUALS, 0, ATTENDEES, DataGenerator.DEFAULT_SEED);
+        long writes;
+        long inconsistentReads;
+        Exception failure;
+
+        Worker(LockingProjectRepository repository, List<Project> projects, int operations, long seed) {
+            this.repository = repository;
+            this.projects = projects;
+            this.operations = operations;
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < operations; i++) {
+                    Project project = projects.get(random.nextInt(projects.size()));
+                    if (i % 4 == 3) {
+                        if (repository.getProject(project.id).meetings.size() % BATCH_SIZE != 0) {
+                            inconsistentReads++;
+                        }
+                    } else {
+                        List<Meeting> batch = new ArrayList<>(BATCH_SIZE);
+                        for (int j = 0; j < BATCH_SIZE; j++) {
+                            batch.add(generator.generateMeeting(random, project.individuals));
+                        }
+                        repository.addMeetings(project, batch);
+                        writes++;
+                    }
+                }
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+    }
+
+    private static Process startChild(Path folder, List<Project> projects, int operations, int number) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(RepositoryStress.class.getName());
+        command.add("child");
+        command.add(folder.toString());
+        command.add(String.valueOf(operations));
+        command.add(String.valueOf(number));
+        for (Project project : projects) {
+            command.add(project.id.toString());
+        }
+        return new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+    private static String waitForChild(Process child) throws IOException, InterruptedException {
+        String result;
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(child.getInputStream()))) {
+            result = output.readLine();
+        }
+        if (child.waitFor() != 0 || result == null) {
+            throw new IllegalStateException("Child process failed");
+        }
+        return result;
+    }
+
+    /*
+     * Runs one worker against projects created by the parent process, then prints
+     * the number of meetings it wrote and the inconsistent reads it saw.
+     */
+    private static void runChild(String[] args) throws Exception {
+        LockingProjectRepository repository = new LockingProjectRepository(new FileManager(args[1], 1));
+        List<Project> projects = new ArrayList<>();
+        for (int i = 4; i < args.length; i++) {
+            projects.add(repository.getProject(UUID.fromString(args[i])));
+        }
+        int before = 0;
+        for (Project project : projects) {
+            before += project.meetings.size();
+        }
+
+        Worker worker = new Worker(repository, projects, Integer.parseInt(args[2]), 1000 + Integer.parseInt(args[3]));
+        worker.run();
+        if (worker.failure != null) {
+            throw worker.failure;
+        }
+        int after = 0;
+        for (Project project : projects) {
+            after += project.meetings.size();
+        }
+        System.out.println((after - before) + " " + worker.inconsistentReads);
+    }
+}
@@ -0,0 +1,334 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Replaces files atomically: the new contents are written to a temporary file
+ * next to the target, which is then renamed over it. Readers see either the old
+ * file or the new one, never a partly written one.
+ *
+ * With BATCH durability writes are group committed. A thread that finds no
+ * commit in progress becomes the leader and commits every write queued so far:
+ * it forces each file to disk, renames them into place and syncs each folder
+ * once. Threads that arrive meanwhile queue up behind it and are committed
+ * together by the next leader, so the more writers there are, the more writes
+ * share each sync.
+ */
+public class AtomicFileWriter {
+
+    public static final String TEMP_SUFFIX = ".tmp";
+
+    private static final long PROCESS_ID = ProcessHandle.current().pid();
+    private static final AtomicLong tempCounter = new AtomicLong();
+
+    private final Durability durability;
+
+    /*
+     * How long a leader waits for more writes to join its group before committing
+     * with BATCH durability. Zero commits straight away, which still groups every
+     * write queued while the previous commit was running.
+     */
+    private final long groupWindowNanos;
+    private final int maxGroupSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition committed = lock.newCondition();
+    private final Condition groupFull = lock.newCondition();
+    private List<PreparedWrite> queue = new ArrayList<>();
+    private boolean committing;
+
+    public AtomicFileWriter(Durability durability) {
+        this(durability, TimeUnit.MICROSECONDS.toNanos(Long.getLong("projects.groupCommitMicros", 0)), 1000);
+    }
+
+    public AtomicFileWriter(Durability durability, long groupWindowNanos, int maxGroupSize) {
+        this.durability = durability;
+        this.groupWindowNanos = groupWindowNanos;
+        this.maxGroupSize = maxGroupSize;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /*
+     * Returns true for the temporary files written before a rename, which readers
+     * of a folder should skip.
+     */
+    public static boolean isTempFile(File file) {
+        return file.getName().endsWith(TEMP_SUFFIX);
+    }
+
+    /*
+     * Returns a temporary name for a file or folder being written for the given
+     * name. Names are unique to this process, and the process id keeps them from
+     * those of other processes writing to the same folder.
+     */
+    public static String tempName(String name) {
+        return "." + name + "." + PROCESS_ID + "-" + tempCounter.incrementAndGet() + TEMP_SUFFIX;
+    }
+
+    /*
+     * Returns the name of the file a temporary file was written for, or null if
+     * it is not one of this class's temporary files.
+     */
+    public static String targetName(File temp) {
+        String name = temp.getName();
+        int counter = name.lastIndexOf('.', name.length() - TEMP_SUFFIX.length() - 1);
+        if (!name.startsWith(".") || !name.endsWith(TEMP_SUFFIX) || counter <= 1) {
+            return null;
+        }
+        return name.substring(1, counter);
+    }
+
+    /*
+     * Atomically replaces the contents of a file, returning once the write is as
+     * durable as this writer's level promises.
+     */
+    public void write(File target, byte[] contents) throws IOException {
+        write(target, target.getParentFile(), contents);
+    }
+
+    /*
+     * Replaces a file as above, writing its temporary file in the given folder,
+     * which must be on the same file system.
+     */
+    public void write(File target, File tempFolder, byte[] contents) throws IOException {
+        List<PreparedWrite> writes = new ArrayList<>(1);
+        writes.add(prepare(target, tempFolder, contents));
+        commit(writes);
+    }
+
+    /*
+     * Writes the new contents of a file to its temporary file without making it
+     * visible. Several prepared writes can be committed together, and preparing
+     * them is safe from many threads at once.
+     */
+    public PreparedWrite prepare(File target, byte[] contents) throws IOException {
+        return prepare(target, target.getParentFile(), contents);
+    }
+
+    public PreparedWrite prepare(File target, File tempFolder, byte[] contents) throws IOException {
+        File temp;
+        FileChannel channel;
+        while (true) {
+            temp = new File(tempFolder, tempName(target.getName()));
+            try {
+                channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // Left by an earlier process with the same id; try the next name
+            }
+        }
+        try {
+            ByteBuffer bytes = ByteBuffer.wrap(contents);
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            if (durability == Durability.NONE) {
+                channel.close();
+                channel = null;
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            Files.deleteIfExists(temp.toPath());
+            throw e;
+        }
+        return new PreparedWrite(temp, target, channel);
+    }
+
+    /*
+     * Makes prepared writes visible, in order. With BATCH durability they join the
+     * next group commit and this returns once that group is on disk. If any write
+     * fails the first failure is thrown after the others have been committed. If
+     * a group commit stops part way, every write in the group that was not yet
+     * committed fails with what stopped it, in whichever thread it came from.
+     */
+    public void commit(List<PreparedWrite> writes) throws IOException {
+        if (writes.isEmpty()) {
+            return;
+        }
+        if (durability == Durability.BATCH) {
+            commitInGroup(writes);
+        } else {
+            commitNow(writes);
+        }
+        for (PreparedWrite write : writes) {
+            if (write.failure instanceof Error) {
+                throw (Error) write.failure;
+            }
+            if (write.failure != null) {
+                throw (RuntimeException) write.failure;
+            }
+        }
+        for (PreparedWrite write : writes) {
+            if (write.error != null) {
+                throw write.error;
+            }
+        }
+    }
+
+    /*
+     * Throws away prepared writes that will not be committed.
+     */
+    public void discard(List<PreparedWrite> writes) {
+        for (PreparedWrite write : writes) {
+            try {
+                if (write.channel != null) {
+                    write.channel.close();
+                }
+            } catch (IOException e) {
+                // Deleted below either way
+            }
+            write.temp.delete();
+        }
+    }
+
+    private void commitInGroup(List<PreparedWrite> writes) {
+        lock.lock();
+        try {
+            queue.addAll(writes);
+            if (queue.size() >= maxGroupSize) {
+                groupFull.signal();
+            }
+            PreparedWrite last = writes.get(writes.size() - 1);
+            while (!last.done) {
+                if (committing) {
+                    committed.awaitUninterruptibly();
+                    continue;
+                }
+
+                committing = true;
+                long remaining = groupWindowNanos;
+                while (remaining > 0 && queue.size() < maxGroupSize) {
+                    try {
+                        remaining = groupFull.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                List<PreparedWrite> group = queue;
+                queue = new ArrayList<>();
+
+                lock.unlock();
+                try {
+                    commitNow(group);
+                } catch (RuntimeException | Error e) {
+                    fail(group, e);
+                    throw e;
+                } finally {
+                    lock.lock();
+                    committing = false;
+                    committed.signalAll();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Marks every write of a group that was not committed as failed and done, so
+     * the threads waiting for them stop waiting and throw the failure, and
+     * throws their temporary files away.
+     */
+    private void fail(List<PreparedWrite> group, Throwable failure) {
+        List<PreparedWrite> failed = new ArrayList<>();
+        for (PreparedWrite write : group) {
+            if (!write.done) {
+                write.failure = failure;
+                failed.add(write);
+            }
+        }
+        discard(failed);
+        for (PreparedWrite write : failed) {
+            write.done = true;
+        }
+    }
+
+    /*
+     * Forces each file to disk when the durability level asks for it, renames it
+     * into place, then syncs the folders the renames were made in so the renames
+     * themselves survive a crash.
+     */
+    private void commitNow(List<PreparedWrite> writes) {
+        Set<Path> folders = new LinkedHashSet<>();
+        for (PreparedWrite write : writes) {
+            try {
+                if (write.channel != null) {
+                    try {
+                        write.channel.force(false);
+                    } finally {
+                        write.channel.close();
+                    }
+                }
+                Files.move(write.temp.toPath(), write.target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                if (durability == Durability.EVERY_WRITE) {
+                    syncFolder(write.target.toPath().toAbsolutePath().getParent());
+                } else if (durability == Durability.BATCH) {
+                    folders.add(write.target.toPath().toAbsolutePath().getParent());
+                }
+            } catch (IOException e) {
+                write.error = e;
+                write.temp.delete();
+            }
+        }
+        for (Path folder : folders) {
+            syncFolder(folder);
+        }
+        for (PreparedWrite write : writes) {
+            write.done = true;
+        }
+    }
+
+    /*
+     * Forces a folder's entries to disk. Not every platform allows a folder to be
+     * opened this way, in which case the rename is left to the file system.
+     */
+    static void syncFolder(Path folder) {
+        try (FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported here, e.g. on Windows
+        }
+    }
+
+    /*
+     * A file whose new contents have been written to a temporary file but not yet
+     * renamed into place.
+     */
+    public static class PreparedWrite {
+        final File temp;
+        final File target;
+        final FileChannel channel;
+        volatile boolean done;
+        IOException error;
+
+        /*
+         * What stopped the group commit this write was in, if it stopped before
+         * the write was committed.
+         */
+        Throwable failure;
+
+        PreparedWrite(File temp, File target, FileChannel channel) {
+            this.temp = temp;
+            this.target = target;
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,524 @@
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/*
+ * Attendance reports for a project: how many meetings each individual
+ * attended, who never attends, which pairs of individuals attend together most
+ * and how attendance changes from month to month.
+ *
+ * Each project's individuals are given dense indices in the order they are
+ * first seen, and its meetings likewise. The attendees of each meeting are kept
+ * as a bitset over individual indices, and the meetings of each individual as
+ * a bitset over meeting indices, so counts are popcounts and the meetings two
+ * individuals share are the popcount of a bitwise AND. Both are SparseBitSets,
+ * as a meeting has a handful of attendees out of what may be thousands of
+ * individuals; at 10,000 individuals and 1,000,000 meetings a dense bitset per
+ * meeting would need over a gigabyte.
+ *
+ * A project's bitsets are built from the store the first time it is reported
+ * on, then kept up to date by FileManager as a WriteListener, so every meeting
+ * written through a file manager on the same store is counted without reading
+ * the project again. A meeting written again replaces what it counted before.
+ * Changes made outside this process are not seen until the project is
+ * invalidated. A file manager that does not keep the shared analytics up to
+ * date invalidates each project it writes instead, and one that starts keeping
+ * them up to date only when first reported on invalidates every project if
+ * writes were made through it before.
+ *
+ * Each project's bitsets are guarded by a lock of their own, so reports on and
+ * writes to different projects do not wait for each other. A project is read
+ * from the store without holding its lock, and writes made to it meanwhile are
+ * counted once it is built. Only the projects reported on most recently are
+ * kept, projects.analyticsProjects of them; others are read again when next
+ * reported on.
+ */
+public class AttendanceAnalytics implements WriteListener {
+
+    /*
+     * Number of projects whose bitsets are kept by default.
+     */
+    public static final int DEFAULT_CACHED_PROJECTS = 16;
+
+    private static final Map<String, AttendanceAnalytics> openAnalytics = new HashMap<>();
+
+    private final FileManager fileManager;
+    private final Map<UUID, Slot> projects;
+    private final WriteListener invalidator = new WriteListener() {
+        @Override
+        public void individualWritten(Project project, Individual individual) {
+            invalidate(project.id);
+        }
+
+        @Override
+        public void meetingWritten(Project project, Meeting meeting) {
+            invalidate(project.id);
+        }
+    };
+
+    public AttendanceAnalytics(FileManager fileManager) {
+        this(fileManager, Integer.getInteger("projects.analyticsProjects", DEFAULT_CACHED_PROJECTS));
+    }
+
+    public AttendanceAnalytics(FileManager fileManager, int cachedProjects) {
+        this.fileManager = fileManager;
+        this.projects = new LinkedHashMap<UUID, Slot>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Slot> eldest) {
+                return size() > Math.max(1, cachedProjects);
+            }
+        };
+    }
+
+    /*
+     * Returns the shared analytics for the store a file manager reads from, so
+     * every file manager writing to the same store updates the same counts.
+     */
+    public static synchronized AttendanceAnalytics open(FileManager fileManager) {
+        return openAnalytics.computeIfAbsent(fileManager.getProjectsRoot().getAbsolutePath(), key -> new AttendanceAnalytics(fileManager));
+    }
+
+    /*
+     * Returns the shared analytics for a file manager's store, to be reported
+     * on, and has the file manager keep them up to date from now on if it was
+     * not already. If writes were made through it before, every project kept is
+     * forgotten, to be read from the store again.
+     */
+    public static AttendanceAnalytics openForQueries(FileManager fileManager) {
+        AttendanceAnalytics analytics = open(fileManager);
+        if (fileManager.attachWriteListener(analytics)) {
+            synchronized (analytics.projects) {
+                analytics.projects.clear();
+            }
+        }
+        fileManager.removeWriteListener(analytics.invalidator);
+        return analytics;
+    }
+
+    /*
+     * Returns the listener that invalidates each project written to, for a file
+     * manager that does not keep these analytics up to date.
+     */
+    public WriteListener invalidator() {
+        return invalidator;
+    }
+
+    /*
+     * Returns the number of meetings in a project, or 0 if it does not exist.
+     */
+    public int meetingCount(UUID projectId) {
+        Slot slot = load(projectId);
+        synchronized (slot) {
+            ProjectAttendance attendance = slot.attendance;
+            return attendance == null ? 0 : attendance.meetingIds.size();
+        }
+    }
+
+    /*
+     * Returns every individual in a project with the number of meetings they
+     * attended, most first.
+     */
+    public List<IndividualAttendance> attendanceByIndividual(UUID projectId) {
+        Slot slot = load(projectId);
+        synchronized (slot) {
+            ProjectAttendance attendance = slot.attendance;
+            List<IndividualAttendance> result = new ArrayList<>();
+            if (attendance == null) {
+                return result;
+            }
+            int meetings = attendance.meetingIds.size();
+            for (int i = 0; i < attendance.individuals.size(); i++) {
+                int attended = attendance.meetingsOf.get(i).cardinality();
+                result.add(new IndividualAttendance(attendance.individuals.get(i), attended, meetings == 0 ? 0 : (double) attended / meetings));
+            }
+            result.sort(Comparator.comparingInt((IndividualAttendance entry) -> entry.meetingsAttended).reversed()
+                    .thenComparing(entry -> String.valueOf(entry.individual.name)));
+            return result;
+        }
+    }
+
+    /*
+     * Returns the individuals in a project who have not attended any of its
+     * meetings.
+     */
+    public List<Individual> neverAttended(UUID projectId) {
+        Slot slot = load(projectId);
+        synchronized (slot) {
+            ProjectAttendance attendance = slot.attendance;
+            List<Individual> result = new ArrayList<>();
+            if (attendance != null) {
+                for (int i = 0; i < attendance.individuals.size(); i++) {
+                    if (attendance.meetingsOf.get(i).isEmpty()) {
+                        result.add(attendance.individuals.get(i));
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    /*
+     * Returns the number of meetings in a project that two individuals both
+     * attended.
+     */
+    public int meetingsAttendedTogether(UUID projectId, UUID firstId, UUID secondId) {
+        Slot slot = load(projectId);
+        synchronized (slot) {
+            ProjectAttendance attendance = slot.attendance;
+            if (attendance == null) {
+                return 0;
+            }
+            Integer first = attendance.individualIds.get(firstId);
+            Integer second = attendance.individualIds.get(secondId);
+            if (first == null || second == null) {
+                return 0;
+            }
+            return attendance.meetingsOf.get(first).andCardinality(attendance.meetingsOf.get(second));
+        }
+    }
+
+    /*
+     * Returns the pairs of individuals in a project who attended the most
+     * meetings together, most first, leaving out pairs who never met.
+     *
+     * Rather than intersecting every pair, which is quadratic in the number of
+     * individuals, each individual's meetings are walked once and the later
+     * attendees of each counted, so the work grows with the square of the number
+     * of attendees per meeting instead.
+     */
+    public List<CoAttendance> topCoAttendance(UUID projectId, int limit) {
+        Slot slot = load(projectId);
+        synchronized (slot) {
+            ProjectAttendance attendance = slot.attendance;
+            List<CoAttendance> result = new ArrayList<>();
+            if (attendance == null || limit <= 0) {
+                return result;
+            }
+            int individualCount = attendance.individuals.size();
+            int[] together = new int[individualCount];
+            int[] partners = new int[individualCount];
+            int[] attendeeBits = new int[individualCount];
+            int[] meetingBits = new int[attendance.meetingIds.size()];
+            SparseBitSet[] meetingAttendees = attendance.attendees;
+            PriorityQueue<int[]> best = new PriorityQueue<>(limit + 1, (a, b) -> a[2] != b[2] ? Integer.compare(a[2], b[2]) : Integer.compare(b[0], a[0]));
+
+            for (int first = 0; first < individualCount; first++) {
+                int partnerCount = 0;
+                int meetingCount = attendance.meetingsOf.get(first).toArray(meetingBits);
+                for (int m = 0; m < meetingCount; m++) {
+                    int attendeeCount = meetingAttendees[meetingBits[m]].toArray(attendeeBits);
+                    for (int a = 0; a < attendeeCount; a++) {
+                        int second = attendeeBits[a];
+                        if (second > first && together[second]++ == 0) {
+                            partners[partnerCount++] = second;
+                        }
+                    }
+                }
+                for (int p = 0; p < partnerCount; p++) {
+                    int second = partners[p];
+                    if (best.size() < limit || together[second] > best.peek()[2]) {
+                        best.add(new int[] { first, second, together[second] });
+                        if (best.size() > limit) {
+                            best.poll();
+                        }
+                    }
+                    together[second] = 0;
+                }
+            }
+
+            while (!best.isEmpty()) {
+                int[] pair = best.poll();
+                result.add(new CoAttendance(attendance.individuals.get(pair[0]), attendance.individuals.get(pair[1]), pair[2]));
+            }
+            Collections.reverse(result);
+            return result;
+        }
+    }
+
+    /*
+     * Returns the number of meetings and attendances in each month a project had
+     * meetings in, in date order. Meetings without a date are left out.
+     */
+    public List<MonthlyAttendance> monthlyTrend(UUID projectId) {
+        Slot slot = load(projectId);
+        synchronized (slot) {
+            ProjectAttendance attendance = slot.attendance;
+            List<MonthlyAttendance> result = new ArrayList<>();
+            if (attendance != null) {
+                for (Map.Entry<Integer, long[]> month : attendance.months.entrySet()) {
+                    YearMonth yearMonth = YearMonth.of(Math.floorDiv(month.getKey(), 12), Math.floorMod(month.getKey(), 12) + 1);
+                    result.add(new MonthlyAttendance(yearMonth, (int) month.getValue()[0], month.getValue()[1]));
+                }
+            }
+            return result;
+        }
+    }
+
+    /*
+     * Forgets what is known about a project, so it is read from the store again
+     * the next time it is reported on.
+     */
+    public void invalidate(UUID projectId) {
+        synchronized (projects) {
+            projects.remove(projectId);
+        }
+    }
+
+    @Override
+    public void individualWritten(Project project, Individual individual) {
+        apply(project.id, attendance -> attendance.addIndividual(individual));
+    }
+
+    @Override
+    public void meetingWritten(Project project, Meeting meeting) {
+        apply(project.id, attendance -> attendance.addMeeting(meeting));
+    }
+
+    @Override
+    public void individualsWritten(Project project, List<Individual> individuals) {
+        apply(project.id, attendance -> {
+            for (Individual individual : individuals) {
+                attendance.addIndividual(individual);
+            }
+        });
+    }
+
+    @Override
+    public void meetingsWritten(Project project, List<Meeting> meetings) {
+        apply(project.id, attendance -> {
+            for (Meeting meeting : meetings) {
+                attendance.addMeeting(meeting);
+            }
+        });
+    }
+
+    /*
+     * Counts a write to a project whose bitsets are kept, or keeps it to be
+     * counted once they are built if the project is being read. Writes to other
+     * projects are left to be read from the store.
+     */
+    private void apply(UUID projectId, Consumer<ProjectAttendance> write) {
+        Slot slot;
+        synchronized (projects) {
+            slot = projects.get(projectId);
+        }
+        if (slot == null) {
+            return;
+        }
+        synchronized (slot) {
+            if (slot.attendance != null) {
+                write.accept(slot.attendance);
+            } else if (slot.pending != null) {
+                slot.pending.add(write);
+            }
+        }
+    }
+
+    /*
+     * Returns the slot of a project with its bitsets built, building them from
+     * the store if they are not kept. The bitsets are null if the project does
+     * not exist. The project is read holding only the slot's build lock, so
+     * reports on it wait for the read but writes to it do not; they are kept
+     * and counted after what was read. A write counted twice is counted the same
+     * as once.
+     */
+    private Slot load(UUID projectId) {
+        Slot slot;
+        synchronized (projects) {
+            slot = projects.computeIfAbsent(projectId, id -> new Slot());
+        }
+        synchronized (slot.buildLock) {
+            synchronized (slot) {
+                if (slot.attendance != null) {
+                    return slot;
+                }
+                slot.pending = new ArrayList<>();
+            }
+            ProjectAttendance attendance = null;
+            try {
+                Project project = fileManager.getProject(projectId);
+                if (project != null) {
+                    attendance = new ProjectAttendance();
+                    for (Individual individual : project.individuals) {
+                        attendance.addIndividual(individual);
+                    }
+                    for (Meeting meeting : project.meetings) {
+                        attendance.addMeeting(meeting);
+                    }
+                }
+            } finally {
+                synchronized (slot) {
+                    if (attendance != null) {
+                        for (Consumer<ProjectAttendance> write : slot.pending) {
+                            write.accept(attendance);
+                        }
+                    }
+                    slot.attendance = attendance;
+                    slot.pending = null;
+                }
+                if (attendance == null) {
+                    synchronized (projects) {
+                        projects.remove(projectId, slot);
+                    }
+                }
+            }
+            return slot;
+        }
+    }
+
+    /*
+     * What is kept of one project. The bitsets and the writes waiting for them
+     * are guarded by the slot's monitor, and the build lock is held while they
+     * are read from the store.
+     */
+    private static class Slot {
+        final Object buildLock = new Object();
+        ProjectAttendance attendance;
+        List<Consumer<ProjectAttendance>> pending;
+    }
+
+    /*
+     * The bitsets of one project. The meetings of each individual and the
+     * attendees of each meeting hold the same bits, one indexed each way round.
+     * Months are counted from year 0, as year * 12 + month - 1, and each holds
+     * its number of meetings and of attendances.
+     */
+    static class ProjectAttendance {
+        static final int NO_MONTH = Integer.MIN_VALUE;
+
+        final Map<UUID, Integer> individualIds = new HashMap<>();
+        final List<Individual> individuals = new ArrayList<>();
+        final List<SparseBitSet> meetingsOf = new ArrayList<>();
+
+        final Map<UUID, Integer> meetingIds = new HashMap<>();
+        SparseBitSet[] attendees = new SparseBitSet[16];
+        int[] meetingMonths = new int[16];
+        final TreeMap<Integer, long[]> months = new TreeMap<>();
+
+        /*
+         * Returns the index of an individual, adding them if they are new. An
+         * individual written again keeps their index and takes the new details.
+         */
+        int addIndividual(Individual individual) {
+            Integer index = individualIds.get(individual.id);
+            if (index != null) {
+                individuals.set(index, individual);
+                return index;
+            }
+            individualIds.put(individual.id, individuals.size());
+            individuals.add(individual);
+            meetingsOf.add(new SparseBitSet());
+            return individuals.size() - 1;
+        }
+
+        void addMeeting(Meeting meeting) {
+            Integer existing = meetingIds.get(meeting.id);
+            int index;
+            if (existing != null) {
+                index = existing;
+                removeMeeting(index);
+            } else {
+                index = meetingIds.size();
+                meetingIds.put(meeting.id, index);
+                if (index == attendees.length) {
+                    attendees = Arrays.copyOf(attendees, index * 2);
+                    meetingMonths = Arrays.copyOf(meetingMonths, index * 2);
+                }
+            }
+
+            SparseBitSet meetingAttendees = new SparseBitSet();
+            for (Individual attendee : meeting.attendees) {
+                int individual = addIndividual(attendee);
+                meetingAttendees.set(individual);
+                meetingsOf.get(individual).set(index);
+            }
+            meetingAttendees.trimToSize();
+            attendees[index] = meetingAttendees;
+
+            LocalDate date = Dates.toLocalDate(meeting.date);
+            int month = date == null ? NO_MONTH : date.getYear() * 12 + date.getMonthValue() - 1;
+            meetingMonths[index] = month;
+            if (month != NO_MONTH) {
+                long[] totals = months.computeIfAbsent(month, key -> new long[2]);
+                totals[0]++;
+                totals[1] += meetingAttendees.cardinality();
+            }
+        }
+
+        /*
+         * Takes away everything a meeting counted, before it is counted again.
+         */
+        private void removeMeeting(int index) {
+            SparseBitSet meetingAttendees = attendees[index];
+            int[] bits = new int[meetingAttendees.cardinality()];
+            meetingAttendees.toArray(bits);
+            for (int individual : bits) {
+                meetingsOf.get(individual).clear(index);
+            }
+            int month = meetingMonths[index];
+            if (month != NO_MONTH) {
+                long[] totals = months.get(month);
+                totals[0]--;
+                totals[1] -= bits.length;
+                if (totals[0] == 0) {
+                    months.remove(month);
+                }
+            }
+        }
+    }
+
+    public static class IndividualAttendance {
+        public final Individual individual;
+        public final int meetingsAttended;
+
+        /*
+         * Share of the project's meetings attended, from 0 to 1.
+         */
+        public final double share;
+
+        IndividualAttendance(Individual individual, int meetingsAttended, double share) {
+            this.individual = individual;
+            this.meetingsAttended = meetingsAttended;
+            this.share = share;
+        }
+    }
+
+    public static class CoAttendance {
+        public final Individual first;
+        public final Individual second;
+        public final int meetings;
+
+        CoAttendance(Individual first, Individual second, int meetings) {
+            this.first = first;
+            this.second = second;
+            this.meetings = meetings;
+        }
+    }
+
+    public static class MonthlyAttendance {
+        public final YearMonth month;
+        public final int meetings;
+        public final long attendances;
+
+        MonthlyAttendance(YearMonth month, int meetings, long attendances) {
+            this.month = month;
+            this.meetings = meetings;
+            this.attendances = attendances;
+        }
+
+        public double averageAttendees() {
+            return meetings == 0 ? 0 : (double) attendances / meetings;
+        }
+    }
+}
@@ -0,0 +1,567 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/*
+ * Imports and exports whole projects as JSON Lines, one record per line, so
+ * teams can be onboarded without typing every individual and meeting through
+ * the menus.
+ *
+ * Record Layout
+ * {"type":"project","id":"...","title":"...","goal":"...","startDate":"dd/MM/yyyy"}
+ * {"type":"individual","project":"...","id":"...","name":"...","role":"..."}
+ * {"type":"meeting","project":"...","id":"...","title":"...","date":"dd/MM/yyyy","summary":"...","attendees":["...", ...]}
+ *
+ * A project's record must come before its individuals and meetings, and an
+ * individual before any meeting it attends. Records may also add to projects
+ * already in the store. Both directions stream: an import holds one batch of
+ * records at a time, and an export loads one page of projects at a time.
+ */
+public class BulkTransfer {
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /*
+     * Number of projects whose individuals are kept in memory to check attendees
+     * against. Projects beyond this are reloaded from the store when needed.
+     */
+    private static final int CACHED_PROJECTS = 64;
+    private static final int EXPORT_PAGE_SIZE = 10;
+    private static final int MAX_REPORTED_ERRORS = 1000;
+
+    private final FileManager fileManager;
+    private final int batchSize;
+
+    public BulkTransfer(FileManager fileManager) {
+        this(fileManager, DEFAULT_BATCH_SIZE);
+    }
+
+    public BulkTransfer(FileManager fileManager, int batchSize) {
+        this.fileManager = fileManager;
+        this.batchSize = batchSize;
+    }
+
+    /*
+     * Runs an import or export from the command line.
+     *
+     * Usage: java BulkTransfer import <file>
+     *        java BulkTransfer export <file>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 || !(args[0].equals("import") || args[0].equals("export"))) {
+            System.out.println("Usage: java BulkTransfer import|export <file>");
+            return;
+        }
+
+        BulkTransfer transfer = new BulkTransfer(new FileManager());
+        long started = System.nanoTime();
+        if (args[0].equals("import")) {
+            ImportResult result;
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+                result = transfer.importFrom(reader);
+            }
+            for (RowError error : result.errors) {
+                System.out.println(error);
+            }
+            System.out.println(result + " in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+        } else {
+            long records;
+            try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+                records = transfer.exportTo(writer);
+            }
+            System.out.println("Exported " + records + " records in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+        }
+    }
+
+    /*
+     * Reads records until the end of the input, writing them to the store in
+     * batches. Records that cannot be imported are skipped and reported in the
+     * result along with their line number; the rest of the input is still
+     * imported.
+     */
+    public ImportResult importFrom(Reader input) throws IOException {
+        BufferedReader reader = input instanceof BufferedReader ? (BufferedReader) input : new BufferedReader(input, 1 << 16);
+        Importer importer = new Importer();
+        String line;
+        long lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                importer.add(parseObject(line));
+            } catch (IllegalArgumentException e) {
+                importer.result.addError(lineNumber, e.getMessage());
+            }
+            if (importer.pending >= batchSize) {
+                importer.flush();
+            }
+        }
+        importer.flush();
+        return importer.result;
+    }
+
+    /*
+     * Writes every project in the store, followed by its individuals and
+     * meetings, returning the number of records written.
+     */
+    public long exportTo(Writer output) throws IOException {
+        Writer writer = output instanceof BufferedWriter ? output : new BufferedWriter(output, 1 << 16);
+        long records = 0;
+        int pageCount = (fileManager.countProjects() + EXPORT_PAGE_SIZE - 1) / EXPORT_PAGE_SIZE;
+        for (int page = 0; page < pageCount; page++) {
+            for (Project project : fileManager.getProjectCatalogue(page, EXPORT_PAGE_SIZE)) {
+                writer.write(projectRecord(project));
+                records++;
+                for (Individual individual : project.individuals) {
+                    writer.write(individualRecord(project, individual));
+                    records++;
+                }
+                for (Meeting meeting : project.meetings) {
+                    writer.write(meetingRecord(project, meeting));
+                    records++;
+                }
+            }
+        }
+        writer.flush();
+        return records;
+    }
+
+    /*
+     * Import state: the projects known so far and the individuals and meetings
+     * waiting to be written.
+     */
+    private class Importer {
+        final ImportResult result = new ImportResult();
+        final Set<UUID> storedProjectIds = new HashSet<>(fileManager.getProjectIds());
+        final Map<UUID, Project> projects = new LinkedHashMap<UUID, Project>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Project> eldest) {
+                return size() > CACHED_PROJECTS;
+            }
+        };
+        final Map<UUID, Map<UUID, Individual>> individualsByProject = new HashMap<>();
+        final Map<UUID, List<Individual>> pendingIndividuals = new LinkedHashMap<>();
+        final Map<UUID, List<Meeting>> pendingMeetings = new LinkedHashMap<>();
+        int pending;
+
+        void add(Map<String, Object> record) throws IOException {
+            String type = string(record, "type");
+            switch (type) {
+                case "project":
+                    addProject(record);
+                    break;
+                case "individual":
+                    addIndividual(record);
+                    break;
+                case "meeting":
+                    addMeeting(record);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown record type \"" + type + "\"");
+            }
+        }
+
+        /*
+         * Projects are written straight away, so the folders exist before any of
+         * their files are.
+         */
+        void addProject(Map<String, Object> record) throws IOException {
+            Project project = new Project();
+            project.id = uuid(record, "id");
+            project.title = string(record, "title");
+            project.goal = string(record, "goal");
+            project.startDate = date(record, "startDate");
+
+            boolean known = project(project.id) != null;
+            fileManager.createProjectFolderStructure(project.id);
+            fileManager.createProjectConfigFile(project);
+            if (!known) {
+                storedProjectIds.add(project.id);
+                individualsByProject.put(project.id, new HashMap<>());
+            }
+            projects.put(project.id, project);
+            result.projects++;
+        }
+
+        void addIndividual(Map<String, Object> record) throws IOException {
+            Project project = requireProject(record);
+            Individual individual = new Individual();
+            individual.id = uuid(record, "id");
+            individual.name = string(record, "name");
+            individual.role = string(record, "role");
+
+            individualsByProject.get(project.id).put(individual.id, individual);
+            pendingIndividuals.computeIfAbsent(project.id, key -> new ArrayList<>()).add(individual);
+            pending++;
+            result.individuals++;
+        }
+
+        void addMeeting(Map<String, Object> record) throws IOException {
+            Project project = requireProject(record);
+            Meeting meeting = new Meeting();
+            meeting.id = uuid(record, "id");
+            meeting.title = string(record, "title");
+            meeting.date = date(record, "date");
+            meeting.summary = string(record, "summary");
+
+            Map<UUID, Individual> individuals = individualsByProject.get(project.id);
+            for (String attendeeId : strings(record, "attendees")) {
+                Individual attendee = individuals.get(parseUUID(attendeeId, "attendees"));
+                if (attendee == null) {
+                    throw new IllegalArgumentException("Attendee " + attendeeId + " is not an individual in project " + project.id);
+                }
+                meeting.attendees.add(attendee);
+            }
+
+            pendingMeetings.computeIfAbsent(project.id, key -> new ArrayList<>()).add(meeting);
+            pending++;
+            result.meetings++;
+        }
+
+        Project requireProject(Map<String, Object> record) throws IOException {
+            UUID projectId = uuid(record, "project");
+            Project project = project(projectId);
+            if (project == null) {
+                throw new IllegalArgumentException("Project " + projectId + " does not exist");
+            }
+            return project;
+        }
+
+        /*
+         * Returns a project seen earlier in the import or already in the store, or
+         * null if there is no such project. Projects that have dropped out of the
+         * cache are reloaded once their pending files have been written.
+         */
+        Project project(UUID projectId) throws IOException {
+            Project project = projects.get(projectId);
+            if (project != null || !storedProjectIds.contains(projectId)) {
+                return project;
+            }
+
+            flush();
+            project = fileManager.getProject(projectId);
+            if (project == null) {
+                return null;
+            }
+            Map<UUID, Individual> individuals = new HashMap<>();
+            for (Individual individual : project.individuals) {
+                individuals.put(individual.id, individual);
+            }
+            project.individuals = new ArrayList<>();
+            project.meetings = new ArrayList<>();
+            projects.put(projectId, project);
+            individualsByProject.put(projectId, individuals);
+            return project;
+        }
+
+        /*
+         * Writes every pending individual and meeting, one batch per project, and
+         * forgets the individuals of projects no longer in the cache.
+         */
+        void flush() throws IOException {
+            for (Map.Entry<UUID, List<Individual>> batch : pendingIndividuals.entrySet()) {
+                fileManager.createIndividualFiles(projectHeader(batch.getKey()), batch.getValue());
+            }
+            for (Map.Entry<UUID, List<Meeting>> batch : pendingMeetings.entrySet()) {
+                fileManager.createMeetingFiles(projectHeader(batch.getKey()), batch.getValue());
+            }
+            pendingIndividuals.clear();
+            pendingMeetings.clear();
+            pending = 0;
+            individualsByProject.keySet().retainAll(projects.keySet());
+        }
+
+        /*
+         * Returns the project a pending batch belongs to, even if it has since
+         * dropped out of the cache. Only its id is needed to write the files.
+         */
+        Project projectHeader(UUID projectId) {
+            Project project = projects.get(projectId);
+            if (project == null) {
+                project = new Project();
+                project.id = projectId;
+            }
+            return project;
+        }
+
+        Date date(Map<String, Object> record, String field) {
+            String value = string(record, field);
+            try {
+                return Dates.parse(value);
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid " + field + " \"" + value + "\", expected dd/MM/yyyy");
+            }
+        }
+    }
+
+    /*
+     * The number of records imported, and the rows that could not be.
+     */
+    public static class ImportResult {
+        public int projects;
+        public int individuals;
+        public int meetings;
+        public long failedRows;
+        public final List<RowError> errors = new ArrayList<>();
+
+        void addError(long line, String message) {
+            failedRows++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(new RowError(line, message));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Imported " + projects + " projects, " + individuals + " individuals and " + meetings + " meetings; "
+                    + failedRows + " rows failed";
+        }
+    }
+
+    public static class RowError {
+        public final long line;
+        public final String message;
+
+        RowError(long line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return "Line " + line + ": " + message;
+        }
+    }
+
+    private String projectRecord(Project project) {
+        return "{\"type\":\"project\",\"id\":\"" + project.id + "\",\"title\":" + quote(project.title)
+                + ",\"goal\":" + quote(project.goal) + ",\"startDate\":" + quote(Dates.format(project.startDate)) + "}\n";
+    }
+
+    private static String individualRecord(Project project, Individual individual) {
+        return "{\"type\":\"individual\",\"project\":\"" + project.id + "\",\"id\":\"" + individual.id
+                + "\",\"name\":" + quote(individual.name) + ",\"role\":" + quote(individual.role) + "}\n";
+    }
+
+    private String meetingRecord(Project project, Meeting meeting) {
+        StringBuilder record = new StringBuilder(256);
+        record.append("{\"type\":\"meeting\",\"project\":\"").append(project.id).append("\",\"id\":\"").append(meeting.id)
+                .append("\",\"title\":").append(quote(meeting.title))
+                .append(",\"date\":").append(quote(Dates.format(meeting.date)))
+                .append(",\"summary\":").append(quote(meeting.summary))
+                .append(",\"attendees\":[");
+        for (int i = 0; i < meeting.attendees.size(); i++) {
+            record.append(i == 0 ? "\"" : ",\"").append(meeting.attendees.get(i).id).append('"');
+        }
+        return record.append("]}\n").toString();
+    }
+
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static String string(Map<String, Object> record, String field) {
+        Object value = record.get(field);
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException(value == null ? "Missing " + field : "Expected " + field + " to be a string");
+        }
+        return (String) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> strings(Map<String, Object> record, String field) {
+        Object value = record.get(field);
+        if (value == null) {
+            return new ArrayList<>();
+        }
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException("Expected " + field + " to be a list of ids");
+        }
+        return (List<String>) value;
+    }
+
+    private static UUID uuid(Map<String, Object> record, String field) {
+        return parseUUID(string(record, field), field);
+    }
+
+    private static UUID parseUUID(String value, String field) {
+        try {
+            return UUID.fromString(value);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid " + field + " id \"" + value + "\"");
+        }
+    }
+
+    /*
+     * Parses a single-line JSON object whose values are strings, null, or lists of
+     * strings, which is all the records contain. Anything else is rejected.
+     */
+    static Map<String, Object> parseObject(String line) {
+        JsonReader reader = new JsonReader(line);
+        Map<String, Object> object = new HashMap<>();
+        reader.expect('{');
+        if (!reader.consume('}')) {
+            do {
+                String key = reader.readString();
+                reader.expect(':');
+                object.put(key, reader.readValue());
+            } while (reader.consume(','));
+            reader.expect('}');
+        }
+        reader.expectEnd();
+        return object;
+    }
+
+    private static class JsonReader {
+        final String text;
+        int position;
+
+        JsonReader(String text) {
+            this.text = text;
+        }
+
+        Object readValue() {
+            skipWhitespace();
+            if (text.startsWith("null", position)) {
+                position += 4;
+                return null;
+            }
+            if (consume('[')) {
+                List<String> values = new ArrayList<>();
+                if (!consume(']')) {
+                    do {
+                        values.add(readString());
+                    } while (consume(','));
+                    expect(']');
+                }
+                return values;
+            }
+            return readString();
+        }
+
+        String readString() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (position >= text.length()) {
+                    break;
+                }
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'u':
+                        if (position + 4 > text.length()) {
+                            throw new IllegalArgumentException("Invalid JSON: incomplete \\u escape");
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Invalid JSON: bad \\u escape");
+                        }
+                        position += 4;
+                        break;
+                    default:
+                        value.append(escaped);
+                }
+            }
+            throw new IllegalArgumentException("Invalid JSON: unterminated string");
+        }
+
+        boolean consume(char expected) {
+            skipWhitespace();
+            if (position < text.length() && text.charAt(position) == expected) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char expected) {
+            if (!consume(expected)) {
+                throw new IllegalArgumentException("Invalid JSON: expected '" + expected + "' at column " + (position + 1));
+            }
+        }
+
+        void expectEnd() {
+            skipWhitespace();
+            if (position < text.length()) {
+                throw new IllegalArgumentException("Invalid JSON: unexpected text at column " + (position + 1));
+            }
+        }
+
+        void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+    }
+}
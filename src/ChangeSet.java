@@ -0,0 +1,72 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/*
+ * What FileManager.refresh found had changed in the projects folder since the
+ * last refresh: every config, individual and meeting file added, changed or
+ * removed, and the new state of each project they belong to.
+ *
+ * Projects in addedProjects and changedProjects are new objects; projects
+ * returned by earlier refreshes are never changed in place, so they can still
+ * be used while the new state is being taken in.
+ */
+public class ChangeSet {
+
+    public enum Kind {
+        ADDED, CHANGED, REMOVED
+    }
+
+    public enum Entity {
+        PROJECT, INDIVIDUAL, MEETING
+    }
+
+    public final List<Project> addedProjects = new ArrayList<>();
+    public final List<Project> changedProjects = new ArrayList<>();
+    public final List<UUID> removedProjectIds = new ArrayList<>();
+    public final List<Change> changes = new ArrayList<>();
+
+    /*
+     * Number of files whose size and modification time were checked, and the
+     * number of those that had to be read.
+     */
+    public int filesChecked;
+    public int filesRead;
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    void add(Kind kind, Entity entity, UUID projectId, UUID id) {
+        changes.add(new Change(kind, entity, projectId, id));
+    }
+
+    @Override
+    public String toString() {
+        return addedProjects.size() + " project(s) added, " + changedProjects.size() + " changed, " + removedProjectIds.size() + " removed; "
+                + changes.size() + " file change(s), " + filesRead + " of " + filesChecked + " file(s) read";
+    }
+
+    /*
+     * A single file added, changed or removed. The id is the project's own id for
+     * a change to its config file.
+     */
+    public static class Change {
+        public final Kind kind;
+        public final Entity entity;
+        public final UUID projectId;
+        public final UUID id;
+
+        Change(Kind kind, Entity entity, UUID projectId, UUID id) {
+            this.kind = kind;
+            this.entity = entity;
+            this.projectId = projectId;
+            this.id = id;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + entity + " " + id + (entity == Entity.PROJECT ? "" : " in project " + projectId);
+        }
+    }
+}
@@ -0,0 +1,446 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/*
+ * Runs commands against a FileManager without the menus, one command per line,
+ * so the store can be driven by scripts. Each command prints one JSON line
+ * saying whether it succeeded along with what it created or read, and a final
+ * line sums up the run. A command that fails is reported and the rest still
+ * run.
+ *
+ * Arguments are separated by spaces; an argument containing spaces is wrapped
+ * in double quotes, inside which \" and \\ stand for a quote and a backslash.
+ * Blank lines and lines starting with # are skipped. Wherever a project id is
+ * expected, - means the project most recently created by this run.
+ *
+ * With the projects.writeBehind system property set, add-individual and
+ * add-meeting are queued to be written in the background and reported as soon
+ * as they are queued, so a script is not held up by the disk. A queued write
+ * that then fails is reported again with ok false, on a line of its own, by the
+ * time the final line is printed, and counted as failed.
+ *
+ * Commands
+ * create-project <title> <goal> <startDate>
+ * add-individual <projectId> <name> <role>
+ * add-meeting <projectId> <title> <date> <summary> [attendees] (comma separated ids or numbers)
+ * get-project <projectId>
+ * get-individual <projectId> <individualId>
+ * get-meeting <projectId> <meetingId>
+ * count-projects
+ * search <words>
+ *
+ * Usage: java CommandRunner [file] (standard input if no file or -)
+ */
+public class CommandRunner {
+
+    /*
+     * Number of projects kept in memory for the commands that add to them.
+     * Projects beyond this are reloaded from the store when needed.
+     */
+    private static final int CACHED_PROJECTS = 64;
+    private static final int SEARCH_RESULT_LIMIT = 10;
+
+    private final FileManager fileManager;
+    private final Map<UUID, Project> projects = new LinkedHashMap<UUID, Project>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, Project> eldest) {
+            return size() > CACHED_PROJECTS;
+        }
+    };
+    private UUID lastProjectId;
+    private SearchIndex searchIndex;
+
+    /*
+     * Whether adds are written behind, and the writes queued by this run whose
+     * outcome has not been reported yet.
+     */
+    private final boolean writeBehind = Boolean.parseBoolean(System.getProperty("projects.writeBehind", "false"));
+    private final List<QueuedWrite> queuedWrites = new ArrayList<>();
+    private CompletableFuture<Void> lastQueuedWrite;
+
+    public CommandRunner(FileManager fileManager) {
+        this.fileManager = fileManager;
+    }
+
+    public static void main(String[] args) throws IOException {
+        CommandRunner runner = new CommandRunner(new FileManager());
+        Writer output = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        if (args.length == 0 || args[0].equals("-")) {
+            runner.run(new InputStreamReader(System.in, StandardCharsets.UTF_8), output);
+        } else {
+            try (Reader input = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+                runner.run(input, output);
+            }
+        }
+    }
+
+    /*
+     * Runs every command until the end of the input, returning how many were run
+     * and how many failed. Output is buffered, and flushed whenever the input
+     * has no more lines waiting so a script reading the results is never left
+     * waiting on them.
+     */
+    public RunResult run(Reader input, Writer output) throws IOException {
+        BufferedReader reader = input instanceof BufferedReader ? (BufferedReader) input : new BufferedReader(input, 1 << 16);
+        BufferedWriter writer = new BufferedWriter(output, 1 << 16);
+        RunResult result = new RunResult();
+        long started = System.nanoTime();
+        String line;
+        long lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            result.commands++;
+            writer.write(execute(lineNumber, trimmed, result));
+            writer.write('\n');
+            if (!reader.ready()) {
+                reportQueuedWrites(writer, result, false);
+                writer.flush();
+            }
+        }
+        reportQueuedWrites(writer, result, true);
+        result.millis = (System.nanoTime() - started) / 1_000_000;
+        writer.write("{\"done\":true,\"commands\":" + result.commands + ",\"failed\":" + result.failed + ",\"millis\":" + result.millis + "}\n");
+        writer.flush();
+        return result;
+    }
+
+    /*
+     * Runs a single command line, returning its JSON result.
+     */
+    private String execute(long lineNumber, String line, RunResult result) {
+        String prefix = "{\"line\":" + lineNumber;
+        try {
+            List<String> arguments = tokenize(line);
+            prefix += ",\"command\":" + BulkTransfer.quote(arguments.get(0));
+            String fields = execute(arguments);
+            if (lastQueuedWrite != null) {
+                queuedWrites.add(new QueuedWrite(prefix, lastQueuedWrite));
+                lastQueuedWrite = null;
+            }
+            return prefix + ",\"ok\":true" + fields + "}";
+        } catch (IllegalArgumentException | IOException e) {
+            result.failed++;
+            return prefix + ",\"ok\":false,\"error\":" + BulkTransfer.quote(e.getMessage()) + "}";
+        }
+    }
+
+    /*
+     * Reports the queued writes that have failed, in the order they were queued,
+     * and forgets those that are done. Waits for every one of them if asked to.
+     */
+    private void reportQueuedWrites(Writer writer, RunResult result, boolean wait) throws IOException {
+        for (Iterator<QueuedWrite> writes = queuedWrites.iterator(); writes.hasNext();) {
+            QueuedWrite write = writes.next();
+            if (!wait && !write.written.isDone()) {
+                continue;
+            }
+            writes.remove();
+            try {
+                write.written.join();
+            } catch (CompletionException e) {
+                result.failed++;
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                writer.write(write.prefix + ",\"ok\":false,\"error\":" + BulkTransfer.quote(cause.getMessage()) + "}\n");
+            }
+        }
+    }
+
+    /*
+     * Runs a tokenized command, returning the fields to add to its result.
+     */
+    private String execute(List<String> arguments) throws IOException {
+        String command = arguments.get(0);
+        switch (command) {
+            case "create-project":
+                return createProject(arguments);
+            case "add-individual":
+                return addIndividual(arguments);
+            case "add-meeting":
+                return addMeeting(arguments);
+            case "get-project":
+                return getProject(arguments);
+            case "get-individual":
+                return getIndividual(arguments);
+            case "get-meeting":
+                return getMeeting(arguments);
+            case "count-projects":
+                expectArguments(arguments, 0, 0);
+                return ",\"count\":" + fileManager.countProjects();
+            case "search":
+                return search(arguments);
+            default:
+                throw new IllegalArgumentException("Unknown command \"" + command + "\"");
+        }
+    }
+
+    private String createProject(List<String> arguments) throws IOException {
+        expectArguments(arguments, 3, 3);
+        Project project = new Project();
+        project.title = arguments.get(1);
+        project.goal = arguments.get(2);
+        project.startDate = date(arguments.get(3));
+
+        fileManager.createProjectFolderStructure(project.id);
+        fileManager.createProjectConfigFile(project);
+        projects.put(project.id, project);
+        lastProjectId = project.id;
+        return ",\"id\":\"" + project.id + "\"";
+    }
+
+    private String addIndividual(List<String> arguments) throws IOException {
+        expectArguments(arguments, 3, 3);
+        Project project = project(arguments.get(1));
+        Individual individual = new Individual();
+        individual.name = arguments.get(2);
+        individual.role = arguments.get(3);
+
+        if (writeBehind) {
+            lastQueuedWrite = fileManager.createIndividualFileAsync(project, individual);
+        } else {
+            fileManager.createIndividualFile(project, individual);
+        }
+        project.individuals.add(individual);
+        return ",\"id\":\"" + individual.id + "\"";
+    }
+
+    private String addMeeting(List<String> arguments) throws IOException {
+        expectArguments(arguments, 4, 5);
+        Project project = project(arguments.get(1));
+        Meeting meeting = new Meeting();
+        meeting.title = arguments.get(2);
+        meeting.date = date(arguments.get(3));
+        meeting.summary = arguments.get(4);
+        if (arguments.size() > 5) {
+            for (String attendee : arguments.get(5).split(",")) {
+                if (!attendee.isBlank()) {
+                    meeting.attendees.add(attendee(project, attendee.trim()));
+                }
+            }
+        }
+
+        if (writeBehind) {
+            lastQueuedWrite = fileManager.createMeetingFileAsync(project, meeting);
+        } else {
+            fileManager.createMeetingFile(project, meeting);
+        }
+        project.meetings.add(meeting);
+        return ",\"id\":\"" + meeting.id + "\"";
+    }
+
+    private String getProject(List<String> arguments) {
+        expectArguments(arguments, 1, 1);
+        UUID projectId = projectId(arguments.get(1));
+        Project project = fileManager.getProject(projectId);
+        if (project == null) {
+            throw new IllegalArgumentException("Unknown project " + projectId);
+        }
+        return ",\"id\":\"" + project.id + "\",\"title\":" + BulkTransfer.quote(project.title)
+                + ",\"goal\":" + BulkTransfer.quote(project.goal) + ",\"startDate\":" + BulkTransfer.quote(Dates.format(project.startDate))
+                + ",\"individuals\":" + project.individuals.size() + ",\"meetings\":" + project.meetings.size();
+    }
+
+    private String getIndividual(List<String> arguments) {
+        expectArguments(arguments, 2, 2);
+        Individual individual = fileManager.getIndividual(projectId(arguments.get(1)), uuid(arguments.get(2)));
+        if (individual == null) {
+            throw new IllegalArgumentException("Unknown individual " + arguments.get(2));
+        }
+        return ",\"id\":\"" + individual.id + "\",\"name\":" + BulkTransfer.quote(individual.name) + ",\"role\":" + BulkTransfer.quote(individual.role);
+    }
+
+    private String getMeeting(List<String> arguments) {
+        expectArguments(arguments, 2, 2);
+        Meeting meeting = fileManager.getMeeting(projectId(arguments.get(1)), uuid(arguments.get(2)));
+        if (meeting == null) {
+            throw new IllegalArgumentException("Unknown meeting " + arguments.get(2));
+        }
+        StringBuilder fields = new StringBuilder();
+        fields.append(",\"id\":\"").append(meeting.id).append("\",\"title\":").append(BulkTransfer.quote(meeting.title))
+                .append(",\"date\":").append(BulkTransfer.quote(Dates.format(meeting.date)))
+                .append(",\"summary\":").append(BulkTransfer.quote(meeting.summary)).append(",\"attendees\":[");
+        for (int i = 0; i < meeting.attendees.size(); i++) {
+            fields.append(i == 0 ? "\"" : ",\"").append(meeting.attendees.get(i).id).append('"');
+        }
+        return fields.append(']').toString();
+    }
+
+    private String search(List<String> arguments) {
+        expectArguments(arguments, 1, Integer.MAX_VALUE);
+        if (searchIndex == null) {
+            searchIndex = SearchIndex.openForQueries(fileManager);
+        }
+        List<SearchIndex.SearchHit> hits = searchIndex.search(String.join(" ", arguments.subList(1, arguments.size())), SEARCH_RESULT_LIMIT);
+        StringBuilder fields = new StringBuilder(",\"hits\":[");
+        for (int i = 0; i < hits.size(); i++) {
+            SearchIndex.SearchHit hit = hits.get(i);
+            fields.append(i == 0 ? "" : ",").append("{\"project\":\"").append(hit.projectId).append("\",\"meeting\":\"").append(hit.meetingId)
+                    .append("\",\"title\":").append(BulkTransfer.quote(hit.meetingTitle)).append('}');
+        }
+        return fields.append(']').toString();
+    }
+
+    /*
+     * Returns the project a command adds to, from memory if it was used recently.
+     */
+    private Project project(String argument) {
+        UUID projectId = projectId(argument);
+        Project project = projects.get(projectId);
+        if (project == null) {
+            project = fileManager.getProject(projectId);
+            if (project == null) {
+                throw new IllegalArgumentException("Unknown project " + projectId);
+            }
+            // Copied so the commands can add to them whatever list type was loaded
+            project.individuals = new ArrayList<>(project.individuals);
+            project.meetings = new ArrayList<>(project.meetings);
+            projects.put(projectId, project);
+        }
+        return project;
+    }
+
+    private UUID projectId(String argument) {
+        if (argument.equals("-")) {
+            if (lastProjectId == null) {
+                throw new IllegalArgumentException("No project has been created yet");
+            }
+            return lastProjectId;
+        }
+        return uuid(argument);
+    }
+
+    /*
+     * Finds an attendee by id, or by their number in the project's list of
+     * individuals as shown in the menus.
+     */
+    private static Individual attendee(Project project, String argument) {
+        if (argument.length() < 36) {
+            try {
+                return project.individuals.get(Integer.parseInt(argument) - 1);
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Invalid attendee number " + argument);
+            }
+        }
+        UUID individualId = uuid(argument);
+        for (Individual individual : project.individuals) {
+            if (individual.id.equals(individualId)) {
+                return individual;
+            }
+        }
+        throw new IllegalArgumentException("Unknown attendee " + individualId);
+    }
+
+    private static UUID uuid(String argument) {
+        try {
+            return UUID.fromString(argument);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid id \"" + argument + "\"");
+        }
+    }
+
+    private static Date date(String argument) {
+        try {
+            return Dates.parse(argument);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date \"" + argument + "\", expected dd/MM/yyyy");
+        }
+    }
+
+    private static void expectArguments(List<String> arguments, int min, int max) {
+        int count = arguments.size() - 1;
+        if (count < min || count > max) {
+            String expected = min == max ? String.valueOf(min) : max == Integer.MAX_VALUE ? "at least " + min : min + " to " + max;
+            throw new IllegalArgumentException(arguments.get(0) + " expects " + expected + " argument(s), got " + count);
+        }
+    }
+
+    /*
+     * Splits a command line into arguments, honouring double quotes.
+     */
+    static List<String> tokenize(String line) {
+        List<String> arguments = new ArrayList<>();
+        StringBuilder argument = new StringBuilder();
+        int i = 0;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            argument.setLength(0);
+            if (c == '"') {
+                i++;
+                boolean closed = false;
+                while (i < line.length()) {
+                    c = line.charAt(i++);
+                    if (c == '"') {
+                        closed = true;
+                        break;
+                    }
+                    if (c == '\\' && i < line.length()) {
+                        c = line.charAt(i++);
+                    }
+                    argument.append(c);
+                }
+                if (!closed) {
+                    throw new IllegalArgumentException("Unterminated quote");
+                }
+            } else {
+                while (i < line.length() && !Character.isWhitespace(line.charAt(i))) {
+                    argument.append(line.charAt(i++));
+                }
+            }
+            arguments.add(argument.toString());
+        }
+        return arguments;
+    }
+
+    /*
+     * A write queued by a command, along with the start of the command's result
+     * line, to report it with if it fails.
+     */
+    private static class QueuedWrite {
+        final String prefix;
+        final CompletableFuture<Void> written;
+
+        QueuedWrite(String prefix, CompletableFuture<Void> written) {
+            this.prefix = prefix;
+            this.written = written;
+        }
+    }
+
+    /*
+     * The number of commands run and how many of them failed.
+     */
+    public static class RunResult {
+        public long commands;
+        public long failed;
+        public long millis;
+
+        @Override
+        public String toString() {
+            return commands + " command(s), " + failed + " failed, in " + millis + " ms";
+        }
+    }
+}
@@ -0,0 +1,190 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/*
+ * A read-only copy of a project laid out to take as little heap as possible,
+ * for callers that hold many projects in memory at once. Built from a Project
+ * with of() and turned back into one with toProject().
+ *
+ * Instead of an object per individual and meeting, each field is a column:
+ * UUIDs are stored as pairs of longs (most significant bits first), dates as
+ * epoch days with Dates.NO_DATE for a missing date, roles as interned strings,
+ * and each meeting's attendees as indexes into the individual columns.
+ */
+public class CompactProject {
+
+    public final long idMost;
+    public final long idLeast;
+    public final String title;
+    public final String goal;
+    public final int startEpochDay;
+
+    public final long[] individualIds;
+    public final String[] individualNames;
+    public final String[] individualRoles;
+
+    public final long[] meetingIds;
+    public final String[] meetingTitles;
+    public final int[] meetingEpochDays;
+    public final String[] meetingSummaries;
+    public final int[][] meetingAttendees;
+
+    private static final int[] NO_ATTENDEES = new int[0];
+
+    private CompactProject(Project project) {
+        idMost = project.id.getMostSignificantBits();
+        idLeast = project.id.getLeastSignificantBits();
+        title = project.title;
+        goal = project.goal;
+        startEpochDay = Dates.toEpochDay(project.startDate);
+
+        int individualCount = project.individuals.size();
+        individualIds = new long[individualCount * 2];
+        individualNames = new String[individualCount];
+        individualRoles = new String[individualCount];
+        Map<UUID, Integer> indexes = new HashMap<>(individualCount * 2);
+        for (int i = 0; i < individualCount; i++) {
+            Individual individual = project.individuals.get(i);
+            individualIds[i * 2] = individual.id.getMostSignificantBits();
+            individualIds[i * 2 + 1] = individual.id.getLeastSignificantBits();
+            individualNames[i] = individual.name;
+            individualRoles[i] = individual.role == null ? null : individual.role.intern();
+            indexes.putIfAbsent(individual.id, i);
+        }
+
+        int meetingCount = project.meetings.size();
+        meetingIds = new long[meetingCount * 2];
+        meetingTitles = new String[meetingCount];
+        meetingEpochDays = new int[meetingCount];
+        meetingSummaries = new String[meetingCount];
+        meetingAttendees = new int[meetingCount][];
+        for (int i = 0; i < meetingCount; i++) {
+            Meeting meeting = project.meetings.get(i);
+            meetingIds[i * 2] = meeting.id.getMostSignificantBits();
+            meetingIds[i * 2 + 1] = meeting.id.getLeastSignificantBits();
+            meetingTitles[i] = meeting.title;
+            meetingEpochDays[i] = Dates.toEpochDay(meeting.date);
+            meetingSummaries[i] = meeting.summary;
+            meetingAttendees[i] = attendeeIndexes(meeting.attendees, indexes);
+        }
+    }
+
+    /*
+     * Returns a compact copy of a project. Attendees who are not one of the
+     * project's individuals are left out, as they are when a meeting file is read.
+     */
+    public static CompactProject of(Project project) {
+        return new CompactProject(project);
+    }
+
+    private static int[] attendeeIndexes(List<Individual> attendees, Map<UUID, Integer> indexes) {
+        if (attendees.isEmpty()) {
+            return NO_ATTENDEES;
+        }
+        int[] attendeeIndexes = new int[attendees.size()];
+        int count = 0;
+        for (Individual attendee : attendees) {
+            Integer index = indexes.get(attendee.id);
+            if (index != null) {
+                attendeeIndexes[count++] = index;
+            }
+        }
+        return count == attendeeIndexes.length ? attendeeIndexes : Arrays.copyOf(attendeeIndexes, count);
+    }
+
+    public UUID getId() {
+        return new UUID(idMost, idLeast);
+    }
+
+    public LocalDate getStartDate() {
+        return Dates.toLocalDate(startEpochDay);
+    }
+
+    public int getIndividualCount() {
+        return individualNames.length;
+    }
+
+    public UUID getIndividualId(int individual) {
+        return new UUID(individualIds[individual * 2], individualIds[individual * 2 + 1]);
+    }
+
+    /*
+     * Returns the index of the individual with the given id, or -1 if there is
+     * none. Compares the id's two halves, so no UUID needs to be built.
+     */
+    public int indexOfIndividual(long most, long least) {
+        for (int i = 0; i < individualNames.length; i++) {
+            if (individualIds[i * 2] == most && individualIds[i * 2 + 1] == least) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getMeetingCount() {
+        return meetingTitles.length;
+    }
+
+    public UUID getMeetingId(int meeting) {
+        return new UUID(meetingIds[meeting * 2], meetingIds[meeting * 2 + 1]);
+    }
+
+    public LocalDate getMeetingDate(int meeting) {
+        return Dates.toLocalDate(meetingEpochDays[meeting]);
+    }
+
+    /*
+     * Returns true if the individual at the given index attended the meeting.
+     */
+    public boolean attended(int meeting, int individual) {
+        for (int attendee : meetingAttendees[meeting]) {
+            if (attendee == individual) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Builds an ordinary Project holding the same details. Attendees share the
+     * project's Individual instances.
+     */
+    public Project toProject() {
+        Project project = new Project();
+        project.id = getId();
+        project.title = title;
+        project.goal = goal;
+        project.startDate = Dates.toDate(startEpochDay);
+
+        Individual[] individuals = new Individual[individualNames.length];
+        project.individuals = new ArrayList<>(individuals.length);
+        for (int i = 0; i < individuals.length; i++) {
+            Individual individual = new Individual();
+            individual.id = getIndividualId(i);
+            individual.name = individualNames[i];
+            individual.role = individualRoles[i];
+            individuals[i] = individual;
+            project.individuals.add(individual);
+        }
+
+        project.meetings = new ArrayList<>(meetingTitles.length);
+        for (int i = 0; i < meetingTitles.length; i++) {
+            Meeting meeting = new Meeting();
+            meeting.id = getMeetingId(i);
+            meeting.title = meetingTitles[i];
+            meeting.date = Dates.toDate(meetingEpochDays[i]);
+            meeting.summary = meetingSummaries[i];
+            meeting.attendees = new ArrayList<>(meetingAttendees[i].length);
+            for (int attendee : meetingAttendees[i]) {
+                meeting.attendees.add(individuals[attendee]);
+            }
+            project.meetings.add(meeting);
+        }
+        return project;
+    }
+}
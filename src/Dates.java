@@ -0,0 +1,80 @@
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.Date;
+
+/*
+ * Converts between the dates held by the model, the dd/MM/yyyy text used in
+ * project files and on screen, and epoch days. The formatters are immutable and
+ * thread-safe, so one instance is shared by every caller instead of building a
+ * SimpleDateFormat for each date.
+ *
+ * Dates are calendar days in the system time zone; a Date is taken to mean the
+ * day it falls on there.
+ */
+public final class Dates {
+
+    /*
+     * Epoch day used to store a missing date.
+     */
+    public static final int NO_DATE = Integer.MIN_VALUE;
+
+    public static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+    /*
+     * Accepts days and months without a leading zero, as SimpleDateFormat did, but
+     * rejects days that do not exist such as 31/02.
+     */
+    private static final DateTimeFormatter PARSE_FORMAT = DateTimeFormatter.ofPattern("d/M/u").withResolverStyle(ResolverStyle.STRICT);
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private Dates() {
+    }
+
+    /*
+     * Parses a dd/MM/yyyy date, throwing DateTimeParseException if it is not one.
+     */
+    public static LocalDate parseLocalDate(String text) throws DateTimeParseException {
+        return LocalDate.parse(text.trim(), PARSE_FORMAT);
+    }
+
+    public static Date parse(String text) throws DateTimeParseException {
+        return toDate(parseLocalDate(text));
+    }
+
+    /*
+     * Formats a date as dd/MM/yyyy, or returns null for a missing date.
+     */
+    public static String format(Date date) {
+        return date == null ? null : FORMAT.format(toLocalDate(date));
+    }
+
+    public static String format(LocalDate date) {
+        return date == null ? null : FORMAT.format(date);
+    }
+
+    public static LocalDate toLocalDate(Date date) {
+        // Date.toInstant is not supported by java.sql.Date, so go through the millis
+        return date == null ? null : Instant.ofEpochMilli(date.getTime()).atZone(ZONE).toLocalDate();
+    }
+
+    public static Date toDate(LocalDate date) {
+        return date == null ? null : Date.from(date.atStartOfDay(ZONE).toInstant());
+    }
+
+    public static int toEpochDay(Date date) {
+        return date == null ? NO_DATE : (int) toLocalDate(date).toEpochDay();
+    }
+
+    public static Date toDate(int epochDay) {
+        return epochDay == NO_DATE ? null : toDate(LocalDate.ofEpochDay(epochDay));
+    }
+
+    public static LocalDate toLocalDate(int epochDay) {
+        return epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay);
+    }
+}
@@ -0,0 +1,44 @@
+import java.util.Arrays;
+import java.util.Locale;
+
+/*
+ * How far FileManager goes to make sure a write survives a crash. Every level
+ * replaces files atomically, so a crash never leaves a half-written file; the
+ * levels differ in whether the data is forced to disk before a write returns.
+ */
+public enum Durability {
+
+    /*
+     * Files are renamed into place without being forced to disk. A crash of the
+     * program loses nothing, but a crash of the machine may lose recent writes.
+     */
+    NONE,
+
+    /*
+     * Every write is forced to disk before it returns, but writes made at the same
+     * time by different threads, or as one bulk write, are committed together so
+     * they share the cost of syncing.
+     */
+    BATCH,
+
+    /*
+     * Every file is forced to disk, along with its folder, on its own.
+     */
+    EVERY_WRITE;
+
+    /*
+     * Returns the level named by the projects.durability system property, in any
+     * case, or NONE if it is not set. A value that names no level is rejected
+     * rather than quietly taken as NONE.
+     */
+    public static Durability fromSystemProperty() {
+        String value = System.getProperty("projects.durability", NONE.name());
+        String name = value.trim().toUpperCase(Locale.ROOT);
+        for (Durability durability : values()) {
+            if (durability.name().equals(name)) {
+                return durability;
+            }
+        }
+        throw new IllegalArgumentException("Unknown projects.durability \"" + value + "\", expected one of " + Arrays.toString(values()));
+    }
+}
@@ -1,275 +1,1775 @@
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.UUID;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 public class FileManager {
 
     private static final String BASE_PROJECT_PATH = "projects";
+    private static final int STREAM_PAGE_SIZE = 50;
+
+    /*
+     * The fields of each kind of file, in the order they are written.
+     */
+    private static final String[] PROJECT_KEYS = { "id", "title", "goal", "startDate" };
+    private static final String[] INDIVIDUAL_KEYS = { "id", "name", "role" };
+    private static final String[] MEETING_KEYS = { "id", "title", "date", "summary", "attendees" };
+
+    /*
+     * Folder the projects are stored in. Constructors not given one use the
+     * projects.root system property, falling back to the projects folder in the
+     * working directory.
+     */
+    private final String projectPath;
+
+    /*
+     * Where each project file lives in the projects folder, flat or sharded.
+     */
+    private final ProjectLayout layout;
+
+    /*
+     * Maximum number of files parsed at the same time when loading projects. A
+     * value of 1 loads everything on the calling thread, which is the default
+     * unless the projects.loadParallelism system property says otherwise.
+     */
+    private final ForkJoinPool loadPool;
+    private final List<LoadError> loadErrors = Collections.synchronizedList(new ArrayList<>());
+
+    /*
+     * Where projects are stored when not using the default one-file-per-entity
+     * layout. Null means the projects folder layout described below is used.
+     */
+    private final StorageEngine storageEngine;
+
+    /*
+     * Whether full loads of the projects folder are cached in a binary snapshot,
+     * turned on by the projects.snapshot system property. The most recently
+     * opened snapshot is kept so repeated loads do not re-check its checksum.
+     * Writes leave the snapshot in place, as they move the folder times its
+     * stamp is made from.
+     */
+    private final boolean snapshotEnabled = Boolean.getBoolean("projects.snapshot");
+    private volatile ProjectSnapshot snapshot;
+
+    /*
+     * The size, modification time and hash of every project file as of the last
+     * refresh, along with what was parsed from each, so the next refresh only
+     * has to read the files that changed.
+     */
+    private final ProjectManifest manifest = new ProjectManifest();
+
+    /*
+     * Notified after every project, individual and meeting this file manager
+     * writes, so derived data such as indexes can be kept up to date.
+     */
+    private final CopyOnWriteArrayList<WriteListener> writeListeners = new CopyOnWriteArrayList<>();
+
+    /*
+     * Number of writes made through this file manager, counted before its
+     * listeners are told about each, so a listener registered late can tell
+     * whether it has missed any.
+     */
+    private final AtomicLong writesMade = new AtomicLong();
+
+    /*
+     * Writes every project file atomically, forcing it to disk as far as the
+     * projects.durability system property asks.
+     */
+    private final AtomicFileWriter fileWriter = new AtomicFileWriter(Durability.fromSystemProperty());
+
+    /*
+     * Commits the files queued by the write-behind queue. Each batch is forced to
+     * disk before it is reported written, whatever projects.durability says, as
+     * the whole batch shares one sync and nobody is kept waiting on it.
+     */
+    private final AtomicFileWriter writeBehindWriter = fileWriter.getDurability() == Durability.NONE ? new AtomicFileWriter(Durability.BATCH) : fileWriter;
+
+    /*
+     * Timings and counters for this projects folder, shared with every other file
+     * manager on it. Turned on by the projects.metrics system property.
+     */
+    private final Metrics metrics;
+
+    /*
+     * Creates a file manager for the projects folder named by projects.root. The
+     * secondary indexes, search index and attendance analytics are kept up to
+     * date from every write unless turned off with projects.indexes,
+     * projects.search or projects.analytics set to false. History is only kept
+     * with projects.history set to true, as it keeps every version.
+     */
+    public FileManager() {
+        this(System.getProperty("projects.root", BASE_PROJECT_PATH), Integer.getInteger("projects.loadParallelism", 1), defaultStorageEngine());
+        if (Boolean.parseBoolean(System.getProperty("projects.indexes", "true"))) {
+            SecondaryIndexes.openForQueries(this);
+        }
+        if (Boolean.parseBoolean(System.getProperty("projects.search", "true"))) {
+            SearchIndex.openForQueries(this);
+        }
+        if (Boolean.parseBoolean(System.getProperty("projects.analytics", "true"))) {
+            AttendanceAnalytics.openForQueries(this);
+        }
+        if (Boolean.getBoolean("projects.history")) {
+            addWriteListener(ProjectHistory.open(this));
+        }
+    }
+
+    public FileManager(int loadParallelism) {
+        this(loadParallelism, null);
+    }
+
+    public FileManager(StorageEngine storageEngine) {
+        this(1, storageEngine);
+    }
+
+    public FileManager(int loadParallelism, StorageEngine storageEngine) {
+        this(System.getProperty("projects.root", BASE_PROJECT_PATH), loadParallelism, storageEngine);
+    }
+
+    public FileManager(String projectPath, int loadParallelism) {
+        this(projectPath, loadParallelism, null);
+    }
+
+    /*
+     * Creates a file manager that keeps no derived data up to date. Each write
+     * through it only marks the persisted secondary indexes and search index
+     * stale, so they are rebuilt by the next query in any process rather than
+     * answering without it, and drops the project written from the attendance
+     * analytics kept in this process. Querying through this file manager has it
+     * keep them up to date instead.
+     */
+    public FileManager(String projectPath, int loadParallelism, StorageEngine storageEngine) {
+        if (loadParallelism < 1) {
+            throw new IllegalArgumentException("loadParallelism must be at least 1");
+        }
+        this.loadPool = loadParallelism > 1 ? new ForkJoinPool(loadParallelism) : null;
+        this.projectPath = projectPath;
+        this.layout = new ProjectLayout(new File(projectPath));
+        this.storageEngine = storageEngine;
+        this.metrics = Metrics.forRoot(new File(projectPath));
+        addWriteListener(SecondaryIndexes.open(this).staleMarker());
+        addWriteListener(SearchIndex.open(this).staleMarker());
+        addWriteListener(AttendanceAnalytics.open(this).invalidator());
+    }
+
+    /*
+     * Returns the storage engine selected by the projects.storage system property.
+     * Setting it to "journal" stores projects in the append-only journal found at
+     * projects.journalPath; anything else keeps the default projects folder layout.
+     */
+    private static StorageEngine defaultStorageEngine() {
+        if ("journal".equals(System.getProperty("projects.storage"))) {
+            return JournalStorage.open(System.getProperty("projects.journalPath", JournalStorage.DEFAULT_JOURNAL_PATH));
+        }
+        return null;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /*
+     * Registers a listener to be told about every write made through this file
+     * manager. The secondary indexes, search index and attendance analytics are
+     * instead attached with their openForQueries, which also stops the writes
+     * marking them stale.
+     */
+    public void addWriteListener(WriteListener listener) {
+        writeListeners.add(listener);
+    }
+
+    /*
+     * Registers a listener unless it already is, and returns true if this call
+     * registered it after writes had been made through this file manager, which
+     * the listener has missed. A write made while this runs is either counted as
+     * missed or told to the listener, possibly both.
+     */
+    public boolean attachWriteListener(WriteListener listener) {
+        return writeListeners.addIfAbsent(listener) && writesMade.get() > 0;
+    }
+
+    public void removeWriteListener(WriteListener listener) {
+        writeListeners.remove(listener);
+    }
+
+    /*
+     * Counts a write that has just been made and returns the listeners to tell
+     * about it.
+     */
+    private List<WriteListener> writeMade() {
+        writesMade.incrementAndGet();
+        return writeListeners;
+    }
 
     /*
      * Creates the project folder structure, including the config file, individuals
      * folder, and meetings folder.
      */
-    public void createProjectFolderStructure(UUID projectId) {
-        File projectFolder = new File(BASE_PROJECT_PATH, projectId.toString());
-        projectFolder.mkdirs();
-        createIndividualsFolder(projectId);
-        createMeetingsFolder(projectId);
+    public void createProjectFolderStructure(UUID projectId) {
+        long started = metrics.start();
+        try {
+            if (storageEngine != null) {
+                return; // The storage engine creates whatever it needs on the first write
+            }
+            try {
+                unarchiveBeforeWrite(projectId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            layout.createProjectFolders(projectId);
+        } finally {
+            metrics.stop("createProjectFolderStructure", started);
+        }
+    }
+
+    /*
+     * Creates the project config file, which stores the project title, goal, and
+     * start date.
+     */
+    public void createProjectConfigFile(Project project) throws IOException {
+        long started = metrics.start();
+        try {
+            if (storageEngine != null) {
+                storageEngine.saveProject(project);
+            } else {
+                unarchiveBeforeWrite(project.id);
+                setupProjectConfigFile(project);
+            }
+            for (WriteListener listener : writeMade()) {
+                listener.projectWritten(project);
+            }
+        } finally {
+            metrics.stop("createProjectConfigFile", started);
+        }
+    }
+
+    /*
+     * Writes the project details to the project config file.
+     */
+    private void setupProjectConfigFile(Project project) throws IOException {
+        writeFile(new File(layout.projectFolderForWrite(project.id), ProjectLayout.CONFIG_FILE_NAME), projectConfigText(project));
+    }
+
+    private static String projectConfigText(Project project) {
+        return RecordCodec.format(PROJECT_KEYS, String.valueOf(project.id), project.title, project.goal, Dates.format(project.startDate));
+    }
+
+    /*
+     * Creates an individual file within the project's individuals folder.
+     */
+    public void createIndividualFile(Project project, Individual individual) throws IOException {
+        long started = metrics.start();
+        try {
+            if (storageEngine != null) {
+                storageEngine.saveIndividual(project, individual);
+            } else {
+                unarchiveBeforeWrite(project.id);
+                setupIndividualFile(project, individual);
+            }
+            for (WriteListener listener : writeMade()) {
+                listener.individualWritten(project, individual);
+            }
+        } finally {
+            metrics.stop("createIndividualFile", started);
+        }
+    }
+
+    /*
+     * Writes the individual details to the individual file.
+     */
+    private void setupIndividualFile(Project project, Individual individual) throws IOException {
+        writeFile(layout.entityFileForWrite(project.id, ProjectLayout.INDIVIDUALS, individual.id), individualText(individual));
+    }
+
+    private static String individualText(Individual individual) {
+        return RecordCodec.format(INDIVIDUAL_KEYS, String.valueOf(individual.id), individual.name, individual.role);
+    }
+
+    /*
+     * Creates the files for many individuals of one project at once, such as during
+     * a bulk import. Files are written in parallel on the load pool when one is
+     * configured, and write listeners are told about the whole batch together.
+     */
+    public void createIndividualFiles(Project project, List<Individual> individuals) throws IOException {
+        long started = metrics.start();
+        try {
+            if (storageEngine != null) {
+                for (Individual individual : individuals) {
+                    storageEngine.saveIndividual(project, individual);
+                }
+            } else {
+                unarchiveBeforeWrite(project.id);
+                writeAll(individuals, individual -> layout.entityFileForWrite(project.id, ProjectLayout.INDIVIDUALS, individual.id), FileManager::individualText);
+            }
+            for (WriteListener listener : writeMade()) {
+                listener.individualsWritten(project, individuals);
+            }
+        } finally {
+            metrics.stop("createIndividualFiles", started);
+        }
+    }
+
+    /*
+     * Creates a meeting file within the project's meetings folder.
+     */
+    public void createMeetingFile(Project project, Meeting meeting) throws IOException {
+        long started = metrics.start();
+        try {
+            if (storageEngine != null) {
+                storageEngine.saveMeeting(project, meeting);
+            } else {
+                unarchiveBeforeWrite(project.id);
+                setupMeetingFile(project, meeting);
+            }
+            for (WriteListener listener : writeMade()) {
+                listener.meetingWritten(project, meeting);
+            }
+        } finally {
+            metrics.stop("createMeetingFile", started);
+        }
+    }
+
+    /*
+     * Writes the meeting details to the meeting file.
+     */
+    private void setupMeetingFile(Project project, Meeting meeting) throws IOException {
+        writeFile(layout.entityFileForWrite(project.id, ProjectLayout.MEETINGS, meeting.id), meetingText(meeting));
+    }
+
+    private static String meetingText(Meeting meeting) {
+        List<String> attendeeIds = new ArrayList<>();
+        for (Individual individual : meeting.attendees) {
+            attendeeIds.add(individual.id.toString());
+        }
+
+        return RecordCodec.format(MEETING_KEYS, String.valueOf(meeting.id), meeting.title, Dates.format(meeting.date), meeting.summary,
+                String.join(",", attendeeIds));
+    }
+
+    /*
+     * Creates the files for many meetings of one project at once, in the same way
+     * as createIndividualFiles.
+     */
+    public void createMeetingFiles(Project project, List<Meeting> meetings) throws IOException {
+        long started = metrics.start();
+        try {
+            if (storageEngine != null) {
+                for (Meeting meeting : meetings) {
+                    storageEngine.saveMeeting(project, meeting);
+                }
+            } else {
+                unarchiveBeforeWrite(project.id);
+                writeAll(meetings, meeting -> layout.entityFileForWrite(project.id, ProjectLayout.MEETINGS, meeting.id), FileManager::meetingText);
+            }
+            for (WriteListener listener : writeMade()) {
+                listener.meetingsWritten(project, meetings);
+            }
+        } finally {
+            metrics.stop("createMeetingFiles", started);
+        }
+    }
+
+    /*
+     * Queues an individual file to be written in the background by the projects
+     * folder's write-behind queue, returning once it is queued. If the queue is
+     * full this waits until there is room. The returned future completes once
+     * the file is on disk; until then the individual is included in the projects
+     * every file manager of this process reads. The individual is copied when it
+     * is queued, so changes made to it afterwards are not written.
+     */
+    public CompletableFuture<Void> createIndividualFileAsync(Project project, Individual individual) {
+        return WriteBehindQueue.forRoot(this).addIndividual(this, project, individual);
+    }
+
+    /*
+     * Queues a meeting file to be written in the background, in the same way as
+     * createIndividualFileAsync.
+     */
+    public CompletableFuture<Void> createMeetingFileAsync(Project project, Meeting meeting) {
+        return WriteBehindQueue.forRoot(this).addMeeting(this, project, meeting);
+    }
+
+    /*
+     * Writes one batch of a project's queued individuals and meetings for the
+     * write-behind queue. The individuals are renamed into place before the
+     * meetings that may name them as attendees, and the whole batch is forced
+     * to disk in one group commit before write listeners are told about it.
+     */
+    void writeBehind(Project project, List<Individual> individuals, List<Meeting> meetings) throws IOException {
+        long started = metrics.start();
+        try {
+            if (storageEngine != null) {
+                for (Individual individual : individuals) {
+                    storageEngine.saveIndividual(project, individual);
+                }
+                for (Meeting meeting : meetings) {
+                    storageEngine.saveMeeting(project, meeting);
+                }
+            } else {
+                unarchiveBeforeWrite(project.id);
+                List<AtomicFileWriter.PreparedWrite> writes = new ArrayList<>(individuals.size() + meetings.size());
+                try {
+                    prepareAll(writeBehindWriter, individuals, individual -> layout.entityFileForWrite(project.id, ProjectLayout.INDIVIDUALS, individual.id),
+                            FileManager::individualText, writes);
+                    prepareAll(writeBehindWriter, meetings, meeting -> layout.entityFileForWrite(project.id, ProjectLayout.MEETINGS, meeting.id),
+                            FileManager::meetingText, writes);
+                } catch (IOException | RuntimeException e) {
+                    writeBehindWriter.discard(writes);
+                    throw e;
+                }
+                commitAll(writeBehindWriter, writes);
+            }
+            for (WriteListener listener : writeMade()) {
+                if (!individuals.isEmpty()) {
+                    listener.individualsWritten(project, individuals);
+                }
+                if (!meetings.isEmpty()) {
+                    listener.meetingsWritten(project, meetings);
+                }
+            }
+        } finally {
+            metrics.stop("writeBehind", started);
+        }
+    }
+
+    /*
+     * Packs a project's files into a single compressed pack file and removes its
+     * folders, returning false if it has no config file to pack. Archived
+     * projects are still read as before, from their packs, and are unpacked
+     * again the next time anything is written to them.
+     *
+     * The pack is written and renamed into place before the folders are renamed
+     * away and deleted, so readers find the project in one or the other
+     * throughout. Writes to the project while it is being archived are lost, so
+     * callers should hold its write lock, as LockingProjectRepository does.
+     */
+    public boolean archiveProject(UUID projectId) throws IOException {
+        long started = metrics.start();
+        try {
+            if (storageEngine != null) {
+                throw new UnsupportedOperationException("Archiving is only supported for the projects folder layout");
+            }
+            ProjectLayout.ProjectLocation location = layout.locate(projectId);
+            if (location != null && location.isArchived()) {
+                return true;
+            }
+            if (location == null || !location.config().isFile()) {
+                return false;
+            }
+
+            byte[] config = Files.readAllBytes(location.config().toPath());
+            List<ProjectPack.Record> individuals = readRecords(location, ProjectLayout.INDIVIDUALS);
+            List<ProjectPack.Record> meetings = readRecords(location, ProjectLayout.MEETINGS);
+            File pack = layout.packFileForWrite(projectId);
+            pack.getParentFile().mkdirs();
+            ProjectPack.write(pack, config, individuals, meetings);
+            metrics.bytesWritten(pack.length());
+
+            for (File folder : location.folders()) {
+                File removed = layout.tempProjectFolder(projectId);
+                Files.move(folder.toPath(), removed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                deleteFolder(removed);
+            }
+            return true;
+        } finally {
+            metrics.stop("archiveProject", started);
+        }
+    }
+
+    /*
+     * Returns the individual or meeting files of a project as records to pack.
+     */
+    private List<ProjectPack.Record> readRecords(ProjectLayout.ProjectLocation location, String kind) throws IOException {
+        List<ProjectPack.Record> records = new ArrayList<>();
+        for (File file : listEntityFiles(location, kind)) {
+            UUID id = idOf(file.getName());
+            if (id == null) {
+                throw new IOException("Cannot archive " + file + ", as it is not named after an id");
+            }
+            records.add(new ProjectPack.Record(id, Files.readAllBytes(file.toPath())));
+            metrics.fileOpened(file);
+        }
+        return records;
+    }
+
+    /*
+     * Unpacks an archived project into its folders, in the layout new files are
+     * written in, and deletes its pack. The files are written into a temporary
+     * folder that is renamed into place whole, so readers see either the pack
+     * or every file of the project, and are as durable as any other write of
+     * this file manager. Does nothing if the project has no pack.
+     */
+    public void unarchiveProject(UUID projectId) throws IOException {
+        long started = metrics.start();
+        try {
+            if (storageEngine != null) {
+                throw new UnsupportedOperationException("Archiving is only supported for the projects folder layout");
+            }
+            File packFile = layout.findPack(projectId);
+            if (packFile == null) {
+                return;
+            }
+            ProjectLayout.ProjectLocation location = layout.locate(projectId);
+            if (location != null && !location.isArchived()) {
+                // Left by an unarchive that was interrupted, or that another writer finished first
+                Files.deleteIfExists(packFile.toPath());
+                return;
+            }
+
+            ProjectPack pack = openPack(packFile);
+            File temp = layout.tempProjectFolder(projectId);
+            List<AtomicFileWriter.PreparedWrite> writes = new ArrayList<>(1 + pack.count(ProjectPack.INDIVIDUAL) + pack.count(ProjectPack.MEETING));
+            try {
+                temp.mkdirs();
+                writes.add(fileWriter.prepare(new File(temp, ProjectLayout.CONFIG_FILE_NAME), prepareFolders(new File(temp, ProjectLayout.CONFIG_FILE_NAME)),
+                        pack.config()));
+                for (String kind : new String[] { ProjectLayout.INDIVIDUALS, ProjectLayout.MEETINGS }) {
+                    new File(temp, kind).mkdirs();
+                    pack.forEach(packKind(kind), (id, bytes) -> {
+                        File file = layout.entityFileIn(temp, kind, id + ".txt");
+                        writes.add(fileWriter.prepare(file, prepareFolders(file), bytes));
+                    });
+                }
+                commitAll(fileWriter, writes);
+            } catch (IOException | RuntimeException e) {
+                fileWriter.discard(writes);
+                deleteFolder(temp);
+                throw e;
+            }
+
+            if (!layout.moveIntoPlace(temp, projectId)) {
+                deleteFolder(temp); // Unarchived by another writer first
+            }
+            Files.deleteIfExists(packFile.toPath());
+        } finally {
+            metrics.stop("unarchiveProject", started);
+        }
+    }
+
+    /*
+     * Unpacks a project before it is written to, if it is archived. A project's
+     * files are only ever written to its folders.
+     */
+    private void unarchiveBeforeWrite(UUID projectId) throws IOException {
+        if (layout.findPack(projectId) != null) {
+            unarchiveProject(projectId);
+        }
+    }
+
+    private static void deleteFolder(File folder) throws IOException {
+        if (!folder.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(folder.toPath())) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /*
+     * Atomically replaces the contents of a file with the given text.
+     */
+    private void writeFile(File file, String text) throws IOException {
+        byte[] bytes = text.getBytes(Charset.defaultCharset());
+        fileWriter.write(file, prepareFolders(file), bytes);
+        metrics.bytesWritten(bytes.length);
+    }
+
+    /*
+     * Creates the folders a file is about to be written to, which in the sharded
+     * layout may not exist yet, and returns the folder to write its temporary
+     * file in.
+     */
+    private static File prepareFolders(File file) {
+        File tempFolder = ProjectLayout.tempFolderFor(file);
+        if (tempFolder != file.getParentFile()) {
+            file.getParentFile().mkdirs();
+        }
+        return tempFolder;
+    }
+
+    /*
+     * Writes one file per item and commits them together, so with BATCH
+     * durability the whole batch shares one group commit. If any file cannot be
+     * prepared, none of them are written.
+     */
+    private <T> void writeAll(List<T> items, Function<T, File> locate, Function<T, String> format) throws IOException {
+        List<AtomicFileWriter.PreparedWrite> writes = new ArrayList<>(items.size());
+        try {
+            prepareAll(fileWriter, items, locate, format, writes);
+        } catch (IOException | RuntimeException e) {
+            fileWriter.discard(writes);
+            throw e;
+        }
+        commitAll(fileWriter, writes);
+    }
+
+    /*
+     * Prepares one file per item with the given writer, adding the writes to the
+     * list in the order of the items. The files are prepared in parallel on the
+     * load pool when one is configured. If any file cannot be prepared, the
+     * writes prepared so far are left in the list for the caller to discard.
+     */
+    private <T> void prepareAll(AtomicFileWriter writer, List<T> items, Function<T, File> locate, Function<T, String> format,
+            List<AtomicFileWriter.PreparedWrite> writes) throws IOException {
+        if (loadPool == null || items.size() < 2) {
+            for (T item : items) {
+                File target = locate.apply(item);
+                writes.add(writer.prepare(target, prepareFolders(target), format.apply(item).getBytes(Charset.defaultCharset())));
+            }
+            return;
+        }
+
+        List<ForkJoinTask<AtomicFileWriter.PreparedWrite>> tasks = new ArrayList<>(items.size());
+        for (T item : items) {
+            tasks.add(ForkJoinTask.adapt(() -> {
+                File target = locate.apply(item);
+                return writer.prepare(target, prepareFolders(target), format.apply(item).getBytes(Charset.defaultCharset()));
+            }));
+        }
+        try {
+            loadPool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        } catch (RuntimeException e) {
+            for (ForkJoinTask<AtomicFileWriter.PreparedWrite> task : tasks) {
+                if (task.isCompletedNormally()) {
+                    writes.add(task.join());
+                }
+            }
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+            }
+            throw e;
+        }
+        for (ForkJoinTask<AtomicFileWriter.PreparedWrite> task : tasks) {
+            writes.add(task.join());
+        }
+    }
+
+    private void commitAll(AtomicFileWriter writer, List<AtomicFileWriter.PreparedWrite> writes) throws IOException {
+        writer.commit(writes);
+        if (metrics.enabled) {
+            for (AtomicFileWriter.PreparedWrite write : writes) {
+                metrics.bytesWritten(write.target.length());
+            }
+        }
+    }
+
+    /*
+     * Returns a list of all projects by reading the project config files.
+     * Individuals and meetings still queued to be written behind are included.
+     */
+    public List<Project> getProjects() {
+        long started = metrics.start();
+        try {
+            WriteBehindQueue.Pending pending = pendingWrites();
+            return pending.addTo(loadProjects());
+        } finally {
+            metrics.stop("getProjects", started);
+        }
+    }
+
+    /*
+     * Returns the individuals and meetings queued to be written behind in this
+     * projects folder that are not on disk yet. Reads take this before reading
+     * from disk, so every write queued before them is in one or the other.
+     */
+    private WriteBehindQueue.Pending pendingWrites() {
+        return WriteBehindQueue.pending(getProjectsRoot());
+    }
+
+    private List<Project> loadProjects() {
+        if (storageEngine != null) {
+            return loadFromStorageEngine(storageEngine.listProjectIds());
+        }
+
+        List<ProjectLayout.ProjectLocation> locations = listProjects();
+        long stamp = snapshotEnabled ? ProjectSnapshot.stamp(layout, locations) : ProjectSnapshot.UNSETTLED;
+        ProjectSnapshot current = openSnapshot(stamp);
+        if (current != null) {
+            return current.readProjects(0, current.getProjectCount());
+        }
+
+        List<ProjectLayout.ProjectLocation> configured = withConfig(locations);
+        int errorsBefore = loadErrors.size();
+        List<Project> projects = parseAll(configured, ProjectLayout.ProjectLocation::config, this::getProjectFromConfig);
+        if (stamp != ProjectSnapshot.UNSETTLED && loadErrors.size() == errorsBefore && projects.size() == locations.size()) {
+            try {
+                ProjectSnapshot.write(projects, stamp, snapshotFile());
+            } catch (IOException e) {
+                loadErrors.add(new LoadError(snapshotFile(), e));
+            }
+        }
+        return projects;
+    }
+
+    /*
+     * Returns the snapshot taken with the given stamp, or null if there is no
+     * usable snapshot.
+     */
+    private ProjectSnapshot openSnapshot(long stamp) {
+        if (stamp == ProjectSnapshot.UNSETTLED) {
+            return null;
+        }
+        ProjectSnapshot current = snapshot;
+        if (current == null || current.getStamp() != stamp || !snapshotFile().exists()) {
+            current = ProjectSnapshot.open(snapshotFile(), stamp);
+            snapshot = current;
+        }
+        return current;
+    }
+
+    private File snapshotFile() {
+        return new File(projectPath, ProjectSnapshot.SNAPSHOT_FILE_NAME);
+    }
+
+    /*
+     * Returns the files that could not be read since this file manager was
+     * created or the errors were last cleared, along with any errors the storage
+     * engine has met in the background since.
+     */
+    public List<LoadError> getLoadErrors() {
+        if (storageEngine != null) {
+            loadErrors.addAll(storageEngine.takeBackgroundErrors());
+        }
+        synchronized (loadErrors) {
+            return new ArrayList<>(loadErrors);
+        }
+    }
+
+    /*
+     * Forgets all previously reported load errors.
+     */
+    public void clearLoadErrors() {
+        loadErrors.clear();
+    }
+
+    /*
+     * Returns the number of project folders in the projects folder, without
+     * reading any of their files.
+     */
+    public int countProjects() {
+        long started = metrics.start();
+        try {
+            if (storageEngine != null) {
+                return storageEngine.listProjectIds().size();
+            }
+            return listProjects().size();
+        } finally {
+            metrics.stop("countProjects", started);
+        }
+    }
+
+    /*
+     * Returns one page of the project catalogue. Only each project's config file
+     * is read; the individuals and meetings lists are loaded the first time they
+     * are accessed. Pages are zero based and ordered by project id so paging is
+     * stable between calls. A page past the end is empty.
+     */
+    public List<Project> getProjectCatalogue(int page, int pageSize) {
+        checkPage(page, pageSize);
+        long started = metrics.start();
+        try {
+            if (storageEngine != null) {
+                List<UUID> projectIds = storageEngine.listProjectIds();
+                int from = (int) Math.min((long) page * pageSize, projectIds.size());
+                int to = (int) Math.min((long) from + pageSize, projectIds.size());
+                return loadFromStorageEngine(projectIds.subList(from, to));
+            }
+
+            List<ProjectLayout.ProjectLocation> locations = listProjects();
+            int from = (int) Math.min((long) page * pageSize, locations.size());
+            int to = (int) Math.min((long) from + pageSize, locations.size());
+            // Not from the snapshot, as checking it is up to date means looking at
+            // the folders of every project rather than just those of one page
+            return readCatalogue(locations, from, to, null);
+        } finally {
+            metrics.stop("getProjectCatalogue", started);
+        }
+    }
+
+    /*
+     * Returns every project as a lazy stream in catalogue order. Projects are read
+     * a page at a time as the stream is consumed, with their individuals and
+     * meetings loaded on first access, so memory use stays flat however many
+     * projects there are and the first project is available straight away.
+     */
+    public Stream<Project> streamProjects() {
+        if (storageEngine != null) {
+            List<UUID> projectIds = storageEngine.listProjectIds();
+            return pages(projectIds.size()).flatMap(range -> {
+                long started = metrics.start();
+                List<Project> page = loadFromStorageEngine(projectIds.subList(range[0], range[1]));
+                metrics.stop("streamProjects.page", started);
+                return page.stream();
+            });
+        }
+
+        List<ProjectLayout.ProjectLocation> locations = listProjects();
+        ProjectSnapshot current = currentSnapshot(locations);
+        return pages(locations.size()).flatMap(range -> {
+            long started = metrics.start();
+            List<Project> page = readCatalogue(locations, range[0], range[1], current);
+            metrics.stop("streamProjects.page", started);
+            return page.stream();
+        });
+    }
+
+    private static Stream<int[]> pages(int count) {
+        return IntStream.range(0, (count + STREAM_PAGE_SIZE - 1) / STREAM_PAGE_SIZE)
+                .mapToObj(page -> new int[] { page * STREAM_PAGE_SIZE, Math.min(count, (page + 1) * STREAM_PAGE_SIZE) });
+    }
+
+    /*
+     * Returns the snapshot matching the projects folder, or null if snapshots are
+     * disabled or there is no up to date snapshot.
+     */
+    private ProjectSnapshot currentSnapshot(List<ProjectLayout.ProjectLocation> locations) {
+        return snapshotEnabled ? openSnapshot(ProjectSnapshot.stamp(layout, locations)) : null;
+    }
+
+    /*
+     * Reads the catalogue entries for a range of project ids, from the snapshot
+     * when there is one.
+     */
+    private List<Project> readCatalogue(List<ProjectLayout.ProjectLocation> locations, int from, int to, ProjectSnapshot current) {
+        if (current != null) {
+            return current.readProjects(from, to);
+        }
+
+        return parseAll(withConfig(locations.subList(from, to)), ProjectLayout.ProjectLocation::config, location -> {
+            if (location.isArchived()) {
+                return getProjectFromPack(location.pack());
+            }
+            Project project = getProjectHeader(location.config());
+            project.individuals = new LazyList<>(() -> getProjectIndividuals(location));
+            project.meetings = new LazyList<>(() -> getProjectMeetings(location, indexIndividuals(project.individuals)));
+            return project;
+        });
+    }
+
+    /*
+     * Returns the projects that have a config file, leaving out folders that are
+     * not projects yet or any more.
+     */
+    private static List<ProjectLayout.ProjectLocation> withConfig(List<ProjectLayout.ProjectLocation> locations) {
+        List<ProjectLayout.ProjectLocation> configured = new ArrayList<>(locations.size());
+        for (ProjectLayout.ProjectLocation location : locations) {
+            if (location.config().exists()) {
+                configured.add(location);
+            }
+        }
+        return configured;
     }
 
     /*
-     * Creates the project config file, which stores the project title, goal, and
-     * start date.
+     * Returns the ids of all stored projects, in the same order as the catalogue.
      */
-    public void createProjectConfigFile(Project project) throws IOException {
-        File projectConfigFile = new File(BASE_PROJECT_PATH + "/" + project.id.toString(), "config.txt");
-        projectConfigFile.createNewFile();
-        setupProjectConfigFile(project);
+    public List<UUID> getProjectIds() {
+        long started = metrics.start();
+        try {
+            if (storageEngine != null) {
+                return storageEngine.listProjectIds();
+            }
+            List<UUID> projectIds = new ArrayList<>();
+            for (ProjectLayout.ProjectLocation location : listProjects()) {
+                projectIds.add(UUID.fromString(location.projectId));
+            }
+            return projectIds;
+        } finally {
+            metrics.stop("getProjectIds", started);
+        }
     }
 
     /*
-     * Writes the project details to the project config file.
+     * Returns a single fully loaded project, or null if it does not exist or could
+     * not be read. Read failures are recorded as load errors. Individuals and
+     * meetings still queued to be written behind are included.
      */
-    private void setupProjectConfigFile(Project project) throws IOException {
-        FileWriter writer = new FileWriter(BASE_PROJECT_PATH + "/" + project.id.toString() + "/config.txt");
-        writer.append("id:" + project.id);
-        writer.append("\ntitle:" + project.title);
-        writer.append("\ngoal:" + project.goal);
-        writer.append("\nstartDate:" + new SimpleDateFormat("dd/MM/yyyy").format(project.startDate));
-        writer.close();
+    public Project getProject(UUID projectId) {
+        long started = metrics.start();
+        try {
+            WriteBehindQueue.Pending pending = pendingWrites();
+            if (storageEngine != null) {
+                return pending.addTo(parse(projectId, storageEngine::getProjectLocation, storageEngine::loadProject));
+            }
+            ProjectLayout.ProjectLocation location = layout.locate(projectId);
+            if (location == null || !location.config().exists()) {
+                return null;
+            }
+            return pending.addTo(parse(location, ProjectLayout.ProjectLocation::config, this::getProjectFromConfig));
+        } finally {
+            metrics.stop("getProject", started);
+        }
     }
 
     /*
-     * Creates the individuals folder within the project folder.
+     * Returns a read-only view of a project as it was at the given time, in
+     * milliseconds since the epoch, or null if it did not exist then or its
+     * history does not go back that far. History is only kept for writes made
+     * through file managers with projects.history on, which it is not by
+     * default; see ProjectHistory.
      */
-    private void createIndividualsFolder(UUID projectId) {
-        File projectFolder = new File(BASE_PROJECT_PATH + "/" + projectId.toString(), "individuals");
-        projectFolder.mkdirs();
+    public Project openAsOf(UUID projectId, long timestamp) throws IOException {
+        long started = metrics.start();
+        try {
+            return ProjectHistory.open(this).openAsOf(projectId, timestamp);
+        } finally {
+            metrics.stop("openAsOf", started);
+        }
     }
 
     /*
-     * Creates the meetings folder within the project folder.
+     * Returns a single meeting, or null if it does not exist or could not be read.
+     * In the projects folder layout only the meeting file and the files of its
+     * attendees are read. A meeting still queued to be written behind is
+     * returned as it was queued.
      */
-    private void createMeetingsFolder(UUID projectId) {
-        File projectFolder = new File(BASE_PROJECT_PATH + "/" + projectId.toString(), "meetings");
-        projectFolder.mkdirs();
+    public Meeting getMeeting(UUID projectId, UUID meetingId) {
+        long started = metrics.start();
+        try {
+            Meeting pending = pendingWrites().meeting(projectId, meetingId);
+            if (pending != null) {
+                return pending;
+            }
+            if (storageEngine != null) {
+                Project project = getProject(projectId);
+                if (project != null) {
+                    for (Meeting meeting : project.meetings) {
+                        if (meeting.id.equals(meetingId)) {
+                            return meeting;
+                        }
+                    }
+                }
+                return null;
+            }
+
+            File meetingFile = layout.findEntityFile(projectId, ProjectLayout.MEETINGS, meetingId);
+            if (meetingFile == null) {
+                return getPackedMeeting(projectId, meetingId);
+            }
+            return parse(meetingFile, file -> file, file -> getMeetingFromConfig(file, individualId -> getIndividual(projectId, individualId)));
+        } finally {
+            metrics.stop("getMeeting", started);
+        }
     }
 
     /*
-     * Creates an individual file within the project's individuals folder.
+     * Returns a single individual, or null if it does not exist or could not be
+     * read, or as it was queued if it is still to be written behind.
      */
-    public void createIndividualFile(Project project, Individual individual) throws IOException {
-        File individualFile = new File(BASE_PROJECT_PATH + "/" + project.id.toString() + "/individuals", individual.id.toString() + ".txt");
-        individualFile.createNewFile();
-        setupIndividualFile(project, individual);
+    public Individual getIndividual(UUID projectId, UUID individualId) {
+        long started = metrics.start();
+        try {
+            Individual pending = pendingWrites().individual(projectId, individualId);
+            if (pending != null) {
+                return pending;
+            }
+            if (storageEngine != null) {
+                Project project = getProject(projectId);
+                if (project != null) {
+                    for (Individual individual : project.individuals) {
+                        if (individual.id.equals(individualId)) {
+                            return individual;
+                        }
+                    }
+                }
+                return null;
+            }
+
+            File individualFile = layout.findEntityFile(projectId, ProjectLayout.INDIVIDUALS, individualId);
+            if (individualFile == null) {
+                return getPackedIndividual(projectId, individualId);
+            }
+            return parse(individualFile, file -> file, this::getIndividualFromConfig);
+        } finally {
+            metrics.stop("getIndividual", started);
+        }
     }
 
     /*
-     * Writes the individual details to the individual file.
+     * Brings this file manager's manifest of the projects folder up to date and
+     * returns what changed since the last refresh. The first refresh reads
+     * everything and reports every project as added.
+     *
+     * Each project's config file and its individuals and meetings folders are
+     * checked by size and modification time. Only folders whose time has moved
+     * are listed, and only files that are new or whose size or time have changed
+     * are read, so beyond three checks per project a refresh costs as much as
+     * the files that changed.
+     *
+     * When a project's individuals change, its meetings have their attendees
+     * resolved again from the ids kept in the manifest rather than by reading
+     * their files. Files that cannot be parsed are recorded as load errors and
+     * left out of their project until they change again.
+     *
+     * Only the projects folder layout keeps a manifest; refreshing a file manager
+     * with a storage engine throws UnsupportedOperationException.
      */
-    private void setupIndividualFile(Project project, Individual individual) throws IOException {
-        FileWriter writer = new FileWriter(BASE_PROJECT_PATH + "/" + project.id.toString() + "/individuals/" + individual.id.toString() + ".txt");
-        writer.append("id:" + individual.id);
-        writer.append("\nname:" + individual.name);
-        writer.append("\nrole:" + individual.role);
-        writer.close();
+    public ChangeSet refresh() {
+        return refresh(false);
     }
 
     /*
-     * Creates a meeting file within the project's meetings folder.
+     * Refreshes as above. Folder times only move when files are added, removed or
+     * replaced, as this class does when writing, so a file edited in place by
+     * another tool is only noticed if checkEveryFile is true, which checks every
+     * file in every folder.
      */
-    public void createMeetingFile(Project project, Meeting meeting) throws IOException {
-        File meetingFile = new File(BASE_PROJECT_PATH + "/" + project.id.toString() + "/meetings", meeting.id.toString() + ".txt");
-        meetingFile.createNewFile();
-        setupMeetingFile(project, meeting);
+    public ChangeSet refresh(boolean checkEveryFile) {
+        if (storageEngine != null) {
+            throw new UnsupportedOperationException("Refresh is only supported for the projects folder layout");
+        }
+        long started = metrics.start();
+        try {
+            synchronized (manifest) {
+                ChangeSet changes = new ChangeSet();
+                long scanStarted = System.currentTimeMillis();
+                List<String> projectIds = new ArrayList<>();
+                for (ProjectLayout.ProjectLocation location : listProjects()) {
+                    projectIds.add(location.projectId);
+                    refreshProject(location, checkEveryFile, changes);
+                }
+                Iterator<Map.Entry<String, ProjectManifest.ProjectEntry>> entries = manifest.projects.entrySet().iterator();
+                while (entries.hasNext()) {
+                    Map.Entry<String, ProjectManifest.ProjectEntry> entry = entries.next();
+                    if (Collections.binarySearch(projectIds, entry.getKey()) < 0) {
+                        projectRemoved(UUID.fromString(entry.getKey()), entry.getValue(), changes);
+                        entries.remove();
+                    }
+                }
+                manifest.scannedAt = scanStarted;
+                return changes;
+            }
+        } finally {
+            metrics.stop("refresh", started);
+        }
     }
 
     /*
-     * Writes the meeting details to the meeting file.
+     * Refreshes one project folder, adding the project to the change set if
+     * anything in it changed.
      */
-    private void setupMeetingFile(Project project, Meeting meeting) throws IOException {
-        FileWriter writer = new FileWriter(BASE_PROJECT_PATH + "/" + project.id.toString() + "/meetings/" + meeting.id.toString() + ".txt");
-        writer.append("id:" + meeting.id);
-        writer.append("\ntitle:" + meeting.title);
-        writer.append("\ndate:" + new SimpleDateFormat("dd/MM/yyyy").format(meeting.date));
-        writer.append("\nsummary:" + meeting.summary);
+    private void refreshProject(ProjectLayout.ProjectLocation location, boolean checkEveryFile, ChangeSet changes) {
+        UUID id = UUID.fromString(location.projectId);
+        ProjectManifest.ProjectEntry entry = manifest.projects.computeIfAbsent(location.projectId, key -> new ProjectManifest.ProjectEntry());
+        int changesBefore = changes.changes.size();
 
-        List<String> attendeeIds = new ArrayList<>();
-        for (Individual individual : meeting.attendees) {
-            attendeeIds.add(individual.id.toString());
+        ProjectPack pack = null;
+        ProjectManifest.FileEntry<Project> config;
+        if (location.isArchived()) {
+            // A pack is only written whole, so one whose time has not moved holds the same files as before
+            if (!manifest.folderChanged(List.of(location.pack()), entry.pack, checkEveryFile) && entry.config != null) {
+                return;
+            }
+            try {
+                pack = openPack(location.pack());
+            } catch (NoSuchFileException e) {
+                return; // Unarchived since it was listed, and picked up by the next refresh
+            } catch (IOException e) {
+                metrics.parseFailed();
+                loadErrors.add(new LoadError(location.pack(), e));
+                return;
+            }
+            config = refreshRecord(new File(location.pack(), ProjectLayout.CONFIG_FILE_NAME), pack.config(), location.pack().lastModified(),
+                    entry.config, (bytes, length, fileEntry) -> readProjectHeader(bytes, length), changes);
+        } else {
+            config = refreshFile(location.config(), entry.config, (bytes, length, fileEntry) -> readProjectHeader(bytes, length), changes);
+        }
+        if (config != entry.config) {
+            ChangeSet.Kind kind = config == null ? ChangeSet.Kind.REMOVED : entry.config == null ? ChangeSet.Kind.ADDED : ChangeSet.Kind.CHANGED;
+            changes.add(kind, ChangeSet.Entity.PROJECT, id, id);
+            entry.config = config;
+        }
+        if (config == null || config.value == null) {
+            // No readable config file, so there is no project to show until there is
+            if (entry.project != null) {
+                changes.removedProjectIds.add(id);
+                entry.project = null;
+            }
+            return;
+        }
+
+        boolean individualsChanged = refreshFolder(location, pack, ProjectLayout.INDIVIDUALS, entry.individuals, checkEveryFile, ChangeSet.Entity.INDIVIDUAL,
+                (bytes, length, fileEntry) -> readIndividual(bytes, length), changes);
+        List<Individual> individuals = new ArrayList<>(entry.individuals.files.size());
+        for (ProjectManifest.FileEntry<Individual> individual : entry.individuals.files.values()) {
+            if (individual.value != null) {
+                individuals.add(individual.value);
+            }
+        }
+
+        refreshFolder(location, pack, ProjectLayout.MEETINGS, entry.meetings, checkEveryFile, ChangeSet.Entity.MEETING, (bytes, length, fileEntry) -> {
+            List<UUID> attendeeIds = new ArrayList<>();
+            Meeting meeting = readMeeting(bytes, length, attendeeId -> {
+                attendeeIds.add(attendeeId);
+                return null; // Resolved below, once every changed individual has been read
+            });
+            fileEntry.attendeeIds = attendeeIds;
+            return meeting;
+        }, changes);
+        Map<UUID, Individual> individualsById = indexIndividuals(individuals);
+        List<Meeting> meetings = new ArrayList<>(entry.meetings.files.size());
+        for (ProjectManifest.FileEntry<Meeting> meeting : entry.meetings.files.values()) {
+            if (meeting.value == null) {
+                continue;
+            }
+            if (!meeting.resolved) {
+                meeting.value.attendees = getMeetingAttendees(meeting.attendeeIds, individualsById);
+                meeting.resolved = true;
+            } else if (individualsChanged) {
+                // Copied, as the meeting may belong to a project handed out earlier
+                meeting.value = copyMeeting(meeting.value, getMeetingAttendees(meeting.attendeeIds, individualsById));
+            }
+            meetings.add(meeting.value);
+        }
+
+        if (entry.project != null && changes.changes.size() == changesBefore) {
+            return;
         }
+        Project project = new Project();
+        project.id = config.value.id;
+        project.title = config.value.title;
+        project.goal = config.value.goal;
+        project.startDate = config.value.startDate;
+        project.individuals = individuals;
+        project.meetings = meetings;
+        (entry.project == null ? changes.addedProjects : changes.changedProjects).add(project);
+        entry.project = project;
+    }
 
-        writer.append("\nattendees:" + String.join(",", attendeeIds));
-        writer.close();
+    private static void projectRemoved(UUID projectId, ProjectManifest.ProjectEntry entry, ChangeSet changes) {
+        if (entry.config != null) {
+            changes.add(ChangeSet.Kind.REMOVED, ChangeSet.Entity.PROJECT, projectId, projectId);
+        }
+        if (entry.project != null) {
+            changes.removedProjectIds.add(projectId);
+        }
     }
 
     /*
-     * Returns a list of all projects by reading the project config files.
+     * Refreshes the entries of an individuals or meetings folder, or of the same
+     * files in an archived project's pack, returning true if any file was added,
+     * changed or removed.
      */
-    public List<Project> getProjects() {
-        List<Project> projects = new ArrayList<>();
-        File projectFolder = new File(BASE_PROJECT_PATH);
-        File[] projectFolders = projectFolder.listFiles();
-        if (projectFolders != null) { // Check to see if there are any project folders
-            for (File projectFile : projectFolders) { 
-                if (projectFile.isDirectory()) {
-                    File config = new File(projectFile.getAbsolutePath() + "/config.txt");
-                    if (config.exists()) {
-                        try {
-                            projects.add(getProjectFromConfig(config));
-                        } catch (FileNotFoundException | ParseException e) {
-                            e.printStackTrace();
-                        }
-                    }
+    private <T> boolean refreshFolder(ProjectLayout.ProjectLocation location, ProjectPack pack, String kind, ProjectManifest.FolderEntry<T> folderEntry,
+            boolean checkEveryFile, ChangeSet.Entity entity, EntryParser<T> parser, ChangeSet changes) {
+        List<File> folders = pack != null ? List.of(pack.getFile()) : layout.entityFolders(location, kind);
+        if (!manifest.folderChanged(folders, folderEntry, checkEveryFile)) {
+            return false;
+        }
+        UUID projectId = UUID.fromString(location.projectId);
+        Map<String, ProjectManifest.FileEntry<T>> entries = folderEntry.files;
+        Map<String, ProjectManifest.FileEntry<T>> found = new LinkedHashMap<>();
+        if (pack != null) {
+            long modified = pack.getFile().lastModified();
+            try {
+                pack.forEach(packKind(kind), (id, bytes) -> {
+                    String name = id + ".txt";
+                    found.put(name, refreshRecord(packedFile(pack.getFile(), kind, id), bytes, modified, entries.get(name), parser, changes));
+                });
+            } catch (IOException e) {
+                metrics.parseFailed();
+                loadErrors.add(new LoadError(pack.getFile(), e));
+                return false;
+            }
+        } else {
+            for (File file : listEntityFiles(location, kind)) {
+                ProjectManifest.FileEntry<T> current = refreshFile(file, entries.get(file.getName()), parser, changes);
+                if (current != null) {
+                    found.put(file.getName(), current); // Otherwise removed since the folder was listed
                 }
             }
         }
-        return projects;
+
+        boolean changed = false;
+        for (Map.Entry<String, ProjectManifest.FileEntry<T>> current : found.entrySet()) {
+            ProjectManifest.FileEntry<T> previous = entries.get(current.getKey());
+            if (current.getValue() != previous) {
+                entries.put(current.getKey(), current.getValue());
+                changes.add(previous == null ? ChangeSet.Kind.ADDED : ChangeSet.Kind.CHANGED, entity, projectId, idOf(current.getKey()));
+                changed = true;
+            }
+        }
+        Iterator<String> known = entries.keySet().iterator();
+        while (known.hasNext()) {
+            String name = known.next();
+            if (!found.containsKey(name)) {
+                known.remove();
+                changes.add(ChangeSet.Kind.REMOVED, entity, projectId, idOf(name));
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /*
+     * Returns the entry a file should now have: the given one if the file is
+     * unchanged, a new one parsed from the file if it is new or has changed, or
+     * null if the file does not exist.
+     */
+    private <T> ProjectManifest.FileEntry<T> refreshFile(File file, ProjectManifest.FileEntry<T> previous, EntryParser<T> parser, ChangeSet changes) {
+        ProjectManifest.FileRead read;
+        try {
+            read = manifest.readIfChanged(file, previous, changes);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            metrics.parseFailed();
+            loadErrors.add(new LoadError(file, e));
+            return previous;
+        }
+        if (read == null) {
+            return previous;
+        }
+        metrics.fileOpened(file);
+        return parseEntry(file, read, parser);
+    }
+
+    /*
+     * Returns the entry a file read from a pack should now have, as above.
+     */
+    private <T> ProjectManifest.FileEntry<T> refreshRecord(File file, byte[] bytes, long modified, ProjectManifest.FileEntry<T> previous,
+            EntryParser<T> parser, ChangeSet changes) {
+        ProjectManifest.FileRead read = manifest.readIfChanged(bytes, modified, previous, changes);
+        return read == null ? previous : parseEntry(file, read, parser);
+    }
+
+    private <T> ProjectManifest.FileEntry<T> parseEntry(File file, ProjectManifest.FileRead read, EntryParser<T> parser) {
+        ProjectManifest.FileEntry<T> entry = new ProjectManifest.FileEntry<>();
+        entry.size = read.size;
+        entry.modified = read.modified;
+        entry.hash = read.hash;
+        try {
+            entry.value = parser.parse(read.bytes, read.bytes.length, entry);
+        } catch (Exception e) {
+            metrics.parseFailed();
+            loadErrors.add(new LoadError(file, e));
+        }
+        return entry;
+    }
+
+    /*
+     * Rejects a page number or page size that names no page of a catalogue.
+     */
+    static void checkPage(int page, int pageSize) {
+        if (page < 0) {
+            throw new IllegalArgumentException("page must not be negative, was " + page);
+        }
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be at least 1, was " + pageSize);
+        }
+    }
+
+    /*
+     * Returns the id an individual or meeting file is named after, or null if it
+     * is not named after one.
+     */
+    private static UUID idOf(String fileName) {
+        try {
+            return UUID.fromString(fileName.endsWith(".txt") ? fileName.substring(0, fileName.length() - 4) : fileName);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Meeting copyMeeting(Meeting meeting, List<Individual> attendees) {
+        Meeting copy = new Meeting();
+        copy.id = meeting.id;
+        copy.title = meeting.title;
+        copy.date = meeting.date;
+        copy.summary = meeting.summary;
+        copy.attendees = attendees;
+        return copy;
+    }
+
+    /*
+     * Returns the folder holding a project's files, or the storage engine's
+     * location for the project when one is in use.
+     */
+    File getProjectFolder(UUID projectId) {
+        if (storageEngine != null) {
+            return storageEngine.getProjectLocation(projectId);
+        }
+        ProjectLayout.ProjectLocation location = layout.locate(projectId);
+        return location != null ? location.folder() : layout.projectFolderForWrite(projectId);
+    }
+
+    /*
+     * Returns the folder all projects are kept under.
+     */
+    File getProjectsRoot() {
+        if (storageEngine != null) {
+            return storageEngine.getRoot();
+        }
+        return new File(projectPath);
+    }
+
+    /*
+     * Returns true if projects are kept by a storage engine rather than in the
+     * projects folder layout.
+     */
+    boolean usesStorageEngine() {
+        return storageEngine != null;
+    }
+
+    /*
+     * Reads a single individual file from the projects folder layout.
+     */
+    Individual readIndividualFile(File individualFile) throws IOException {
+        return getIndividualFromConfig(individualFile);
+    }
+
+    /*
+     * Reads a single meeting file from the projects folder layout, resolving its
+     * attendees against the given project's individuals.
+     */
+    Meeting readMeetingFile(File meetingFile, Project project) throws IOException {
+        return getMeetingFromConfig(meetingFile, indexIndividuals(project.individuals)::get);
+    }
+
+    /*
+     * Loads fully populated projects from the storage engine.
+     */
+    private List<Project> loadFromStorageEngine(List<UUID> projectIds) {
+        return parseAll(projectIds, storageEngine::getProjectLocation, storageEngine::loadProject);
+    }
+
+    /*
+     * Returns every project folder, flat or sharded, ordered by project id.
+     * Project folders are named after the project id, so anything else in the
+     * projects folder is ignored.
+     */
+    private List<ProjectLayout.ProjectLocation> listProjects() {
+        long started = metrics.start();
+        List<ProjectLayout.ProjectLocation> locations = layout.listProjects();
+        metrics.stop("listDirectory", started);
+        return locations;
     }
 
     /*
      * Returns a project object by reading the project config file.
      */
-    private Project getProjectFromConfig(File config) throws FileNotFoundException, ParseException {
+    private Project getProjectFromConfig(ProjectLayout.ProjectLocation location) throws IOException {
+        if (location.isArchived()) {
+            return getProjectFromPack(location.pack());
+        }
+        Project project = getProjectHeader(location.config());
+        project.individuals = getProjectIndividuals(location);
+        project.meetings = getProjectMeetings(location, indexIndividuals(project.individuals));
+        return project;
+    }
+
+    /*
+     * Returns a project object holding only the details stored in the project
+     * config file. The individuals and meetings lists are left empty.
+     */
+    private Project getProjectHeader(File config) throws IOException {
         
         /*
-         * Config File Layout
+         * Config File Layout (see RecordCodec)
          * id:<id>
          * title:<title>
          * goal:<goal>
          * startDate:<startDate>
          */
 
-        Scanner scanner = new Scanner(config);
+        RecordCodec codec = readRecord(config);
+        return readProjectHeader(codec.buffer(), codec.length());
+    }
+
+    private Project readProjectHeader(byte[] bytes, int length) {
+        long started = metrics.start();
+        String[] values = RecordCodec.parse(bytes, length, PROJECT_KEYS);
         Project project = new Project();
         
-        project.id = UUID.fromString(scanner.nextLine().split(":")[1]);
-        project.title = scanner.nextLine().split(":")[1];
-        project.goal = scanner.nextLine().split(":")[1];
-        project.startDate = new SimpleDateFormat("dd/MM/yyyy").parse(scanner.nextLine().split(":")[1]);
-        scanner.close();
-
-        project.individuals = getProjectIndividuals(project);
-        project.meetings = getProjectMeetings(project);
+        project.id = UUID.fromString(required(values, PROJECT_KEYS, 0));
+        project.title = required(values, PROJECT_KEYS, 1);
+        project.goal = required(values, PROJECT_KEYS, 2);
+        project.startDate = Dates.parse(required(values, PROJECT_KEYS, 3));
+        metrics.stop("parseProjectFile", started);
 
         return project;
         
     }
 
     /*
-     * Returns a list of all individuals within a project by reading the individual
-     * files.
+     * Returns an archived project read from its pack. Its individuals are read
+     * straight away, and its meetings, which make up most of a pack, the first
+     * time the list is used.
      */
-    private List<Individual> getProjectIndividuals(Project project) {
-        List<Individual> individuals = new ArrayList<>();
-        File individualsFolder = new File(BASE_PROJECT_PATH + "/" + project.id.toString() + "/individuals");
-        File[] individualFiles = individualsFolder.listFiles();
-        if (individualFiles != null) {
-            for (File individualFile : individualFiles) {
-                try {
-                    individuals.add(getIndividualFromConfig(individualFile));
-                } catch (FileNotFoundException e) {
-                    e.printStackTrace();
+    private Project getProjectFromPack(File packFile) throws IOException {
+        ProjectPack pack = openPack(packFile);
+        byte[] config = pack.config();
+        Project project = readProjectHeader(config, config.length);
+        project.individuals = readPacked(pack, ProjectLayout.INDIVIDUALS, bytes -> readIndividual(bytes, bytes.length));
+        Map<UUID, Individual> individualsById = indexIndividuals(project.individuals);
+        project.meetings = new LazyList<>(() -> readPacked(pack, ProjectLayout.MEETINGS, bytes -> readMeeting(bytes, bytes.length, individualsById::get)));
+        return project;
+    }
+
+    /*
+     * Parses every individual or meeting file in a pack. Files that cannot be
+     * parsed are recorded as load errors against their path inside the pack.
+     */
+    private <T> List<T> readPacked(ProjectPack pack, String kind, Parser<byte[], T> parser) {
+        List<T> results = new ArrayList<>(pack.count(packKind(kind)));
+        try {
+            pack.forEach(packKind(kind), (id, bytes) -> {
+                T result = parse(bytes, source -> packedFile(pack.getFile(), kind, id), parser);
+                if (result != null) {
+                    results.add(result);
                 }
+            });
+        } catch (IOException e) {
+            metrics.parseFailed();
+            loadErrors.add(new LoadError(pack.getFile(), e));
+        }
+        return results;
+    }
+
+    /*
+     * Returns a meeting of an archived project, or null if there is none. Only
+     * the blocks holding the meeting and its attendees are inflated.
+     */
+    private Meeting getPackedMeeting(UUID projectId, UUID meetingId) {
+        File packFile = archivedPack(projectId);
+        if (packFile == null) {
+            return null;
+        }
+        return parse(packFile, file -> file, file -> {
+            ProjectPack pack = openPack(file);
+            byte[] bytes = pack.read(ProjectPack.MEETING, meetingId);
+            if (bytes == null) {
+                return null;
             }
+            return readMeeting(bytes, bytes.length, individualId -> {
+                try {
+                    byte[] individual = pack.read(ProjectPack.INDIVIDUAL, individualId);
+                    return individual == null ? null : readIndividual(individual, individual.length);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        });
+    }
+
+    /*
+     * Returns an individual of an archived project, or null if there is none.
+     */
+    private Individual getPackedIndividual(UUID projectId, UUID individualId) {
+        File packFile = archivedPack(projectId);
+        if (packFile == null) {
+            return null;
         }
-        return individuals;
+        return parse(packFile, file -> file, file -> {
+            byte[] bytes = openPack(file).read(ProjectPack.INDIVIDUAL, individualId);
+            return bytes == null ? null : readIndividual(bytes, bytes.length);
+        });
+    }
+
+    /*
+     * Returns the pack of a project that is read from one, or null if it is not.
+     */
+    private File archivedPack(UUID projectId) {
+        if (layout.findPack(projectId) == null) {
+            return null; // Checked first, as most projects have no pack
+        }
+        ProjectLayout.ProjectLocation location = layout.locate(projectId);
+        return location != null && location.isArchived() ? location.pack() : null;
+    }
+
+    private ProjectPack openPack(File file) throws IOException {
+        long started = metrics.start();
+        ProjectPack pack = ProjectPack.open(file);
+        metrics.stop("openFile", started);
+        metrics.fileOpened(file);
+        return pack;
+    }
+
+    private static byte packKind(String kind) {
+        return ProjectLayout.INDIVIDUALS.equals(kind) ? ProjectPack.INDIVIDUAL : ProjectPack.MEETING;
+    }
+
+    /*
+     * Returns the path a file packed in an archived project is reported under,
+     * as if the pack were a folder.
+     */
+    private static File packedFile(File pack, String kind, UUID id) {
+        return new File(new File(pack, kind), id + ".txt");
+    }
+
+    /*
+     * Returns a list of all individuals within a project by reading the individual
+     * files.
+     */
+    private List<Individual> getProjectIndividuals(ProjectLayout.ProjectLocation location) {
+        return parseAll(listEntityFiles(location, ProjectLayout.INDIVIDUALS), this::getIndividualFromConfig);
     }
 
     /*
      * Returns an individual object by reading the individual file.
      */
-    private Individual getIndividualFromConfig(File individualFile) throws FileNotFoundException {
+    private Individual getIndividualFromConfig(File individualFile) throws IOException {
         /*
-         * Individual File Layout
+         * Individual File Layout (see RecordCodec)
          * id:<id>
          * name:<name>
          * role:<role>
          */
 
-         Scanner scanner = new Scanner(individualFile);
+         RecordCodec codec = readRecord(individualFile);
+         return readIndividual(codec.buffer(), codec.length());
+    }
+
+    private Individual readIndividual(byte[] bytes, int length) {
+         long started = metrics.start();
+         String[] values = RecordCodec.parse(bytes, length, INDIVIDUAL_KEYS);
          Individual individual = new Individual();
          
-         individual.id = UUID.fromString(scanner.nextLine().split(":")[1]);
-         individual.name = scanner.nextLine().split(":")[1];
-         individual.role = scanner.nextLine().split(":")[1];
-         scanner.close();
+         individual.id = UUID.fromString(required(values, INDIVIDUAL_KEYS, 0));
+         individual.name = required(values, INDIVIDUAL_KEYS, 1);
+         individual.role = required(values, INDIVIDUAL_KEYS, 2).intern();
+         metrics.stop("parseIndividualFile", started);
  
          return individual;
     }
 
     /*
-     * Returns a list of all meetings within a project by reading the meeting files.
+     * Builds an identity map of the project's individuals keyed by id, so meeting
+     * attendees can be resolved without going back to disk. Meetings resolved
+     * against this map share the same Individual instances as the project.
      */
-    private List<Meeting> getProjectMeetings(Project project) {
-        List<Meeting> meetings = new ArrayList<>();
-        File meetingsFolder = new File(BASE_PROJECT_PATH + "/" + project.id.toString() + "/meetings");
-        File[] meetingFiles = meetingsFolder.listFiles();
-        if (meetingFiles != null) {
-            for (File meetingFile : meetingFiles) {
-                try {
-                    meetings.add(getMeetingFromConfig(meetingFile, project));
-                } catch (FileNotFoundException | ParseException e) {
-                    e.printStackTrace();
-                }
-            }
+    private Map<UUID, Individual> indexIndividuals(List<Individual> individuals) {
+        Map<UUID, Individual> individualsById = new HashMap<>(individuals.size() * 2);
+        for (Individual individual : individuals) {
+            individualsById.put(individual.id, individual);
         }
-        return meetings;
+        return individualsById;
+    }
+
+    /*
+     * Returns a list of all meetings within a project by reading the meeting files.
+     * Attendees are resolved against the given identity map of the project's
+     * individuals.
+     */
+    private List<Meeting> getProjectMeetings(ProjectLayout.ProjectLocation location, Map<UUID, Individual> individualsById) {
+        return parseAll(listEntityFiles(location, ProjectLayout.MEETINGS), meetingFile -> getMeetingFromConfig(meetingFile, individualsById::get));
     }
 
     /*
-     * Returns a meeting object by reading the meeting file.
+     * Returns a meeting object by reading the meeting file. Attendee ids are
+     * turned into individuals with the given lookup.
      */
-    private Meeting getMeetingFromConfig(File meetingFile, Project project) throws FileNotFoundException, ParseException {
+    private Meeting getMeetingFromConfig(File meetingFile, Function<UUID, Individual> findIndividual) throws IOException {
         /*
-         * Meeting File Layout
+         * Meeting File Layout (see RecordCodec)
          * id:<id>
          * title:<title>
          * date:<date>
          * summary:<summary>
-         * attendees:<attendees> (comma separated)
+         * attendees:<attendees> (comma separated, may be empty)
          */
 
-         Scanner scanner = new Scanner(meetingFile);
+         RecordCodec codec = readRecord(meetingFile);
+         return readMeeting(codec.buffer(), codec.length(), findIndividual);
+    }
+
+    private Meeting readMeeting(byte[] bytes, int length, Function<UUID, Individual> findIndividual) {
+         long started = metrics.start();
+         String[] values = RecordCodec.parse(bytes, length, MEETING_KEYS);
          Meeting meeting = new Meeting();
          
-         meeting.id = UUID.fromString(scanner.nextLine().split(":")[1]);
-         meeting.title = scanner.nextLine().split(":")[1];
-         meeting.date = new SimpleDateFormat("dd/MM/yyyy").parse(scanner.nextLine().split(":")[1]);
-         meeting.summary = scanner.nextLine().split(":")[1];
-         meeting.attendees = getMeetingAttendees(scanner.nextLine().split(":")[1], project);
-         scanner.close();
+         meeting.id = UUID.fromString(required(values, MEETING_KEYS, 0));
+         meeting.title = required(values, MEETING_KEYS, 1);
+         meeting.date = Dates.parse(required(values, MEETING_KEYS, 2));
+         meeting.summary = required(values, MEETING_KEYS, 3);
+         meeting.attendees = getMeetingAttendees(values[4] == null ? "" : values[4], findIndividual);
+         metrics.stop("parseMeetingFile", started);
  
          return meeting;
     }
 
     /*
-     * Returns a list of all attendees within a meeting by reading the attendee ids.
+     * Returns a list of all attendees within a meeting by looking up each attendee
+     * id. Ids that no longer match an individual are skipped.
      */
-    private List<Individual> getMeetingAttendees(String attendeeIds, Project project) {
-        List<String> attendeeIdsList = Arrays.asList(attendeeIds.split(","));
+    private List<Individual> getMeetingAttendees(String attendeeIds, Function<UUID, Individual> findIndividual) {
+        long started = metrics.start();
         List<Individual> individuals = new ArrayList<>();
-        File individualsFolder = new File(BASE_PROJECT_PATH + "/" + project.id.toString() + "/individuals");
-        File[] individualFiles = individualsFolder.listFiles();
-        if (individualFiles != null) {
-            for (File individualFile : individualFiles) {
-                try {
-                    Individual attendeeFromConfigFile = getIndividualFromConfig(individualFile);
-                    if (attendeeIdsList.contains(attendeeFromConfigFile.id.toString())) {
-                        individuals.add(attendeeFromConfigFile);
-                    }
-                } catch (FileNotFoundException e) {
-                    e.printStackTrace();
+        for (String attendeeId : attendeeIds.split(",")) {
+            if (attendeeId.isBlank()) {
+                continue;
+            }
+            try {
+                Individual attendee = findIndividual.apply(UUID.fromString(attendeeId.trim()));
+                if (attendee != null) {
+                    individuals.add(attendee);
                 }
+            } catch (IllegalArgumentException e) {
+                // Not a valid id, so it cannot match an individual
+            }
+        }
+        metrics.stop("resolveAttendees", started);
+        return individuals;
+    }
+
+    /*
+     * Returns the attendees of a meeting from the ids in its file, looked up in
+     * the project's individuals. Ids that no longer match an individual are
+     * skipped.
+     */
+    private List<Individual> getMeetingAttendees(List<UUID> attendeeIds, Map<UUID, Individual> individualsById) {
+        List<Individual> individuals = new ArrayList<>(attendeeIds.size());
+        for (UUID attendeeId : attendeeIds) {
+            Individual attendee = individualsById.get(attendeeId);
+            if (attendee != null) {
+                individuals.add(attendee);
             }
         }
         return individuals;
     }
+
+    /*
+     * Returns a project's individual or meeting files sorted by name, so results
+     * are loaded in the same order every time.
+     */
+    private List<File> listEntityFiles(ProjectLayout.ProjectLocation location, String kind) {
+        long started = metrics.start();
+        List<File> files = layout.listEntityFiles(location, kind);
+        metrics.stop("listDirectory", started);
+        return files;
+    }
+
+    /*
+     * Reads a project file into this thread's record buffer, counting it and its
+     * size in the metrics.
+     */
+    private RecordCodec readRecord(File file) throws IOException {
+        long started = metrics.start();
+        RecordCodec codec = RecordCodec.forThread();
+        try {
+            codec.read(file);
+        } catch (FileNotFoundException e) {
+            File moved = layout.shardedFileOf(file); // Moved into its shard since it was listed
+            if (moved == null || !moved.exists()) {
+                throw e;
+            }
+            file = moved;
+            codec.read(file);
+        }
+        metrics.stop("openFile", started);
+        metrics.fileOpened(file);
+        return codec;
+    }
+
+    /*
+     * Returns a field every record of its kind must have, throwing if the file
+     * did not have it.
+     */
+    private static String required(String[] values, String[] keys, int field) {
+        if (values[field] == null) {
+            throw new IllegalArgumentException("Missing " + keys[field]);
+        }
+        return values[field];
+    }
+
+    /*
+     * Parses each file with the given parser and returns the results in the same
+     * order as the files. When a load parallelism above 1 is configured, files are
+     * parsed concurrently on the load pool. Files that fail to parse are recorded
+     * as load errors and left out of the result.
+     */
+    private <T> List<T> parseAll(List<File> files, Parser<File, T> parser) {
+        return parseAll(files, file -> file, parser);
+    }
+
+    /*
+     * Parses each source with the given parser, as above. Failures are reported
+     * against the file returned by locate for the source that failed.
+     */
+    private <S, T> List<T> parseAll(List<S> sources, Function<S, File> locate, Parser<S, T> parser) {
+        List<T> results = new ArrayList<>(sources.size());
+        if (loadPool == null || sources.size() < 2) {
+            for (S source : sources) {
+                T result = parse(source, locate, parser);
+                if (result != null) {
+                    results.add(result);
+                }
+            }
+            return results;
+        }
+
+        List<ForkJoinTask<T>> tasks = new ArrayList<>(sources.size());
+        for (S source : sources) {
+            tasks.add(ForkJoinTask.adapt(() -> parse(source, locate, parser)));
+        }
+        if (ForkJoinTask.getPool() == loadPool) {
+            // Already running on the load pool, so fork from here to avoid blocking a worker
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            loadPool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        }
+        for (ForkJoinTask<T> task : tasks) {
+            T result = task.join();
+            if (result != null) {
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    /*
+     * Parses a single source, recording a load error instead of throwing if it
+     * cannot be read.
+     */
+    private <S, T> T parse(S source, Function<S, File> locate, Parser<S, T> parser) {
+        try {
+            return parser.parse(source);
+        } catch (Exception e) {
+            metrics.parseFailed();
+            loadErrors.add(new LoadError(locate.apply(source), e));
+            return null;
+        }
+    }
+
+    /*
+     * Reads an object from a single project file or storage engine entry.
+     */
+    private interface Parser<S, T> {
+        T parse(S source) throws Exception;
+    }
+
+    /*
+     * Parses a file being refreshed, and may keep extra details in its manifest
+     * entry.
+     */
+    private interface EntryParser<T> {
+        T parse(byte[] bytes, int length, ProjectManifest.FileEntry<T> entry) throws Exception;
+    }
 }
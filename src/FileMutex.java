@@ -0,0 +1,91 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * An exclusive lock shared by every thread of every process using the same
+ * lock file. A process can only hold one lock on a file, so threads of this
+ * process queue on an in-process lock first, and the one that gets it then
+ * locks the whole file with FileChannel.lock so other processes wait as well.
+ * The lock is reentrant.
+ *
+ * There is one mutex per lock file in a process. The file must not also be
+ * locked in ranges by other code in the same process.
+ */
+public class FileMutex {
+
+    private static final Map<String, FileMutex> openMutexes = new HashMap<>();
+
+    private final File file;
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel channel;
+    private FileLock fileLock;
+
+    private FileMutex(File file) {
+        this.file = file;
+    }
+
+    public static synchronized FileMutex forFile(File file) {
+        return openMutexes.computeIfAbsent(file.getAbsolutePath(), path -> new FileMutex(new File(path)));
+    }
+
+    /*
+     * Waits until no other thread or process holds the lock, then takes it.
+     */
+    public void lock() throws IOException {
+        lock.lock();
+        if (lock.getHoldCount() > 1) {
+            return;
+        }
+        try {
+            fileLock = lockFile();
+        } catch (IOException | RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+    }
+
+    public void unlock() throws IOException {
+        try {
+            if (lock.getHoldCount() == 1) {
+                FileLock held = fileLock;
+                fileLock = null;
+                if (held.isValid()) {
+                    held.release(); // Already released if an interrupt closed its channel
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Locks the file, reopening the channel if an interrupt closed it during an
+     * earlier attempt.
+     */
+    private FileLock lockFile() throws IOException {
+        while (true) {
+            try {
+                return channel().lock();
+            } catch (ClosedChannelException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            file.getParentFile().mkdirs();
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return channel;
+    }
+}
@@ -0,0 +1,230 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/*
+ * Keeps projects in memory, for code that should be run or measured without
+ * touching the disk, and as the baseline other stores are compared with.
+ *
+ * It behaves as the projects folder does. What is written is copied, so later
+ * changes to the objects passed in are only seen once they are written again,
+ * and every read returns new objects. Dates are kept to the day. Meetings keep
+ * the ids of their attendees and, when read, list those that are individuals
+ * of the project. Projects are listed in the order their names sort, once they
+ * have been created.
+ *
+ * Safe for use from many threads. Each project is written and read under its
+ * own lock, so a read never sees part of a bulk write, while different
+ * projects are used in parallel.
+ */
+public class InMemoryProjectRepository implements ProjectRepository {
+
+    private final Map<UUID, StoredProject> projects = new ConcurrentSkipListMap<>(ProjectPack::compareIds);
+
+    @Override
+    public void createProject(Project project) {
+        updateProject(project);
+    }
+
+    @Override
+    public void updateProject(Project project) {
+        StoredProject stored = stored(project.id);
+        synchronized (stored) {
+            stored.created = true;
+            stored.title = project.title;
+            stored.goal = project.goal;
+            stored.startDay = Dates.toEpochDay(project.startDate);
+        }
+    }
+
+    @Override
+    public void addIndividual(Project project, Individual individual) {
+        addIndividuals(project, List.of(individual));
+    }
+
+    @Override
+    public void addIndividuals(Project project, List<Individual> individuals) {
+        StoredProject stored = stored(project.id);
+        synchronized (stored) {
+            for (Individual individual : individuals) {
+                stored.individuals.put(individual.id, copyOf(individual));
+            }
+            project.individuals.addAll(individuals);
+        }
+    }
+
+    @Override
+    public void addMeeting(Project project, Meeting meeting) {
+        addMeetings(project, List.of(meeting));
+    }
+
+    @Override
+    public void addMeetings(Project project, List<Meeting> meetings) {
+        StoredProject stored = stored(project.id);
+        synchronized (stored) {
+            for (Meeting meeting : meetings) {
+                stored.meetings.put(meeting.id, new StoredMeeting(meeting));
+            }
+            project.meetings.addAll(meetings);
+        }
+    }
+
+    /*
+     * Returns the stored project with the given id, adding an empty one that is
+     * not listed until it is created. As in the projects folder, individuals
+     * and meetings can be written before their project.
+     */
+    private StoredProject stored(UUID projectId) {
+        return projects.computeIfAbsent(projectId, id -> new StoredProject());
+    }
+
+    @Override
+    public Project getProject(UUID projectId) {
+        StoredProject stored = projects.get(projectId);
+        if (stored == null) {
+            return null;
+        }
+        synchronized (stored) {
+            return stored.created ? stored.toProject(projectId) : null;
+        }
+    }
+
+    @Override
+    public Meeting getMeeting(UUID projectId, UUID meetingId) {
+        StoredProject stored = projects.get(projectId);
+        if (stored == null) {
+            return null;
+        }
+        synchronized (stored) {
+            StoredMeeting meeting = stored.meetings.get(meetingId);
+            return meeting == null ? null : meeting.toMeeting(meetingId, stored.toIndividuals());
+        }
+    }
+
+    @Override
+    public Individual getIndividual(UUID projectId, UUID individualId) {
+        StoredProject stored = projects.get(projectId);
+        if (stored == null) {
+            return null;
+        }
+        synchronized (stored) {
+            Individual individual = stored.individuals.get(individualId);
+            return individual == null ? null : copyOf(individual);
+        }
+    }
+
+    @Override
+    public List<UUID> getProjectIds() {
+        List<UUID> projectIds = new ArrayList<>();
+        for (Map.Entry<UUID, StoredProject> entry : projects.entrySet()) {
+            synchronized (entry.getValue()) {
+                if (entry.getValue().created) {
+                    projectIds.add(entry.getKey());
+                }
+            }
+        }
+        return projectIds;
+    }
+
+    @Override
+    public List<Project> getProjects() {
+        List<Project> loaded = new ArrayList<>();
+        for (Map.Entry<UUID, StoredProject> entry : projects.entrySet()) {
+            synchronized (entry.getValue()) {
+                if (entry.getValue().created) {
+                    loaded.add(entry.getValue().toProject(entry.getKey()));
+                }
+            }
+        }
+        return loaded;
+    }
+
+    @Override
+    public int countProjects() {
+        return getProjectIds().size();
+    }
+
+    private static Individual copyOf(Individual individual) {
+        Individual copy = new Individual();
+        copy.id = individual.id;
+        copy.name = individual.name;
+        copy.role = individual.role;
+        return copy;
+    }
+
+    /*
+     * A project as written, guarded by its own monitor. Individuals are kept as
+     * private copies, which are copied again whenever they are read.
+     */
+    private static class StoredProject {
+        boolean created;
+        String title;
+        String goal;
+        int startDay = Dates.NO_DATE;
+        final Map<UUID, Individual> individuals = new LinkedHashMap<>();
+        final Map<UUID, StoredMeeting> meetings = new LinkedHashMap<>();
+
+        Project toProject(UUID id) {
+            Project project = new Project();
+            project.id = id;
+            project.title = title;
+            project.goal = goal;
+            project.startDate = Dates.toDate(startDay);
+            Map<UUID, Individual> individualsById = toIndividuals();
+            project.individuals = new ArrayList<>(individualsById.values());
+            project.meetings = new ArrayList<>(meetings.size());
+            for (Map.Entry<UUID, StoredMeeting> meeting : meetings.entrySet()) {
+                project.meetings.add(meeting.getValue().toMeeting(meeting.getKey(), individualsById));
+            }
+            return project;
+        }
+
+        Map<UUID, Individual> toIndividuals() {
+            Map<UUID, Individual> individualsById = new LinkedHashMap<>(individuals.size() * 2);
+            for (Individual individual : individuals.values()) {
+                individualsById.put(individual.id, copyOf(individual));
+            }
+            return individualsById;
+        }
+    }
+
+    private static class StoredMeeting {
+        final String title;
+        final int day;
+        final String summary;
+        final List<UUID> attendeeIds;
+
+        StoredMeeting(Meeting meeting) {
+            this.title = meeting.title;
+            this.day = Dates.toEpochDay(meeting.date);
+            this.summary = meeting.summary;
+            this.attendeeIds = new ArrayList<>(meeting.attendees.size());
+            for (Individual attendee : meeting.attendees) {
+                attendeeIds.add(attendee.id);
+            }
+        }
+
+        /*
+         * Returns the meeting with its attendees looked up among the project's
+         * individuals. Ids that no longer match an individual are skipped.
+         */
+        Meeting toMeeting(UUID id, Map<UUID, Individual> individualsById) {
+            Meeting meeting = new Meeting();
+            meeting.id = id;
+            meeting.title = title;
+            meeting.date = Dates.toDate(day);
+            meeting.summary = summary;
+            meeting.attendees = new ArrayList<>(attendeeIds.size());
+            for (UUID attendeeId : attendeeIds) {
+                Individual attendee = individualsById.get(attendeeId);
+                if (attendee != null) {
+                    meeting.attendees.add(attendee);
+                }
+            }
+            return meeting;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+import java.io.IOException;
+import java.util.List;
+
+/*
+ * One-shot conversion of the projects folder layout into a journal. Projects
+ * are read a page at a time, appended to the journal and then compacted into a
+ * snapshot. The original files are left in place.
+ *
+ * Usage: java JournalMigrator [journal folder]
+ */
+public class JournalMigrator {
+
+    private static final int PAGE_SIZE = 100;
+
+    public static void main(String[] args) throws IOException {
+        String journalPath = args.length > 0 ? args[0] : JournalStorage.DEFAULT_JOURNAL_PATH;
+        FileManager source = new FileManager(1, null);
+
+        try (JournalStorage journal = JournalStorage.open(journalPath)) {
+            int migrated = migrate(source, journal);
+            System.out.println("Migrated " + migrated + " project(s) to " + journalPath);
+        }
+
+        for (LoadError loadError : source.getLoadErrors()) {
+            System.out.println("Skipped " + loadError);
+        }
+    }
+
+    /*
+     * Copies every project readable by the source file manager into the journal
+     * and returns the number of projects copied.
+     */
+    public static int migrate(FileManager source, JournalStorage journal) throws IOException {
+        int migrated = 0;
+        int pageCount = (source.countProjects() + PAGE_SIZE - 1) / PAGE_SIZE;
+        for (int page = 0; page < pageCount; page++) {
+            List<Project> projects = source.getProjectCatalogue(page, PAGE_SIZE);
+            for (Project project : projects) {
+                journal.saveProject(project);
+                for (Individual individual : project.individuals) {
+                    journal.saveIndividual(project, individual);
+                }
+                for (Meeting meeting : project.meetings) {
+                    journal.saveMeeting(project, meeting);
+                }
+                journal.compact(project.id);
+                migrated++;
+            }
+        }
+        return migrated;
+    }
+}
@@ -0,0 +1,804 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/*
+ * A storage engine that appends every create and update to a per-project log
+ * instead of writing one file per entity. Each project folder holds numbered
+ * segment files, and the newest segment is appended to until it reaches the
+ * configured size. A project is loaded by replaying its latest snapshot and then
+ * every newer segment, with later records replacing earlier ones.
+ *
+ * Once enough segments have filled up they are compacted in the background into
+ * a single snapshot holding only the latest version of each entity. A compaction
+ * that fails is reported through takeBackgroundErrors and tried again when the
+ * next segment fills up.
+ *
+ * Appends follow projects.durability as files written by FileManager do. With
+ * NONE they are left to the operating system; with BATCH each append is forced
+ * to disk before it returns, and appends to a project made while one is being
+ * forced share the next force; with EVERY_WRITE each is forced on its own. New
+ * segments and snapshots have their folder forced too unless it is NONE.
+ *
+ * Several processes can share a journal. Appending, loading and the start and
+ * end of a compaction hold the project's append.lock, which every process
+ * locks as a FileMutex, and segments are opened for appending, so each record
+ * lands whole after the last. A process whose active segment has been rolled
+ * or compacted away by another moves on to the newest segment before its next
+ * append. Processes may compact the same project at once; the first to finish
+ * swaps its snapshot in and the others give up. Only one file lock is held at
+ * a time, as the operating system tracks them per process and would take two
+ * held by different threads for a deadlock.
+ *
+ * A segment is never cut short. If the newest segment ends in an incomplete
+ * record, left by a crash, appending carries on in a new segment, and replaying
+ * stops at the incomplete record and goes on with the next segment.
+ *
+ * Journal Layout
+ * <journal>/<projectId>/snapshot-<n>.dat (state up to and including segment n)
+ * <journal>/<projectId>/segment-<n>.log
+ * <journal>/<projectId>/append.lock      held while appending, loading or
+ *                                        starting or finishing a compaction
+ */
+public class JournalStorage implements StorageEngine, Closeable {
+
+    public static final String DEFAULT_JOURNAL_PATH = "journal";
+    public static final long DEFAULT_SEGMENT_BYTES = 8L * 1024 * 1024;
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 4;
+
+    private static final byte RECORD_PROJECT = 1;
+    private static final byte RECORD_INDIVIDUAL = 2;
+    private static final byte RECORD_MEETING = 3;
+    private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+
+    private static final Map<String, JournalStorage> openJournals = new HashMap<>();
+
+    private final File root;
+    private final long segmentBytes;
+    private final int compactionThreshold;
+    private final Durability durability;
+    private final List<LoadError> backgroundErrors = Collections.synchronizedList(new ArrayList<>());
+    private final Map<UUID, Segment> activeSegments = new ConcurrentHashMap<>();
+    private final Map<UUID, Object> projectLocks = new ConcurrentHashMap<>();
+    private final Set<UUID> compacting = ConcurrentHashMap.newKeySet();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "journal-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public JournalStorage(File root) {
+        this(root, DEFAULT_SEGMENT_BYTES, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    public JournalStorage(File root, long segmentBytes, int compactionThreshold) {
+        this(root, segmentBytes, compactionThreshold, Durability.fromSystemProperty());
+    }
+
+    public JournalStorage(File root, long segmentBytes, int compactionThreshold, Durability durability) {
+        this.root = root;
+        this.segmentBytes = segmentBytes;
+        this.compactionThreshold = compactionThreshold;
+        this.durability = durability;
+    }
+
+    /*
+     * Returns the shared journal stored in the given folder, opening it on first
+     * use. Sharing one instance per folder keeps a single writer per segment.
+     */
+    public static synchronized JournalStorage open(String path) {
+        return openJournals.computeIfAbsent(new File(path).getAbsolutePath(), key -> new JournalStorage(new File(key)));
+    }
+
+    @Override
+    public void saveProject(Project project) throws IOException {
+        append(project.id, encodeProject(project));
+    }
+
+    @Override
+    public void saveIndividual(Project project, Individual individual) throws IOException {
+        append(project.id, encodeIndividual(individual));
+    }
+
+    @Override
+    public void saveMeeting(Project project, Meeting meeting) throws IOException {
+        List<UUID> attendeeIds = new ArrayList<>(meeting.attendees.size());
+        for (Individual attendee : meeting.attendees) {
+            attendeeIds.add(attendee.id);
+        }
+        append(project.id, encodeMeeting(meeting, attendeeIds));
+    }
+
+    @Override
+    public List<UUID> listProjectIds() {
+        List<String> names = new ArrayList<>();
+        String[] folderNames = root.list();
+        if (folderNames != null) {
+            for (String name : folderNames) {
+                try {
+                    UUID.fromString(name);
+                    names.add(name);
+                } catch (IllegalArgumentException e) {
+                    // Not a project folder
+                }
+            }
+        }
+        Collections.sort(names);
+
+        List<UUID> projectIds = new ArrayList<>(names.size());
+        for (String name : names) {
+            projectIds.add(UUID.fromString(name));
+        }
+        return projectIds;
+    }
+
+    @Override
+    public Project loadProject(UUID projectId) throws IOException {
+        File folder = getProjectLocation(projectId);
+        if (!folder.isDirectory()) {
+            throw new IOException("No project record found in " + folder);
+        }
+        ProjectState state = new ProjectState();
+        synchronized (lockFor(projectId)) {
+            FileMutex appendMutex = appendMutexFor(projectId);
+            appendMutex.lock();
+            try {
+                int snapshotNumber = latestSnapshotNumber(folder);
+                if (snapshotNumber > 0) {
+                    replay(snapshotFile(folder, snapshotNumber), state);
+                }
+                for (int segmentNumber : segmentNumbersAfter(folder, snapshotNumber)) {
+                    replay(segmentFile(folder, segmentNumber), state);
+                }
+            } finally {
+                appendMutex.unlock();
+            }
+        }
+        if (state.project == null) {
+            throw new IOException("No project record found in " + folder);
+        }
+        return state.toProject();
+    }
+
+    @Override
+    public File getRoot() {
+        return root;
+    }
+
+    @Override
+    public List<LoadError> takeBackgroundErrors() {
+        synchronized (backgroundErrors) {
+            List<LoadError> errors = new ArrayList<>(backgroundErrors);
+            backgroundErrors.clear();
+            return errors;
+        }
+    }
+
+    @Override
+    public File getProjectLocation(UUID projectId) {
+        return new File(root, projectId.toString());
+    }
+
+    /*
+     * Rewrites every segment of a project up to the active one into a new
+     * snapshot, then deletes the segments and the previous snapshot. The active
+     * segment is closed first so everything written so far is compacted. Loads
+     * and appends only wait for the final swap, not the rewrite itself.
+     */
+    public void compact(UUID projectId) throws IOException {
+        File folder = getProjectLocation(projectId);
+        if (!folder.isDirectory() || !compacting.add(projectId)) {
+            return; // Nothing written yet, or already being compacted
+        }
+        try {
+            compact(projectId, folder, appendMutexFor(projectId));
+        } finally {
+            compacting.remove(projectId);
+        }
+    }
+
+    private void compact(UUID projectId, File folder, FileMutex appendMutex) throws IOException {
+        int snapshotNumber;
+        List<Integer> closedSegments = new ArrayList<>();
+
+        synchronized (lockFor(projectId)) {
+            appendMutex.lock();
+            try {
+                snapshotNumber = latestSnapshotNumber(folder);
+                Segment active = null;
+                if (activeSegments.containsKey(projectId) || !segmentNumbersAfter(folder, snapshotNumber).isEmpty()) {
+                    active = activeSegment(projectId);
+                }
+                if (active != null && active.size > 0) {
+                    active = rollSegment(projectId, active);
+                }
+                for (int segmentNumber : segmentNumbersAfter(folder, snapshotNumber)) {
+                    if (active == null || segmentNumber < active.number) {
+                        closedSegments.add(segmentNumber);
+                    }
+                }
+            } finally {
+                appendMutex.unlock();
+            }
+        }
+
+        if (closedSegments.isEmpty()) {
+            return;
+        }
+
+        ProjectState state = new ProjectState();
+        try {
+            if (snapshotNumber > 0) {
+                replay(snapshotFile(folder, snapshotNumber), state);
+            }
+            for (int segmentNumber : closedSegments) {
+                replay(segmentFile(folder, segmentNumber), state);
+            }
+        } catch (FileNotFoundException e) {
+            if (latestSnapshotNumber(folder) != snapshotNumber) {
+                return; // Compacted by another process meanwhile
+            }
+            throw e;
+        }
+
+        File temp = File.createTempFile("snapshot", ".tmp", folder);
+        try {
+            writeSnapshot(state, temp);
+            swapSnapshot(projectId, folder, appendMutex, temp, snapshotNumber, closedSegments);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /*
+     * Moves a new snapshot into place and deletes the snapshot and segments it
+     * replaces, unless another process has compacted the project since they
+     * were read.
+     */
+    private void swapSnapshot(UUID projectId, File folder, FileMutex appendMutex, File temp, int snapshotNumber, List<Integer> closedSegments) throws IOException {
+        int compactedUpTo = closedSegments.get(closedSegments.size() - 1);
+        synchronized (lockFor(projectId)) {
+            appendMutex.lock();
+            try {
+                if (latestSnapshotNumber(folder) != snapshotNumber) {
+                    return;
+                }
+                Files.move(temp.toPath(), snapshotFile(folder, compactedUpTo).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                if (durability != Durability.NONE) {
+                    AtomicFileWriter.syncFolder(folder.toPath()); // Before the segments it replaces are deleted
+                }
+                if (snapshotNumber > 0) {
+                    Files.deleteIfExists(snapshotFile(folder, snapshotNumber).toPath());
+                }
+                for (int segmentNumber : closedSegments) {
+                    Files.deleteIfExists(segmentFile(folder, segmentNumber).toPath());
+                }
+            } finally {
+                appendMutex.unlock();
+            }
+        }
+    }
+
+    /*
+     * Closes every open segment and stops the background compactor.
+     */
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        synchronized (JournalStorage.class) {
+            openJournals.values().remove(this);
+        }
+        for (UUID projectId : new ArrayList<>(activeSegments.keySet())) {
+            synchronized (lockFor(projectId)) {
+                Segment segment = activeSegments.remove(projectId);
+                if (segment != null) {
+                    closeSegment(segment);
+                }
+            }
+        }
+    }
+
+    /*
+     * Appends a single record to the project's active segment, starting a new
+     * segment once the active one is full, and forces it to disk as the
+     * durability asks.
+     */
+    private void append(UUID projectId, byte[] payload) throws IOException {
+        ByteBuffer record = frame(payload);
+        Segment segment;
+        long end;
+        synchronized (lockFor(projectId)) {
+            FileMutex appendMutex = appendMutexFor(projectId);
+            appendMutex.lock();
+            try {
+                segment = activeSegment(projectId);
+
+                while (record.hasRemaining()) {
+                    segment.channel.write(record);
+                }
+                segment.size = segment.channel.position(); // Including what other processes appended
+                end = segment.size;
+                if (durability == Durability.EVERY_WRITE) {
+                    segment.channel.force(false);
+                    segment.forced = end;
+                }
+
+                if (segment.size >= segmentBytes) {
+                    Segment next = rollSegment(projectId, segment);
+                    File folder = getProjectLocation(projectId);
+                    if (next.number - latestSnapshotNumber(folder) - 1 >= compactionThreshold) {
+                        scheduleCompaction(projectId);
+                    }
+                }
+            } finally {
+                appendMutex.unlock();
+            }
+        }
+        if (durability == Durability.BATCH) {
+            force(segment, end);
+        }
+    }
+
+    /*
+     * Forces a segment to disk up to at least the given length, unless a force
+     * made since that length was written already did. Appends made while one
+     * thread forces wait for it, then one of them forces everything they
+     * appended in the meantime. A segment that has been closed was forced when
+     * it was closed.
+     */
+    private void force(Segment segment, long end) throws IOException {
+        synchronized (segment.forceLock) {
+            if (segment.forced >= end) {
+                return;
+            }
+            long written = segment.size;
+            try {
+                segment.channel.force(false);
+            } catch (ClosedChannelException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                return;
+            }
+            segment.forced = written;
+        }
+    }
+
+    /*
+     * Closes the given segment and makes a new, empty segment the active one.
+     */
+    private Segment rollSegment(UUID projectId, Segment segment) throws IOException {
+        closeSegment(segment);
+        Segment next = createSegment(getProjectLocation(projectId), segment.number + 1);
+        activeSegments.put(projectId, next);
+        return next;
+    }
+
+    /*
+     * Closes a segment, forcing it to disk first unless the durability is NONE,
+     * so appends still waiting to be forced are on disk once it is closed.
+     */
+    private void closeSegment(Segment segment) throws IOException {
+        try {
+            if (durability != Durability.NONE && segment.channel.isOpen()) {
+                segment.channel.force(false);
+            }
+        } finally {
+            segment.channel.close();
+        }
+    }
+
+    /*
+     * Compacts a project on the background compactor thread. A failure is kept
+     * for takeBackgroundErrors, naming the project's folder.
+     */
+    private void scheduleCompaction(UUID projectId) {
+        compactor.execute(() -> {
+            try {
+                compact(projectId);
+            } catch (IOException | RuntimeException e) {
+                backgroundErrors.add(new LoadError(getProjectLocation(projectId), e));
+            }
+        });
+    }
+
+    /*
+     * Returns the project's active segment, opening it if there is none, or if
+     * another process has started a newer segment or compacted this one away
+     * since it was opened. Called holding the project's lock and append.lock.
+     */
+    private Segment activeSegment(UUID projectId) throws IOException {
+        Segment segment = activeSegments.get(projectId);
+        if (segment != null) {
+            File folder = getProjectLocation(projectId);
+            if (segmentFile(folder, segment.number).exists() && !segmentFile(folder, segment.number + 1).exists()) {
+                return segment;
+            }
+            activeSegments.remove(projectId);
+            closeSegment(segment);
+        }
+        segment = openActiveSegment(projectId);
+        activeSegments.put(projectId, segment);
+        return segment;
+    }
+
+    /*
+     * Opens the newest segment of a project for appending, or creates the first
+     * one. A segment that ends in an incomplete record is left as it is and a new
+     * one is started after it.
+     */
+    private Segment openActiveSegment(UUID projectId) throws IOException {
+        File folder = getProjectLocation(projectId);
+        folder.mkdirs();
+
+        int snapshotNumber = latestSnapshotNumber(folder);
+        List<Integer> segmentNumbers = segmentNumbersAfter(folder, snapshotNumber);
+        if (segmentNumbers.isEmpty()) {
+            return createSegment(folder, snapshotNumber + 1);
+        }
+
+        int segmentNumber = segmentNumbers.get(segmentNumbers.size() - 1);
+        File file = segmentFile(folder, segmentNumber);
+        long validLength = replay(file, null);
+        return createSegment(folder, validLength == file.length() ? segmentNumber : segmentNumber + 1);
+    }
+
+    /*
+     * Opens a segment file for appending after whatever it already holds,
+     * creating it if need be. Every write goes to the end of the file, wherever
+     * other processes have left it.
+     */
+    private Segment createSegment(File folder, int number) throws IOException {
+        File file = segmentFile(folder, number);
+        boolean created = !file.exists();
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        long length = channel.size();
+        if (created && durability != Durability.NONE) {
+            AtomicFileWriter.syncFolder(folder.toPath());
+        }
+        return new Segment(number, channel, length);
+    }
+
+    /*
+     * Writes the current state of a project to a snapshot file and flushes it to
+     * disk.
+     */
+    private void writeSnapshot(ProjectState state, File file) throws IOException {
+        try (FileOutputStream fileOut = new FileOutputStream(file);
+             BufferedOutputStream out = new BufferedOutputStream(fileOut)) {
+            if (state.project != null) {
+                writeFramed(out, encodeProject(state.project));
+            }
+            for (Individual individual : state.individuals.values()) {
+                writeFramed(out, encodeIndividual(individual));
+            }
+            for (Meeting meeting : state.meetings.values()) {
+                writeFramed(out, encodeMeeting(meeting, state.attendeeIds.get(meeting.id)));
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+    }
+
+    private static void writeFramed(BufferedOutputStream out, byte[] payload) throws IOException {
+        ByteBuffer record = frame(payload);
+        out.write(record.array(), 0, record.limit());
+    }
+
+    /*
+     * Reads records from a segment or snapshot file, applying each one to the
+     * given state if there is one. Reading stops at the first incomplete or
+     * corrupt record. Returns the length of the file up to that point.
+     */
+    private static long replay(File file, ProjectState state) throws IOException {
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length < 0 || length > MAX_RECORD_BYTES) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    if (checksum(payload) != checksum) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+
+                if (state != null) {
+                    state.apply(payload);
+                }
+                validLength += 8 + payload.length;
+            }
+        }
+        return validLength;
+    }
+
+    /*
+     * Record Layout
+     * length (int), crc32 of payload (int), payload
+     *
+     * Every payload starts with a record type byte and the entity id, followed by
+     * the entity's fields in the same order as the text files.
+     */
+    private static ByteBuffer frame(byte[] payload) {
+        ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+        record.putInt(payload.length);
+        record.putInt(checksum(payload));
+        record.put(payload);
+        record.flip();
+        return record;
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] encodeProject(Project project) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(RECORD_PROJECT);
+        writeUUID(out, project.id);
+        writeString(out, project.title);
+        writeString(out, project.goal);
+        writeDate(out, project.startDate);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeIndividual(Individual individual) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(RECORD_INDIVIDUAL);
+        writeUUID(out, individual.id);
+        writeString(out, individual.name);
+        writeString(out, individual.role);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeMeeting(Meeting meeting, List<UUID> attendeeIds) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(RECORD_MEETING);
+        writeUUID(out, meeting.id);
+        writeString(out, meeting.title);
+        writeDate(out, meeting.date);
+        writeString(out, meeting.summary);
+        out.writeInt(attendeeIds.size());
+        for (UUID attendeeId : attendeeIds) {
+            writeUUID(out, attendeeId);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeUUID(DataOutputStream out, UUID id) throws IOException {
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID readUUID(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeDate(DataOutputStream out, Date date) throws IOException {
+        out.writeBoolean(date != null);
+        out.writeLong(date != null ? date.getTime() : 0);
+    }
+
+    /*
+     * Reads a date back as the start of its day, as the projects folder and
+     * snapshots keep them. Records hold the time it was written with.
+     */
+    private static Date readDate(DataInputStream in) throws IOException {
+        boolean present = in.readBoolean();
+        long time = in.readLong();
+        return present ? Dates.toDate(Dates.toEpochDay(new Date(time))) : null;
+    }
+
+    private Object lockFor(UUID projectId) {
+        return projectLocks.computeIfAbsent(projectId, key -> new Object());
+    }
+
+    private FileMutex appendMutexFor(UUID projectId) {
+        return FileMutex.forFile(new File(getProjectLocation(projectId), "append.lock"));
+    }
+
+    private static File segmentFile(File folder, int number) {
+        return new File(folder, String.format("segment-%08d.log", number));
+    }
+
+    private static File snapshotFile(File folder, int number) {
+        return new File(folder, String.format("snapshot-%08d.dat", number));
+    }
+
+    /*
+     * Returns the number of the newest snapshot in a project folder, or 0 if the
+     * project has never been compacted.
+     */
+    private static int latestSnapshotNumber(File folder) {
+        int latest = 0;
+        for (int number : fileNumbers(folder, "snapshot-", ".dat")) {
+            latest = Math.max(latest, number);
+        }
+        return latest;
+    }
+
+    /*
+     * Returns the numbers of the segments newer than the given snapshot, in the
+     * order they were written.
+     */
+    private static List<Integer> segmentNumbersAfter(File folder, int snapshotNumber) {
+        List<Integer> numbers = new ArrayList<>();
+        for (int number : fileNumbers(folder, "segment-", ".log")) {
+            if (number > snapshotNumber) {
+                numbers.add(number);
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private static List<Integer> fileNumbers(File folder, String prefix, String suffix) {
+        List<Integer> numbers = new ArrayList<>();
+        String[] names = folder.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(prefix) && name.endsWith(suffix)) {
+                    try {
+                        numbers.add(Integer.parseInt(name.substring(prefix.length(), name.length() - suffix.length())));
+                    } catch (NumberFormatException e) {
+                        // Not a journal file
+                    }
+                }
+            }
+        }
+        return numbers;
+    }
+
+    /*
+     * The segment currently being appended to for a project.
+     */
+    private static class Segment {
+        final int number;
+        final FileChannel channel;
+        final Object forceLock = new Object();
+
+        /*
+         * Bytes appended, written under the project's lock, and bytes known to
+         * be forced to disk, written under the force lock.
+         */
+        volatile long size;
+        volatile long forced;
+
+        Segment(int number, FileChannel channel, long size) {
+            this.number = number;
+            this.channel = channel;
+            this.size = size;
+        }
+    }
+
+    /*
+     * The latest version of each entity in a project, built up by replaying
+     * records in order. Attendees are kept as ids until the project is built so
+     * they can refer to individuals written later in the journal.
+     */
+    private static class ProjectState {
+        Project project;
+        final Map<UUID, Individual> individuals = new LinkedHashMap<>();
+        final Map<UUID, Meeting> meetings = new LinkedHashMap<>();
+        final Map<UUID, List<UUID>> attendeeIds = new HashMap<>();
+
+        void apply(byte[] payload) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            byte type = in.readByte();
+            switch (type) {
+                case RECORD_PROJECT:
+                    project = new Project();
+                    project.id = readUUID(in);
+                    project.title = readString(in);
+                    project.goal = readString(in);
+                    project.startDate = readDate(in);
+                    break;
+                case RECORD_INDIVIDUAL:
+                    Individual individual = new Individual();
+                    individual.id = readUUID(in);
+                    individual.name = readString(in);
+                    individual.role = readString(in);
+                    individuals.put(individual.id, individual);
+                    break;
+                case RECORD_MEETING:
+                    Meeting meeting = new Meeting();
+                    meeting.id = readUUID(in);
+                    meeting.title = readString(in);
+                    meeting.date = readDate(in);
+                    meeting.summary = readString(in);
+                    int attendeeCount = in.readInt();
+                    List<UUID> ids = new ArrayList<>(attendeeCount);
+                    for (int i = 0; i < attendeeCount; i++) {
+                        ids.add(readUUID(in));
+                    }
+                    meetings.put(meeting.id, meeting);
+                    attendeeIds.put(meeting.id, ids);
+                    break;
+                default:
+                    throw new IOException("Unknown journal record type " + type);
+            }
+        }
+
+        /*
+         * Builds the project, resolving meeting attendees against the project's
+         * individuals so they share the same instances.
+         */
+        Project toProject() {
+            project.individuals = new ArrayList<>(individuals.values());
+            project.meetings = new ArrayList<>(meetings.size());
+            for (Meeting meeting : meetings.values()) {
+                meeting.attendees = new ArrayList<>();
+                for (UUID attendeeId : attendeeIds.get(meeting.id)) {
+                    Individual attendee = individuals.get(attendeeId);
+                    if (attendee != null) {
+                        meeting.attendees.add(attendee);
+                    }
+                }
+                project.meetings.add(meeting);
+            }
+            return project;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/*
+ * Moves a projects folder from the flat layout into the sharded one while it is
+ * in use. The .sharded marker is written first, so from then on every process
+ * writes new files in the sharded layout, and then each project's files are
+ * moved into their shards one at a time.
+ *
+ * A file is moved by hard linking it into its shard and only then removing its
+ * flat name, so a reader listing the project always finds it under at least
+ * one of the two, and finds the same file under both. Where the shard already
+ * holds the file, the newer of the two is kept. Each project's config file is
+ * moved last, and its flat folders are removed once empty. A file written to
+ * the flat layout by a process that started writing before the marker appeared
+ * is moved on the next try, and whatever is left after that by the next run.
+ *
+ * Archived projects only have their pack moved into their shard.
+ *
+ * On file systems without hard links files are renamed into their shards
+ * instead, unless the shard already holds them.
+ *
+ * Usage: java LayoutMigrator [projects folder]
+ */
+public class LayoutMigrator {
+
+    private static final int ATTEMPTS = 3;
+
+    public static void main(String[] args) throws IOException {
+        String projectsPath = args.length > 0 ? args[0] : System.getProperty("projects.root", "projects");
+        Result result = migrate(new ProjectLayout(new File(projectsPath)));
+        System.out.println("Moved " + result.filesMoved + " file(s) of " + result.projects + " project(s) into shards in " + projectsPath
+                + ", replacing " + result.filesReplaced + " older sharded file(s)");
+        for (File folder : result.foldersLeft) {
+            System.out.println("Left " + folder + ", which is still in use; run again to move it");
+        }
+    }
+
+    /*
+     * Marks a projects folder as sharded and moves every project in it into the
+     * sharded layout.
+     */
+    public static Result migrate(ProjectLayout layout) throws IOException {
+        File marker = new File(layout.getRoot(), ProjectLayout.SHARDED_MARKER);
+        if (marker.createNewFile()) {
+            AtomicFileWriter.syncFolder(layout.getRoot().toPath());
+        }
+
+        // Every shard a project is moved into is made first, so readers listing the
+        // projects folder meanwhile always list the shard along with the flat folders
+        List<ProjectLayout.ProjectLocation> locations = layout.listProjects();
+        for (ProjectLayout.ProjectLocation location : locations) {
+            new File(layout.getRoot(), ProjectLayout.shardOf(location.projectId)).mkdirs();
+        }
+
+        Result result = new Result();
+        for (ProjectLayout.ProjectLocation location : locations) {
+            migrateProject(layout, location, result);
+            result.projects++;
+        }
+        return result;
+    }
+
+    private static void migrateProject(ProjectLayout layout, ProjectLayout.ProjectLocation location, Result result) throws IOException {
+        UUID projectId = UUID.fromString(location.projectId);
+        File flatPack = layout.flatPackFile(projectId);
+        if (flatPack.exists()) {
+            moveAll(List.of(flatPack), List.of(layout.shardedPackFile(projectId)), result);
+        }
+        if (location.isArchived()) {
+            return; // Archived projects have no folders to move
+        }
+        layout.createProjectFolders(projectId);
+        File sharded = layout.shardedProjectFolder(projectId);
+        File flat = layout.flatProjectFolder(projectId);
+
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            for (String kind : new String[] { ProjectLayout.INDIVIDUALS, ProjectLayout.MEETINGS }) {
+                // Files written flat into the sharded project folder are moved into their shards as well
+                List<File> sources = flatEntityFiles(new File(flat, kind));
+                sources.addAll(flatEntityFiles(new File(sharded, kind)));
+                File entityFolder = new File(sharded, kind);
+                List<File> targets = new ArrayList<>(sources.size());
+                for (File source : sources) {
+                    targets.add(new File(new File(entityFolder, ProjectLayout.shardOf(source.getName())), source.getName()));
+                }
+                moveAll(sources, targets, result);
+            }
+            File config = new File(flat, ProjectLayout.CONFIG_FILE_NAME);
+            if (config.exists()) {
+                moveAll(List.of(config), List.of(new File(sharded, ProjectLayout.CONFIG_FILE_NAME)), result);
+            }
+            if (!flat.exists() || removeFlatFolder(flat)) {
+                return;
+            }
+        }
+        result.foldersLeft.add(flat);
+    }
+
+    /*
+     * Returns the individual or meeting files directly inside a folder, leaving
+     * out shards and temporary files.
+     */
+    private static List<File> flatEntityFiles(File folder) {
+        List<File> files = new ArrayList<>();
+        ProjectLayout.forEachEntry(folder.toPath(), path -> {
+            File file = path.toFile();
+            if (file.getName().endsWith(".txt") && !AtomicFileWriter.isTempFile(file) && file.isFile()) {
+                files.add(file);
+            }
+        });
+        return files;
+    }
+
+    /*
+     * Links every source file into place at its target, forces the new links to
+     * disk and only then removes the sources. A source that was replaced after
+     * it was linked, by a newer file than its target, is left for the next try.
+     */
+    private static void moveAll(List<File> sources, List<File> targets, Result result) throws IOException {
+        Set<Path> touched = new LinkedHashSet<>();
+        List<Integer> linked = new ArrayList<>(sources.size());
+        for (int i = 0; i < sources.size(); i++) {
+            File source = sources.get(i);
+            File target = targets.get(i);
+            target.getParentFile().mkdirs();
+            try {
+                if (link(source, target, result)) {
+                    linked.add(i);
+                }
+                touched.add(target.getParentFile().toPath());
+            } catch (NoSuchFileException e) {
+                // Removed or renamed since it was listed
+            }
+        }
+        for (Path folder : touched) {
+            AtomicFileWriter.syncFolder(folder);
+        }
+
+        Set<Path> emptied = new LinkedHashSet<>();
+        for (int i : linked) {
+            File source = sources.get(i);
+            File target = targets.get(i);
+            try {
+                if (Files.isSameFile(source.toPath(), target.toPath()) || target.lastModified() >= source.lastModified()) {
+                    Files.deleteIfExists(source.toPath());
+                    emptied.add(source.getParentFile().toPath());
+                }
+            } catch (NoSuchFileException e) {
+                // Removed since it was linked
+            }
+        }
+        for (Path folder : emptied) {
+            AtomicFileWriter.syncFolder(folder);
+        }
+    }
+
+    /*
+     * Makes the target name the source file unless the target is already as new
+     * as it. Returns true if the source is still to be removed, or false if it
+     * was renamed instead because hard links are not supported.
+     */
+    private static boolean link(File source, File target, Result result) throws IOException {
+        while (true) {
+            if (target.exists()) {
+                if (target.lastModified() >= source.lastModified() || Files.isSameFile(source.toPath(), target.toPath())) {
+                    return true;
+                }
+                // Replaced by renaming over it from the folder above, as FileManager writes
+                File temp = new File(ProjectLayout.tempFolderFor(target), AtomicFileWriter.tempName(target.getName()));
+                try {
+                    Files.createLink(temp.toPath(), source.toPath());
+                } catch (UnsupportedOperationException e) {
+                    return true; // Keeps the sharded file, which readers already prefer
+                }
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                result.filesReplaced++;
+                return true;
+            }
+            try {
+                Files.createLink(target.toPath(), source.toPath());
+                result.filesMoved++;
+                return true;
+            } catch (FileAlreadyExistsException e) {
+                continue; // Written by someone else meanwhile
+            } catch (UnsupportedOperationException e) {
+                try {
+                    Files.move(source.toPath(), target.toPath());
+                    result.filesMoved++;
+                    return false;
+                } catch (FileAlreadyExistsException exists) {
+                    continue;
+                }
+            }
+        }
+    }
+
+    /*
+     * Removes a project's flat folders if nothing is left in them, returning
+     * false if something is.
+     */
+    private static boolean removeFlatFolder(File flat) {
+        new File(flat, ProjectLayout.INDIVIDUALS).delete();
+        new File(flat, ProjectLayout.MEETINGS).delete();
+        return flat.delete();
+    }
+
+    /*
+     * What a migration did.
+     */
+    public static class Result {
+        public int projects;
+        public int filesMoved;
+        public int filesReplaced;
+        public final List<File> foldersLeft = new ArrayList<>();
+    }
+}
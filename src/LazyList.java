@@ -0,0 +1,62 @@
+import java.util.AbstractList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/*
+ * A list that defers loading its contents until it is first accessed. Used by
+ * the project catalogue so a project's individuals and meetings are only read
+ * from disk when something actually looks at them.
+ */
+class LazyList<T> extends AbstractList<T> {
+    private Supplier<List<T>> loader;
+    private List<T> delegate;
+
+    public LazyList(Supplier<List<T>> loader) {
+        this.loader = loader;
+    }
+
+    /*
+     * Returns true once the underlying list has been loaded.
+     */
+    public synchronized boolean isLoaded() {
+        return delegate != null;
+    }
+
+    /*
+     * Loads the underlying list on first use and returns it.
+     */
+    private synchronized List<T> delegate() {
+        if (delegate == null) {
+            delegate = loader.get();
+            loader = null;
+        }
+        return delegate;
+    }
+
+    @Override
+    public T get(int index) {
+        return delegate().get(index);
+    }
+
+    @Override
+    public int size() {
+        return delegate().size();
+    }
+
+    @Override
+    public T set(int index, T element) {
+        return delegate().set(index, element);
+    }
+
+    @Override
+    public void add(int index, T element) {
+        delegate().add(index, element);
+        modCount++;
+    }
+
+    @Override
+    public T remove(int index) {
+        modCount++;
+        return delegate().remove(index);
+    }
+}
@@ -0,0 +1,20 @@
+import java.io.File;
+
+/*
+ * Describes a file that could not be read while loading projects, along with
+ * the reason it failed.
+ */
+public class LoadError {
+    public final File file;
+    public final Exception cause;
+
+    public LoadError(File file, Exception cause) {
+        this.file = file;
+        this.cause = cause;
+    }
+
+    @Override
+    public String toString() {
+        return file.getPath() + ": " + cause;
+    }
+}
@@ -0,0 +1,342 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * A thread-safe front to a FileManager. Reads of a project take its read lock
+ * and writes take its write lock, so a project is never read halfway through a
+ * write and two writes to the same project never interleave, while operations
+ * on different projects run in parallel.
+ *
+ * Locks are striped: each project id maps to one of STRIPES read/write locks,
+ * shared by every repository on the same projects folder in this process. Each
+ * stripe also has a one-byte range of the .lock file in the projects folder,
+ * locked with FileChannel.lock, so separate processes using this class exclude
+ * each other in the same way. Two projects only contend if they map to the same
+ * stripe.
+ *
+ * Writes also add the new individuals and meetings to the Project passed in,
+ * under the same lock, so threads sharing a Project object do not lose each
+ * other's additions.
+ */
+public class LockingProjectRepository implements ProjectRepository {
+
+    public static final String LOCK_FILE_NAME = ".lock";
+
+    /*
+     * Must be the same in every process sharing a projects folder, as it decides
+     * which byte of the lock file each project locks.
+     */
+    public static final int STRIPES = 256;
+
+    private static final Map<String, Locks> openLocks = new HashMap<>();
+
+    /*
+     * Threads that wait for file locks held by other processes, one per lock
+     * being waited for.
+     */
+    private static final ExecutorService lockers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "project-locker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final FileManager fileManager;
+    private final Locks locks;
+
+    public LockingProjectRepository(FileManager fileManager) {
+        this.fileManager = fileManager;
+        this.locks = locksFor(fileManager.getProjectsRoot());
+    }
+
+    private static synchronized Locks locksFor(File root) {
+        return openLocks.computeIfAbsent(root.getAbsolutePath(), path -> new Locks(new File(root, LOCK_FILE_NAME)));
+    }
+
+    public FileManager getFileManager() {
+        return fileManager;
+    }
+
+    /*
+     * Creates a project's folders and config file.
+     */
+    @Override
+    public void createProject(Project project) throws IOException {
+        write(project.id, () -> {
+            fileManager.createProjectFolderStructure(project.id);
+            fileManager.createProjectConfigFile(project);
+            return null;
+        });
+    }
+
+    /*
+     * Rewrites a project's config file with its current title, goal and start
+     * date.
+     */
+    @Override
+    public void updateProject(Project project) throws IOException {
+        write(project.id, () -> {
+            fileManager.createProjectConfigFile(project);
+            return null;
+        });
+    }
+
+    @Override
+    public void addIndividual(Project project, Individual individual) throws IOException {
+        write(project.id, () -> {
+            fileManager.createIndividualFile(project, individual);
+            project.individuals.add(individual);
+            return null;
+        });
+    }
+
+    @Override
+    public void addIndividuals(Project project, List<Individual> individuals) throws IOException {
+        write(project.id, () -> {
+            fileManager.createIndividualFiles(project, individuals);
+            project.individuals.addAll(individuals);
+            return null;
+        });
+    }
+
+    @Override
+    public void addMeeting(Project project, Meeting meeting) throws IOException {
+        write(project.id, () -> {
+            fileManager.createMeetingFile(project, meeting);
+            project.meetings.add(meeting);
+            return null;
+        });
+    }
+
+    @Override
+    public void addMeetings(Project project, List<Meeting> meetings) throws IOException {
+        write(project.id, () -> {
+            fileManager.createMeetingFiles(project, meetings);
+            project.meetings.addAll(meetings);
+            return null;
+        });
+    }
+
+    /*
+     * Packs a project into a pack file under its write lock, so no write to it is
+     * lost while its folders are removed. See FileManager.archiveProject.
+     */
+    public boolean archiveProject(UUID projectId) throws IOException {
+        return write(projectId, () -> fileManager.archiveProject(projectId));
+    }
+
+    public void unarchiveProject(UUID projectId) throws IOException {
+        write(projectId, () -> {
+            fileManager.unarchiveProject(projectId);
+            return null;
+        });
+    }
+
+    @Override
+    public Project getProject(UUID projectId) {
+        return read(projectId, () -> fileManager.getProject(projectId));
+    }
+
+    @Override
+    public Meeting getMeeting(UUID projectId, UUID meetingId) {
+        return read(projectId, () -> fileManager.getMeeting(projectId, meetingId));
+    }
+
+    @Override
+    public Individual getIndividual(UUID projectId, UUID individualId) {
+        return read(projectId, () -> fileManager.getIndividual(projectId, individualId));
+    }
+
+    @Override
+    public List<UUID> getProjectIds() {
+        return fileManager.getProjectIds();
+    }
+
+    @Override
+    public int countProjects() {
+        return fileManager.countProjects();
+    }
+
+    /*
+     * Returns every project, each read under its own lock. Projects removed while
+     * this runs are left out.
+     */
+    @Override
+    public List<Project> getProjects() {
+        List<Project> projects = new ArrayList<>();
+        for (UUID projectId : fileManager.getProjectIds()) {
+            Project project = getProject(projectId);
+            if (project != null) {
+                projects.add(project);
+            }
+        }
+        return projects;
+    }
+
+    /*
+     * Work done while holding a project's lock.
+     */
+    private interface Action<T> {
+        T run() throws IOException;
+    }
+
+    private <T> T read(UUID projectId, Action<T> action) {
+        Stripe stripe = locks.stripe(projectId);
+        stripe.lock.readLock().lock();
+        try {
+            locks.lockShared(stripe);
+            try {
+                return action.run();
+            } finally {
+                locks.unlockShared(stripe);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to lock project " + projectId, e);
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    private <T> T write(UUID projectId, Action<T> action) throws IOException {
+        Stripe stripe = locks.stripe(projectId);
+        stripe.lock.writeLock().lock();
+        try {
+            FileLock fileLock = locks.lockFile(stripe, false);
+            try {
+                return action.run();
+            } finally {
+                release(fileLock);
+            }
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * The stripes of one projects folder and the lock file shared with other
+     * processes.
+     *
+     * A process can only hold one lock on a byte range of a file, so readers in
+     * this process share a single shared file lock per stripe: the first reader
+     * in takes it and the last one out releases it. Writers already exclude every
+     * reader of their stripe, so each takes its own exclusive file lock.
+     */
+    private static class Locks {
+        final File lockFile;
+        final Stripe[] stripes = new Stripe[STRIPES];
+        FileChannel channel;
+
+        Locks(File lockFile) {
+            this.lockFile = lockFile;
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new Stripe(i);
+            }
+        }
+
+        Stripe stripe(UUID projectId) {
+            int hash = projectId.hashCode();
+            return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+        }
+
+        void lockShared(Stripe stripe) throws IOException {
+            synchronized (stripe) {
+                if (stripe.readers == 0) {
+                    stripe.sharedLock = lockFile(stripe, true);
+                }
+                stripe.readers++;
+            }
+        }
+
+        void unlockShared(Stripe stripe) throws IOException {
+            synchronized (stripe) {
+                if (--stripe.readers == 0) {
+                    FileLock sharedLock = stripe.sharedLock;
+                    stripe.sharedLock = null;
+                    release(sharedLock);
+                }
+            }
+        }
+
+        /*
+         * Locks the stripe's byte of the lock file, waiting for other processes to
+         * release it. Every stripe locks through the same channel, and an
+         * interrupt during FileChannel.lock would close it and release the locks
+         * of every stripe at once, so a lock that has to be waited for is taken
+         * on a locker thread, which is never interrupted. A caller interrupted
+         * while it waits gives the lock up as soon as it is taken and fails with
+         * an InterruptedIOException, left interrupted.
+         */
+        FileLock lockFile(Stripe stripe, boolean shared) throws IOException {
+            FileChannel channel = channel();
+            FileLock fileLock = channel.tryLock(stripe.index, 1, shared);
+            if (fileLock != null) {
+                return fileLock;
+            }
+            Future<FileLock> pending = lockers.submit(() -> channel.lock(stripe.index, 1, shared));
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    fileLock = pending.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException("Unable to lock " + lockFile, e.getCause());
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+                release(fileLock);
+                throw new InterruptedIOException("Interrupted while waiting to lock " + lockFile);
+            }
+            return fileLock;
+        }
+
+        synchronized FileChannel channel() throws IOException {
+            if (channel == null) {
+                lockFile.getParentFile().mkdirs();
+                channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            return channel;
+        }
+    }
+
+    /*
+     * Releases a file lock. The channel is never closed while locks are held, so
+     * a lock that was lost with it is reported rather than taken as released.
+     */
+    private static void release(FileLock fileLock) throws IOException {
+        fileLock.release();
+    }
+
+    private static class Stripe {
+        final int index;
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        int readers;
+        FileLock sharedLock;
+
+        Stripe(int index) {
+            this.index = index;
+        }
+    }
+}
@@ -1,9 +1,15 @@
 import java.util.Scanner;
 import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.List;
 import java.util.Arrays;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
 
 public class Main {
 
@@ -14,56 +20,131 @@ public class Main {
     public static final String COLOUR_RED = "\u001B[31m";
     public static final String COLOUR_RESET = "\u001B[0m";
     public static final String SCREEN_CLEAR = "\033[H\033[2J";
+
+    /*
+     * Number of projects shown per page when viewing projects
+     */
+    public static final int PROJECTS_PAGE_SIZE = 10;
+
+    /*
+     * Number of meetings shown for each search
+     */
+    public static final int SEARCH_RESULT_LIMIT = 10;
+
+    /*
+     * Number of individuals and pairs of individuals listed in an attendance
+     * report
+     */
+    public static final int REPORT_LIMIT = 10;
+
+    /*
+     * Whether new individuals and meetings are written in the background, so the
+     * next prompt is shown without waiting for the disk. Turned on by the
+     * projects.writeBehind system property.
+     */
+    private static final boolean WRITE_BEHIND = Boolean.parseBoolean(System.getProperty("projects.writeBehind", "false"));
+
+    /*
+     * The projects folder and the repository every screen creates projects
+     * through, both created on first use
+     */
+    private static FileManager fileManager;
+    private static ProjectRepository repository;
+
+    /*
+     * Cache of loaded projects shared by every visit to the projects view, created
+     * on first use
+     */
+    private static ProjectCache projectCache;
+
+    /*
+     * Renders projects through one buffered writer shared by every view
+     */
+    private static final ProjectPrinter projectPrinter = new ProjectPrinter(System.out);
+
+    /*
+     * The one reader of standard input, shared by every screen. It is never
+     * closed, as that would close standard input with it.
+     */
+    private static final Scanner scanner = new Scanner(System.in);
+
     public static void main(String[] args) throws Exception {
-        start();
+        // --root <folder> comes before everything else and applies to every command
+        if (args.length > 1 && args[0].equals("--root")) {
+            System.setProperty("projects.root", args[1]);
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        if (args.length > 0 && (args[0].equals("import") || args[0].equals("export"))) {
+            BulkTransfer.main(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("run")) {
+            CommandRunner.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("serve")) {
+            ProjectServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        try {
+            start();
+        } catch (NoSuchElementException e) {
+            // Standard input has ended, e.g. when a script was piped in
+        }
     }
 
     /*
      * Asks the user to select a menu option from the below. While loop used to
      * ensure the user only enters a valid input. Program will repeat the question
-     * if an invalid input is entered.
+     * if an invalid input is entered. Each screen returns here when it is done, so
+     * the menu is shown again until the user closes the program.
      */
     private static void start() {
-        System.out.println(COLOUR_GREEN + "\n\n------ Project Management -------" + COLOUR_RESET);
-        System.out.println("Please select an option:");
-        System.out.println("1: Create a new project");
-        System.out.println("2: View projects");
-        System.out.println("3. Close program\n");
-
-        Scanner scanner = new Scanner(System.in);
-        String selection = scanner.nextLine();
-        List<String> validOptions = Arrays.asList("1", "2", "3");
-
-        while(!validOptions.contains(selection)) {
-            System.out.println(COLOUR_RED + "Invalid option. Please try again." + COLOUR_RESET);
-            selection = scanner.nextLine();
-        }
+        List<String> validOptions = Arrays.asList("1", "2", "3", "4", "5");
+
+        while (true) {
+            System.out.println(COLOUR_GREEN + "\n\n------ Project Management -------" + COLOUR_RESET);
+            System.out.println("Please select an option:");
+            System.out.println("1: Create a new project");
+            System.out.println("2: View projects");
+            System.out.println("3: Search meetings");
+            System.out.println("4: Attendance report");
+            System.out.println("5. Close program\n");
+
+            String selection = scanner.nextLine();
+            while(!validOptions.contains(selection)) {
+                System.out.println(COLOUR_RED + "Invalid option. Please try again." + COLOUR_RESET);
+                selection = scanner.nextLine();
+            }
 
-        switch (selection) {
-            case "1":
-                createProject();
-                break;
-            case "2":
-                viewProjects();
-                break;
-            case "3":
-                System.exit(0);
-                break;
-            default:
-                break;
+            switch (selection) {
+                case "1":
+                    createProject();
+                    break;
+                case "2":
+                    viewProjects();
+                    break;
+                case "3":
+                    searchMeetings();
+                    break;
+                case "4":
+                    attendanceReport();
+                    break;
+                case "5":
+                    return;
+                default:
+                    break;
+            }
         }
-
-        scanner.close();
     }
 
     /*
      * Creates a new project by prompting the user for the project title, goal, and
-     * start date. It then creates a new Project object and saves it to disk using
-     * the FileManager class.
+     * start date. It then creates a new Project object and saves it through the
+     * shared project repository.
      */
     private static void createProject() {
         Project project = new Project();
-        Scanner scanner = new Scanner(System.in);
 
         System.out.println(COLOUR_GREEN + "\n------- New Project Creation -------" + COLOUR_RESET);
         System.out.println(project.id + "\n");
@@ -81,23 +162,18 @@ public class Main {
             String projectStartDate = scanner.nextLine();
 
             try {
-                SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
-                project.startDate = dateFormat.parse(projectStartDate);
+                project.startDate = Dates.parse(projectStartDate);
                 dateIsValid = true;
-            } catch (ParseException e) {
+            } catch (DateTimeParseException e) {
                 System.out.println("Invalid date format.");
             }
         }
 
-        FileManager fileManager = new FileManager();
-        fileManager.createProjectFolderStructure(project.id);
-
         try {
-            fileManager.createProjectConfigFile(project);
+            getRepository().createProject(project);
         } catch (IOException e) {
             System.out.println(COLOUR_RED + "Error creating project config file: " + e.getMessage() + COLOUR_RESET);
-            start();
-            scanner.close();
+            return;
         }
 
         clearScreen();
@@ -105,7 +181,7 @@ public class Main {
         System.out.println(COLOUR_GREEN + "Project Created Successfully" + COLOUR_RESET);
         System.out.println("Title: " + project.title);
         System.out.println("Goal: " + project.goal);
-        System.out.println("Start Date: " + new SimpleDateFormat("dd/MM/yyyy").format(project.startDate));
+        System.out.println("Start Date: " + Dates.format(project.startDate));
 
         newProjectOptions(project);
     }
@@ -113,50 +189,47 @@ public class Main {
     /*
      * Displays a list of options for the user to select from after creating a new
      * project. These options include adding an individual or meeting, or returning to
-     * the home screen.
+     * the home screen. The options are shown again after each addition until the
+     * user goes home.
      */
     public static void newProjectOptions(Project project) {
-        Scanner scanner = new Scanner(System.in);
-
-        System.out.println("\nPlease select an option:");
-        System.out.println("1: Add an individual");
-        System.out.println("2: Add a meeting");
-        System.out.println("3. Go to home\n");
-
-        String selection = scanner.nextLine();
         List<String> validOptions = Arrays.asList("1", "2", "3");
 
-        while(!validOptions.contains(selection)) {
-            System.out.println("Invalid option. Please try again.");
-            selection = scanner.nextLine();
-        }
+        while (true) {
+            System.out.println("\nPlease select an option:");
+            System.out.println("1: Add an individual");
+            System.out.println("2: Add a meeting");
+            System.out.println("3. Go to home\n");
 
-        switch (selection) {
-            case "1":
-                createNewIndividual(project);
-                break;
-            case "2":
-                createNewMeeting(project);
-                break;
-            case "3":
-                clearScreen();
-                start();
-                break;
-            default:
-                break;
-        }
+            String selection = scanner.nextLine();
+            while(!validOptions.contains(selection)) {
+                System.out.println("Invalid option. Please try again.");
+                selection = scanner.nextLine();
+            }
 
-        scanner.close();
+            switch (selection) {
+                case "1":
+                    createNewIndividual(project);
+                    break;
+                case "2":
+                    createNewMeeting(project);
+                    break;
+                case "3":
+                    clearScreen();
+                    return;
+                default:
+                    break;
+            }
+        }
     }
 
     /*
      * Creates a new individual by prompting the user for the individual's name and
-     * role. It then creates a new Individual object and saves it to disk using the
-     * FileManager class.
+     * role. It then creates a new Individual object and saves it through the
+     * shared project repository, which adds it to the project.
      */
     public static void createNewIndividual(Project project) {
         Individual individual = new Individual();
-        Scanner scanner = new Scanner(System.in);
 
         System.out.println("\n------- New Individual -------");
         System.out.println(individual.id);
@@ -168,34 +241,30 @@ public class Main {
         System.out.print("Role: ");
         individual.role = scanner.nextLine();
 
-        FileManager fileManager = new FileManager();
-
-        try {
-            fileManager.createIndividualFile(project, individual);
+        if (WRITE_BEHIND) {
+            getFileManager().createIndividualFileAsync(project, individual).whenComplete(reportFailure("Error creating individual file: "));
             project.individuals.add(individual);
-        } catch (IOException e) {
-            System.out.println(COLOUR_RED + "Error creating individual file: " + e.getMessage() + COLOUR_RESET);
-            start();
-            scanner.close();
+        } else {
+            try {
+                getRepository().addIndividual(project, individual);
+            } catch (IOException e) {
+                System.out.println(COLOUR_RED + "Error creating individual file: " + e.getMessage() + COLOUR_RESET);
+                return;
+            }
         }
 
         System.out.println(COLOUR_GREEN + "Individual Added Successfully" + COLOUR_RESET);
         System.out.println("Name: " + individual.name);
         System.out.println("Role: " + individual.role + "\n\n");
-
-        newProjectOptions(project);
-
-        scanner.close();
     }
 
     /*
      * Creates a new meeting by prompting the user for the meeting's title, date,
-     * summary and attendees. It then creates a new Meeting object and saves it to disk
-     * using the FileManager class.
+     * summary and attendees. It then creates a new Meeting object and saves it
+     * through the shared project repository.
      */
     public static void createNewMeeting(Project project) {
         Meeting meeting = new Meeting();
-        Scanner scanner = new Scanner(System.in);
 
         System.out.println("\n------- New Meeting -------");
         System.out.println(meeting.id);
@@ -210,10 +279,9 @@ public class Main {
             String meetingStartDate = scanner.nextLine();
 
             try {
-                SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
-                meeting.date = dateFormat.parse(meetingStartDate);
+                meeting.date = Dates.parse(meetingStartDate);
                 dateIsValid = true;
-            } catch (ParseException e) {
+            } catch (DateTimeParseException e) {
                 System.out.println("Invalid date format.");
             }
         }
@@ -252,61 +320,314 @@ public class Main {
             }
         }
         
-        FileManager fileManager = new FileManager();
-
-        try {
-            fileManager.createMeetingFile(project, meeting);
-        } catch (IOException e) {
-            System.out.println(COLOUR_RED + "Error creating meeting file: " + e.getMessage() + COLOUR_RESET);
-            start();
-            scanner.close();
+        if (WRITE_BEHIND) {
+            getFileManager().createMeetingFileAsync(project, meeting).whenComplete(reportFailure("Error creating meeting file: "));
+            project.meetings.add(meeting);
+        } else {
+            try {
+                getRepository().addMeeting(project, meeting);
+            } catch (IOException e) {
+                System.out.println(COLOUR_RED + "Error creating meeting file: " + e.getMessage() + COLOUR_RESET);
+                return;
+            }
         }
 
         System.out.println(COLOUR_GREEN + "\nMeeting Added Successfully" + COLOUR_RESET);
         System.out.println("Title: " + meeting.title);
-        System.out.println("Date: " + new SimpleDateFormat("dd/MM/yyyy").format(meeting.date));
+        System.out.println("Date: " + Dates.format(meeting.date));
         System.out.println("Summary: " + meeting.summary);
         System.out.println("Attendees: " + String.join(", ", meeting.attendees.stream().map(individual -> individual.name).toList()) + "\n");
+    }
 
-        newProjectOptions(project);
-
-        scanner.close();
+    /*
+     * Returns a callback for a write made in the background that shows the error
+     * it failed with, if it did.
+     */
+    private static BiConsumer<Void, Throwable> reportFailure(String message) {
+        return (ignored, error) -> {
+            if (error != null) {
+                System.out.println(COLOUR_RED + message + error.getMessage() + COLOUR_RESET);
+            }
+        };
     }
 
     /*
-     * Displays a list of all projects stored in the projects folder. It then displays
-     * the details of each project, including the title, goal, start date, individuals,
-     * and meetings.
+     * Displays the projects stored in the projects folder one page at a time. Only
+     * the projects on the current page are read from disk. The user can move
+     * between pages or return to the home screen.
      */
     public static void viewProjects() {
 
         clearScreen();
 
-        List<Project> projects = new FileManager().getProjects();
+        ProjectCache cache = getProjectCache();
+        int projectCount = cache.countProjects();
 
-        if (projects.isEmpty()) {
+        if (projectCount == 0) {
             System.out.println(COLOUR_RED + "No Projects Found. Create a new project using option 1" + COLOUR_RESET);
-        } else {
-            for (Project project : projects) {
-                System.out.println(COLOUR_GREEN + project.title + COLOUR_RESET);
-                System.out.println("Goal: " + project.goal);
-                System.out.println("Start Date: " + new SimpleDateFormat("dd/MM/yyyy").format(project.startDate));
-                System.out.println("Individuals:");
-                for (int i = 0; i < project.individuals.size(); i++) {
-                    System.out.println("    " + (i+1) + ": " + project.individuals.get(i).name + " - " + project.individuals.get(i).role);
-                }
-                System.out.println("Meetings:");
-                for (int i = 0; i < project.meetings.size(); i++) {
-                    System.out.println("    " + (i+1) + ": " + project.meetings.get(i).title + " - " + new SimpleDateFormat("dd/MM/yyyy").format(project.meetings.get(i).date));
-                    System.out.println("       Summary: " + project.meetings.get(i).summary);
-                    System.out.println("       Attendees: " + String.join(", ", project.meetings.get(i).attendees.stream().map(individual -> individual.name).toList()));
-                }
-                System.out.println("\n\n");
+            return;
+        }
+
+        int pageCount = (projectCount + PROJECTS_PAGE_SIZE - 1) / PROJECTS_PAGE_SIZE;
+        int page = 0;
+        List<String> validOptions = Arrays.asList("n", "p", "f", "h");
+
+        while (true) {
+            printProjects(cache.getProjectCatalogue(page, PROJECTS_PAGE_SIZE));
+            printLoadErrors(cache.getFileManager());
+
+            System.out.println("Page " + (page + 1) + " of " + pageCount + " (" + cache + ")");
+            System.out.println("n: Next page, p: Previous page, f: Filter projects, h: Go to home\n");
+
+            String selection = scanner.nextLine();
+            while (!validOptions.contains(selection)) {
+                System.out.println(COLOUR_RED + "Invalid option. Please try again." + COLOUR_RESET);
+                selection = scanner.nextLine();
+            }
+
+            if (selection.equals("h")) {
+                break;
+            } else if (selection.equals("n") && page < pageCount - 1) {
+                page++;
+            } else if (selection.equals("p") && page > 0) {
+                page--;
+            } else if (selection.equals("f")) {
+                ProjectFilter filter = readProjectFilter(scanner);
+                clearScreen();
+                int matches = projectPrinter.printAll(cache.streamProjects(), filter);
+                printLoadErrors(cache.getFileManager());
+                System.out.println(matches + " matching project(s). Press enter to go back to all projects");
+                scanner.nextLine();
             }
+
+            clearScreen();
         }
 
-        start();
+        clearScreen();
+
+    }
 
+    /*
+     * Searches the titles and summaries of meetings in every project, listing the
+     * best matches first along with the project each belongs to. Searches repeat
+     * until a blank line is entered.
+     */
+    public static void searchMeetings() {
+
+        clearScreen();
+
+        SearchIndex searchIndex = SearchIndex.openForQueries(getProjectCache().getFileManager());
+
+        while (true) {
+            System.out.println(COLOUR_GREEN + "\n------- Search Meetings -------" + COLOUR_RESET);
+            System.out.println("Enter words to search for, or leave blank to go to home\n");
+
+            String query = scanner.nextLine();
+            if (query.isBlank()) {
+                break;
+            }
+
+            clearScreen();
+
+            List<SearchIndex.SearchHit> hits = searchIndex.search(query, SEARCH_RESULT_LIMIT);
+            if (hits.isEmpty()) {
+                System.out.println(COLOUR_RED + "No meetings found for \"" + query + "\"" + COLOUR_RESET);
+                continue;
+            }
+
+            System.out.println(hits.size() + " meeting(s) found for \"" + query + "\":");
+            for (int i = 0; i < hits.size(); i++) {
+                SearchIndex.SearchHit hit = hits.get(i);
+                String date = hit.date == null ? "no date" : Dates.format(hit.date);
+                System.out.println("    " + (i+1) + ": " + hit.meetingTitle + " - " + date);
+                System.out.println("       Project: " + hit.projectTitle);
+            }
+        }
+
+        clearScreen();
+
+    }
+
+    /*
+     * Reports on the attendance of one project: the meetings attended by each
+     * individual, who has never attended, who attends together most and the
+     * meetings held each month. The project is found by its id or by part of its
+     * title, and reports repeat until a blank line is entered.
+     */
+    public static void attendanceReport() {
+
+        clearScreen();
+
+        ProjectCache cache = getProjectCache();
+        AttendanceAnalytics analytics = AttendanceAnalytics.openForQueries(cache.getFileManager());
+
+        while (true) {
+            System.out.println(COLOUR_GREEN + "\n------- Attendance Report -------" + COLOUR_RESET);
+            System.out.println("Enter a project id or part of its title, or leave blank to go to home\n");
+
+            String query = scanner.nextLine().trim();
+            if (query.isEmpty()) {
+                break;
+            }
+
+            Project project = findProject(cache, query);
+            clearScreen();
+            if (project == null) {
+                System.out.println(COLOUR_RED + "No project found for \"" + query + "\"" + COLOUR_RESET);
+                continue;
+            }
+
+            int meetingCount = analytics.meetingCount(project.id);
+            System.out.println(COLOUR_GREEN + project.title + COLOUR_RESET + " - " + meetingCount + " meeting(s)\n");
+
+            List<AttendanceAnalytics.IndividualAttendance> attendance = analytics.attendanceByIndividual(project.id);
+            System.out.println("Meetings attended:");
+            for (int i = 0; i < attendance.size() && i < REPORT_LIMIT; i++) {
+                AttendanceAnalytics.IndividualAttendance entry = attendance.get(i);
+                System.out.println(String.format("    %s (%s): %d (%.0f%%)", entry.individual.name, entry.individual.role, entry.meetingsAttended, entry.share * 100));
+            }
+            if (attendance.size() > REPORT_LIMIT) {
+                System.out.println("    ... and " + (attendance.size() - REPORT_LIMIT) + " more");
+            }
+
+            List<Individual> neverAttended = analytics.neverAttended(project.id);
+            System.out.println("\nNever attended: " + (neverAttended.isEmpty() ? "nobody"
+                    : String.join(", ", neverAttended.stream().map(individual -> individual.name).toList())));
+
+            System.out.println("\nMost often together:");
+            for (AttendanceAnalytics.CoAttendance pair : analytics.topCoAttendance(project.id, REPORT_LIMIT)) {
+                System.out.println("    " + pair.first.name + " & " + pair.second.name + ": " + pair.meetings);
+            }
+
+            System.out.println("\nBy month:");
+            for (AttendanceAnalytics.MonthlyAttendance month : analytics.monthlyTrend(project.id)) {
+                System.out.println(String.format("    %s: %d meeting(s), %.1f attendees on average", month.month, month.meetings, month.averageAttendees()));
+            }
+        }
+
+        clearScreen();
+
+    }
+
+    /*
+     * Returns the project with the given id, or else the first project whose
+     * title contains the given text, ignoring case, or null if there is none.
+     */
+    private static Project findProject(ProjectCache cache, String query) {
+        try {
+            Project project = cache.getProject(UUID.fromString(query));
+            if (project != null) {
+                return project;
+            }
+        } catch (IllegalArgumentException e) {
+            // Not an id, so look for it in the titles
+        }
+        String text = query.toLowerCase(Locale.ROOT);
+        try (Stream<Project> projects = cache.streamProjects()) {
+            return projects.filter(project -> project.title != null && project.title.toLowerCase(Locale.ROOT).contains(text)).findFirst().orElse(null);
+        }
+    }
+
+    /*
+     * Returns the file manager for the projects folder named by the
+     * projects.root system property, creating it on first use.
+     */
+    private static FileManager getFileManager() {
+        if (fileManager == null) {
+            fileManager = new FileManager();
+        }
+        return fileManager;
+    }
+
+    /*
+     * Returns the repository projects are created through, which keeps them in
+     * the same projects folder and locks each project while it is written.
+     */
+    private static ProjectRepository getRepository() {
+        if (repository == null) {
+            repository = new LockingProjectRepository(getFileManager());
+        }
+        return repository;
+    }
+
+    /*
+     * Returns the shared project cache, creating it on first use.
+     */
+    private static ProjectCache getProjectCache() {
+        if (projectCache == null) {
+            try {
+                projectCache = new ProjectCache(getFileManager());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to watch the projects folder", e);
+            }
+        }
+        return projectCache;
+    }
+
+    /*
+     * Displays the details of each project, including the title, goal, start date,
+     * individuals, and meetings.
+     */
+    private static void printProjects(List<Project> projects) {
+        projectPrinter.printAll(projects);
+    }
+
+    /*
+     * Asks which projects and meetings to show. Each question can be left blank to
+     * match everything.
+     */
+    private static ProjectFilter readProjectFilter(Scanner scanner) {
+        ProjectFilter filter = new ProjectFilter();
+
+        System.out.print("Project title contains: ");
+        filter.projectTitle = blankToNull(scanner.nextLine());
+
+        filter.from = readOptionalDate(scanner, "Meetings from (dd/MM/yyyy): ");
+        filter.to = readOptionalDate(scanner, "Meetings to (dd/MM/yyyy): ");
+
+        System.out.print("Attendee name or id: ");
+        filter.attendee = blankToNull(scanner.nextLine());
+
+        return filter;
+    }
+
+    /*
+     * While loop is used to ensure a blank line or a valid date (in dd/MM/yyyy
+     * format) is entered.
+     */
+    private static LocalDate readOptionalDate(Scanner scanner, String prompt) {
+        while (true) {
+            System.out.print(prompt);
+            String date = scanner.nextLine().trim();
+            if (date.isEmpty()) {
+                return null;
+            }
+            try {
+                return Dates.parseLocalDate(date);
+            } catch (DateTimeParseException e) {
+                System.out.println("Invalid date format.");
+            }
+        }
+    }
+
+    private static String blankToNull(String value) {
+        return value.isBlank() ? null : value.trim();
+    }
+
+    /*
+     * Lists any project files that could not be read, then forgets them so they
+     * are only reported once.
+     */
+    private static void printLoadErrors(FileManager fileManager) {
+        List<LoadError> loadErrors = fileManager.getLoadErrors();
+        if (!loadErrors.isEmpty()) {
+            System.out.println(COLOUR_RED + loadErrors.size() + " file(s) could not be read:" + COLOUR_RESET);
+            for (LoadError loadError : loadErrors) {
+                System.out.println("    " + loadError);
+            }
+            System.out.println();
+        }
+        fileManager.clearLoadErrors();
     }
 
     /*
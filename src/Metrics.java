@@ -0,0 +1,314 @@
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/*
+ * Latency histograms and counters for the work FileManager does on one projects
+ * folder, shared by every file manager on that folder. Each public FileManager
+ * operation is timed, as are the steps a load is made of: listing folders,
+ * opening files, parsing them and resolving meeting attendees.
+ *
+ * Metrics are off unless the projects.metrics system property is true. When
+ * off, every file manager shares DISABLED, whose methods return straight away
+ * without reading the clock. When on, the metrics of each folder are registered
+ * as a JMX MBean named projects:type=Metrics,root=<folder>, and if
+ * projects.metricsDumpSeconds is set a text dump is written to standard error
+ * that often.
+ *
+ * Histograms are log-linear: eight buckets per power of two, so a recorded
+ * time is reported to within 12.5%, using a few kilobytes per operation no
+ * matter how many times it runs.
+ */
+public class Metrics implements MetricsMXBean {
+
+    public static final Metrics DISABLED = new Metrics(null, false);
+
+    private static final Map<String, Metrics> openMetrics = new HashMap<>();
+    private static ScheduledExecutorService dumper;
+
+    public final boolean enabled;
+    private final String root;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final LongAdder filesOpened = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder parseFailures = new LongAdder();
+
+    private Metrics(String root, boolean enabled) {
+        this.root = root;
+        this.enabled = enabled;
+    }
+
+    /*
+     * Returns the metrics of the given projects folder, or DISABLED if metrics are
+     * turned off.
+     */
+    public static synchronized Metrics forRoot(File root) {
+        if (!Boolean.parseBoolean(System.getProperty("projects.metrics", "false"))) {
+            return DISABLED;
+        }
+        return openMetrics.computeIfAbsent(root.getAbsolutePath(), path -> {
+            Metrics metrics = new Metrics(path, true);
+            metrics.register();
+            scheduleDump(metrics);
+            return metrics;
+        });
+    }
+
+    private void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("projects:type=Metrics,root=" + ObjectName.quote(root)));
+        } catch (JMException e) {
+            // Still collected and dumped, just not visible over JMX
+        }
+    }
+
+    private static void scheduleDump(Metrics metrics) {
+        long seconds = Long.getLong("projects.metricsDumpSeconds", 0);
+        if (seconds <= 0) {
+            return;
+        }
+        if (dumper == null) {
+            dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "metrics-dump");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        dumper.scheduleAtFixedRate(() -> System.err.print(metrics.dump()), seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /*
+     * Returns the time to pass to stop() once the timed work is done, or 0 without
+     * reading the clock if metrics are off.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /*
+     * Records the time since start() against the named operation.
+     */
+    public void stop(String operation, long started) {
+        if (enabled) {
+            timers.computeIfAbsent(operation, Timer::new).record(System.nanoTime() - started);
+        }
+    }
+
+    /*
+     * Counts a file opened for reading, along with its size.
+     */
+    public void fileOpened(File file) {
+        if (enabled) {
+            filesOpened.increment();
+            bytesRead.add(file.length());
+        }
+    }
+
+    public void bytesWritten(long bytes) {
+        if (enabled) {
+            bytesWritten.add(bytes);
+        }
+    }
+
+    public void parseFailed() {
+        if (enabled) {
+            parseFailures.increment();
+        }
+    }
+
+    @Override
+    public long getFilesOpened() {
+        return filesOpened.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getParseFailures() {
+        return parseFailures.sum();
+    }
+
+    @Override
+    public Map<String, TimerSnapshot> getOperations() {
+        Map<String, TimerSnapshot> operations = new TreeMap<>();
+        for (Timer timer : timers.values()) {
+            operations.put(timer.operation, timer.snapshot());
+        }
+        return operations;
+    }
+
+    @Override
+    public void reset() {
+        timers.clear();
+        filesOpened.reset();
+        bytesRead.reset();
+        bytesWritten.reset();
+        parseFailures.reset();
+    }
+
+    /*
+     * Returns every counter and operation as text, one line each.
+     */
+    @Override
+    public String dump() {
+        StringBuilder dump = new StringBuilder();
+        dump.append("Metrics for ").append(root).append('\n');
+        dump.append(String.format(Locale.ROOT, "  files opened %d, bytes read %d, bytes written %d, parse failures %d%n",
+                getFilesOpened(), getBytesRead(), getBytesWritten(), getParseFailures()));
+        for (Map.Entry<String, TimerSnapshot> operation : getOperations().entrySet()) {
+            TimerSnapshot snapshot = operation.getValue();
+            dump.append(String.format(Locale.ROOT, "  %-24s count %d, mean %.1f us, p50 %.1f us, p90 %.1f us, p99 %.1f us, max %.1f us%n",
+                    operation.getKey(), snapshot.getCount(), snapshot.getMeanMicros(), snapshot.getP50Micros(),
+                    snapshot.getP90Micros(), snapshot.getP99Micros(), snapshot.getMaxMicros()));
+        }
+        return dump.toString();
+    }
+
+    /*
+     * A histogram of the times taken by one operation.
+     */
+    private static class Timer {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+        private static final int BUCKETS = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+        final String operation;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        Timer(String operation) {
+            this.operation = operation;
+        }
+
+        void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            buckets.incrementAndGet(bucket(nanos));
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        /*
+         * Times below LINEAR_LIMIT nanoseconds get a bucket each. Above that, each
+         * power of two is split into SUB_BUCKETS buckets using the bits after the
+         * highest one.
+         */
+        private static int bucket(long nanos) {
+            if (nanos < LINEAR_LIMIT) {
+                return (int) nanos;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+        }
+
+        /*
+         * Returns the largest time that falls in a bucket.
+         */
+        private static long upperBound(int bucket) {
+            if (bucket < LINEAR_LIMIT) {
+                return bucket;
+            }
+            int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+            long subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+            long width = 1L << (exponent - SUB_BUCKET_BITS);
+            return (1L << exponent) + (subBucket + 1) * width - 1;
+        }
+
+        TimerSnapshot snapshot() {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            long max = maxNanos.get();
+            long recorded = count.sum();
+            return new TimerSnapshot(recorded, recorded == 0 ? 0 : totalNanos.sum() / 1e3 / recorded,
+                    percentile(counts, total, 0.50, max), percentile(counts, total, 0.90, max), percentile(counts, total, 0.99, max), max / 1e3);
+        }
+
+        private static double percentile(long[] counts, long total, double percentile, long max) {
+            long rank = (long) Math.ceil(percentile * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(upperBound(i), max) / 1e3;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /*
+     * The count and latency of one operation at the time it was taken, in
+     * microseconds.
+     */
+    public static class TimerSnapshot {
+        private final long count;
+        private final double meanMicros;
+        private final double p50Micros;
+        private final double p90Micros;
+        private final double p99Micros;
+        private final double maxMicros;
+
+        TimerSnapshot(long count, double meanMicros, double p50Micros, double p90Micros, double p99Micros, double maxMicros) {
+            this.count = count;
+            this.meanMicros = meanMicros;
+            this.p50Micros = p50Micros;
+            this.p90Micros = p90Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMicros() {
+            return meanMicros;
+        }
+
+        public double getP50Micros() {
+            return p50Micros;
+        }
+
+        public double getP90Micros() {
+            return p90Micros;
+        }
+
+        public double getP99Micros() {
+            return p99Micros;
+        }
+
+        public double getMaxMicros() {
+            return maxMicros;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+import java.util.Map;
+
+/*
+ * What Metrics exposes over JMX. Operations are keyed by name, with times in
+ * microseconds.
+ */
+public interface MetricsMXBean {
+
+    long getFilesOpened();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    long getParseFailures();
+
+    Map<String, Metrics.TimerSnapshot> getOperations();
+
+    /*
+     * Returns every counter and operation as text.
+     */
+    String dump();
+
+    /*
+     * Clears every counter and histogram.
+     */
+    void reset();
+}
@@ -0,0 +1,117 @@
+import java.util.Comparator;
+import java.util.function.BiConsumer;
+
+/*
+ * An immutable sorted map. Putting a key returns a new map and leaves the old
+ * one as it was; the two share every node the put did not touch, so a put
+ * copies only the path from the root to the key, O(log n) nodes, and keeping
+ * an old version of the map costs no more than a reference to it.
+ *
+ * The map is a treap: a binary search tree on the keys that is also a heap on
+ * a priority taken from each key's hash, which keeps it balanced in
+ * expectation for keys that hash well, such as random UUIDs, without any
+ * rebalancing state. Keys are never removed, as nothing in the store is ever
+ * deleted.
+ */
+class PersistentMap<K, V> {
+
+    private final Comparator<? super K> comparator;
+    private final Node<K, V> root;
+
+    private PersistentMap(Comparator<? super K> comparator, Node<K, V> root) {
+        this.comparator = comparator;
+        this.root = root;
+    }
+
+    public static <K, V> PersistentMap<K, V> empty(Comparator<? super K> comparator) {
+        return new PersistentMap<>(comparator, null);
+    }
+
+    public int size() {
+        return root == null ? 0 : root.size;
+    }
+
+    public V get(K key) {
+        Node<K, V> node = root;
+        while (node != null) {
+            int compared = comparator.compare(key, node.key);
+            if (compared == 0) {
+                return node.value;
+            }
+            node = compared < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    /*
+     * Returns a map with the key set to the value, replacing any value it had.
+     */
+    public PersistentMap<K, V> put(K key, V value) {
+        return new PersistentMap<>(comparator, put(root, key, value, priority(key)));
+    }
+
+    private Node<K, V> put(Node<K, V> node, K key, V value, int priority) {
+        if (node == null) {
+            return new Node<>(key, value, priority, null, null);
+        }
+        int compared = comparator.compare(key, node.key);
+        if (compared == 0) {
+            return new Node<>(key, value, node.priority, node.left, node.right);
+        }
+        if (compared < 0) {
+            Node<K, V> left = put(node.left, key, value, priority);
+            if (left.priority > node.priority) {
+                // Rotate right, so the new node rises above this one
+                return new Node<>(left.key, left.value, left.priority, left.left, new Node<>(node.key, node.value, node.priority, left.right, node.right));
+            }
+            return new Node<>(node.key, node.value, node.priority, left, node.right);
+        }
+        Node<K, V> right = put(node.right, key, value, priority);
+        if (right.priority > node.priority) {
+            return new Node<>(right.key, right.value, right.priority, new Node<>(node.key, node.value, node.priority, node.left, right.left), right.right);
+        }
+        return new Node<>(node.key, node.value, node.priority, node.left, right);
+    }
+
+    /*
+     * Calls the action with every key and value, in key order.
+     */
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        forEach(root, action);
+    }
+
+    private static <K, V> void forEach(Node<K, V> node, BiConsumer<? super K, ? super V> action) {
+        while (node != null) {
+            forEach(node.left, action);
+            action.accept(node.key, node.value);
+            node = node.right;
+        }
+    }
+
+    /*
+     * Spreads the bits of a key's hash, so keys whose hashes differ only in a
+     * few bits still get unrelated priorities.
+     */
+    private static int priority(Object key) {
+        int hash = key.hashCode() * 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static class Node<K, V> {
+        final K key;
+        final V value;
+        final int priority;
+        final int size;
+        final Node<K, V> left;
+        final Node<K, V> right;
+
+        Node(K key, V value, int priority, Node<K, V> left, Node<K, V> right) {
+            this.key = key;
+            this.value = value;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = 1 + (left == null ? 0 : left.size) + (right == null ? 0 : right.size);
+        }
+    }
+}
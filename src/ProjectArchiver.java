@@ -0,0 +1,67 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Archives the projects nobody has written to for a while, packing each into a
+ * single compressed file. Archived projects are still listed and read as
+ * before, and are unpacked again as soon as anything is written to them.
+ *
+ * A project is inactive when none of its files has been modified for the given
+ * number of days. Each project is archived under its write lock, so this can
+ * run while the program is in use.
+ *
+ * Usage: java ProjectArchiver [days inactive] [projects folder]
+ */
+public class ProjectArchiver {
+
+    private static final int DEFAULT_DAYS_INACTIVE = 90;
+
+    public static void main(String[] args) throws IOException {
+        int daysInactive = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_DAYS_INACTIVE;
+        String projectsPath = args.length > 1 ? args[1] : System.getProperty("projects.root", "projects");
+        FileManager fileManager = new FileManager(projectsPath, 1);
+        ProjectLayout layout = new ProjectLayout(new File(projectsPath));
+
+        LockingProjectRepository repository = new LockingProjectRepository(fileManager);
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(daysInactive);
+        int archived = 0;
+        int files = 0;
+        for (ProjectLayout.ProjectLocation location : layout.listProjects()) {
+            if (location.isArchived() || lastModified(layout, location) >= cutoff) {
+                continue;
+            }
+            int projectFiles = countFiles(layout, location);
+            if (repository.archiveProject(UUID.fromString(location.projectId))) {
+                archived++;
+                files += projectFiles;
+            }
+        }
+        System.out.println("Archived " + archived + " project(s) inactive for " + daysInactive + " day(s), packing " + files + " file(s)");
+
+        for (LoadError loadError : fileManager.getLoadErrors()) {
+            System.out.println("Skipped " + loadError);
+        }
+    }
+
+    /*
+     * Returns when any file of a project was last modified.
+     */
+    private static long lastModified(ProjectLayout layout, ProjectLayout.ProjectLocation location) {
+        long lastModified = location.config().lastModified();
+        for (String kind : new String[] { ProjectLayout.INDIVIDUALS, ProjectLayout.MEETINGS }) {
+            for (File folder : layout.entityFolders(location, kind)) {
+                lastModified = Math.max(lastModified, folder.lastModified());
+            }
+            for (File file : layout.listEntityFiles(location, kind)) {
+                lastModified = Math.max(lastModified, file.lastModified());
+            }
+        }
+        return lastModified;
+    }
+
+    private static int countFiles(ProjectLayout layout, ProjectLayout.ProjectLocation location) {
+        return 1 + layout.listEntityFiles(location, ProjectLayout.INDIVIDUALS).size() + layout.listEntityFiles(location, ProjectLayout.MEETINGS).size();
+    }
+}
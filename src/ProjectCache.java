@@ -0,0 +1,531 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/*
+ * A long-lived, read-through cache of fully loaded projects sitting in front of
+ * a FileManager. Projects are evicted least recently used first once their
+ * estimated size goes over the memory budget.
+ *
+ * A WatchService keeps the cache in step with the files on disk, including
+ * changes made by other processes. New or changed meeting files and new
+ * individual files are re-read on their own; other changes to a project drop it
+ * from the cache so it is reloaded on next use.
+ *
+ * Cached projects are never changed in place. Updates replace the cached project
+ * with a copy, so a project already handed out stays consistent while it is
+ * being displayed.
+ */
+public class ProjectCache implements Closeable {
+
+    public static final long DEFAULT_MEMORY_BUDGET_BYTES = 64L * 1024 * 1024;
+
+    private final FileManager fileManager;
+    private final long memoryBudgetBytes;
+    private final LinkedHashMap<UUID, CachedProject> projects = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<WatchKey, WatchTarget> watchTargets = new HashMap<>();
+    private final Map<UUID, List<WatchKey>> projectWatches = new HashMap<>();
+    private final Map<UUID, Long> generations = new HashMap<>();
+    private final WatchService watchService;
+    private final Thread watcher;
+    private List<UUID> projectIds;
+    private long cachedBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public ProjectCache(FileManager fileManager) throws IOException {
+        this(fileManager, Long.getLong("projects.cacheBytes", DEFAULT_MEMORY_BUDGET_BYTES));
+    }
+
+    public ProjectCache(FileManager fileManager, long memoryBudgetBytes) throws IOException {
+        this.fileManager = fileManager;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.watchService = FileSystems.getDefault().newWatchService();
+
+        File projectsRoot = fileManager.getProjectsRoot();
+        projectsRoot.mkdirs();
+        register(projectsRoot.toPath(), null, WatchTarget.ROOT);
+
+        this.watcher = new Thread(this::watch, "project-cache-watcher");
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+    }
+
+    /*
+     * Returns the file manager this cache reads through.
+     */
+    public FileManager getFileManager() {
+        return fileManager;
+    }
+
+    /*
+     * Returns a fully loaded project, reading it from disk if it is not cached.
+     * Returns null if the project does not exist or cannot be read.
+     *
+     * The project's folders are watched before it is read, and it is only cached
+     * if no change was seen while reading, so a cached project is never older than
+     * the files on disk.
+     */
+    public Project getProject(UUID projectId) {
+        long generation;
+        synchronized (this) {
+            CachedProject cached = projects.get(projectId);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached.project;
+            }
+            generation = generations.getOrDefault(projectId, 0L);
+        }
+
+        misses.incrementAndGet();
+        boolean watched = watchProject(projectId);
+        Project project = fileManager.getProject(projectId);
+        synchronized (this) {
+            if (project != null && watched && generations.getOrDefault(projectId, 0L) == generation) {
+                put(project);
+            } else if (!projects.containsKey(projectId)) {
+                unwatchProject(projectId);
+            }
+        }
+        return project;
+    }
+
+    /*
+     * Returns the ids of all projects, cached until the projects folder changes.
+     */
+    public synchronized List<UUID> getProjectIds() {
+        if (projectIds == null) {
+            projectIds = fileManager.getProjectIds();
+        }
+        return projectIds;
+    }
+
+    /*
+     * Returns the number of projects.
+     */
+    public int countProjects() {
+        return getProjectIds().size();
+    }
+
+    /*
+     * Returns one page of projects in catalogue order, as with
+     * FileManager.getProjectCatalogue.
+     */
+    public List<Project> getProjectCatalogue(int page, int pageSize) {
+        FileManager.checkPage(page, pageSize);
+        List<UUID> ids = getProjectIds();
+        int from = (int) Math.min((long) page * pageSize, ids.size());
+        int to = (int) Math.min((long) from + pageSize, ids.size());
+        return getProjects(ids.subList(from, to));
+    }
+
+    /*
+     * Returns every project in catalogue order.
+     */
+    public List<Project> getProjects() {
+        return getProjects(getProjectIds());
+    }
+
+    /*
+     * Returns every project as a lazy stream in catalogue order. Each project is
+     * taken from the cache, or loaded into it, as the stream reaches it.
+     */
+    public Stream<Project> streamProjects() {
+        return getProjectIds().stream().map(this::getProject).filter(Objects::nonNull);
+    }
+
+    private List<Project> getProjects(List<UUID> ids) {
+        List<Project> result = new ArrayList<>(ids.size());
+        for (UUID projectId : ids) {
+            Project project = getProject(projectId);
+            if (project != null) {
+                result.add(project);
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Drops a project from the cache so it is read from disk on next use.
+     */
+    public synchronized void invalidate(UUID projectId) {
+        generations.merge(projectId, 1L, Long::sum);
+        CachedProject removed = projects.remove(projectId);
+        if (removed != null) {
+            cachedBytes -= removed.estimatedBytes;
+            invalidations.incrementAndGet();
+            unwatchProject(projectId);
+        }
+        projectIds = null;
+    }
+
+    /*
+     * Drops every project from the cache.
+     */
+    public synchronized void invalidateAll() {
+        invalidations.addAndGet(projects.size());
+        for (UUID projectId : new ArrayList<>(projectWatches.keySet())) {
+            generations.merge(projectId, 1L, Long::sum);
+            unwatchProject(projectId);
+        }
+        projects.clear();
+        cachedBytes = 0;
+        projectIds = null;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "Cache: " + getHits() + " hits, " + getMisses() + " misses, " + getEvictions() + " evictions, " + getInvalidations() + " invalidations";
+    }
+
+    /*
+     * Stops watching the projects folder.
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        watcher.interrupt();
+    }
+
+    /*
+     * Adds or replaces a cached project, evicting the least recently used
+     * projects while the cache is over its memory budget. The project just added
+     * is never evicted, even if it is larger than the whole budget.
+     */
+    private void put(Project project) {
+        CachedProject previous = projects.remove(project.id);
+        if (previous != null) {
+            cachedBytes -= previous.estimatedBytes;
+        }
+        CachedProject cached = new CachedProject(project, estimateBytes(project));
+        projects.put(project.id, cached);
+        cachedBytes += cached.estimatedBytes;
+
+        Iterator<CachedProject> leastRecentlyUsed = projects.values().iterator();
+        while (cachedBytes > memoryBudgetBytes && leastRecentlyUsed.hasNext()) {
+            CachedProject candidate = leastRecentlyUsed.next();
+            if (candidate == cached) {
+                break;
+            }
+            leastRecentlyUsed.remove();
+            cachedBytes -= candidate.estimatedBytes;
+            evictions.incrementAndGet();
+            unwatchProject(candidate.project.id);
+        }
+    }
+
+    /*
+     * Roughly estimates the heap used by a project: a fixed overhead per object
+     * plus two bytes per character of text.
+     */
+    private static long estimateBytes(Project project) {
+        long bytes = 256 + textBytes(project.title) + textBytes(project.goal);
+        for (Individual individual : project.individuals) {
+            bytes += 128 + textBytes(individual.name) + textBytes(individual.role);
+        }
+        for (Meeting meeting : project.meetings) {
+            bytes += 192 + textBytes(meeting.title) + textBytes(meeting.summary) + 8L * meeting.attendees.size();
+        }
+        return bytes;
+    }
+
+    private static long textBytes(String text) {
+        return text == null ? 0 : 48 + 2L * text.length();
+    }
+
+    /*
+     * Starts watching a project's folders for changes, returning false if they
+     * could not be watched. Projects kept by a storage engine are watched as a
+     * whole; the projects folder layout is watched per entity.
+     */
+    private boolean watchProject(UUID projectId) {
+        synchronized (this) {
+            if (projectWatches.containsKey(projectId)) {
+                return true;
+            }
+        }
+
+        File projectFolder = fileManager.getProjectFolder(projectId);
+        List<WatchKey> keys = new ArrayList<>();
+        try {
+            keys.add(register(projectFolder.toPath(), projectId, WatchTarget.PROJECT));
+            if (!fileManager.usesStorageEngine()) {
+                keys.add(register(new File(projectFolder, "individuals").toPath(), projectId, WatchTarget.INDIVIDUALS));
+                keys.add(register(new File(projectFolder, "meetings").toPath(), projectId, WatchTarget.MEETINGS));
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                cancel(keys);
+            }
+            return false;
+        }
+
+        synchronized (this) {
+            List<WatchKey> existing = projectWatches.putIfAbsent(projectId, keys);
+            if (existing != null) {
+                cancel(keys); // Another thread started watching first
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Stops watching a project that is no longer cached.
+     */
+    private void unwatchProject(UUID projectId) {
+        List<WatchKey> keys = projectWatches.remove(projectId);
+        if (keys != null) {
+            cancel(keys);
+        }
+    }
+
+    private void cancel(List<WatchKey> keys) {
+        for (WatchKey key : keys) {
+            key.cancel();
+            watchTargets.remove(key);
+        }
+    }
+
+    private WatchKey register(Path folder, UUID projectId, int kind) throws IOException {
+        WatchKey key = folder.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        synchronized (this) {
+            watchTargets.put(key, new WatchTarget(folder, projectId, kind));
+        }
+        return key;
+    }
+
+    /*
+     * Runs on the watcher thread, applying file changes to the cache until the
+     * cache is closed.
+     */
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                WatchTarget target;
+                synchronized (this) {
+                    target = watchTargets.get(key);
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        invalidateAll();
+                    } else if (target == null) {
+                        continue; // Cancelled since the event was queued
+                    } else {
+                        apply(target, event.kind(), target.folder.resolve((Path) event.context()).toFile());
+                    }
+                }
+                if (!key.reset() && target != null && target.projectId != null) {
+                    invalidate(target.projectId); // Folder deleted or watch cancelled
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Cache closed
+        }
+    }
+
+    /*
+     * Applies a single file change to the cache.
+     */
+    private void apply(WatchTarget target, WatchEvent.Kind<?> kind, File file) {
+        if (target.kind == WatchTarget.ROOT) {
+            synchronized (this) {
+                projectIds = null; // Including temporary folders, which are renamed into a shard
+            }
+            return;
+        }
+        if (target.kind == WatchTarget.MEETINGS || target.kind == WatchTarget.INDIVIDUALS) {
+            // Files in shards are not watched, but are written from a temporary file in
+            // the watched folder, whose removal stands for the file changing
+            File entityFile = ProjectLayout.watchedEntityFile(file);
+            if (entityFile == null) {
+                return;
+            }
+            if (!entityFile.equals(file)) {
+                kind = StandardWatchEventKinds.ENTRY_MODIFY;
+                file = entityFile;
+            }
+        } else if (AtomicFileWriter.isTempFile(file)) {
+            return; // The rename that follows is reported as a new file
+        }
+
+        Project cached;
+        synchronized (this) {
+            generations.merge(target.projectId, 1L, Long::sum);
+            CachedProject entry = projects.get(target.projectId);
+            cached = entry == null ? null : entry.project;
+        }
+        if (cached == null) {
+            return;
+        }
+
+        boolean created = kind == StandardWatchEventKinds.ENTRY_CREATE;
+        boolean deleted = kind == StandardWatchEventKinds.ENTRY_DELETE;
+        try {
+            if (target.kind == WatchTarget.MEETINGS && file.getName().endsWith(".txt")) {
+                Meeting meeting = deleted ? null : fileManager.readMeetingFile(file, cached);
+                replace(cached, copyWithMeeting(cached, idOf(file), meeting));
+            } else if (target.kind == WatchTarget.INDIVIDUALS && file.getName().endsWith(".txt") && !deleted) {
+                Individual individual = fileManager.readIndividualFile(file);
+                Individual existing = findIndividual(cached, individual.id);
+                if (existing == null) {
+                    replace(cached, copyWithIndividual(cached, individual));
+                } else if (!Objects.equals(existing.name, individual.name) || !Objects.equals(existing.role, individual.role)) {
+                    invalidate(target.projectId); // Meetings refer to the old instance
+                }
+            } else {
+                invalidate(target.projectId);
+            }
+        } catch (Exception e) {
+            if (!created) {
+                invalidate(target.projectId);
+            }
+            // A new file that can not be read yet is still being written and will be
+            // picked up by the modify event that follows
+        }
+    }
+
+    private static Individual findIndividual(Project project, UUID individualId) {
+        for (Individual individual : project.individuals) {
+            if (individual.id.equals(individualId)) {
+                return individual;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Replaces a cached project with an updated copy, unless it has been evicted
+     * or replaced since the copy was made.
+     */
+    private synchronized void replace(Project expected, Project updated) {
+        CachedProject entry = projects.get(expected.id);
+        if (entry != null && entry.project == expected) {
+            put(updated);
+        }
+    }
+
+    private static UUID idOf(File entityFile) {
+        String name = entityFile.getName();
+        return UUID.fromString(name.endsWith(".txt") ? name.substring(0, name.length() - 4) : name);
+    }
+
+    /*
+     * Returns a copy of a project with one meeting added, replaced, or removed
+     * when meeting is null.
+     */
+    private static Project copyWithMeeting(Project project, UUID meetingId, Meeting meeting) {
+        Project copy = shallowCopy(project);
+        copy.individuals = new ArrayList<>(project.individuals);
+        copy.meetings = new ArrayList<>(project.meetings.size() + 1);
+        boolean replaced = false;
+        for (Meeting existing : project.meetings) {
+            if (existing.id.equals(meetingId)) {
+                if (meeting != null) {
+                    copy.meetings.add(meeting);
+                }
+                replaced = true;
+            } else {
+                copy.meetings.add(existing);
+            }
+        }
+        if (!replaced && meeting != null) {
+            copy.meetings.add(meeting);
+        }
+        return copy;
+    }
+
+    /*
+     * Returns a copy of a project with a newly created individual added.
+     */
+    private static Project copyWithIndividual(Project project, Individual individual) {
+        Project copy = shallowCopy(project);
+        copy.individuals = new ArrayList<>(project.individuals.size() + 1);
+        copy.individuals.addAll(project.individuals);
+        copy.individuals.add(individual);
+        copy.meetings = new ArrayList<>(project.meetings);
+        return copy;
+    }
+
+    private static Project shallowCopy(Project project) {
+        Project copy = new Project();
+        copy.id = project.id;
+        copy.title = project.title;
+        copy.goal = project.goal;
+        copy.startDate = project.startDate;
+        return copy;
+    }
+
+    private static class CachedProject {
+        final Project project;
+        final long estimatedBytes;
+
+        CachedProject(Project project, long estimatedBytes) {
+            this.project = project;
+            this.estimatedBytes = estimatedBytes;
+        }
+    }
+
+    /*
+     * What a registered folder holds, so its events can be applied precisely.
+     */
+    private static class WatchTarget {
+        static final int ROOT = 0;
+        static final int PROJECT = 1;
+        static final int INDIVIDUALS = 2;
+        static final int MEETINGS = 3;
+
+        final Path folder;
+        final UUID projectId;
+        final int kind;
+
+        WatchTarget(Path folder, UUID projectId, int kind) {
+            this.folder = folder;
+            this.projectId = projectId;
+            this.kind = kind;
+        }
+    }
+}
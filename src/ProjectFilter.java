@@ -0,0 +1,66 @@
+import java.time.LocalDate;
+import java.util.Locale;
+
+/*
+ * Narrows down which projects and meetings are shown. Every criterion is
+ * optional; one left as null matches everything.
+ *
+ * A project matches if its title contains the projectTitle text and, when any
+ * meeting criterion is set, at least one of its meetings matches. A meeting
+ * matches if it falls within the from and to dates (both inclusive) and one of
+ * its attendees' names contains the attendee text or has it as their id.
+ */
+public class ProjectFilter {
+
+    public String projectTitle;
+    public LocalDate from;
+    public LocalDate to;
+    public String attendee;
+
+    /*
+     * Returns true if any of the meeting criteria are set.
+     */
+    public boolean filtersMeetings() {
+        return from != null || to != null || attendee != null;
+    }
+
+    public boolean matches(Project project) {
+        if (projectTitle != null && !contains(project.title, projectTitle)) {
+            return false;
+        }
+        if (!filtersMeetings()) {
+            return true;
+        }
+        for (Meeting meeting : project.meetings) {
+            if (matches(meeting)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean matches(Meeting meeting) {
+        if (from != null || to != null) {
+            if (meeting.date == null) {
+                return false;
+            }
+            LocalDate date = Dates.toLocalDate(meeting.date);
+            if ((from != null && date.isBefore(from)) || (to != null && date.isAfter(to))) {
+                return false;
+            }
+        }
+        if (attendee != null) {
+            for (Individual individual : meeting.attendees) {
+                if (contains(individual.name, attendee) || individual.id.toString().equalsIgnoreCase(attendee)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean contains(String value, String text) {
+        return value != null && value.toLowerCase(Locale.ROOT).contains(text.toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,637 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/*
+ * The history of every project in a store, so a project can be read as it was
+ * at any moment since its history began.
+ *
+ * On disk each project has an append-only log in the .history folder of the
+ * store. FileManager tells this class, as a WriteListener, about every
+ * project, individual and meeting it writes, and each is appended to the log
+ * as one delta record holding the time of the write and the entity's new
+ * fields, so a log grows with what changed rather than with the size of its
+ * project. The first write to a project that has no log has the whole project
+ * recorded as it then is, which is where its history starts; so does the next
+ * write after one that could not be recorded. The project is read for this on
+ * a background thread, or by the first read of its history if that comes
+ * sooner, never by the write itself. Writes made meanwhile are held back and
+ * recorded after it. Writes made by file managers without history, or to the
+ * files by hand, are not recorded.
+ *
+ * In memory a project's log is replayed into a timeline of versions. Each
+ * version holds the project's fields and its individuals and meetings in
+ * PersistentMaps, and each record makes a new version from the one before it
+ * with a put that copies O(log n) nodes and shares the rest. Taking a snapshot
+ * of a project is therefore keeping a reference to its latest version, and
+ * each version kept costs only what its record changed. A project's timeline
+ * is read the first time the project is asked for, and brought up to date from
+ * the end of its log before each read, which also picks up records appended
+ * by other processes.
+ *
+ * History Log Layout (one framed record per entity written)
+ * length (int), crc32 of payload (int), payload
+ *
+ * where the payload is the time of the write in milliseconds since the epoch
+ * (long), a record type byte, and the entity's id and fields in the order of
+ * its text file, with dates as epoch days. Records written together share a
+ * time and become a single version. A record cut short by a crash is dropped
+ * before this process first appends to its log.
+ */
+public class ProjectHistory implements WriteListener {
+
+    public static final String HISTORY_FOLDER_NAME = ".history";
+
+    private static final String LOG_SUFFIX = ".log";
+    private static final byte RECORD_PROJECT = 1;
+    private static final byte RECORD_INDIVIDUAL = 2;
+    private static final byte RECORD_MEETING = 3;
+    private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+    private static final int BASELINE_ATTEMPTS = 3;
+
+    private static final Map<String, ProjectHistory> openHistories = new HashMap<>();
+
+    private final FileManager fileManager;
+    private final File folder;
+    private final Map<UUID, Timeline> timelines = new ConcurrentHashMap<>();
+    private final ExecutorService baselines = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "project-history");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ProjectHistory(FileManager fileManager) {
+        this.fileManager = fileManager;
+        this.folder = new File(fileManager.getProjectsRoot(), HISTORY_FOLDER_NAME);
+    }
+
+    /*
+     * Returns the shared history for the store a file manager reads from, so
+     * every file manager writing to the same store records into the same logs.
+     */
+    public static synchronized ProjectHistory open(FileManager fileManager) {
+        return openHistories.computeIfAbsent(fileManager.getProjectsRoot().getAbsolutePath(), key -> new ProjectHistory(fileManager));
+    }
+
+    /*
+     * Returns a project as it was at the given time, in milliseconds since the
+     * epoch, or null if it had not been created by then or its history does not
+     * go back that far. The project and everything in it are new objects, and
+     * its lists cannot be changed.
+     */
+    public Project openAsOf(UUID projectId, long timestamp) throws IOException {
+        Timeline timeline = timeline(projectId);
+        recordBaseline(projectId, timeline);
+        synchronized (timeline) {
+            readNewRecords(projectId, timeline);
+            Version version = timeline.versionAt(timestamp);
+            return version == null || !version.created ? null : version.toProject(projectId);
+        }
+    }
+
+    /*
+     * Returns the times at which a project changed, oldest first. The first is
+     * when its history began.
+     */
+    public List<Long> versionTimes(UUID projectId) throws IOException {
+        Timeline timeline = timeline(projectId);
+        recordBaseline(projectId, timeline);
+        synchronized (timeline) {
+            readNewRecords(projectId, timeline);
+            List<Long> times = new ArrayList<>(timeline.versions.size());
+            for (Version version : timeline.versions) {
+                times.add(version.time);
+            }
+            return times;
+        }
+    }
+
+    @Override
+    public void projectWritten(Project project) {
+        record(project, List.of(encodeProject(project)));
+    }
+
+    @Override
+    public void individualWritten(Project project, Individual individual) {
+        record(project, List.of(encodeIndividual(individual)));
+    }
+
+    @Override
+    public void meetingWritten(Project project, Meeting meeting) {
+        record(project, List.of(encodeMeeting(meeting)));
+    }
+
+    @Override
+    public void individualsWritten(Project project, List<Individual> individuals) {
+        List<byte[]> records = new ArrayList<>(individuals.size());
+        for (Individual individual : individuals) {
+            records.add(encodeIndividual(individual));
+        }
+        record(project, records);
+    }
+
+    @Override
+    public void meetingsWritten(Project project, List<Meeting> meetings) {
+        List<byte[]> records = new ArrayList<>(meetings.size());
+        for (Meeting meeting : meetings) {
+            records.add(encodeMeeting(meeting));
+        }
+        record(project, records);
+    }
+
+    /*
+     * Appends the records of one write to a project's log, all with the current
+     * time. Where the project's history has not started, or has a gap, the
+     * records are held back instead, and the whole project is recorded first on
+     * the background thread. A write that cannot be recorded leaves a gap rather
+     * than failing the write that was already made.
+     */
+    private void record(Project project, List<byte[]> records) {
+        Timeline timeline = timeline(project.id);
+        synchronized (timeline) {
+            long time = System.currentTimeMillis();
+            if (timeline.heldBack != null) {
+                timeline.heldBack.add(new HeldBack(time, records));
+                return;
+            }
+            try {
+                File log = logFile(project.id);
+                if (!timeline.tailChecked) {
+                    dropIncompleteTail(log);
+                    timeline.tailChecked = true;
+                }
+                if (timeline.gap || !log.exists()) {
+                    timeline.heldBack = new ArrayList<>();
+                    timeline.heldBack.add(new HeldBack(time, records));
+                    baselines.execute(() -> recordBaseline(project.id, timeline));
+                    return;
+                }
+                append(log, time, records);
+            } catch (IOException | RuntimeException e) {
+                timeline.gap = true;
+            }
+        }
+    }
+
+    /*
+     * Records the whole of a project whose writes are being held back, as read
+     * from the store, followed by the held back writes made after it was read.
+     * Those made before are already in what was read. The project is read
+     * without holding its timeline, so writes to it carry on meanwhile; a read
+     * that writes were made during is tried again, and if they keep coming the
+     * whole project is recorded as of when the last read finished, so no version
+     * is recorded with writes made after its time.
+     */
+    private void recordBaseline(UUID projectId, Timeline timeline) {
+        for (int attempt = 1; ; attempt++) {
+            synchronized (timeline) {
+                if (timeline.heldBack == null) {
+                    return; // Recorded by another thread meanwhile
+                }
+            }
+            long started = System.currentTimeMillis();
+            Project current = null;
+            RuntimeException readError = null;
+            try {
+                current = fileManager.getProject(projectId);
+            } catch (RuntimeException e) {
+                readError = e;
+            }
+            long finished = System.currentTimeMillis();
+
+            synchronized (timeline) {
+                List<HeldBack> heldBack = timeline.heldBack;
+                if (heldBack == null) {
+                    return;
+                }
+                boolean raced = false;
+                for (HeldBack write : heldBack) {
+                    raced |= write.time >= started && write.time < finished;
+                }
+                if (raced && readError == null && attempt < BASELINE_ATTEMPTS) {
+                    continue;
+                }
+                timeline.heldBack = null;
+                try {
+                    if (readError != null) {
+                        throw readError;
+                    }
+                    File log = logFile(projectId);
+                    if (current != null) {
+                        append(log, raced ? finished : started, encodeAll(current));
+                    }
+                    for (HeldBack write : heldBack) {
+                        if (current == null || write.time >= finished) {
+                            append(log, write.time, write.records);
+                        }
+                    }
+                    timeline.gap = false;
+                } catch (IOException | RuntimeException e) {
+                    timeline.gap = true;
+                }
+                return;
+            }
+        }
+    }
+
+    private Timeline timeline(UUID projectId) {
+        return timelines.computeIfAbsent(projectId, id -> new Timeline());
+    }
+
+    private File logFile(UUID projectId) {
+        return new File(folder, projectId + LOG_SUFFIX);
+    }
+
+    private static void append(File log, long time, List<byte[]> records) throws IOException {
+        int length = 0;
+        for (byte[] record : records) {
+            length += 16 + record.length;
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        for (byte[] record : records) {
+            bytes.putInt(8 + record.length);
+            CRC32 crc = new CRC32();
+            crc.update(ByteBuffer.allocate(8).putLong(0, time));
+            crc.update(record);
+            bytes.putInt((int) crc.getValue());
+            bytes.putLong(time);
+            bytes.put(record);
+        }
+        bytes.flip();
+
+        log.getParentFile().mkdirs();
+        try (FileChannel channel = FileChannel.open(log.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+    }
+
+    /*
+     * Cuts off a record left incomplete at the end of a log, so records
+     * appended after it can be read.
+     */
+    private static void dropIncompleteTail(File log) throws IOException {
+        if (!log.exists()) {
+            return;
+        }
+        long validLength = replay(log, 0, null);
+        if (validLength < log.length()) {
+            try (FileChannel channel = FileChannel.open(log.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+    }
+
+    /*
+     * Applies the complete records appended to a project's log since it was last
+     * read. A record still being written is left for the next read.
+     */
+    private void readNewRecords(UUID projectId, Timeline timeline) throws IOException {
+        File log = logFile(projectId);
+        long length = log.length();
+        if (length < timeline.readLength) {
+            timeline.clear(); // The log was cut short elsewhere, so read it from the start
+        }
+        if (length > timeline.readLength) {
+            timeline.readLength = replay(log, timeline.readLength, timeline);
+        }
+    }
+
+    /*
+     * Reads the records of a log from the given offset, adding each one to the
+     * timeline if there is one. Reading stops at the first incomplete or
+     * corrupt record. Returns the offset reached.
+     */
+    private static long replay(File log, long offset, Timeline timeline) throws IOException {
+        try (FileInputStream file = new FileInputStream(log)) {
+            file.getChannel().position(offset);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(file));
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length < 9 || length > MAX_RECORD_BYTES) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                if (timeline != null) {
+                    timeline.apply(payload);
+                }
+                offset += 8 + payload.length;
+            }
+        }
+        return offset;
+    }
+
+    private static List<byte[]> encodeAll(Project project) {
+        List<byte[]> records = new ArrayList<>(1 + project.individuals.size() + project.meetings.size());
+        records.add(encodeProject(project));
+        for (Individual individual : project.individuals) {
+            records.add(encodeIndividual(individual));
+        }
+        for (Meeting meeting : project.meetings) {
+            records.add(encodeMeeting(meeting));
+        }
+        return records;
+    }
+
+    private static byte[] encodeProject(Project project) {
+        return encode(RECORD_PROJECT, out -> {
+            writeUUID(out, project.id);
+            writeString(out, project.title);
+            writeString(out, project.goal);
+            out.writeInt(Dates.toEpochDay(project.startDate));
+        });
+    }
+
+    private static byte[] encodeIndividual(Individual individual) {
+        return encode(RECORD_INDIVIDUAL, out -> {
+            writeUUID(out, individual.id);
+            writeString(out, individual.name);
+            writeString(out, individual.role);
+        });
+    }
+
+    private static byte[] encodeMeeting(Meeting meeting) {
+        return encode(RECORD_MEETING, out -> {
+            writeUUID(out, meeting.id);
+            writeString(out, meeting.title);
+            out.writeInt(Dates.toEpochDay(meeting.date));
+            writeString(out, meeting.summary);
+            out.writeInt(meeting.attendees.size());
+            for (Individual attendee : meeting.attendees) {
+                writeUUID(out, attendee.id);
+            }
+        });
+    }
+
+    private interface Fields {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] encode(byte type, Fields fields) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(type);
+            fields.write(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Never thrown writing to memory
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeUUID(DataOutputStream out, UUID id) throws IOException {
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID readUUID(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /*
+     * The records of a write held back until its project has been recorded
+     * whole, with the time they were written.
+     */
+    private static class HeldBack {
+        final long time;
+        final List<byte[]> records;
+
+        HeldBack(long time, List<byte[]> records) {
+            this.time = time;
+            this.records = records;
+        }
+    }
+
+    /*
+     * The versions of one project read from its log so far, oldest first, and
+     * the state of its log. Guarded by its own monitor.
+     */
+    private static class Timeline {
+        final List<Version> versions = new ArrayList<>();
+        long readLength;
+        boolean tailChecked;
+        boolean gap;
+
+        /*
+         * Writes waiting for the whole project to be recorded, or null if none
+         * are.
+         */
+        List<HeldBack> heldBack;
+
+        /*
+         * Makes a new version from the latest one and a record. A record with
+         * the same time as the latest version was written along with it, so it
+         * replaces that version rather than adding one. Times never go back, so
+         * versions stay in order even if clocks differ between processes.
+         */
+        void apply(byte[] payload) throws IOException {
+            Version latest = versions.isEmpty() ? Version.EMPTY : versions.get(versions.size() - 1);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            long time = Math.max(in.readLong(), latest.time);
+            Version next;
+            switch (in.readByte()) {
+                case RECORD_PROJECT:
+                    readUUID(in);
+                    String title = readString(in);
+                    String goal = readString(in);
+                    next = new Version(time, true, title, goal, in.readInt(), latest.individuals, latest.meetings);
+                    break;
+                case RECORD_INDIVIDUAL:
+                    Individual individual = new Individual();
+                    individual.id = readUUID(in);
+                    individual.name = readString(in);
+                    individual.role = readString(in);
+                    next = new Version(time, latest.created, latest.title, latest.goal, latest.startDay, latest.individuals.put(individual.id, individual), latest.meetings);
+                    break;
+                case RECORD_MEETING:
+                    UUID meetingId = readUUID(in);
+                    StoredMeeting meeting = new StoredMeeting(readString(in), in.readInt(), readString(in), readAttendeeIds(in));
+                    next = new Version(time, latest.created, latest.title, latest.goal, latest.startDay, latest.individuals, latest.meetings.put(meetingId, meeting));
+                    break;
+                default:
+                    return; // Written by a later version of this class
+            }
+            if (!versions.isEmpty() && latest.time == time) {
+                versions.set(versions.size() - 1, next);
+            } else {
+                versions.add(next);
+            }
+        }
+
+        private static List<UUID> readAttendeeIds(DataInputStream in) throws IOException {
+            int count = in.readInt();
+            List<UUID> attendeeIds = new ArrayList<>(Math.min(count, 1024));
+            for (int i = 0; i < count; i++) {
+                attendeeIds.add(readUUID(in));
+            }
+            return attendeeIds;
+        }
+
+        /*
+         * Returns the latest version at or before the given time, or null if
+         * there is none.
+         */
+        Version versionAt(long timestamp) {
+            int low = 0;
+            int high = versions.size() - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (versions.get(middle).time <= timestamp) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return high < 0 ? null : versions.get(high);
+        }
+
+        void clear() {
+            versions.clear();
+            readLength = 0;
+        }
+    }
+
+    /*
+     * A project as it was after one write. Versions are never changed, and share
+     * the maps of individuals and meetings with the versions around them.
+     * Individuals and meetings can be recorded before their project, which is
+     * not created until its own record is.
+     */
+    private static class Version {
+        static final Version EMPTY = new Version(Long.MIN_VALUE, false, null, null, Dates.NO_DATE,
+                PersistentMap.empty(ProjectPack::compareIds), PersistentMap.empty(ProjectPack::compareIds));
+
+        final long time;
+        final boolean created;
+        final String title;
+        final String goal;
+        final int startDay;
+        final PersistentMap<UUID, Individual> individuals;
+        final PersistentMap<UUID, StoredMeeting> meetings;
+
+        Version(long time, boolean created, String title, String goal, int startDay, PersistentMap<UUID, Individual> individuals,
+                PersistentMap<UUID, StoredMeeting> meetings) {
+            this.time = time;
+            this.created = created;
+            this.title = title;
+            this.goal = goal;
+            this.startDay = startDay;
+            this.individuals = individuals;
+            this.meetings = meetings;
+        }
+
+        /*
+         * Copies the version into a read-only project, with individuals and
+         * meetings in the order their names sort, as the projects folder lists
+         * them. Attendees are the project's individuals as of the same version;
+         * ids that were not individuals of the project then are skipped.
+         */
+        Project toProject(UUID projectId) {
+            Project project = new Project();
+            project.id = projectId;
+            project.title = title;
+            project.goal = goal;
+            project.startDate = Dates.toDate(startDay);
+
+            Map<UUID, Individual> individualsById = new HashMap<>(individuals.size() * 2);
+            List<Individual> projectIndividuals = new ArrayList<>(individuals.size());
+            individuals.forEach((id, stored) -> {
+                Individual individual = new Individual();
+                individual.id = id;
+                individual.name = stored.name;
+                individual.role = stored.role;
+                individualsById.put(id, individual);
+                projectIndividuals.add(individual);
+            });
+
+            List<Meeting> projectMeetings = new ArrayList<>(meetings.size());
+            meetings.forEach((id, stored) -> {
+                Meeting meeting = new Meeting();
+                meeting.id = id;
+                meeting.title = stored.title;
+                meeting.date = Dates.toDate(stored.day);
+                meeting.summary = stored.summary;
+                List<Individual> attendees = new ArrayList<>(stored.attendeeIds.size());
+                for (UUID attendeeId : stored.attendeeIds) {
+                    Individual attendee = individualsById.get(attendeeId);
+                    if (attendee != null) {
+                        attendees.add(attendee);
+                    }
+                }
+                meeting.attendees = Collections.unmodifiableList(attendees);
+                projectMeetings.add(meeting);
+            });
+
+            project.individuals = Collections.unmodifiableList(projectIndividuals);
+            project.meetings = Collections.unmodifiableList(projectMeetings);
+            return project;
+        }
+    }
+
+    private static class StoredMeeting {
+        final String title;
+        final int day;
+        final String summary;
+        final List<UUID> attendeeIds;
+
+        StoredMeeting(String title, int day, String summary, List<UUID> attendeeIds) {
+            this.title = title;
+            this.day = day;
+            this.summary = summary;
+            this.attendeeIds = attendeeIds;
+        }
+    }
+}
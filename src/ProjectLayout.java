@@ -0,0 +1,497 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/*
+ * Where the files of the projects folder live. Projects are kept in one of two
+ * layouts, and a projects folder can hold both while it is being migrated from
+ * one to the other.
+ *
+ * Flat Layout
+ * projects/<projectId>/config.txt
+ * projects/<projectId>/individuals/<individualId>.txt
+ * projects/<projectId>/meetings/<meetingId>.txt
+ *
+ * Sharded Layout
+ * projects/<pp>/<projectId>/config.txt
+ * projects/<pp>/<projectId>/individuals/<ii>/<individualId>.txt
+ * projects/<pp>/<projectId>/meetings/<mm>/<meetingId>.txt
+ *
+ * where <pp>, <ii> and <mm> are the first two characters of the id, so no
+ * folder holds more than a 256th of the projects, individuals or meetings it
+ * would in the flat layout.
+ *
+ * New files are written in the sharded layout once the projects folder has a
+ * .sharded marker file, which LayoutMigrator creates, or when the
+ * projects.layout system property is "sharded". Files are always read from
+ * both layouts. Where an entity has a file in both, the sharded one is used.
+ *
+ * Folders are read with directory streams rather than by listing them into
+ * arrays.
+ */
+public class ProjectLayout {
+
+    public static final String SHARDED_MARKER = ".sharded";
+    public static final String CONFIG_FILE_NAME = "config.txt";
+    public static final String INDIVIDUALS = "individuals";
+    public static final String MEETINGS = "meetings";
+
+    private static final int SHARD_LENGTH = 2;
+
+    private final File root;
+    private final boolean shardedByProperty = "sharded".equals(System.getProperty("projects.layout"));
+
+    public ProjectLayout(File root) {
+        this.root = root;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /*
+     * Returns true if new files are written in the sharded layout. The marker is
+     * checked on every call, so processes already running start writing sharded
+     * files as soon as a migration begins.
+     */
+    public boolean isSharded() {
+        return shardedByProperty || new File(root, SHARDED_MARKER).exists();
+    }
+
+    /*
+     * Returns the shard folder name for an id or file name.
+     */
+    public static String shardOf(String name) {
+        return name.substring(0, SHARD_LENGTH);
+    }
+
+    /*
+     * Returns true if a name is that of a shard folder: two hex digits.
+     */
+    public static boolean isShardName(String name) {
+        return name.length() == SHARD_LENGTH && Character.digit(name.charAt(0), 16) >= 0 && Character.digit(name.charAt(1), 16) >= 0;
+    }
+
+    public File flatProjectFolder(UUID projectId) {
+        return new File(root, projectId.toString());
+    }
+
+    public File shardedProjectFolder(UUID projectId) {
+        String id = projectId.toString();
+        return new File(new File(root, shardOf(id)), id);
+    }
+
+    /*
+     * Returns every project in the projects folder, in either layout, ordered by
+     * id. Anything not named after a project id is ignored.
+     */
+    public List<ProjectLocation> listProjects() {
+        TreeMap<String, ProjectLocation> projects = new TreeMap<>();
+        List<Path> shards = new ArrayList<>();
+        forEachEntry(root.toPath(), path -> {
+            String name = path.getFileName().toString();
+            if (isShardName(name)) {
+                shards.add(path);
+            } else if (isId(name)) {
+                projects.computeIfAbsent(name, this::newLocation).flat = path.toFile();
+            } else if (isPackName(name)) {
+                projects.computeIfAbsent(packId(name), this::newLocation).pack = path.toFile();
+            }
+        });
+        // Flat folders are listed before shards, so a project being moved into a shard is seen at least once
+        for (Path shard : shards) {
+            forEachEntry(shard, path -> {
+                String name = path.getFileName().toString();
+                if (isId(name) && shardOf(name).equals(shard.getFileName().toString())) {
+                    projects.computeIfAbsent(name, this::newLocation).sharded = path.toFile();
+                } else if (isPackName(name) && shardOf(name).equals(shard.getFileName().toString())) {
+                    projects.computeIfAbsent(packId(name), this::newLocation).pack = path.toFile(); // The sharded pack wins
+                }
+            });
+        }
+        return new ArrayList<>(projects.values());
+    }
+
+    /*
+     * Returns where a project's folders are, or null if it has none.
+     */
+    public ProjectLocation locate(UUID projectId) {
+        // The flat folder is looked at first, since the sharded one is made before it is removed
+        File flat = flatProjectFolder(projectId);
+        ProjectLocation location = newLocation(projectId.toString());
+        location.flat = flat.isDirectory() ? flat : null;
+        location.pack = findPack(projectId);
+        return location.flat != null || location.sharded() != null || location.pack != null ? location : null;
+    }
+
+    /*
+     * Returns a project's pack file, or null if it is not archived. The flat
+     * pack is looked at first, as LayoutMigrator moves it into its shard.
+     */
+    public File findPack(UUID projectId) {
+        File flat = flatPackFile(projectId);
+        File sharded = shardedPackFile(projectId);
+        boolean flatExists = flat.isFile();
+        return sharded.isFile() ? sharded : flatExists ? flat : null;
+    }
+
+    public File flatPackFile(UUID projectId) {
+        return new File(root, projectId + ProjectPack.PACK_SUFFIX);
+    }
+
+    public File shardedPackFile(UUID projectId) {
+        String id = projectId.toString();
+        return new File(new File(root, shardOf(id)), id + ProjectPack.PACK_SUFFIX);
+    }
+
+    /*
+     * Returns the file a project is archived to.
+     */
+    public File packFileForWrite(UUID projectId) {
+        return isSharded() ? shardedPackFile(projectId) : flatPackFile(projectId);
+    }
+
+    private ProjectLocation newLocation(String projectId) {
+        return new ProjectLocation(projectId, new File(new File(root, shardOf(projectId)), projectId));
+    }
+
+    /*
+     * Returns the folder new files of a project are written to.
+     */
+    public File projectFolderForWrite(UUID projectId) {
+        return isSharded() ? shardedProjectFolder(projectId) : flatProjectFolder(projectId);
+    }
+
+    /*
+     * Returns the file an individual or meeting is written to.
+     */
+    public File entityFileForWrite(UUID projectId, String kind, UUID id) {
+        return entityFile(new File(projectFolderForWrite(projectId), kind), id.toString() + ".txt", isSharded());
+    }
+
+    private static File entityFile(File entityFolder, String fileName, boolean sharded) {
+        return sharded ? new File(new File(entityFolder, shardOf(fileName)), fileName) : new File(entityFolder, fileName);
+    }
+
+    /*
+     * Returns the folder a file's temporary file should be written in before it
+     * is renamed into place. Files in a shard are written from the folder above,
+     * so adding or replacing them changes that folder's modification time and is
+     * seen by anything watching it, just as in the flat layout.
+     */
+    public static File tempFolderFor(File target) {
+        File folder = target.getParentFile();
+        return isShardName(folder.getName()) ? folder.getParentFile() : folder;
+    }
+
+    /*
+     * Returns a project's individual or meeting file, or null if there is none.
+     * The places it could be are checked sharded first, without listing any
+     * folder. If it is not in its shard it is looked for in the flat layout, and
+     * then in its shard again, in case it was moved there meanwhile.
+     */
+    public File findEntityFile(UUID projectId, String kind, UUID id) {
+        String fileName = id.toString() + ".txt";
+        File sharded = entityFile(new File(shardedProjectFolder(projectId), kind), fileName, true);
+        if (sharded.isFile()) {
+            return sharded;
+        }
+        File[] flat = {
+            entityFile(new File(flatProjectFolder(projectId), kind), fileName, false),
+            entityFile(new File(flatProjectFolder(projectId), kind), fileName, true),
+            entityFile(new File(shardedProjectFolder(projectId), kind), fileName, false),
+        };
+        for (File file : flat) {
+            if (file.isFile()) {
+                return file;
+            }
+        }
+        return sharded.isFile() ? sharded : null;
+    }
+
+    /*
+     * Returns the individual or meeting files of a project, in either layout,
+     * sorted by file name. Temporary files are skipped.
+     */
+    public List<File> listEntityFiles(ProjectLocation location, String kind) {
+        TreeMap<String, File> files = new TreeMap<>();
+        // Flat files are listed before sharded ones, and the sharded folder is looked
+        // for only once they have been, so a file being moved into a shard is seen
+        // at least once
+        if (location.flat != null) {
+            listEntityFiles(new File(location.flat, kind), files);
+        }
+        File sharded = location.sharded();
+        if (sharded != null) {
+            listEntityFiles(new File(sharded, kind), files);
+        }
+        return new ArrayList<>(files.values());
+    }
+
+    private static void listEntityFiles(File entityFolder, TreeMap<String, File> files) {
+        List<Path> shards = new ArrayList<>();
+        forEachEntry(entityFolder.toPath(), path -> {
+            String name = path.getFileName().toString();
+            if (isShardName(name)) {
+                shards.add(path);
+            } else if (!name.endsWith(AtomicFileWriter.TEMP_SUFFIX)) {
+                files.put(name, path.toFile());
+            }
+        });
+        for (Path shard : shards) {
+            forEachEntry(shard, path -> {
+                String name = path.getFileName().toString();
+                if (!name.endsWith(AtomicFileWriter.TEMP_SUFFIX)) {
+                    files.put(name, path.toFile()); // The sharded copy wins
+                }
+            });
+        }
+    }
+
+    /*
+     * Returns where a project file in the flat layout is kept in the sharded
+     * layout, or null if it is not a flat project file. Readers that find a
+     * file gone look there, in case it was moved since they listed it.
+     */
+    public File shardedFileOf(File file) {
+        File parent = file.getParentFile();
+        if (parent == null || parent.getParentFile() == null) {
+            return null;
+        }
+        if (file.getName().equals(CONFIG_FILE_NAME)) {
+            return isId(parent.getName()) ? new File(newLocation(parent.getName()).shardedPath, CONFIG_FILE_NAME) : null;
+        }
+        String projectId = parent.getParentFile().getName();
+        if (isShardName(parent.getName()) || !isId(projectId)) {
+            return null;
+        }
+        return entityFile(new File(newLocation(projectId).shardedPath, parent.getName()), file.getName(), true);
+    }
+
+    /*
+     * Returns the individuals or meetings folders of a project and the shard
+     * folders inside them. A file added, replaced or removed anywhere in them
+     * changes the modification time of at least one.
+     */
+    public List<File> entityFolders(ProjectLocation location, String kind) {
+        List<File> folders = new ArrayList<>();
+        for (File folder : location.folders()) {
+            File entityFolder = new File(folder, kind);
+            folders.add(entityFolder);
+            forEachEntry(entityFolder.toPath(), path -> {
+                if (isShardName(path.getFileName().toString())) {
+                    folders.add(path.toFile());
+                }
+            });
+        }
+        return folders;
+    }
+
+    /*
+     * Returns the file a change seen in a watched individuals or meetings folder
+     * is about, or null if it is not about one. A temporary file going away may
+     * have been renamed into a shard, and a flat file going away may have been
+     * moved into one, so in both cases the sharded file is returned if there is
+     * one.
+     */
+    public static File watchedEntityFile(File changed) {
+        File entityFolder = changed.getParentFile();
+        String name = AtomicFileWriter.isTempFile(changed) ? AtomicFileWriter.targetName(changed) : changed.getName();
+        if (name == null || !name.endsWith(".txt")) {
+            return null;
+        }
+        File sharded = entityFile(entityFolder, name, true);
+        if (sharded.exists()) {
+            return sharded;
+        }
+        return AtomicFileWriter.isTempFile(changed) ? null : changed;
+    }
+
+    /*
+     * Creates a project's folder and its individuals and meetings folders in
+     * the layout new files are written in. In the sharded layout they are made
+     * in a temporary folder and renamed into their shard, so the new project
+     * appears all at once and the projects folder itself is seen to change.
+     */
+    public void createProjectFolders(UUID projectId) {
+        File folder = projectFolderForWrite(projectId);
+        if (!isSharded() || folder.isDirectory()) {
+            new File(folder, INDIVIDUALS).mkdirs();
+            new File(folder, MEETINGS).mkdirs();
+            return;
+        }
+        File temp = tempProjectFolder(projectId);
+        new File(temp, INDIVIDUALS).mkdirs();
+        new File(temp, MEETINGS).mkdirs();
+        if (!moveIntoPlace(temp, projectId)) {
+            // Created by someone else meanwhile
+            new File(temp, INDIVIDUALS).delete();
+            new File(temp, MEETINGS).delete();
+            temp.delete();
+            new File(folder, INDIVIDUALS).mkdirs();
+            new File(folder, MEETINGS).mkdirs();
+        }
+    }
+
+    /*
+     * Returns a new temporary folder name in the projects folder, for building
+     * a project folder before moving it into place.
+     */
+    File tempProjectFolder(UUID projectId) {
+        return new File(root, AtomicFileWriter.tempName(projectId.toString()));
+    }
+
+    /*
+     * Renames a folder built with tempProjectFolder to where the project's
+     * files are written, returning false if a folder is there already.
+     */
+    boolean moveIntoPlace(File temp, UUID projectId) {
+        File folder = projectFolderForWrite(projectId);
+        folder.getParentFile().mkdirs();
+        try {
+            Files.move(temp.toPath(), folder.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /*
+     * Returns where an individual or meeting file goes in a project folder laid
+     * out as new files are written.
+     */
+    File entityFileIn(File projectFolder, String kind, String fileName) {
+        return entityFile(new File(projectFolder, kind), fileName, isSharded());
+    }
+
+    /*
+     * Calls the action for each entry of a folder. A folder that does not exist
+     * or cannot be read has no entries.
+     */
+    static void forEachEntry(Path folder, Consumer<Path> action) {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(folder)) {
+            for (Path entry : entries) {
+                action.accept(entry);
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            // Missing or unreadable, as File.list() returning null was treated before
+        }
+    }
+
+    private static boolean isPackName(String name) {
+        return name.endsWith(ProjectPack.PACK_SUFFIX) && isId(packId(name));
+    }
+
+    private static String packId(String name) {
+        return name.substring(0, name.length() - ProjectPack.PACK_SUFFIX.length());
+    }
+
+    private static boolean isId(String name) {
+        if (name.length() != 36) {
+            return false;
+        }
+        try {
+            UUID.fromString(name);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /*
+     * The folders a project has: its flat folder and its sharded folder, either
+     * of which may be null. A project only has both while it is being migrated.
+     * A project found only in the flat layout is looked for again in the sharded
+     * one whenever its folders are asked for, in case it has been moved since.
+     *
+     * An archived project has a pack instead. A project with both a folder and a
+     * pack is read from its folder, which is complete whenever it exists, as
+     * archiving and unarchiving rename whole folders.
+     */
+    public static class ProjectLocation {
+        public final String projectId;
+        final File shardedPath;
+        File flat;
+        File sharded;
+        File pack;
+
+        ProjectLocation(String projectId, File shardedPath) {
+            this.projectId = projectId;
+            this.shardedPath = shardedPath;
+        }
+
+        /*
+         * Returns true if the project is read from its pack.
+         */
+        public boolean isArchived() {
+            return pack != null && flat == null && sharded() == null;
+        }
+
+        public File pack() {
+            return pack;
+        }
+
+        /*
+         * Returns the project's sharded folder, or null if it has none.
+         */
+        File sharded() {
+            if (sharded == null && shardedPath.isDirectory()) {
+                sharded = shardedPath;
+            }
+            return sharded;
+        }
+
+        /*
+         * Returns the project's main folder, its sharded one if it has one, or
+         * null if it is archived.
+         */
+        public File folder() {
+            File folder = sharded();
+            return folder != null ? folder : flat;
+        }
+
+        /*
+         * Returns the folders the project has, flat first.
+         */
+        public List<File> folders() {
+            List<File> folders = new ArrayList<>(2);
+            if (flat != null) {
+                folders.add(flat);
+            }
+            if (sharded() != null) {
+                folders.add(sharded);
+            }
+            return folders;
+        }
+
+        /*
+         * Returns the file the project's details are read from: its pack if it
+         * is archived, or else its sharded config file if that exists, or else
+         * its flat one, which may not exist either. The flat one is looked at
+         * first, since the sharded one is made before the flat one is removed.
+         */
+        public File config() {
+            if (isArchived()) {
+                return pack;
+            }
+            File flatConfig = flat != null ? new File(flat, CONFIG_FILE_NAME) : null;
+            boolean flatExists = flatConfig != null && flatConfig.exists();
+            if (sharded() != null) {
+                File config = new File(sharded, CONFIG_FILE_NAME);
+                if (!flatExists || config.exists()) {
+                    return config;
+                }
+            }
+            return flatConfig != null ? flatConfig : new File(shardedPath, CONFIG_FILE_NAME);
+        }
+    }
+}
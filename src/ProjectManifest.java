@@ -0,0 +1,158 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+/*
+ * What FileManager.refresh knew about the projects folder when it last ran: the
+ * size, modification time and content hash of every config, individual and
+ * meeting file, along with what was parsed from it. A refresh compares each
+ * file with its entry and only reads the files that are new or whose size or
+ * modification time have changed. A file whose contents hash the same as
+ * before, such as one that was only touched, is not parsed again.
+ *
+ * Modification times can be as coarse as two seconds, so a file could be
+ * changed again in the same tick it was last read in without its time moving.
+ * As in git's index, files modified within RACY_MILLIS of the previous refresh
+ * starting are therefore hashed again, whatever their time says.
+ *
+ * Folders are checked the same way, by their own modification time, so a
+ * refresh normally only lists the folders that changed and only checks the
+ * files in those.
+ */
+class ProjectManifest {
+
+    static final long RACY_MILLIS = 2000;
+
+    /*
+     * When the last refresh started, in milliseconds since the epoch.
+     */
+    long scannedAt = Long.MIN_VALUE + RACY_MILLIS;
+
+    final Map<String, ProjectEntry> projects = new HashMap<>();
+
+    /*
+     * A project folder: its config file and its individual and meeting files,
+     * keyed by file name so they are kept in the same order as a full load, and
+     * the project last built from them. An archived project has the same entries
+     * for the files in its pack, and the time of the pack itself.
+     */
+    static class ProjectEntry {
+        FileEntry<Project> config;
+        final FolderEntry<Individual> individuals = new FolderEntry<>();
+        final FolderEntry<Meeting> meetings = new FolderEntry<>();
+        final FolderEntry<Void> pack = new FolderEntry<>();
+        Project project;
+    }
+
+    /*
+     * An individuals or meetings folder, with a hash of its modification time and
+     * those of its shard folders as of the last time it was listed. FileManager
+     * replaces files by renaming new ones over them, which moves the folder's
+     * time, so a folder whose time has not moved holds the same files as before.
+     */
+    static class FolderEntry<T> {
+        long modified = Long.MIN_VALUE;
+        final TreeMap<String, FileEntry<T>> files = new TreeMap<>();
+    }
+
+    /*
+     * One file, and the entity parsed from it, or null if it could not be parsed.
+     * Meetings also keep the attendee ids from their file, so their attendees can
+     * be resolved again when the project's individuals change without reading
+     * the file. A meeting just parsed has no attendees until resolved is set.
+     */
+    static class FileEntry<T> {
+        long size;
+        long modified;
+        long hash;
+        T value;
+        List<UUID> attendeeIds;
+        boolean resolved;
+    }
+
+    /*
+     * The bytes of a file that has to be parsed, along with what its entry should
+     * now hold.
+     */
+    static class FileRead {
+        final long size;
+        final long modified;
+        final long hash;
+        final byte[] bytes;
+
+        FileRead(long size, long modified, long hash, byte[] bytes) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.bytes = bytes;
+        }
+    }
+
+    /*
+     * Returns true if a set of folders may have changed since they were last
+     * listed, and records a hash of their current times in the entry. Unless
+     * everything is being checked, folders whose times have not moved are
+     * skipped along with their files.
+     */
+    boolean folderChanged(List<File> folders, FolderEntry<?> entry, boolean checkEveryFile) {
+        long modified = folders.size();
+        long latest = 0;
+        for (File folder : folders) {
+            long folderModified = folder.lastModified();
+            modified = 31 * modified + folderModified;
+            latest = Math.max(latest, folderModified);
+        }
+        boolean changed = checkEveryFile || modified != entry.modified || latest >= scannedAt - RACY_MILLIS;
+        entry.modified = modified;
+        return changed;
+    }
+
+    /*
+     * Returns the contents of a file if it is new or has changed since its entry
+     * was made, or null if it has not. An entry whose file only changed in size
+     * or time, not in content, is brought up to date.
+     */
+    FileRead readIfChanged(File file, FileEntry<?> entry, ChangeSet changes) throws IOException {
+        changes.filesChecked++;
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+        if (entry != null && entry.size == size && entry.modified == modified && modified < scannedAt - RACY_MILLIS) {
+            return null;
+        }
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        changes.filesRead++;
+        return compare(bytes, modified, entry);
+    }
+
+    /*
+     * Returns the contents of a file kept in an archived project's pack if it is
+     * new or has changed, as above, taking the pack's time as the file's.
+     */
+    FileRead readIfChanged(byte[] bytes, long modified, FileEntry<?> entry, ChangeSet changes) {
+        changes.filesChecked++;
+        if (entry != null && entry.size == bytes.length && entry.modified == modified && modified < scannedAt - RACY_MILLIS) {
+            return null;
+        }
+        return compare(bytes, modified, entry);
+    }
+
+    private static FileRead compare(byte[] bytes, long modified, FileEntry<?> entry) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        long hash = crc.getValue();
+        if (entry != null && entry.size == bytes.length && entry.hash == hash) {
+            entry.modified = modified;
+            return null;
+        }
+        return new FileRead(bytes.length, modified, hash, bytes);
+    }
+}
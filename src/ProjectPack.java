@@ -0,0 +1,325 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+ * An archived project: its config, individual and meeting files packed into a
+ * single compressed file. Each file's bytes are kept exactly, so a project can
+ * be unpacked into the same files it was packed from.
+ *
+ * Pack Layout
+ * header:  magic, version, config length, block count, individual count,
+ *          meeting count, index offset, index crc32
+ * config:  the config file, uncompressed
+ * blocks:  individual files, then meeting files, deflated in blocks of up to
+ *          BLOCK_BYTES before compression
+ * index:   block table (offset, compressed length, length, crc32 of the
+ *          uncompressed block), then the entry table
+ *
+ * Entry table rows are fixed width (kind, id as two longs, block, offset in
+ * the uncompressed block, length) and sorted by kind and then by id in the
+ * order of the file names, so a file is found by binary search and the files
+ * of a kind are read in the same order as from a folder.
+ *
+ * A pack is read into memory whole when opened, which is one read of a file
+ * much smaller than the files it holds. The config and index are read without
+ * inflating anything; blocks are only inflated when a file in them is read.
+ */
+public class ProjectPack {
+
+    public static final String PACK_SUFFIX = ".pack";
+
+    public static final byte INDIVIDUAL = 1;
+    public static final byte MEETING = 2;
+
+    private static final int MAGIC = 0x504d504b; // "PMPK"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 40;
+    private static final int BLOCK_ROW_BYTES = 20;
+    private static final int ENTRY_ROW_BYTES = 29;
+    private static final int BLOCK_BYTES = 64 * 1024;
+
+    private final File file;
+    private final ByteBuffer buffer;
+    private final int blockCount;
+    private final int individualCount;
+    private final int meetingCount;
+    private final int blockTableOffset;
+    private final int entryTableOffset;
+
+    private ProjectPack(File file, ByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+        this.blockCount = buffer.getInt(12);
+        this.individualCount = buffer.getInt(16);
+        this.meetingCount = buffer.getInt(20);
+        this.blockTableOffset = (int) buffer.getLong(24);
+        this.entryTableOffset = blockTableOffset + blockCount * BLOCK_ROW_BYTES;
+    }
+
+    /*
+     * Reads a pack file, checking its header and index. Blocks are checked as
+     * they are inflated.
+     */
+    public static ProjectPack open(File file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a project pack");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(file + " has unsupported pack version " + buffer.getInt(4));
+        }
+        long indexOffset = buffer.getLong(24);
+        long indexLength = (long) buffer.getInt(12) * BLOCK_ROW_BYTES + (long) (buffer.getInt(16) + buffer.getInt(20)) * ENTRY_ROW_BYTES;
+        if (indexOffset < HEADER_BYTES + (long) buffer.getInt(8) || buffer.getInt(8) < 0 || indexOffset + indexLength != bytes.length) {
+            throw new IOException(file + " is truncated");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, HEADER_BYTES, buffer.getInt(8));
+        crc.update(bytes, (int) indexOffset, (int) indexLength);
+        if ((int) crc.getValue() != buffer.getInt(32)) {
+            throw new IOException(file + " is corrupt");
+        }
+        return new ProjectPack(file, buffer);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /*
+     * Returns the bytes of the config file.
+     */
+    public byte[] config() {
+        return Arrays.copyOfRange(buffer.array(), HEADER_BYTES, HEADER_BYTES + buffer.getInt(8));
+    }
+
+    /*
+     * Returns the number of individual or meeting files in the pack.
+     */
+    public int count(byte kind) {
+        return kind == INDIVIDUAL ? individualCount : meetingCount;
+    }
+
+    /*
+     * Returns the bytes of one individual or meeting file, or null if the pack
+     * has none for the id. Only the block holding it is inflated.
+     */
+    public byte[] read(byte kind, UUID id) throws IOException {
+        int from = kind == INDIVIDUAL ? 0 : individualCount;
+        int to = from + count(kind) - 1;
+        while (from <= to) {
+            int middle = (from + to) >>> 1;
+            int row = entryTableOffset + middle * ENTRY_ROW_BYTES;
+            int order = compareIds(new UUID(buffer.getLong(row + 1), buffer.getLong(row + 9)), id);
+            if (order < 0) {
+                from = middle + 1;
+            } else if (order > 0) {
+                to = middle - 1;
+            } else {
+                int offset = buffer.getInt(row + 21);
+                return Arrays.copyOfRange(inflate(buffer.getInt(row + 17)), offset, offset + buffer.getInt(row + 25));
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Calls the consumer with the id and bytes of each individual or meeting
+     * file, in file name order, inflating each block once.
+     */
+    public void forEach(byte kind, RecordConsumer consumer) throws IOException {
+        int first = kind == INDIVIDUAL ? 0 : individualCount;
+        int inflatedBlock = -1;
+        byte[] block = null;
+        for (int i = first; i < first + count(kind); i++) {
+            int row = entryTableOffset + i * ENTRY_ROW_BYTES;
+            int blockIndex = buffer.getInt(row + 17);
+            if (blockIndex != inflatedBlock) {
+                block = inflate(blockIndex);
+                inflatedBlock = blockIndex;
+            }
+            int offset = buffer.getInt(row + 21);
+            consumer.accept(new UUID(buffer.getLong(row + 1), buffer.getLong(row + 9)), Arrays.copyOfRange(block, offset, offset + buffer.getInt(row + 25)));
+        }
+    }
+
+    private byte[] inflate(int blockIndex) throws IOException {
+        int row = blockTableOffset + blockIndex * BLOCK_ROW_BYTES;
+        int offset = (int) buffer.getLong(row);
+        int compressedLength = buffer.getInt(row + 8);
+        byte[] block = new byte[buffer.getInt(row + 12)];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(buffer.array(), offset, compressedLength);
+            int length = 0;
+            while (length < block.length && !inflater.finished()) {
+                int inflated = inflater.inflate(block, length, block.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(block, 0, length);
+            if (length != block.length || (int) crc.getValue() != buffer.getInt(row + 16)) {
+                throw new IOException(file + " has a corrupt block " + blockIndex);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(file + " has a corrupt block " + blockIndex, e);
+        } finally {
+            inflater.end();
+        }
+        return block;
+    }
+
+    /*
+     * Orders ids as their file names sort: the unsigned value of the most and
+     * then the least significant bits, which is the order of their hex digits.
+     */
+    static int compareIds(UUID a, UUID b) {
+        int order = Long.compareUnsigned(a.getMostSignificantBits(), b.getMostSignificantBits());
+        return order != 0 ? order : Long.compareUnsigned(a.getLeastSignificantBits(), b.getLeastSignificantBits());
+    }
+
+    /*
+     * Writes a pack holding a project's config file and its individual and
+     * meeting files. The pack is written to a temporary file in the same folder,
+     * forced to disk and renamed into place, so readers never see a partly
+     * written pack.
+     */
+    public static void write(File file, byte[] config, List<Record> individuals, List<Record> meetings) throws IOException {
+        individuals.sort(Comparator.comparing((Record record) -> record.id, ProjectPack::compareIds));
+        meetings.sort(Comparator.comparing((Record record) -> record.id, ProjectPack::compareIds));
+
+        Tables tables = new Tables();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(config);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            writeBlocks(INDIVIDUAL, individuals, deflater, body, tables);
+            writeBlocks(MEETING, meetings, deflater, body, tables);
+        } finally {
+            deflater.end();
+        }
+
+        long indexOffset = HEADER_BYTES + (long) body.size();
+        byte[] blockTable = tables.blockBytes.toByteArray();
+        byte[] entryTable = tables.entryBytes.toByteArray();
+        if (indexOffset + blockTable.length + entryTable.length > Integer.MAX_VALUE) {
+            throw new IOException("Project is too large to pack");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(config);
+        crc.update(blockTable);
+        crc.update(entryTable);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(config.length);
+        header.putInt(tables.blockCount);
+        header.putInt(individuals.size());
+        header.putInt(meetings.size());
+        header.putLong(indexOffset);
+        header.putInt((int) crc.getValue());
+        header.putInt(0);
+
+        File temp = new File(file.getParentFile(), AtomicFileWriter.tempName(file.getName()));
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(header.array());
+            body.writeTo(out);
+            out.write(blockTable);
+            out.write(entryTable);
+            out.getChannel().force(true);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        AtomicFileWriter.syncFolder(file.getParentFile().toPath());
+    }
+
+    /*
+     * Deflates records into blocks of up to BLOCK_BYTES, adding a row for each
+     * block and each record to the tables. A record larger than that is a block
+     * of its own.
+     */
+    private static void writeBlocks(byte kind, List<Record> records, Deflater deflater, ByteArrayOutputStream body, Tables tables)
+            throws IOException {
+        ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_BYTES);
+        for (int i = 0; i < records.size(); i++) {
+            Record record = records.get(i);
+            tables.entries.writeByte(kind);
+            tables.entries.writeLong(record.id.getMostSignificantBits());
+            tables.entries.writeLong(record.id.getLeastSignificantBits());
+            tables.entries.writeInt(tables.blockCount);
+            tables.entries.writeInt(block.size());
+            tables.entries.writeInt(record.bytes.length);
+            block.writeBytes(record.bytes);
+            if (i == records.size() - 1 || block.size() + records.get(i + 1).bytes.length > BLOCK_BYTES) {
+                deflateBlock(block.toByteArray(), deflater, body, tables);
+                block.reset();
+            }
+        }
+    }
+
+    private static void deflateBlock(byte[] block, Deflater deflater, ByteArrayOutputStream body, Tables tables) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(block);
+        long offset = HEADER_BYTES + (long) body.size();
+        deflater.reset();
+        deflater.setInput(block);
+        deflater.finish();
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            body.write(buffer, 0, deflater.deflate(buffer));
+        }
+        tables.blocks.writeLong(offset);
+        tables.blocks.writeInt((int) (HEADER_BYTES + body.size() - offset));
+        tables.blocks.writeInt(block.length);
+        tables.blocks.writeInt((int) crc.getValue());
+        tables.blockCount++;
+    }
+
+    /*
+     * The block and entry tables of a pack being written.
+     */
+    private static class Tables {
+        final ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+        final ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+        final DataOutputStream blocks = new DataOutputStream(blockBytes);
+        final DataOutputStream entries = new DataOutputStream(entryBytes);
+        int blockCount;
+    }
+
+    /*
+     * One individual or meeting file to pack.
+     */
+    public static class Record {
+        public final UUID id;
+        public final byte[] bytes;
+
+        public Record(UUID id, byte[] bytes) {
+            this.id = id;
+            this.bytes = bytes;
+        }
+    }
+
+    public interface RecordConsumer {
+        void accept(UUID id, byte[] bytes) throws IOException;
+    }
+}
@@ -0,0 +1,106 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+/*
+ * Renders projects for the console. Output is built in one buffered writer and
+ * flushed once per project, rather than printed line by line.
+ */
+public class ProjectPrinter {
+
+    private final Writer writer;
+
+    public ProjectPrinter(OutputStream out) {
+        this(new OutputStreamWriter(out));
+    }
+
+    public ProjectPrinter(Writer writer) {
+        this.writer = new BufferedWriter(writer, 1 << 16);
+    }
+
+    /*
+     * Prints each project in turn as the stream produces it, showing only the
+     * projects and meetings the filter matches. Returns the number of projects
+     * printed.
+     */
+    public int printAll(Stream<Project> projects, ProjectFilter filter) {
+        int[] printed = { 0 };
+        projects.filter(filter::matches).forEach(project -> {
+            print(project, filter);
+            printed[0]++;
+        });
+        return printed[0];
+    }
+
+    public void printAll(List<Project> projects) {
+        for (Project project : projects) {
+            print(project, null);
+        }
+    }
+
+    /*
+     * Prints the details of a project, including the title, goal, start date,
+     * individuals, and meetings. When a filter is given only the meetings it
+     * matches are shown.
+     */
+    public void print(Project project, ProjectFilter filter) {
+        boolean filterMeetings = filter != null && filter.filtersMeetings();
+        try {
+            writer.write(Main.COLOUR_GREEN);
+            writer.write(String.valueOf(project.title));
+            writer.write(Main.COLOUR_RESET);
+            writer.write("\nGoal: ");
+            writer.write(String.valueOf(project.goal));
+            writer.write("\nStart Date: ");
+            writer.write(formatDate(project.startDate));
+            writer.write("\nIndividuals:\n");
+            int number = 0;
+            for (Individual individual : project.individuals) {
+                writer.write("    ");
+                writer.write(Integer.toString(++number));
+                writer.write(": ");
+                writer.write(String.valueOf(individual.name));
+                writer.write(" - ");
+                writer.write(String.valueOf(individual.role));
+                writer.write('\n');
+            }
+            writer.write("Meetings:\n");
+            number = 0;
+            for (Meeting meeting : project.meetings) {
+                if (filterMeetings && !filter.matches(meeting)) {
+                    continue;
+                }
+                writer.write("    ");
+                writer.write(Integer.toString(++number));
+                writer.write(": ");
+                writer.write(String.valueOf(meeting.title));
+                writer.write(" - ");
+                writer.write(formatDate(meeting.date));
+                writer.write("\n       Summary: ");
+                writer.write(String.valueOf(meeting.summary));
+                writer.write("\n       Attendees: ");
+                for (int i = 0; i < meeting.attendees.size(); i++) {
+                    if (i > 0) {
+                        writer.write(", ");
+                    }
+                    writer.write(String.valueOf(meeting.attendees.get(i).name));
+                }
+                writer.write('\n');
+            }
+            writer.write("\n\n\n");
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private String formatDate(Date date) {
+        return date == null ? "" : Dates.format(date);
+    }
+}
@@ -0,0 +1,82 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/*
+ * Answers questions that span every project, such as "which meetings happen
+ * next week" or "which meetings did this individual attend", by range-scanning
+ * the secondary indexes. Only the meetings and individuals that match are read
+ * from disk; unrelated projects are not loaded. The exception is a query that
+ * finds the indexes missing or marked stale, for example after writes made with
+ * projects.indexes set to false: it first rebuilds them with one pass that
+ * loads every project in the store.
+ */
+public class ProjectQuery {
+
+    private final FileManager fileManager;
+    private final SecondaryIndexes indexes;
+
+    public ProjectQuery(FileManager fileManager) {
+        this(fileManager, SecondaryIndexes.openForQueries(fileManager));
+    }
+
+    public ProjectQuery(FileManager fileManager, SecondaryIndexes indexes) {
+        this.fileManager = fileManager;
+        this.indexes = indexes;
+    }
+
+    /*
+     * Returns the meetings dated from one day to another (both inclusive), in
+     * date order.
+     */
+    public List<Result<Meeting>> meetingsBetween(LocalDate from, LocalDate to) {
+        return loadMeetings(indexes.meetingsBetween(from, to));
+    }
+
+    /*
+     * Returns the meetings an individual attended, in date order.
+     */
+    public List<Result<Meeting>> meetingsAttendedBy(UUID individualId) {
+        return loadMeetings(indexes.meetingsAttendedBy(individualId));
+    }
+
+    /*
+     * Returns the individuals with the given role, ignoring case.
+     */
+    public List<Result<Individual>> individualsWithRole(String role) {
+        List<Result<Individual>> results = new ArrayList<>();
+        for (SecondaryIndexes.Entry entry : indexes.individualsWithRole(role)) {
+            Individual individual = fileManager.getIndividual(entry.projectId, entry.id);
+            if (individual != null) {
+                results.add(new Result<>(entry.projectId, individual));
+            }
+        }
+        return results;
+    }
+
+    private List<Result<Meeting>> loadMeetings(List<SecondaryIndexes.Entry> entries) {
+        List<Result<Meeting>> results = new ArrayList<>(entries.size());
+        for (SecondaryIndexes.Entry entry : entries) {
+            Meeting meeting = fileManager.getMeeting(entry.projectId, entry.id);
+            if (meeting != null) {
+                results.add(new Result<>(entry.projectId, meeting));
+            }
+        }
+        return results;
+    }
+
+    /*
+     * A matching meeting or individual together with the id of the project it
+     * belongs to.
+     */
+    public static class Result<T> {
+        public final UUID projectId;
+        public final T value;
+
+        Result(UUID projectId, T value) {
+            this.projectId = projectId;
+            this.value = value;
+        }
+    }
+}
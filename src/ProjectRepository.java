@@ -0,0 +1,62 @@
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+/*
+ * Where projects are created and loaded from, so code that only does that can
+ * be run against any store. LockingProjectRepository keeps projects in the
+ * projects folder, or in whichever storage engine its FileManager was given,
+ * and InMemoryProjectRepository keeps them in memory without touching the disk.
+ * RepositoryConformance in bench checks that a store behaves as the others do
+ * and measures how fast it is.
+ *
+ * Every implementation is safe for use from many threads. Adding individuals
+ * and meetings also adds them to the Project passed in.
+ */
+public interface ProjectRepository {
+
+    /*
+     * Stores a new project with its title, goal and start date.
+     */
+    void createProject(Project project) throws IOException;
+
+    /*
+     * Replaces the title, goal and start date of a stored project.
+     */
+    void updateProject(Project project) throws IOException;
+
+    /*
+     * Stores a new individual in a project, or replaces one with the same id.
+     */
+    void addIndividual(Project project, Individual individual) throws IOException;
+
+    void addIndividuals(Project project, List<Individual> individuals) throws IOException;
+
+    /*
+     * Stores a new meeting in a project, or replaces one with the same id.
+     */
+    void addMeeting(Project project, Meeting meeting) throws IOException;
+
+    void addMeetings(Project project, List<Meeting> meetings) throws IOException;
+
+    /*
+     * Returns a fully loaded project, or null if there is no such project.
+     */
+    Project getProject(UUID projectId);
+
+    Meeting getMeeting(UUID projectId, UUID meetingId);
+
+    Individual getIndividual(UUID projectId, UUID individualId);
+
+    /*
+     * Returns the ids of all stored projects, in the order their names sort.
+     */
+    List<UUID> getProjectIds();
+
+    /*
+     * Returns every project, fully loaded, in the same order as their ids.
+     */
+    List<Project> getProjects();
+
+    int countProjects();
+}
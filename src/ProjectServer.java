@@ -0,0 +1,600 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * Serves projects, individuals and meetings as JSON over HTTP, so dashboards
+ * can read them without the menus.
+ *
+ * Reads go through a ProjectCache, so a project is read from disk once and then
+ * served from memory until its files change. Writes go through a
+ * LockingProjectRepository and drop the project from the cache, so the next
+ * read sees them.
+ *
+ * Every response carries an ETag built from the content of the projects it
+ * shows. A GET whose If-None-Match holds the current ETag is answered with 304
+ * Not Modified and no body.
+ *
+ * Each request runs on its own virtual thread when the JVM has them (Java 21 and
+ * later), or on a fixed pool of projects.httpThreads platform threads before
+ * that.
+ *
+ * Endpoints
+ * GET  /projects?page=0&size=20                 one page of projects, without their individuals and meetings
+ * POST /projects                                {"title":"...","goal":"...","startDate":"dd/MM/yyyy"}
+ * GET  /projects/{id}                           a project, with its number of individuals and meetings
+ * GET  /projects/{id}/individuals?page=0&size=20
+ * POST /projects/{id}/individuals               {"name":"...","role":"..."}
+ * GET  /projects/{id}/individuals/{id}
+ * GET  /projects/{id}/meetings?page=0&size=20
+ * POST /projects/{id}/meetings                  {"title":"...","date":"dd/MM/yyyy","summary":"...","attendees":["...", ...]}
+ * GET  /projects/{id}/meetings/{id}
+ *
+ * List responses hold page, size, total and items. Errors are answered with
+ * {"error":"..."}.
+ *
+ * The server listens on the loopback address only, unless projects.httpHost
+ * names another address to bind to, such as 0.0.0.0 for every interface.
+ *
+ * Usage: java ProjectServer [port] (projects.httpPort, or 8080, if no port)
+ */
+public class ProjectServer {
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final String DEFAULT_HOST = "127.0.0.1";
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    public static final int MAX_PAGE_SIZE = 500;
+
+    private static final int MAX_BODY_BYTES = 1 << 20;
+    private static final int BACKLOG = 1024;
+
+    private final ProjectCache cache;
+    private final LockingProjectRepository repository;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    /*
+     * The content hash of each project handed out by the cache. The cache never
+     * changes a project in place, so a hash stays valid for as long as the
+     * project object is in use, and is dropped with it.
+     */
+    private final Map<Project, Long> versions = Collections.synchronizedMap(new WeakHashMap<>());
+
+    public ProjectServer(FileManager fileManager, int port) throws IOException {
+        this(fileManager, System.getProperty("projects.httpHost", DEFAULT_HOST), port);
+    }
+
+    public ProjectServer(FileManager fileManager, String host, int port) throws IOException {
+        // The JDK server writes headers and body separately, so with Nagle's
+        // algorithm on, each response on a kept-alive connection waits on the
+        // client's delayed ACK, about 40 ms. Read once, when the first server
+        // starts.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.cache = new ProjectCache(fileManager);
+        this.repository = new LockingProjectRepository(fileManager);
+        this.server = HttpServer.create(new InetSocketAddress(host, port), BACKLOG);
+        ExecutorService virtual = newVirtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : Executors.newFixedThreadPool(Integer.getInteger("projects.httpThreads", 64), runnable -> {
+            Thread thread = new Thread(runnable, "http-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Integer.getInteger("projects.httpPort", DEFAULT_PORT);
+        ProjectServer server = new ProjectServer(new FileManager(), port);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(1)));
+        System.out.println("Serving projects on " + server.server.getAddress().getHostString() + " port " + server.getPort()
+                + (server.usesVirtualThreads() ? " using virtual threads" : " using a thread pool"));
+    }
+
+    /*
+     * Returns an executor that starts a virtual thread per task, or null if this
+     * JVM has no virtual threads. Looked up by reflection so the code still
+     * compiles and runs on Java 17.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /*
+     * Stops accepting requests, waits up to the given number of seconds for those
+     * in progress, then stops watching the projects folder.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            cache.close();
+        } catch (IOException e) {
+            // Nothing left to watch for
+        }
+    }
+
+    /*
+     * Returns the port being listened on, which is chosen by the system if 0 was
+     * asked for.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public ProjectCache getCache() {
+        return cache;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            route(exchange);
+        } catch (HttpError e) {
+            send(exchange, e.status, null, "{\"error\":" + BulkTransfer.quote(e.getMessage()) + "}");
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, null, "{\"error\":" + BulkTransfer.quote(e.getMessage()) + "}");
+        } catch (IOException | RuntimeException e) {
+            send(exchange, 500, null, "{\"error\":" + BulkTransfer.quote(String.valueOf(e.getMessage())) + "}");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        List<String> path = new ArrayList<>();
+        for (String segment : exchange.getRequestURI().getPath().split("/")) {
+            if (!segment.isEmpty()) {
+                path.add(segment);
+            }
+        }
+        if (path.isEmpty() || !path.get(0).equals("projects") || path.size() > 4) {
+            throw new HttpError(404, "Not found");
+        }
+        Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+
+        if (path.size() == 1) {
+            if (method.equals("GET")) {
+                listProjects(exchange, query);
+            } else if (method.equals("POST")) {
+                createProject(exchange);
+            } else {
+                throw new HttpError(405, "Method not allowed");
+            }
+            return;
+        }
+
+        UUID projectId = uuid(path.get(1));
+        if (path.size() == 2) {
+            expectGet(method);
+            Project project = project(projectId);
+            send(exchange, 200, etag(version(project), "project"), projectJson(project));
+            return;
+        }
+
+        String collection = path.get(2);
+        if (!collection.equals("individuals") && !collection.equals("meetings")) {
+            throw new HttpError(404, "Not found");
+        }
+        boolean individuals = collection.equals("individuals");
+        if (path.size() == 3 && method.equals("POST")) {
+            if (individuals) {
+                addIndividual(exchange, projectId);
+            } else {
+                addMeeting(exchange, projectId);
+            }
+            return;
+        }
+
+        expectGet(method);
+        Project project = project(projectId);
+        long version = version(project);
+        if (path.size() == 3) {
+            int page = number(query, "page", 0);
+            int size = Math.min(number(query, "size", DEFAULT_PAGE_SIZE), MAX_PAGE_SIZE);
+            if (size < 1) {
+                throw new IllegalArgumentException("size must be at least 1");
+            }
+            String etag = etag(version, collection + "-" + page + "-" + size);
+            if (notModified(exchange, etag)) {
+                return;
+            }
+            List<?> items = individuals ? project.individuals : project.meetings;
+            int from = (int) Math.min((long) page * size, items.size());
+            int to = (int) Math.min((long) from + size, items.size());
+            StringBuilder json = pageStart(page, size, items.size());
+            for (int i = from; i < to; i++) {
+                json.append(i == from ? "" : ",");
+                if (individuals) {
+                    individualJson(json, (Individual) items.get(i));
+                } else {
+                    meetingJson(json, (Meeting) items.get(i));
+                }
+            }
+            send(exchange, 200, etag, json.append("]}").toString());
+            return;
+        }
+
+        UUID id = uuid(path.get(3));
+        StringBuilder json = new StringBuilder();
+        if (individuals) {
+            individualJson(json, find(project.individuals, id));
+        } else {
+            Meeting meeting = null;
+            for (Meeting candidate : project.meetings) {
+                if (candidate.id.equals(id)) {
+                    meeting = candidate;
+                    break;
+                }
+            }
+            if (meeting == null) {
+                throw new HttpError(404, "Unknown meeting " + id);
+            }
+            meetingJson(json, meeting);
+        }
+        send(exchange, 200, etag(version, collection + "-" + id), json.toString());
+    }
+
+    /*
+     * Sends one page of projects. Its ETag covers the version of every project on
+     * the page as well as the number of projects, so adding a project or
+     * changing one on the page changes it.
+     */
+    private void listProjects(HttpExchange exchange, Map<String, String> query) throws IOException {
+        int page = number(query, "page", 0);
+        int size = Math.min(number(query, "size", DEFAULT_PAGE_SIZE), MAX_PAGE_SIZE);
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be at least 1");
+        }
+        int total = cache.countProjects();
+        List<Project> projects = cache.getProjectCatalogue(page, size);
+        long version = total;
+        for (Project project : projects) {
+            version = version * 31 + version(project);
+        }
+        String etag = etag(version, "projects-" + page + "-" + size);
+        if (notModified(exchange, etag)) {
+            return;
+        }
+        StringBuilder json = pageStart(page, size, total);
+        for (int i = 0; i < projects.size(); i++) {
+            json.append(i == 0 ? "" : ",").append(projectJson(projects.get(i)));
+        }
+        send(exchange, 200, etag, json.append("]}").toString());
+    }
+
+    private void createProject(HttpExchange exchange) throws IOException {
+        Map<String, Object> body = body(exchange);
+        Project project = new Project();
+        project.title = string(body, "title");
+        project.goal = string(body, "goal");
+        project.startDate = date(string(body, "startDate"));
+
+        repository.createProject(project);
+        cache.invalidate(project.id);
+        created(exchange, "/projects/" + project.id, project.id);
+    }
+
+    private void addIndividual(HttpExchange exchange, UUID projectId) throws IOException {
+        Map<String, Object> body = body(exchange);
+        Individual individual = new Individual();
+        individual.name = string(body, "name");
+        individual.role = string(body, "role");
+
+        repository.addIndividual(copy(project(projectId)), individual);
+        cache.invalidate(projectId);
+        created(exchange, "/projects/" + projectId + "/individuals/" + individual.id, individual.id);
+    }
+
+    private void addMeeting(HttpExchange exchange, UUID projectId) throws IOException {
+        Map<String, Object> body = body(exchange);
+        Project project = project(projectId);
+        Meeting meeting = new Meeting();
+        meeting.title = string(body, "title");
+        meeting.date = date(string(body, "date"));
+        meeting.summary = string(body, "summary");
+        for (String attendee : strings(body, "attendees")) {
+            Individual individual = find(project.individuals, uuid(attendee));
+            meeting.attendees.add(individual);
+        }
+
+        repository.addMeeting(copy(project), meeting);
+        cache.invalidate(projectId);
+        created(exchange, "/projects/" + projectId + "/meetings/" + meeting.id, meeting.id);
+    }
+
+    private Project project(UUID projectId) {
+        Project project = cache.getProject(projectId);
+        if (project == null) {
+            throw new HttpError(404, "Unknown project " + projectId);
+        }
+        return project;
+    }
+
+    /*
+     * Returns a copy of a cached project for the repository to add to, so the
+     * cached project itself is never changed.
+     */
+    private static Project copy(Project project) {
+        Project copy = new Project();
+        copy.id = project.id;
+        copy.title = project.title;
+        copy.goal = project.goal;
+        copy.startDate = project.startDate;
+        copy.individuals = new ArrayList<>(project.individuals);
+        copy.meetings = new ArrayList<>(project.meetings);
+        return copy;
+    }
+
+    private static Individual find(List<Individual> individuals, UUID individualId) {
+        for (Individual individual : individuals) {
+            if (individual.id.equals(individualId)) {
+                return individual;
+            }
+        }
+        throw new HttpError(404, "Unknown individual " + individualId);
+    }
+
+    /*
+     * Returns a 64-bit FNV-1a hash of everything in a project, worked out once per
+     * project object.
+     */
+    private long version(Project project) {
+        Long version = versions.get(project);
+        if (version != null) {
+            return version;
+        }
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, project.id.toString());
+        hash = hash(hash, project.title);
+        hash = hash(hash, project.goal);
+        hash = hash(hash, Dates.format(project.startDate));
+        for (Individual individual : project.individuals) {
+            hash = hash(hash, individual.id.toString());
+            hash = hash(hash, individual.name);
+            hash = hash(hash, individual.role);
+        }
+        for (Meeting meeting : project.meetings) {
+            hash = hash(hash, meeting.id.toString());
+            hash = hash(hash, meeting.title);
+            hash = hash(hash, Dates.format(meeting.date));
+            hash = hash(hash, meeting.summary);
+            for (Individual attendee : meeting.attendees) {
+                hash = hash(hash, attendee.id.toString());
+            }
+        }
+        versions.put(project, hash);
+        return hash;
+    }
+
+    private static long hash(long hash, String text) {
+        if (text != null) {
+            for (int i = 0; i < text.length(); i++) {
+                hash = (hash ^ text.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        // A separator, so moving text between fields changes the hash
+        return (hash ^ 0xffff) * 0x100000001b3L;
+    }
+
+    private static String etag(long version, String representation) {
+        return "\"" + Long.toHexString(version) + "-" + representation + "\"";
+    }
+
+    /*
+     * Answers 304 Not Modified if the request's If-None-Match holds the given
+     * ETag, returning whether it did.
+     */
+    private static boolean notModified(HttpExchange exchange, String etag) throws IOException {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag) || tag.equals("*")) {
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.sendResponseHeaders(304, -1);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void send(HttpExchange exchange, int status, String etag, String json) throws IOException {
+        if (etag != null && notModified(exchange, etag)) {
+            return;
+        }
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        if (etag != null) {
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(bytes);
+        }
+    }
+
+    private static void created(HttpExchange exchange, String location, UUID id) throws IOException {
+        exchange.getResponseHeaders().set("Location", location);
+        send(exchange, 201, null, "{\"id\":\"" + id + "\"}");
+    }
+
+    private static void expectGet(String method) {
+        if (!method.equals("GET")) {
+            throw new HttpError(405, "Method not allowed");
+        }
+    }
+
+    private static StringBuilder pageStart(int page, int size, int total) {
+        return new StringBuilder().append("{\"page\":").append(page).append(",\"size\":").append(size)
+                .append(",\"total\":").append(total).append(",\"items\":[");
+    }
+
+    private static String projectJson(Project project) {
+        return "{\"id\":\"" + project.id + "\",\"title\":" + BulkTransfer.quote(project.title)
+                + ",\"goal\":" + BulkTransfer.quote(project.goal) + ",\"startDate\":" + BulkTransfer.quote(Dates.format(project.startDate))
+                + ",\"individuals\":" + project.individuals.size() + ",\"meetings\":" + project.meetings.size() + "}";
+    }
+
+    private static void individualJson(StringBuilder json, Individual individual) {
+        json.append("{\"id\":\"").append(individual.id).append("\",\"name\":").append(BulkTransfer.quote(individual.name))
+                .append(",\"role\":").append(BulkTransfer.quote(individual.role)).append('}');
+    }
+
+    private static void meetingJson(StringBuilder json, Meeting meeting) {
+        json.append("{\"id\":\"").append(meeting.id).append("\",\"title\":").append(BulkTransfer.quote(meeting.title))
+                .append(",\"date\":").append(BulkTransfer.quote(Dates.format(meeting.date)))
+                .append(",\"summary\":").append(BulkTransfer.quote(meeting.summary)).append(",\"attendees\":[");
+        for (int i = 0; i < meeting.attendees.size(); i++) {
+            json.append(i == 0 ? "\"" : ",\"").append(meeting.attendees.get(i).id).append('"');
+        }
+        json.append("]}");
+    }
+
+    /*
+     * Reads a request body holding one JSON object, in the subset understood by
+     * BulkTransfer.
+     */
+    private static Map<String, Object> body(HttpExchange exchange) throws IOException {
+        byte[] bytes;
+        try (InputStream in = exchange.getRequestBody()) {
+            bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+        }
+        if (bytes.length > MAX_BODY_BYTES) {
+            throw new HttpError(413, "Request body is over " + MAX_BODY_BYTES + " bytes");
+        }
+        return BulkTransfer.parseObject(new String(bytes, StandardCharsets.UTF_8).trim());
+    }
+
+    private static String string(Map<String, Object> body, String field) {
+        Object value = body.get(field);
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException(value == null ? "Missing " + field : "Expected " + field + " to be a string");
+        }
+        return (String) value;
+    }
+
+    private static List<String> strings(Map<String, Object> body, String field) {
+        Object value = body.get(field);
+        List<String> strings = new ArrayList<>();
+        if (value == null) {
+            return strings;
+        }
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException("Expected " + field + " to be a list of ids");
+        }
+        for (Object element : (List<?>) value) {
+            if (!(element instanceof String)) {
+                throw new IllegalArgumentException("Expected " + field + " to be a list of ids");
+            }
+            strings.add((String) element);
+        }
+        return strings;
+    }
+
+    private static Map<String, String> query(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery != null) {
+            for (String pair : rawQuery.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    query.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return query;
+    }
+
+    private static int number(Map<String, String> query, String name, int defaultValue) {
+        String value = query.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int number = Integer.parseInt(value);
+            if (number < 0) {
+                throw new IllegalArgumentException(name + " must not be negative");
+            }
+            return number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " \"" + value + "\"");
+        }
+    }
+
+    private static UUID uuid(String value) {
+        try {
+            return UUID.fromString(value);
+        } catch (IllegalArgumentException e) {
+            throw new HttpError(404, "Invalid id \"" + value + "\"");
+        }
+    }
+
+    private static Date date(String value) {
+        try {
+            return Dates.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date \"" + value + "\", expected dd/MM/yyyy");
+        }
+    }
+
+    /*
+     * Ends a request with the given status and message.
+     */
+    private static class HttpError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+}
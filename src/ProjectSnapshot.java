@@ -0,0 +1,357 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/*
+ * A binary copy of every project in the projects folder, so the store can be
+ * loaded without parsing thousands of text files. The file is read through a
+ * memory map and projects are only decoded when asked for.
+ *
+ * Each snapshot records a stamp of the projects folder taken before it was
+ * written, covering the config file or pack of every project and the
+ * modification times of its individuals and meetings folders. A snapshot whose
+ * stamp no longer matches the folder, or whose checksum does not match its
+ * contents, is ignored. Snapshots are only used with projects.snapshot set to
+ * true, as an individual or meeting file edited in place, rather than replaced
+ * the way FileManager writes it, leaves the stamp as it was.
+ *
+ * Snapshot Layout
+ * header: magic, version, stamp, body length, body crc32, project count,
+ *         string count, project table offset, string table offset
+ * body:   project records, string data, string offset table, project offset table
+ *
+ * Project records use fixed-width fields: UUIDs as two longs, dates as epoch
+ * days and text as indexes into the string table, so repeated values such as
+ * roles are only stored once. Attendees are indexes into the project's
+ * individuals.
+ */
+public class ProjectSnapshot {
+
+    public static final String SNAPSHOT_FILE_NAME = "snapshot.bin";
+
+    private static final int MAGIC = 0x504d534e; // "PMSN"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 56;
+    private static final int NO_STRING = -1;
+
+    /*
+     * The stamp of a projects folder with a file modified too recently to tell
+     * it apart from a later change in the same tick. No snapshot matches it.
+     */
+    public static final long UNSETTLED = 0;
+
+    private final MappedByteBuffer buffer;
+    private final long stamp;
+    private final int projectCount;
+    private final int projectTableOffset;
+    private final int stringTableOffset;
+    private final String[] strings;
+
+    private ProjectSnapshot(MappedByteBuffer buffer, long stamp) {
+        this.buffer = buffer;
+        this.stamp = stamp;
+        this.projectCount = buffer.getInt(28);
+        this.strings = new String[buffer.getInt(32)];
+        this.projectTableOffset = (int) buffer.getLong(40);
+        this.stringTableOffset = (int) buffer.getLong(48);
+    }
+
+    /*
+     * Opens a snapshot file if it exists, was taken with the given stamp and is
+     * intact. Returns null otherwise, in which case the caller should fall back
+     * to reading the text files.
+     */
+    public static ProjectSnapshot open(File file, long expectedStamp) {
+        if (!file.isFile() || file.length() < HEADER_BYTES || file.length() > Integer.MAX_VALUE) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getLong(8) != expectedStamp) {
+                return null;
+            }
+            long bodyLength = buffer.getLong(16);
+            if (bodyLength != channel.size() - HEADER_BYTES) {
+                return null;
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(HEADER_BYTES, (int) bodyLength));
+            if ((int) crc.getValue() != buffer.getInt(24)) {
+                return null;
+            }
+            return new ProjectSnapshot(buffer, expectedStamp);
+        } catch (IOException | RuntimeException e) {
+            return null; // Unreadable snapshots are treated the same as stale ones
+        }
+    }
+
+    /*
+     * Returns the stamp of the projects folder this snapshot was taken from.
+     */
+    public long getStamp() {
+        return stamp;
+    }
+
+    /*
+     * Returns the number of projects in the snapshot.
+     */
+    public int getProjectCount() {
+        return projectCount;
+    }
+
+    /*
+     * Decodes the projects from index from (inclusive) to to (exclusive), in the
+     * order they were written.
+     */
+    public List<Project> readProjects(int from, int to) {
+        List<Project> projects = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to && i < projectCount; i++) {
+            projects.add(readProject((int) buffer.getLong(projectTableOffset + i * 8)));
+        }
+        return projects;
+    }
+
+    private Project readProject(int offset) {
+        Project project = new Project();
+        project.id = new UUID(buffer.getLong(offset), buffer.getLong(offset + 8));
+        project.title = string(buffer.getInt(offset + 16));
+        project.goal = string(buffer.getInt(offset + 20));
+        project.startDate = Dates.toDate(buffer.getInt(offset + 24));
+        int individualCount = buffer.getInt(offset + 28);
+        int meetingCount = buffer.getInt(offset + 32);
+        offset += 36;
+
+        project.individuals = new ArrayList<>(individualCount);
+        for (int i = 0; i < individualCount; i++) {
+            Individual individual = new Individual();
+            individual.id = new UUID(buffer.getLong(offset), buffer.getLong(offset + 8));
+            individual.name = string(buffer.getInt(offset + 16));
+            individual.role = string(buffer.getInt(offset + 20));
+            project.individuals.add(individual);
+            offset += 24;
+        }
+
+        project.meetings = new ArrayList<>(meetingCount);
+        for (int i = 0; i < meetingCount; i++) {
+            Meeting meeting = new Meeting();
+            meeting.id = new UUID(buffer.getLong(offset), buffer.getLong(offset + 8));
+            meeting.title = string(buffer.getInt(offset + 16));
+            meeting.date = Dates.toDate(buffer.getInt(offset + 20));
+            meeting.summary = string(buffer.getInt(offset + 24));
+            int attendeeCount = buffer.getInt(offset + 28);
+            offset += 32;
+
+            meeting.attendees = new ArrayList<>(attendeeCount);
+            for (int a = 0; a < attendeeCount; a++) {
+                meeting.attendees.add(project.individuals.get(buffer.getInt(offset)));
+                offset += 4;
+            }
+            project.meetings.add(meeting);
+        }
+        return project;
+    }
+
+    /*
+     * Returns a string from the string table, decoding it on first use.
+     */
+    private String string(int index) {
+        if (index == NO_STRING) {
+            return null;
+        }
+        String value = strings[index];
+        if (value == null) {
+            int offset = (int) buffer.getLong(stringTableOffset + index * 8);
+            byte[] bytes = new byte[buffer.getInt(offset)];
+            buffer.get(offset + 4, bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+            strings[index] = value;
+        }
+        return value;
+    }
+
+    /*
+     * Writes a snapshot of the given projects, taken with the given stamp. The
+     * snapshot is written to a temporary file and renamed into place, so readers
+     * never see a partly written snapshot.
+     */
+    public static void write(List<Project> projects, long stamp, File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        StringTable table = new StringTable();
+        long[] projectOffsets = new long[projects.size()];
+
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fileOut = new FileOutputStream(temp)) {
+            fileOut.write(new byte[HEADER_BYTES]); // Filled in once the body has been written
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fileOut, crc), 1 << 16));
+
+            long position = HEADER_BYTES;
+            for (int p = 0; p < projects.size(); p++) {
+                Project project = projects.get(p);
+                projectOffsets[p] = position;
+
+                out.writeLong(project.id.getMostSignificantBits());
+                out.writeLong(project.id.getLeastSignificantBits());
+                out.writeInt(table.indexOf(project.title));
+                out.writeInt(table.indexOf(project.goal));
+                out.writeInt(Dates.toEpochDay(project.startDate));
+                out.writeInt(project.individuals.size());
+                out.writeInt(project.meetings.size());
+
+                Map<UUID, Integer> individualIndexes = new HashMap<>(project.individuals.size() * 2);
+                for (Individual individual : project.individuals) {
+                    individualIndexes.put(individual.id, individualIndexes.size());
+                    out.writeLong(individual.id.getMostSignificantBits());
+                    out.writeLong(individual.id.getLeastSignificantBits());
+                    out.writeInt(table.indexOf(individual.name));
+                    out.writeInt(table.indexOf(individual.role));
+                }
+
+                for (Meeting meeting : project.meetings) {
+                    List<Integer> attendees = new ArrayList<>(meeting.attendees.size());
+                    for (Individual attendee : meeting.attendees) {
+                        Integer index = individualIndexes.get(attendee.id);
+                        if (index != null) {
+                            attendees.add(index);
+                        }
+                    }
+                    out.writeLong(meeting.id.getMostSignificantBits());
+                    out.writeLong(meeting.id.getLeastSignificantBits());
+                    out.writeInt(table.indexOf(meeting.title));
+                    out.writeInt(Dates.toEpochDay(meeting.date));
+                    out.writeInt(table.indexOf(meeting.summary));
+                    out.writeInt(attendees.size());
+                    for (int attendee : attendees) {
+                        out.writeInt(attendee);
+                    }
+                }
+                position = HEADER_BYTES + out.size();
+            }
+
+            long stringDataOffset = position;
+            table.data.writeTo(out);
+            long stringTableOffset = HEADER_BYTES + out.size();
+            for (long stringOffset : table.offsets) {
+                out.writeLong(stringDataOffset + stringOffset);
+            }
+            long projectTableOffset = HEADER_BYTES + out.size();
+            for (long projectOffset : projectOffsets) {
+                out.writeLong(projectOffset);
+            }
+            out.flush();
+            long bodyLength = out.size() & 0xffffffffL;
+            if (HEADER_BYTES + bodyLength > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot is too large to be memory mapped");
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putLong(stamp);
+            header.putLong(bodyLength);
+            header.putInt((int) crc.getValue());
+            header.putInt(projects.size());
+            header.putInt(table.offsets.size());
+            header.putInt(0);
+            header.putLong(projectTableOffset);
+            header.putLong(stringTableOffset);
+            header.flip();
+            FileChannel channel = fileOut.getChannel();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /*
+     * Returns a stamp describing the state of the projects folder: the project
+     * ids, the name, size and modification time of every config file and pack,
+     * and the modification time of every individuals and meetings folder and
+     * their shards, in whichever layout they are. As in ProjectManifest, an
+     * individual or meeting file created, replaced or deleted moves the time of
+     * its folder, so the stamp changes without the files themselves being
+     * looked at, and costs a few attributes per project however many
+     * individuals and meetings it has.
+     *
+     * A file or folder modified within RACY_MILLIS of now could change again
+     * without its size or time moving, so until the folder has been quiet that
+     * long the stamp is UNSETTLED, which no snapshot is written with.
+     */
+    public static long stamp(ProjectLayout layout, List<ProjectLayout.ProjectLocation> locations) {
+        long settledBefore = System.currentTimeMillis() - ProjectManifest.RACY_MILLIS;
+        long stamp = 1125899906842597L;
+        for (ProjectLayout.ProjectLocation location : locations) {
+            stamp = 31 * stamp + location.projectId.hashCode();
+            List<File> files = new ArrayList<>();
+            files.add(location.config());
+            if (!location.isArchived()) {
+                files.addAll(layout.entityFolders(location, ProjectLayout.INDIVIDUALS));
+                files.addAll(layout.entityFolders(location, ProjectLayout.MEETINGS));
+            }
+            for (File file : files) {
+                long size = -1;
+                long modified = 0;
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                    size = attributes.size();
+                    modified = attributes.lastModifiedTime().toMillis();
+                } catch (IOException e) {
+                    // Missing, which is part of the folder's state as well
+                }
+                if (modified >= settledBefore) {
+                    return UNSETTLED;
+                }
+                stamp = 31 * stamp + file.getName().hashCode();
+                stamp = 31 * stamp + size;
+                stamp = 31 * stamp + modified;
+            }
+        }
+        return stamp == UNSETTLED ? 1 : stamp;
+    }
+
+    /*
+     * Assigns each distinct string an index and collects its encoded bytes.
+     */
+    private static class StringTable {
+        final Map<String, Integer> indexes = new HashMap<>();
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final List<Long> offsets = new ArrayList<>();
+
+        int indexOf(String value) throws IOException {
+            if (value == null) {
+                return NO_STRING;
+            }
+            Integer index = indexes.get(value);
+            if (index == null) {
+                index = offsets.size();
+                indexes.put(value, index);
+                offsets.add((long) data.size());
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                data.write(ByteBuffer.allocate(4).putInt(bytes.length).array());
+                data.write(bytes);
+            }
+            return index;
+        }
+    }
+}
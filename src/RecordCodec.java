@@ -0,0 +1,245 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+ * Reads and writes the key:value records every project, individual and meeting
+ * file is made of, one field per line.
+ *
+ * Record Layout
+ * <key>:<value>
+ * <key>:<value>
+ * ...
+ *
+ * A line is split on its first colon only, so values may hold colons as they
+ * are. Backslashes, line feeds and carriage returns in values are written as
+ * \\, \n and \r, so a value always stays on its own line; any other backslash
+ * is read as it is. Empty values are allowed.
+ *
+ * Files written before values were escaped are still read. A line that does
+ * not start with one of the keys being read continues the value before it, as
+ * an unescaped multi-line summary did, and fields may come in any order. A
+ * value written before escaping that held a literal \n is the only thing read
+ * differently.
+ *
+ * Files are read into a byte buffer kept per thread and reused from file to
+ * file, and values are decoded straight from it, with no regular expressions
+ * and no copies of each line. Files are in the platform charset, as they
+ * always have been; the buffer is scanned for line breaks, colons and
+ * backslashes directly when that charset encodes them as single ASCII bytes
+ * that never appear inside another character, and is converted to UTF-8 first
+ * otherwise.
+ */
+public class RecordCodec {
+
+    public static final char DELIMITER = ':';
+
+    private static final Charset CHARSET = Charset.defaultCharset();
+    private static final boolean SCANNABLE = isScannable(CHARSET);
+    private static final int INITIAL_BUFFER_BYTES = 4096;
+    private static final int MAX_KEPT_BUFFER_BYTES = 1 << 16;
+
+    private static final ThreadLocal<RecordCodec> codecs = ThreadLocal.withInitial(RecordCodec::new);
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_BYTES];
+    private int length;
+
+    private RecordCodec() {
+    }
+
+    /*
+     * Returns the calling thread's codec, whose buffer holds the last file it
+     * read.
+     */
+    public static RecordCodec forThread() {
+        return codecs.get();
+    }
+
+    /*
+     * Reads a whole file into this codec's buffer, growing it if needed.
+     */
+    public void read(File file) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            long size = in.getChannel().size();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException(file + " is too large to be a record");
+            }
+            if (buffer.length < size + 1 || (buffer.length > MAX_KEPT_BUFFER_BYTES && size < MAX_KEPT_BUFFER_BYTES)) {
+                // Grown to fit, or shrunk back once a large file has been read
+                buffer = new byte[Math.max(INITIAL_BUFFER_BYTES, (int) size + 1)];
+            }
+            length = 0;
+            int read;
+            while ((read = in.read(buffer, length, buffer.length - length)) > 0) {
+                length += read;
+                if (length == buffer.length) {
+                    // Grew while being read
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+        }
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /*
+     * Returns the values of the given keys in the last file read, in the same
+     * order as the keys, with null for any key the file does not have.
+     */
+    public String[] parse(String... keys) {
+        return parse(buffer, length, keys);
+    }
+
+    /*
+     * Returns the values of the given keys in a record held in the platform
+     * charset, as above.
+     */
+    public static String[] parse(byte[] bytes, int length, String... keys) {
+        Charset charset = CHARSET;
+        if (!SCANNABLE) {
+            bytes = new String(bytes, 0, length, CHARSET).getBytes(StandardCharsets.UTF_8);
+            length = bytes.length;
+            charset = StandardCharsets.UTF_8;
+        }
+
+        String[] values = new String[keys.length];
+        int field = -1;
+        int position = 0;
+        while (position < length) {
+            int end = position;
+            while (end < length && bytes[end] != '\n') {
+                end++;
+            }
+            int next = end + 1;
+            if (end > position && bytes[end - 1] == '\r') {
+                end--; // Written on Windows
+            }
+
+            int key = keyAt(bytes, position, end, keys);
+            if (key >= 0) {
+                field = key;
+                int start = position + keys[key].length() + 1;
+                values[field] = decode(bytes, start, end, charset);
+            } else if (field >= 0) {
+                values[field] = values[field] + '\n' + decode(bytes, position, end, charset);
+            }
+            position = next;
+        }
+        return values;
+    }
+
+    /*
+     * Returns the index of the key the line starts with, followed by the
+     * delimiter, or -1 if it starts with none of them.
+     */
+    private static int keyAt(byte[] bytes, int start, int end, String[] keys) {
+        for (int k = 0; k < keys.length; k++) {
+            String key = keys[k];
+            int keyLength = key.length();
+            if (end - start < keyLength + 1 || bytes[start + keyLength] != DELIMITER) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < keyLength; i++) {
+                if (bytes[start + i] != key.charAt(i)) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Decodes a value, turning escapes back into the characters they stand for.
+     * Values without a backslash, which is nearly all of them, are decoded in one
+     * go.
+     */
+    private static String decode(byte[] bytes, int start, int end, Charset charset) {
+        int backslash = start;
+        while (backslash < end && bytes[backslash] != '\\') {
+            backslash++;
+        }
+        if (backslash == end) {
+            return new String(bytes, start, end - start, charset);
+        }
+
+        String raw = new String(bytes, start, end - start, charset);
+        StringBuilder value = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c == '\\' && i + 1 < raw.length()) {
+                char escaped = raw.charAt(i + 1);
+                if (escaped == '\\' || escaped == 'n' || escaped == 'r') {
+                    value.append(escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : '\\');
+                    i++;
+                    continue;
+                }
+            }
+            value.append(c);
+        }
+        return value.toString();
+    }
+
+    /*
+     * Returns the text of a record holding the given keys and values, one field
+     * per line, with no line break after the last. Null values are written as
+     * "null", as they always have been.
+     */
+    public static String format(String[] keys, String... values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("Expected " + keys.length + " values, got " + values.length);
+        }
+        StringBuilder record = new StringBuilder(64 * keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0) {
+                record.append('\n');
+            }
+            record.append(keys[i]).append(DELIMITER);
+            escape(record, String.valueOf(values[i]));
+        }
+        return record.toString();
+    }
+
+    private static void escape(StringBuilder record, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    record.append("\\\\");
+                    break;
+                case '\n':
+                    record.append("\\n");
+                    break;
+                case '\r':
+                    record.append("\\r");
+                    break;
+                default:
+                    record.append(c);
+            }
+        }
+    }
+
+    /*
+     * Returns true if line feeds, carriage returns, colons and backslashes are
+     * single bytes in the charset that never appear inside the encoding of any
+     * other character, so a buffer in it can be scanned byte by byte.
+     */
+    private static boolean isScannable(Charset charset) {
+        String name = charset.name();
+        return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.ISO_8859_1) || name.startsWith("windows-125") || name.startsWith("ISO-8859-");
+    }
+}
@@ -0,0 +1,905 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/*
+ * Full-text search over meeting titles and summaries across every project,
+ * ranked with BM25.
+ *
+ * Each word in a title or summary points to the meetings it appears in through a
+ * postings list, stored as variable-length deltas between meeting numbers
+ * followed by how often the word appears. The index is kept up to date by
+ * FileManager as a WriteListener: every written meeting is appended to the
+ * current tail log, which only takes a short file lock, and is indexed the next
+ * time the index is searched.
+ *
+ * Once the tail grows past a quarter of the segment, a background thread merges
+ * it: a new, empty tail generation is started so writers move on to it, the
+ * tail is indexed, replaced meetings are dropped from the documents and the
+ * postings, and the whole index is written to a new segment naming the new
+ * generation. The tails it covers are then deleted, so the files on disk stay
+ * proportional to the meetings in the store. Opening the index only has to load
+ * the segment and index the tails written since. A missing or damaged index is
+ * rebuilt with one pass over the store, when it is searched or merged and never
+ * while a write is being reported.
+ *
+ * A file manager that does not keep the index up to date, such as one made with
+ * projects.search set to false, marks it stale on each write instead, so it is
+ * rebuilt by the next search rather than answering without the write. One that
+ * starts keeping it up to date only when first searched does the same if writes
+ * were made through it before.
+ *
+ * Index Files
+ * <root>/.search/segment.dat       documents, project titles and postings lists
+ * <root>/.search/tail-<gen>.log    tab separated records written since the segment
+ *     P <projectId> <title>
+ *     M <projectId> <meetingId> <epochDay> <title> <summary>
+ * <root>/.search/append.lock       held while appending or starting a generation
+ * <root>/.search/merge.lock        held while merging or rebuilding
+ * <root>/.search/stale             made when a write was made without the index
+ *                                  listening
+ */
+public class SearchIndex implements WriteListener {
+
+    public static final String INDEX_FOLDER_NAME = ".search";
+
+    private static final int MAGIC = 0x504d4654; // "PMFT"
+    private static final int VERSION = 2;
+    private static final long MERGE_AFTER_BYTES = 4L << 20;
+    private static final int REBUILD_PAGE_SIZE = 100;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private static final Map<String, SearchIndex> openIndexes = new HashMap<>();
+
+    private final FileManager fileManager;
+    private final File folder;
+    private final File segmentFile;
+    private final File staleFile;
+    private final StaleMarker staleMarker;
+    private final FileMutex appendMutex;
+    private final FileMutex mergeMutex;
+    private final AtomicBoolean maintenanceScheduled = new AtomicBoolean();
+    private final ExecutorService maintainer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "search-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The tail generation writers append to, guarded by appendMutex
+    private int appendGeneration = -1;
+
+    // The rest is guarded by this index
+    private boolean loaded;
+    private boolean searched;
+    private int generation;
+    private long tailOffset;
+
+    private final List<Document> documents = new ArrayList<>();
+    private final Map<UUID, Integer> documentsByMeeting = new HashMap<>();
+    private final Map<UUID, String> projectTitles = new HashMap<>();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private long totalLength;
+    private int liveDocuments;
+
+    public SearchIndex(FileManager fileManager) {
+        this.fileManager = fileManager;
+        this.folder = new File(fileManager.getProjectsRoot(), INDEX_FOLDER_NAME);
+        this.segmentFile = new File(folder, "segment.dat");
+        this.staleFile = new File(folder, "stale");
+        this.staleMarker = new StaleMarker(staleFile);
+        this.appendMutex = FileMutex.forFile(new File(folder, "append.lock"));
+        this.mergeMutex = FileMutex.forFile(new File(folder, "merge.lock"));
+    }
+
+    /*
+     * Returns the shared search index for the store a file manager reads from.
+     */
+    public static synchronized SearchIndex open(FileManager fileManager) {
+        return openIndexes.computeIfAbsent(fileManager.getProjectsRoot().getAbsolutePath(), key -> new SearchIndex(fileManager));
+    }
+
+    /*
+     * Returns the shared search index for a file manager's store, to be searched,
+     * and has the file manager keep it up to date from now on if it was not
+     * already. Only if writes were made through it before is the index marked
+     * stale, to be rebuilt from the store by the first search.
+     */
+    public static SearchIndex openForQueries(FileManager fileManager) {
+        SearchIndex index = open(fileManager);
+        if (fileManager.attachWriteListener(index)) {
+            index.staleMarker.mark();
+        }
+        fileManager.removeWriteListener(index.staleMarker);
+        return index;
+    }
+
+    /*
+     * Returns the listener that marks this index stale on every write, for a file
+     * manager that does not keep it up to date.
+     */
+    public WriteListener staleMarker() {
+        return staleMarker;
+    }
+
+    /*
+     * Returns up to limit meetings matching the query, best match first. A
+     * meeting matches if its title or summary contains any word of the query.
+     */
+    public synchronized List<SearchHit> search(String query, int limit) {
+        searched = true;
+        refresh();
+        if (liveDocuments == 0 || limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        double averageLength = (double) totalLength / liveDocuments;
+        float[] scores = new float[documents.size()];
+        boolean matched = false;
+        for (String term : new LinkedHashMap<>(tokenize(query)).keySet()) {
+            Postings termPostings = postings.get(term);
+            if (termPostings == null) {
+                continue;
+            }
+            // Replaced meetings stay in the postings until the next merge, so the
+            // meetings still matching are counted while scoring, before the idf
+            int[] matches = new int[termPostings.count];
+            float[] termScores = new float[termPostings.count];
+            int matching = 0;
+            int position = 0;
+            int documentId = 0;
+            while (position < termPostings.length) {
+                long next = readVarInt(termPostings.bytes, position);
+                documentId += (int) (next >>> 32);
+                next = readVarInt(termPostings.bytes, (int) next);
+                int frequency = (int) (next >>> 32);
+                position = (int) next;
+
+                Document document = documents.get(documentId);
+                if (!document.deleted) {
+                    double norm = K1 * (1 - B + B * document.length / averageLength);
+                    matches[matching] = documentId;
+                    termScores[matching++] = (float) (frequency * (K1 + 1) / (frequency + norm));
+                }
+            }
+            double idf = Math.log(1 + (liveDocuments - matching + 0.5) / (matching + 0.5));
+            for (int i = 0; i < matching; i++) {
+                scores[matches[i]] += (float) (idf * termScores[i]);
+                matched = true;
+            }
+        }
+        if (!matched) {
+            return new ArrayList<>();
+        }
+
+        PriorityQueue<Integer> best = new PriorityQueue<>((a, b) -> Float.compare(scores[a], scores[b]));
+        for (int documentId = 0; documentId < scores.length; documentId++) {
+            if (scores[documentId] > 0) {
+                best.add(documentId);
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+        }
+
+        SearchHit[] hits = new SearchHit[best.size()];
+        for (int i = hits.length - 1; i >= 0; i--) {
+            int documentId = best.poll();
+            Document document = documents.get(documentId);
+            hits[i] = new SearchHit(document.projectId, projectTitles.get(document.projectId), document.meetingId,
+                    document.title, Dates.toLocalDate(document.epochDay), scores[documentId]);
+        }
+        return new ArrayList<>(Arrays.asList(hits));
+    }
+
+    /*
+     * Discards the index and rebuilds it with a single pass over every project in
+     * the store, loading one page of projects at a time. Writers move on to a new
+     * tail generation first and keep appending while the store is read, and the
+     * records they append are indexed after it, so no write is missed. The stale
+     * marker is removed before the store is read, so a write it misses marks the
+     * index stale again.
+     */
+    public synchronized void rebuild() throws IOException {
+        mergeMutex.lock();
+        try {
+            Files.deleteIfExists(staleFile.toPath());
+            clear();
+            generation = startGeneration();
+            int pageCount = (fileManager.countProjects() + REBUILD_PAGE_SIZE - 1) / REBUILD_PAGE_SIZE;
+            for (int page = 0; page < pageCount; page++) {
+                for (Project project : fileManager.getProjectCatalogue(page, REBUILD_PAGE_SIZE)) {
+                    apply(projectRecord(project));
+                    for (Meeting meeting : project.meetings) {
+                        apply(meetingRecord(project, meeting));
+                    }
+                }
+            }
+            readNewRecords();
+            compact();
+            writeSegment();
+            deleteTailsBefore(generation);
+            loaded = true;
+        } catch (IOException | RuntimeException e) {
+            clear();
+            throw e;
+        } finally {
+            mergeMutex.unlock();
+        }
+    }
+
+    @Override
+    public void projectWritten(Project project) {
+        append(() -> projectRecord(project));
+    }
+
+    @Override
+    public void meetingWritten(Project project, Meeting meeting) {
+        append(() -> meetingRecord(project, meeting));
+    }
+
+    @Override
+    public void meetingsWritten(Project project, List<Meeting> meetings) {
+        append(() -> {
+            StringBuilder records = new StringBuilder();
+            for (Meeting meeting : meetings) {
+                records.append(meetingRecord(project, meeting));
+            }
+            return records.toString();
+        });
+    }
+
+    /*
+     * Adds records to the current tail log, holding only the append lock, and
+     * schedules a merge once the tail is a quarter the size of the segment, so
+     * the cost of merging stays proportional to the meetings indexed. If the log
+     * cannot be written the segment is deleted, so the index is rebuilt on next
+     * use instead of going stale.
+     */
+    private void append(Supplier<String> records) {
+        try {
+            ByteBuffer bytes = ByteBuffer.wrap(records.get().getBytes(StandardCharsets.UTF_8));
+            long tailLength;
+            appendMutex.lock();
+            try {
+                File tail = appendTail();
+                try (FileChannel channel = FileChannel.open(tail.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                    tailLength = channel.size();
+                }
+            } finally {
+                appendMutex.unlock();
+            }
+            if (tailLength > Math.max(MERGE_AFTER_BYTES, segmentFile.length() / 4)) {
+                scheduleMaintenance();
+            }
+        } catch (IOException | RuntimeException e) {
+            segmentFile.delete();
+        }
+    }
+
+    /*
+     * Returns the newest tail log, which is the one to append to. Called with the
+     * append lock held.
+     */
+    private File appendTail() {
+        if (appendGeneration < 0 || !tailFile(appendGeneration).exists()) {
+            appendGeneration = latestGeneration();
+        }
+        while (tailFile(appendGeneration + 1).exists()) {
+            appendGeneration++;
+        }
+        folder.mkdirs();
+        return tailFile(appendGeneration);
+    }
+
+    /*
+     * Creates the next, empty tail log, which every writer appends to from then
+     * on, and returns its generation.
+     */
+    private int startGeneration() throws IOException {
+        appendMutex.lock();
+        try {
+            int next = latestGeneration() + 1;
+            folder.mkdirs();
+            tailFile(next).createNewFile();
+            appendGeneration = next;
+            return next;
+        } finally {
+            appendMutex.unlock();
+        }
+    }
+
+    /*
+     * Returns the newest tail generation on disk, or the segment's if there are
+     * no tails.
+     */
+    private int latestGeneration() {
+        int latest = Math.max(0, segmentGeneration());
+        String[] names = folder.list();
+        if (names != null) {
+            for (String name : names) {
+                int tailGeneration = tailGeneration(name);
+                latest = Math.max(latest, tailGeneration);
+            }
+        }
+        return latest;
+    }
+
+    /*
+     * Deletes the tail logs before a generation, which the segment now covers,
+     * and temporary files left by segment writes that did not finish. Called with
+     * the merge lock held.
+     */
+    private void deleteTailsBefore(int first) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            int tailGeneration = tailGeneration(name);
+            if ((tailGeneration >= 0 && tailGeneration < first) || name.equals("tail.log") || (name.startsWith("segment") && name.endsWith(".tmp"))) {
+                file.delete();
+            }
+        }
+    }
+
+    private File tailFile(int tailGeneration) {
+        return new File(folder, "tail-" + tailGeneration + ".log");
+    }
+
+    private static int tailGeneration(String name) {
+        if (!name.startsWith("tail-") || !name.endsWith(".log")) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring("tail-".length(), name.length() - ".log".length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /*
+     * Returns the tail generation the segment on disk covers up to, or -1 if
+     * there is no readable segment.
+     */
+    private int segmentGeneration() {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(segmentFile))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return -1;
+            }
+            return in.readInt();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private void scheduleMaintenance() {
+        if (maintenanceScheduled.compareAndSet(false, true)) {
+            maintainer.execute(this::maintain);
+        }
+    }
+
+    /*
+     * Merges the tail into a new segment if it has grown large enough, on the
+     * background thread. A process that only writes does not keep the index in
+     * memory afterwards.
+     */
+    private synchronized void maintain() {
+        maintenanceScheduled.set(false);
+        try {
+            refresh();
+            if (loaded && tailOffset > Math.max(MERGE_AFTER_BYTES, segmentFile.length() / 4)) {
+                merge();
+            }
+        } catch (IOException | RuntimeException e) {
+            // Left for the next merge; a damaged index is rebuilt when next read
+        } finally {
+            if (!searched) {
+                clear();
+            }
+        }
+    }
+
+    /*
+     * Starts a new tail generation, indexes everything written before it, drops
+     * replaced meetings and writes the segment for the new generation. Only one
+     * process merges at a time, so segments are written in generation order.
+     */
+    private void merge() throws IOException {
+        mergeMutex.lock();
+        try {
+            startGeneration();
+            readNewRecords();
+            compact();
+            writeSegment();
+            deleteTailsBefore(generation);
+        } finally {
+            mergeMutex.unlock();
+        }
+    }
+
+    /*
+     * Loads the index on first use, loads the segment again if another merge has
+     * replaced it, and afterwards indexes any records added to the tails since
+     * they were last read. An index that cannot be read or is marked stale is
+     * rebuilt.
+     */
+    private void refresh() {
+        try {
+            int segmentGeneration = segmentGeneration();
+            if (segmentGeneration < 0 || staleFile.exists()) {
+                rebuild();
+                return;
+            }
+            if (!loaded || segmentGeneration > generation) {
+                readSegment();
+                loaded = true;
+            }
+            readNewRecords();
+        } catch (IOException | RuntimeException e) {
+            clear();
+            try {
+                rebuild();
+            } catch (IOException | RuntimeException rebuildError) {
+                clear();
+            }
+        }
+    }
+
+    /*
+     * Indexes the complete records written to the tails since they were last
+     * read, following them from one generation to the next. A tail is final once
+     * the next one exists, as writers only append to the newest, so it is read to
+     * the end before moving on. A record still being written by another process
+     * is left for the next read. If a tail has been merged away, the segment that
+     * replaced it is loaded instead.
+     */
+    private void readNewRecords() throws IOException {
+        while (true) {
+            boolean closed = tailFile(generation + 1).exists();
+            File tail = tailFile(generation);
+            if (tail.exists()) {
+                readTail(tail);
+            } else if (segmentGeneration() > generation) {
+                readSegment();
+                continue;
+            }
+            if (!closed) {
+                return;
+            }
+            generation++;
+            tailOffset = 0;
+        }
+    }
+
+    private void readTail(File tail) throws IOException {
+        if (tail.length() <= tailOffset) {
+            return;
+        }
+        try (FileInputStream in = new FileInputStream(tail)) {
+            in.getChannel().position(tailOffset);
+            byte[] buffer = new byte[1 << 16];
+            ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                int lineStart = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        line.write(buffer, lineStart, i - lineStart);
+                        apply(line.toString(StandardCharsets.UTF_8));
+                        tailOffset += line.size() + 1;
+                        line.reset();
+                        lineStart = i + 1;
+                    }
+                }
+                line.write(buffer, lineStart, read - lineStart);
+            }
+        }
+    }
+
+    /*
+     * Applies a single record. A meeting that is indexed again replaces its
+     * earlier document, which is skipped when scoring until the next merge drops
+     * it.
+     */
+    private void apply(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields[0].equals("P")) {
+            projectTitles.put(UUID.fromString(fields[1]), unescape(fields[2]));
+            return;
+        }
+
+        UUID meetingId = UUID.fromString(fields[2]);
+        Integer previous = documentsByMeeting.get(meetingId);
+        if (previous != null) {
+            Document replaced = documents.get(previous);
+            replaced.deleted = true;
+            totalLength -= replaced.length;
+            liveDocuments--;
+        }
+
+        String title = unescape(fields[4]);
+        Map<String, Integer> frequencies = tokenize(title);
+        for (Map.Entry<String, Integer> summaryTerm : tokenize(unescape(fields[5])).entrySet()) {
+            frequencies.merge(summaryTerm.getKey(), summaryTerm.getValue(), Integer::sum);
+        }
+
+        int documentId = documents.size();
+        int length = 0;
+        for (Map.Entry<String, Integer> term : frequencies.entrySet()) {
+            postings.computeIfAbsent(term.getKey(), key -> new Postings()).add(documentId, term.getValue());
+            length += term.getValue();
+        }
+        documents.add(new Document(UUID.fromString(fields[1]), meetingId, title, Integer.parseInt(fields[3]), length));
+        documentsByMeeting.put(meetingId, documentId);
+        totalLength += length;
+        liveDocuments++;
+    }
+
+    /*
+     * Drops replaced documents, numbering the rest again in the same order and
+     * rewriting every postings list without them. Words no longer in any meeting
+     * are dropped as well.
+     */
+    private void compact() {
+        if (liveDocuments == documents.size()) {
+            return;
+        }
+        int[] renumbered = new int[documents.size()];
+        List<Document> live = new ArrayList<>(liveDocuments);
+        for (int i = 0; i < documents.size(); i++) {
+            Document document = documents.get(i);
+            renumbered[i] = document.deleted ? -1 : live.size();
+            if (!document.deleted) {
+                live.add(document);
+            }
+        }
+
+        Iterator<Map.Entry<String, Postings>> terms = postings.entrySet().iterator();
+        while (terms.hasNext()) {
+            Map.Entry<String, Postings> term = terms.next();
+            Postings termPostings = term.getValue();
+            Postings kept = new Postings();
+            int position = 0;
+            int documentId = 0;
+            while (position < termPostings.length) {
+                long next = readVarInt(termPostings.bytes, position);
+                documentId += (int) (next >>> 32);
+                next = readVarInt(termPostings.bytes, (int) next);
+                position = (int) next;
+                if (renumbered[documentId] >= 0) {
+                    kept.add(renumbered[documentId], (int) (next >>> 32));
+                }
+            }
+            if (kept.count == 0) {
+                terms.remove();
+            } else {
+                term.setValue(kept);
+            }
+        }
+
+        documents.clear();
+        documents.addAll(live);
+        documentsByMeeting.clear();
+        for (int i = 0; i < documents.size(); i++) {
+            documentsByMeeting.put(documents.get(i).meetingId, i);
+        }
+    }
+
+    private void clear() {
+        documents.clear();
+        documentsByMeeting.clear();
+        projectTitles.clear();
+        postings.clear();
+        totalLength = 0;
+        liveDocuments = 0;
+        generation = 0;
+        tailOffset = 0;
+        loaded = false;
+    }
+
+    /*
+     * Segment Layout
+     * magic, version, tail generation and offset covered by the segment,
+     * project titles (id, title), documents (project id, meeting id, title,
+     * epoch day, length, deleted), terms (term, count, last document, postings),
+     * crc32 of everything before it
+     *
+     * Written to a temporary file first and moved into place, with the merge
+     * lock held.
+     */
+    private void writeSegment() throws IOException {
+        File temp = File.createTempFile("segment", ".tmp", folder);
+        try {
+            CRC32 crc = new CRC32();
+            try (FileOutputStream fileOut = new FileOutputStream(temp)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fileOut, crc), 1 << 16));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(generation);
+                out.writeLong(tailOffset);
+
+                out.writeInt(projectTitles.size());
+                for (Map.Entry<UUID, String> projectTitle : projectTitles.entrySet()) {
+                    writeUUID(out, projectTitle.getKey());
+                    writeString(out, projectTitle.getValue());
+                }
+
+                out.writeInt(documents.size());
+                for (Document document : documents) {
+                    writeUUID(out, document.projectId);
+                    writeUUID(out, document.meetingId);
+                    writeString(out, document.title);
+                    out.writeInt(document.epochDay);
+                    out.writeInt(document.length);
+                    out.writeBoolean(document.deleted);
+                }
+
+                out.writeInt(postings.size());
+                for (Map.Entry<String, Postings> term : postings.entrySet()) {
+                    Postings termPostings = term.getValue();
+                    writeString(out, term.getKey());
+                    out.writeInt(termPostings.count);
+                    out.writeInt(termPostings.lastDocument);
+                    out.writeInt(termPostings.length);
+                    out.write(termPostings.bytes, 0, termPostings.length);
+                }
+                out.flush();
+                new DataOutputStream(fileOut).writeLong(crc.getValue());
+                fileOut.getFD().sync();
+            }
+            Files.move(temp.toPath(), segmentFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    private void readSegment() throws IOException {
+        clear();
+        CRC32 crc = new CRC32();
+        try (FileInputStream fileIn = new FileInputStream(segmentFile)) {
+            BufferedInputStream buffered = new BufferedInputStream(fileIn, 1 << 16);
+            DataInputStream in = new DataInputStream(new CheckedInputStream(buffered, crc));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a search index segment: " + segmentFile);
+            }
+            int segmentGeneration = in.readInt();
+            long segmentTailOffset = in.readLong();
+
+            int projectCount = in.readInt();
+            for (int i = 0; i < projectCount; i++) {
+                projectTitles.put(readUUID(in), readString(in));
+            }
+
+            int documentCount = in.readInt();
+            for (int i = 0; i < documentCount; i++) {
+                Document document = new Document(readUUID(in), readUUID(in), readString(in), in.readInt(), in.readInt());
+                document.deleted = in.readBoolean();
+                documents.add(document);
+                if (!document.deleted) {
+                    documentsByMeeting.put(document.meetingId, i);
+                    totalLength += document.length;
+                    liveDocuments++;
+                }
+            }
+
+            int termCount = in.readInt();
+            for (int i = 0; i < termCount; i++) {
+                String term = readString(in);
+                Postings termPostings = new Postings();
+                termPostings.count = in.readInt();
+                termPostings.lastDocument = in.readInt();
+                termPostings.length = in.readInt();
+                termPostings.bytes = new byte[Math.max(16, termPostings.length)];
+                in.readFully(termPostings.bytes, 0, termPostings.length);
+                postings.put(term, termPostings);
+            }
+
+            long expected = crc.getValue();
+            if (new DataInputStream(buffered).readLong() != expected) {
+                throw new IOException("Search index segment is corrupt: " + segmentFile);
+            }
+            generation = segmentGeneration;
+            tailOffset = segmentTailOffset;
+            loaded = true;
+        }
+    }
+
+    /*
+     * Splits text into lower case words made of letters and digits, counting how
+     * often each appears. Single characters are ignored.
+     */
+    static Map<String, Integer> tokenize(String text) {
+        Map<String, Integer> frequencies = new HashMap<>();
+        if (text == null) {
+            return frequencies;
+        }
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                if (word.length() > 1) {
+                    frequencies.merge(word.toString(), 1, Integer::sum);
+                }
+                word.setLength(0);
+            }
+        }
+        return frequencies;
+    }
+
+    private static String projectRecord(Project project) {
+        return "P\t" + project.id + "\t" + escape(project.title) + "\n";
+    }
+
+    private static String meetingRecord(Project project, Meeting meeting) {
+        return "M\t" + project.id + "\t" + meeting.id + "\t" + Dates.toEpochDay(meeting.date) + "\t" + escape(meeting.title) + "\t" + escape(meeting.summary) + "\n";
+    }
+
+    /*
+     * Escapes backslashes, tabs and line breaks so a value fits on one field of
+     * one line.
+     */
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char escaped = value.charAt(++i);
+                result.append(escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static void writeUUID(DataOutputStream out, UUID id) throws IOException {
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID readUUID(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Reads a variable-length int starting at the given position, returning the
+     * value in the high 32 bits and the position after it in the low 32 bits, so
+     * the search loop does not allocate.
+     */
+    private static long readVarInt(byte[] bytes, int position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[position++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (long) value << 32 | position;
+    }
+
+    /*
+     * The meetings a word appears in, as variable-length pairs of (gap from the
+     * previous meeting number, times the word appears).
+     */
+    private static class Postings {
+        byte[] bytes = new byte[16];
+        int length;
+        int count;
+        int lastDocument;
+
+        void add(int documentId, int frequency) {
+            writeVarInt(documentId - lastDocument);
+            writeVarInt(frequency);
+            lastDocument = documentId;
+            count++;
+        }
+
+        private void writeVarInt(int value) {
+            if (length + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((value & ~0x7f) != 0) {
+                bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+    }
+
+    private static class Document {
+        final UUID projectId;
+        final UUID meetingId;
+        final String title;
+        final int epochDay;
+        final int length;
+        boolean deleted;
+
+        Document(UUID projectId, UUID meetingId, String title, int epochDay, int length) {
+            this.projectId = projectId;
+            this.meetingId = meetingId;
+            this.title = title;
+            this.epochDay = epochDay;
+            this.length = length;
+        }
+    }
+
+    /*
+     * A meeting matching a search, with the project it belongs to.
+     */
+    public static class SearchHit {
+        public final UUID projectId;
+        public final String projectTitle;
+        public final UUID meetingId;
+        public final String meetingTitle;
+        public final LocalDate date;
+        public final float score;
+
+        SearchHit(UUID projectId, String projectTitle, UUID meetingId, String meetingTitle, LocalDate date, float score) {
+            this.projectId = projectId;
+            this.projectTitle = projectTitle;
+            this.meetingId = meetingId;
+            this.meetingTitle = meetingTitle;
+            this.date = date;
+            this.score = score;
+        }
+    }
+}
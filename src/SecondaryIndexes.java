@@ -0,0 +1,701 @@
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/*
+ * Indexes over every project in the store, so meetings can be found by date or
+ * attendee and individuals by role without loading whole projects:
+ * - a sorted index of meetings by date
+ * - an index of meetings by attendee
+ * - an index of individuals by role (case-insensitive)
+ *
+ * The indexes are kept up to date by FileManager as a WriteListener and
+ * persisted as an append-only log of index entries. Each entry describes the
+ * latest indexed state of one meeting or individual, so replaying the log in
+ * order rebuilds the indexes. Writers only hold a short file lock while they
+ * append; entries appended by other processes are picked up before each query.
+ *
+ * Once most of the log is replaced entries, it is compacted into the next
+ * generation of the log, holding one entry per meeting and individual. If there
+ * is no log, or it cannot be read, it is rebuilt the same way from a single
+ * pass over the store, on a query and never while a write is being reported.
+ * Either way the new generation is written to a temporary file while writers
+ * keep appending to the old one; the append lock is only taken to copy over
+ * what they appended meanwhile and move the file into place. Readers move to
+ * the new generation as soon as it appears, reading it from the start.
+ *
+ * Index Files
+ * <root>/.index/entries-<gen>.log  tab separated, one entry per line
+ *     G <generation>                                   (first line)
+ *     M <projectId> <meetingId> <epochDay> <attendeeIds> (comma separated)
+ *     I <projectId> <individualId> <role>
+ * <root>/.index/append.lock        held while appending or moving a log into place
+ * <root>/.index/rewrite.lock       held while compacting or rebuilding
+ * <root>/.index/stale              made when an entry could not be appended, or a
+ *                                  write was made without the indexes listening
+ *
+ * A file manager that does not keep the indexes up to date, such as one made
+ * with projects.indexes set to false, marks them stale on each write instead,
+ * so they are rebuilt by the next query rather than answering without it. One
+ * that starts keeping them up to date only when first queried does the same if
+ * writes were made through it before; otherwise the indexes are read from their
+ * log as usual.
+ */
+public class SecondaryIndexes implements WriteListener {
+
+    public static final String INDEX_FOLDER_NAME = ".index";
+    private static final int REBUILD_PAGE_SIZE = 100;
+    private static final long MAINTAIN_AFTER_BYTES = 1 << 20;
+
+    private static final Map<String, SecondaryIndexes> openIndexes = new HashMap<>();
+
+    private final FileManager fileManager;
+    private final File folder;
+    private final File staleFile;
+    private final StaleMarker staleMarker;
+    private final FileMutex appendMutex;
+    private final FileMutex rewriteMutex;
+    private final AtomicBoolean maintenanceScheduled = new AtomicBoolean();
+    private final ExecutorService maintainer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "secondary-indexes");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The log writers append to and when to next check it, guarded by appendMutex
+    private int appendGeneration = -1;
+    private long maintainAfterLength = MAINTAIN_AFTER_BYTES;
+
+    // The rest is guarded by these indexes
+    private boolean loaded;
+    private boolean queried;
+    private int generation;
+    private long loadedLength;
+    private long entryCount;
+
+    private final Map<UUID, MeetingEntry> meetings = new HashMap<>();
+    private final Map<UUID, IndividualEntry> individuals = new HashMap<>();
+    private final NavigableMap<Integer, Set<UUID>> meetingsByDay = new TreeMap<>();
+    private final Map<UUID, Set<UUID>> meetingsByAttendee = new HashMap<>();
+    private final Map<String, Set<UUID>> individualsByRole = new HashMap<>();
+
+    public SecondaryIndexes(FileManager fileManager) {
+        this.fileManager = fileManager;
+        this.folder = new File(fileManager.getProjectsRoot(), INDEX_FOLDER_NAME);
+        this.staleFile = new File(folder, "stale");
+        this.staleMarker = new StaleMarker(staleFile);
+        this.appendMutex = FileMutex.forFile(new File(folder, "append.lock"));
+        this.rewriteMutex = FileMutex.forFile(new File(folder, "rewrite.lock"));
+    }
+
+    /*
+     * Returns the shared indexes for the store a file manager reads from, so every
+     * file manager writing to the same store updates the same indexes.
+     */
+    public static synchronized SecondaryIndexes open(FileManager fileManager) {
+        return openIndexes.computeIfAbsent(fileManager.getProjectsRoot().getAbsolutePath(), key -> new SecondaryIndexes(fileManager));
+    }
+
+    /*
+     * Returns the shared indexes for a file manager's store, to be queried, and
+     * has the file manager keep them up to date from now on if it was not
+     * already. Only if writes were made through it before are the indexes marked
+     * stale, to be rebuilt from the store by the first query.
+     */
+    public static SecondaryIndexes openForQueries(FileManager fileManager) {
+        SecondaryIndexes indexes = open(fileManager);
+        if (fileManager.attachWriteListener(indexes)) {
+            indexes.staleMarker.mark();
+        }
+        fileManager.removeWriteListener(indexes.staleMarker);
+        return indexes;
+    }
+
+    /*
+     * Returns the listener that marks these indexes stale on every write, for a
+     * file manager that does not keep them up to date.
+     */
+    public WriteListener staleMarker() {
+        return staleMarker;
+    }
+
+    /*
+     * Returns the meetings dated from one day to another (both inclusive), across
+     * all projects, in date order.
+     */
+    public synchronized List<Entry> meetingsBetween(LocalDate from, LocalDate to) {
+        queried = true;
+        refresh();
+        List<Entry> entries = new ArrayList<>();
+        for (Set<UUID> meetingIds : meetingsByDay.subMap((int) from.toEpochDay(), true, (int) to.toEpochDay(), true).values()) {
+            for (UUID meetingId : meetingIds) {
+                entries.add(meetings.get(meetingId).toEntry());
+            }
+        }
+        return entries;
+    }
+
+    /*
+     * Returns the meetings an individual attended, in date order.
+     */
+    public synchronized List<Entry> meetingsAttendedBy(UUID individualId) {
+        queried = true;
+        refresh();
+        List<MeetingEntry> attended = new ArrayList<>();
+        for (UUID meetingId : meetingsByAttendee.getOrDefault(individualId, Set.of())) {
+            attended.add(meetings.get(meetingId));
+        }
+        attended.sort((a, b) -> Integer.compare(a.epochDay, b.epochDay));
+
+        List<Entry> entries = new ArrayList<>(attended.size());
+        for (MeetingEntry meeting : attended) {
+            entries.add(meeting.toEntry());
+        }
+        return entries;
+    }
+
+    /*
+     * Returns the individuals with the given role, ignoring case, across all
+     * projects.
+     */
+    public synchronized List<Entry> individualsWithRole(String role) {
+        queried = true;
+        refresh();
+        List<Entry> entries = new ArrayList<>();
+        for (UUID individualId : individualsByRole.getOrDefault(roleKey(role), Set.of())) {
+            IndividualEntry individual = individuals.get(individualId);
+            entries.add(new Entry(individual.projectId, individual.individualId));
+        }
+        return entries;
+    }
+
+    /*
+     * Discards the indexes and rebuilds them from every project in the store.
+     * Writers keep appending to the current log while the store is read, and what
+     * they append is carried over into the rebuilt one, so no write is missed.
+     */
+    public synchronized void rebuild() throws IOException {
+        rewriteMutex.lock();
+        try {
+            clear();
+            int from;
+            long offset;
+            appendMutex.lock();
+            try {
+                staleFile.delete();
+                from = Math.max(0, latestGeneration());
+                folder.mkdirs();
+                logFile(from).createNewFile();
+                offset = logFile(from).length();
+            } finally {
+                appendMutex.unlock();
+            }
+
+            int pageCount = (fileManager.countProjects() + REBUILD_PAGE_SIZE - 1) / REBUILD_PAGE_SIZE;
+            for (int page = 0; page < pageCount; page++) {
+                for (Project project : fileManager.getProjectCatalogue(page, REBUILD_PAGE_SIZE)) {
+                    for (Individual individual : project.individuals) {
+                        apply(individualLine(project, individual));
+                    }
+                    for (Meeting meeting : project.meetings) {
+                        apply(meetingLine(project, meeting));
+                    }
+                }
+            }
+            rewrite(from, offset);
+        } catch (IOException | RuntimeException e) {
+            clear();
+            throw e;
+        } finally {
+            rewriteMutex.unlock();
+        }
+    }
+
+    @Override
+    public void individualWritten(Project project, Individual individual) {
+        append(() -> individualLine(project, individual));
+    }
+
+    @Override
+    public void meetingWritten(Project project, Meeting meeting) {
+        append(() -> meetingLine(project, meeting));
+    }
+
+    @Override
+    public void individualsWritten(Project project, List<Individual> individuals) {
+        append(() -> {
+            StringBuilder lines = new StringBuilder();
+            for (Individual individual : individuals) {
+                lines.append(individualLine(project, individual));
+            }
+            return lines.toString();
+        });
+    }
+
+    @Override
+    public void meetingsWritten(Project project, List<Meeting> meetings) {
+        append(() -> {
+            StringBuilder lines = new StringBuilder();
+            for (Meeting meeting : meetings) {
+                lines.append(meetingLine(project, meeting));
+            }
+            return lines.toString();
+        });
+    }
+
+    /*
+     * Adds one or more entries to the current log, holding only the append lock.
+     * Each time the log doubles in size the indexes are refreshed on a
+     * background thread, which compacts the log if it needs it, so a process
+     * that only writes still keeps it in check. If the log cannot be written the
+     * indexes are marked stale, so they are rebuilt on next use instead of going
+     * out of date.
+     */
+    private void append(Supplier<String> entries) {
+        try {
+            ByteBuffer bytes = ByteBuffer.wrap(entries.get().getBytes(StandardCharsets.UTF_8));
+            boolean maintain = false;
+            appendMutex.lock();
+            try {
+                try (FileChannel channel = FileChannel.open(appendLog().toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                    if (channel.size() >= maintainAfterLength) {
+                        maintainAfterLength = 2 * channel.size();
+                        maintain = true;
+                    }
+                }
+            } finally {
+                appendMutex.unlock();
+            }
+            if (maintain) {
+                scheduleMaintenance();
+            }
+        } catch (IOException | RuntimeException e) {
+            try {
+                folder.mkdirs();
+                staleFile.createNewFile();
+            } catch (IOException | RuntimeException staleError) {
+                // Nothing more can be done; the entry is missing until the next rebuild
+            }
+        }
+    }
+
+    /*
+     * Returns the newest log, which is the one to append to, starting one if
+     * there is none. Called with the append lock held.
+     */
+    private File appendLog() {
+        int previous = appendGeneration;
+        if (appendGeneration < 0 || !logFile(appendGeneration).exists()) {
+            appendGeneration = Math.max(0, latestGeneration());
+        }
+        while (logFile(appendGeneration + 1).exists()) {
+            appendGeneration++;
+        }
+        if (appendGeneration != previous) {
+            maintainAfterLength = Math.max(MAINTAIN_AFTER_BYTES, 2 * logFile(appendGeneration).length());
+        }
+        folder.mkdirs();
+        return logFile(appendGeneration);
+    }
+
+    /*
+     * Returns the newest log generation on disk, or -1 if there is none.
+     */
+    private int latestGeneration() {
+        int latest = -1;
+        String[] names = folder.list();
+        if (names != null) {
+            for (String name : names) {
+                latest = Math.max(latest, logGeneration(name));
+            }
+        }
+        return latest;
+    }
+
+    private File logFile(int logGeneration) {
+        return new File(folder, "entries-" + logGeneration + ".log");
+    }
+
+    private static int logGeneration(String name) {
+        if (!name.startsWith("entries-") || !name.endsWith(".log")) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring("entries-".length(), name.length() - ".log".length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void scheduleMaintenance() {
+        if (maintenanceScheduled.compareAndSet(false, true)) {
+            maintainer.execute(this::maintain);
+        }
+    }
+
+    /*
+     * Catches up with the log, compacting it if it needs it, on the background
+     * thread. A process that only writes does not keep the indexes in memory
+     * afterwards.
+     */
+    private synchronized void maintain() {
+        maintenanceScheduled.set(false);
+        refresh();
+        if (!queried) {
+            clear();
+        }
+    }
+
+    /*
+     * Loads the indexes on first use, and afterwards applies any entries added to
+     * the log since it was last read. Indexes that are missing, marked stale or
+     * cannot be read are rebuilt.
+     */
+    private void refresh() {
+        try {
+            if (staleFile.exists()) {
+                rebuild();
+                return;
+            }
+            readNewEntries();
+            loaded = true;
+            if (entryCount > 2 * (meetings.size() + individuals.size()) + 1000) {
+                compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            clear();
+            try {
+                rebuild();
+            } catch (IOException | RuntimeException rebuildError) {
+                clear();
+            }
+        }
+    }
+
+    /*
+     * Applies the complete lines written to the log since it was last read. A
+     * line still being written by another process is left for the next read.
+     * When a newer generation of the log has replaced the one being read, the
+     * indexes are read again from the start of it.
+     */
+    private void readNewEntries() throws IOException {
+        File log = logFile(generation);
+        if (!loaded || !log.exists() || logFile(generation + 1).exists()) {
+            int latest = latestGeneration();
+            if (latest < 0) {
+                throw new IOException("There is no index log in " + folder);
+            }
+            if (!loaded || latest != generation) {
+                clear();
+                generation = latest;
+                log = logFile(latest);
+            }
+        }
+        long length = log.length();
+        if (length == loadedLength) {
+            return;
+        }
+        if (length < loadedLength) {
+            throw new IOException("Index log was cut short: " + log);
+        }
+
+        try (FileInputStream in = new FileInputStream(log)) {
+            in.getChannel().position(loadedLength);
+            byte[] buffer = new byte[1 << 16];
+            ByteArrayOutputStream line = new ByteArrayOutputStream(160);
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                int lineStart = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        line.write(buffer, lineStart, i - lineStart);
+                        String entry = line.toString(StandardCharsets.UTF_8);
+                        if (loadedLength == 0 && !entry.startsWith("G\t")) {
+                            throw new IOException("Index log was not written in full: " + log);
+                        }
+                        apply(entry);
+                        loadedLength += line.size() + 1;
+                        line.reset();
+                        lineStart = i + 1;
+                    }
+                }
+                line.write(buffer, lineStart, read - lineStart);
+            }
+        }
+    }
+
+    /*
+     * Rewrites the log with one entry per meeting and individual, dropping
+     * entries that have been replaced by later ones.
+     */
+    private void compact() throws IOException {
+        rewriteMutex.lock();
+        try {
+            int from;
+            long offset;
+            appendMutex.lock();
+            try {
+                readNewEntries();
+                from = generation;
+                offset = loadedLength;
+            } finally {
+                appendMutex.unlock();
+            }
+            rewrite(from, offset);
+        } finally {
+            rewriteMutex.unlock();
+        }
+    }
+
+    /*
+     * Writes the indexes, as they stand at an offset into a log, as the next
+     * generation of the log, followed by every complete entry appended to that
+     * log since. The new log is written to a temporary file of its own, and the
+     * append lock is only held to copy those entries over and move it into
+     * place. Called with the rewrite lock held, so generations are written one
+     * at a time.
+     */
+    private void rewrite(int from, long offset) throws IOException {
+        File temp = File.createTempFile("entries", ".tmp", folder);
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+                writer.write("G\t" + (from + 1) + "\n");
+                for (IndividualEntry individual : individuals.values()) {
+                    writer.write("I\t" + individual.projectId + "\t" + individual.individualId + "\t" + individual.role + "\n");
+                }
+                for (MeetingEntry meeting : meetings.values()) {
+                    writer.write(meetingLine(meeting.projectId, meeting.meetingId, meeting.epochDay, meeting.attendeeIds));
+                }
+            }
+            long stateLength = temp.length();
+
+            appendMutex.lock();
+            try {
+                byte[] appended;
+                try (FileChannel channel = FileChannel.open(logFile(from).toPath(), StandardOpenOption.READ)) {
+                    appended = Channels.newInputStream(channel.position(offset)).readAllBytes();
+                }
+                int complete = appended.length;
+                while (complete > 0 && appended[complete - 1] != '\n') {
+                    complete--;
+                }
+                try (FileOutputStream out = new FileOutputStream(temp, true)) {
+                    out.write(appended, 0, complete);
+                }
+                Files.move(temp.toPath(), logFile(from + 1).toPath(), StandardCopyOption.ATOMIC_MOVE);
+                deleteLogsBefore(from + 1);
+            } finally {
+                appendMutex.unlock();
+            }
+
+            generation = from + 1;
+            loadedLength = stateLength;
+            entryCount = meetings.size() + individuals.size();
+            loaded = true;
+            readNewEntries();
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /*
+     * Deletes the logs before a generation, the log kept before there were
+     * generations, and temporary files left by rewrites that did not finish.
+     * Called with the rewrite lock held.
+     */
+    private void deleteLogsBefore(int first) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            int logGeneration = logGeneration(name);
+            if ((logGeneration >= 0 && logGeneration < first) || name.equals("entries.log") || (name.startsWith("entries") && name.endsWith(".tmp"))) {
+                file.delete();
+            }
+        }
+    }
+
+    private void clear() {
+        meetings.clear();
+        individuals.clear();
+        meetingsByDay.clear();
+        meetingsByAttendee.clear();
+        individualsByRole.clear();
+        loaded = false;
+        generation = 0;
+        loadedLength = 0;
+        entryCount = 0;
+    }
+
+    /*
+     * Applies a single log entry, replacing whatever was indexed for the same
+     * meeting or individual before.
+     */
+    private void apply(String line) {
+        String[] fields = line.replace("\n", "").split("\t", -1);
+        if (fields[0].equals("G")) {
+            return;
+        }
+        entryCount++;
+        if (fields[0].equals("M")) {
+            UUID meetingId = UUID.fromString(fields[2]);
+            List<UUID> attendeeIds = new ArrayList<>();
+            for (String attendeeId : fields[4].split(",")) {
+                if (!attendeeId.isEmpty()) {
+                    attendeeIds.add(UUID.fromString(attendeeId));
+                }
+            }
+            removeMeeting(meetingId);
+            MeetingEntry meeting = new MeetingEntry(UUID.fromString(fields[1]), meetingId, Integer.parseInt(fields[3]), attendeeIds);
+            meetings.put(meetingId, meeting);
+            meetingsByDay.computeIfAbsent(meeting.epochDay, key -> new LinkedHashSet<>()).add(meetingId);
+            for (UUID attendeeId : attendeeIds) {
+                meetingsByAttendee.computeIfAbsent(attendeeId, key -> new LinkedHashSet<>()).add(meetingId);
+            }
+        } else if (fields[0].equals("I")) {
+            UUID individualId = UUID.fromString(fields[2]);
+            IndividualEntry previous = individuals.remove(individualId);
+            if (previous != null) {
+                removeFrom(individualsByRole, roleKey(previous.role), individualId);
+            }
+            IndividualEntry individual = new IndividualEntry(UUID.fromString(fields[1]), individualId, fields[3]);
+            individuals.put(individualId, individual);
+            individualsByRole.computeIfAbsent(roleKey(individual.role), key -> new LinkedHashSet<>()).add(individualId);
+        }
+    }
+
+    private void removeMeeting(UUID meetingId) {
+        MeetingEntry previous = meetings.remove(meetingId);
+        if (previous != null) {
+            removeFrom(meetingsByDay, previous.epochDay, meetingId);
+            for (UUID attendeeId : previous.attendeeIds) {
+                removeFrom(meetingsByAttendee, attendeeId, meetingId);
+            }
+        }
+    }
+
+    private static <K> void removeFrom(Map<K, Set<UUID>> index, K key, UUID id) {
+        Set<UUID> ids = index.get(key);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static String individualLine(Project project, Individual individual) {
+        return "I\t" + project.id + "\t" + individual.id + "\t" + clean(individual.role) + "\n";
+    }
+
+    private static String meetingLine(Project project, Meeting meeting) {
+        List<UUID> attendeeIds = new ArrayList<>(meeting.attendees.size());
+        for (Individual attendee : meeting.attendees) {
+            attendeeIds.add(attendee.id);
+        }
+        return meetingLine(project.id, meeting.id, Dates.toEpochDay(meeting.date), attendeeIds);
+    }
+
+    private static String meetingLine(UUID projectId, UUID meetingId, int epochDay, List<UUID> attendeeIds) {
+        StringBuilder line = new StringBuilder(120 + attendeeIds.size() * 37);
+        line.append("M\t").append(projectId).append('\t').append(meetingId).append('\t').append(epochDay).append('\t');
+        for (int i = 0; i < attendeeIds.size(); i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append(attendeeIds.get(i));
+        }
+        return line.append('\n').toString();
+    }
+
+    /*
+     * Replaces characters that would break the log layout.
+     */
+    private static String clean(String value) {
+        return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static String roleKey(String role) {
+        return clean(role).trim().toLowerCase(Locale.ROOT);
+    }
+
+    /*
+     * A meeting or individual found by a query, identified by its project and
+     * its own id.
+     */
+    public static class Entry {
+        public final UUID projectId;
+        public final UUID id;
+        public final LocalDate date;
+
+        Entry(UUID projectId, UUID id) {
+            this(projectId, id, null);
+        }
+
+        Entry(UUID projectId, UUID id, LocalDate date) {
+            this.projectId = projectId;
+            this.id = id;
+            this.date = date;
+        }
+    }
+
+    private static class MeetingEntry {
+        final UUID projectId;
+        final UUID meetingId;
+        final int epochDay;
+        final List<UUID> attendeeIds;
+
+        MeetingEntry(UUID projectId, UUID meetingId, int epochDay, List<UUID> attendeeIds) {
+            this.projectId = projectId;
+            this.meetingId = meetingId;
+            this.epochDay = epochDay;
+            this.attendeeIds = attendeeIds;
+        }
+
+        Entry toEntry() {
+            return new Entry(projectId, meetingId, LocalDate.ofEpochDay(epochDay));
+        }
+    }
+
+    private static class IndividualEntry {
+        final UUID projectId;
+        final UUID individualId;
+        final String role;
+
+        IndividualEntry(UUID projectId, UUID individualId, String role) {
+            this.projectId = projectId;
+            this.individualId = individualId;
+            this.role = role;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+import java.util.Arrays;
+
+/*
+ * A set of non-negative ints held as a bitset, keeping only the 64-bit words
+ * that have a bit set. Each word is stored with its index in the full bitset,
+ * in ascending order.
+ *
+ * Sets in which few bits are set, such as the attendees of one meeting out of
+ * thousands of individuals, take a few words instead of one bit for every
+ * possible member, while counting members and intersecting sets still work a
+ * word at a time with popcount and bitwise AND. Bits are cheapest to add in
+ * ascending order, which only ever touches the last word.
+ */
+class SparseBitSet {
+
+    private static final int[] NO_KEYS = new int[0];
+    private static final long[] NO_WORDS = new long[0];
+
+    private int[] keys = NO_KEYS;
+    private long[] words = NO_WORDS;
+    private int size;
+
+    boolean get(int bit) {
+        int i = find(bit >>> 6);
+        return i >= 0 && (words[i] & (1L << bit)) != 0;
+    }
+
+    void set(int bit) {
+        int key = bit >>> 6;
+        if (size > 0 && keys[size - 1] == key) {
+            words[size - 1] |= 1L << bit;
+            return;
+        }
+        int i = size == 0 || keys[size - 1] < key ? -(size + 1) : find(key);
+        if (i >= 0) {
+            words[i] |= 1L << bit;
+            return;
+        }
+        i = -(i + 1);
+        if (size == keys.length) {
+            int capacity = Math.max(2, size * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            words = Arrays.copyOf(words, capacity);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(words, i, words, i + 1, size - i);
+        keys[i] = key;
+        words[i] = 1L << bit;
+        size++;
+    }
+
+    void clear(int bit) {
+        int i = find(bit >>> 6);
+        if (i < 0) {
+            return;
+        }
+        words[i] &= ~(1L << bit);
+        if (words[i] == 0) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(words, i + 1, words, i, size - i - 1);
+            size--;
+        }
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /*
+     * Returns the number of bits set.
+     */
+    int cardinality() {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            count += Long.bitCount(words[i]);
+        }
+        return count;
+    }
+
+    /*
+     * Returns the number of bits set in both this set and another, without
+     * building their intersection.
+     */
+    int andCardinality(SparseBitSet other) {
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                count += Long.bitCount(words[i++] & other.words[j++]);
+            }
+        }
+        return count;
+    }
+
+    /*
+     * Copies the bits set into an array, in ascending order, returning how many
+     * there were. The array must have room for cardinality() of them.
+     */
+    int toArray(int[] bits) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            int base = keys[i] << 6;
+            long word = words[i];
+            while (word != 0) {
+                bits[count++] = base + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return count;
+    }
+
+    /*
+     * Releases room kept for words that were never added, for sets that are
+     * done being built.
+     */
+    void trimToSize() {
+        if (size < keys.length) {
+            keys = Arrays.copyOf(keys, size);
+            words = Arrays.copyOf(words, size);
+        }
+    }
+
+    private int find(int key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+}
@@ -0,0 +1,63 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/*
+ * Marks a persisted index stale whenever a write is made through a file manager
+ * that does not keep the index up to date itself, by creating the index's
+ * marker file. The next process to query the index then rebuilds it rather than
+ * answering without the write. Once the marker exists, each write costs one
+ * failed attempt to create it again.
+ */
+class StaleMarker implements WriteListener {
+
+    private final File file;
+
+    StaleMarker(File file) {
+        this.file = file;
+    }
+
+    /*
+     * Creates the marker file. A marker that cannot be made is left unmade, as a
+     * write must not fail because of an index.
+     */
+    void mark() {
+        try {
+            file.createNewFile();
+            return;
+        } catch (IOException e) {
+            // The folder may not exist yet
+        }
+        try {
+            file.getParentFile().mkdirs();
+            file.createNewFile();
+        } catch (IOException e) {
+            // Left unmarked
+        }
+    }
+
+    @Override
+    public void projectWritten(Project project) {
+        mark();
+    }
+
+    @Override
+    public void individualWritten(Project project, Individual individual) {
+        mark();
+    }
+
+    @Override
+    public void meetingWritten(Project project, Meeting meeting) {
+        mark();
+    }
+
+    @Override
+    public void individualsWritten(Project project, List<Individual> individuals) {
+        mark();
+    }
+
+    @Override
+    public void meetingsWritten(Project project, List<Meeting> meetings) {
+        mark();
+    }
+}
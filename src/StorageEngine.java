@@ -0,0 +1,57 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/*
+ * A pluggable place for FileManager to store projects. When a FileManager is
+ * given a storage engine, all creates and loads go through it instead of the
+ * default one-file-per-entity layout in the projects folder.
+ */
+public interface StorageEngine {
+
+    /*
+     * Stores a new project, or replaces the details of an existing one.
+     */
+    void saveProject(Project project) throws IOException;
+
+    /*
+     * Stores a new individual in a project, or replaces an existing one.
+     */
+    void saveIndividual(Project project, Individual individual) throws IOException;
+
+    /*
+     * Stores a new meeting in a project, or replaces an existing one.
+     */
+    void saveMeeting(Project project, Meeting meeting) throws IOException;
+
+    /*
+     * Returns the ids of all stored projects in ascending order.
+     */
+    List<UUID> listProjectIds();
+
+    /*
+     * Returns a fully loaded project, including its individuals and meetings.
+     */
+    Project loadProject(UUID projectId) throws IOException;
+
+    /*
+     * Returns the folder everything in this storage engine is kept under.
+     */
+    File getRoot();
+
+    /*
+     * Returns the file or folder holding a project, used when reporting errors.
+     */
+    File getProjectLocation(UUID projectId);
+
+    /*
+     * Returns the errors met in the background since this was last called, such
+     * as compactions that failed, and forgets them. FileManager reports them
+     * with its load errors.
+     */
+    default List<LoadError> takeBackgroundErrors() {
+        return Collections.emptyList();
+    }
+}
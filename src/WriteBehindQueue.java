@@ -0,0 +1,503 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/*
+ * Writes new individual and meeting files in the background, so the menus and
+ * scripts adding them are not kept waiting on the disk. There is one queue per
+ * projects folder in a process, shared by every file manager on it, and one
+ * writer thread per queue. Each write is made through the file manager it was
+ * queued through, so that file manager's write listeners are told about it;
+ * an individual or meeting queued again through another file manager before
+ * it is written stays with the one it was first queued through.
+ *
+ * Writes are coalesced: an individual or meeting queued again before it is
+ * written is only written once, with its latest contents. The writer takes
+ * everything queued so far at once and writes each project's share of it as
+ * one batch, in which individuals are renamed into place before the meetings
+ * that name them, and the whole batch is forced to disk with one sync per
+ * folder. A write's future completes once its batch is on disk, or with the
+ * error that stopped the batch.
+ *
+ * At most projects.writeBehindCapacity individuals and meetings are queued at
+ * once (1024 by default); adding to a full queue waits until the writer takes
+ * what is queued. Until a write is on disk it is included in the projects,
+ * individuals and meetings any file manager of this process reads, so a read
+ * always sees the writes queued before it. Other processes only see a write
+ * once it is on disk, and the catalogue, which indexes are rebuilt from, only
+ * once their write listeners have been told about it.
+ *
+ * Everything still queued is written and forced to disk when the queue is
+ * closed, which happens when the program shuts down. Writes added after that
+ * are made straight away on the caller's thread.
+ */
+public class WriteBehindQueue implements Closeable {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final Map<String, WriteBehindQueue> openQueues = new ConcurrentHashMap<>();
+
+    private final FileManager fileManager;
+    private final int capacity;
+    private final Thread writer;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition batchWritten = lock.newCondition();
+
+    /*
+     * The writes waiting for the writer and the ones it is writing, by project
+     * and then by the file manager they were queued through. Both are only used
+     * under the lock, and a write stays in one or the other until it is on disk.
+     */
+    private Map<UUID, List<Batch>> queued = new LinkedHashMap<>();
+    private Map<UUID, List<Batch>> writing = Collections.emptyMap();
+    private int queuedCount;
+    private long batchesTaken;
+    private long batchesDone;
+    private boolean closed;
+
+    public WriteBehindQueue(FileManager fileManager, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.fileManager = fileManager;
+        this.capacity = capacity;
+        this.writer = new Thread(this::writeQueued, "write-behind");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /*
+     * Returns the queue for a file manager's projects folder, starting it on
+     * first use along with a shutdown hook that closes it. Writes added through
+     * addIndividual and addMeeting without a file manager are made through the
+     * one that started the queue.
+     */
+    public static WriteBehindQueue forRoot(FileManager fileManager) {
+        return openQueues.computeIfAbsent(fileManager.getProjectsRoot().getAbsolutePath(), path -> {
+            WriteBehindQueue queue = new WriteBehindQueue(fileManager, Integer.getInteger("projects.writeBehindCapacity", DEFAULT_CAPACITY));
+            Runtime.getRuntime().addShutdownHook(new Thread(queue::close, "write-behind-shutdown"));
+            return queue;
+        });
+    }
+
+    /*
+     * Returns the writes queued in a projects folder that are not on disk yet,
+     * or Pending.NONE if nothing has been queued there.
+     */
+    static Pending pending(File root) {
+        WriteBehindQueue queue = openQueues.get(root.getAbsolutePath());
+        return queue == null ? Pending.NONE : queue.pending();
+    }
+
+    public CompletableFuture<Void> addIndividual(Project project, Individual individual) {
+        return addIndividual(fileManager, project, individual);
+    }
+
+    public CompletableFuture<Void> addMeeting(Project project, Meeting meeting) {
+        return addMeeting(fileManager, project, meeting);
+    }
+
+    /*
+     * Queues an individual to be written through the given file manager, which
+     * must read from this queue's projects folder. A copy is queued, so the
+     * caller can go on changing the individual; what is written is the
+     * individual as it was when queued.
+     */
+    public CompletableFuture<Void> addIndividual(FileManager through, Project project, Individual individual) {
+        return add(through, project, individual.id, copyOf(individual), batch -> batch.individuals, () -> through.createIndividualFile(project, individual));
+    }
+
+    /*
+     * Queues a meeting to be written through the given file manager, which must
+     * read from this queue's projects folder. A copy is queued, attendees
+     * included, as with addIndividual.
+     */
+    public CompletableFuture<Void> addMeeting(FileManager through, Project project, Meeting meeting) {
+        return add(through, project, meeting.id, copyOf(meeting), batch -> batch.meetings, () -> through.createMeetingFile(project, meeting));
+    }
+
+    private static Individual copyOf(Individual individual) {
+        Individual copy = new Individual();
+        copy.id = individual.id;
+        copy.name = individual.name;
+        copy.role = individual.role;
+        return copy;
+    }
+
+    private static Meeting copyOf(Meeting meeting) {
+        Meeting copy = new Meeting();
+        copy.id = meeting.id;
+        copy.title = meeting.title;
+        copy.date = meeting.date;
+        copy.summary = meeting.summary;
+        copy.attendees = new ArrayList<>(meeting.attendees.size());
+        for (Individual attendee : meeting.attendees) {
+            copy.attendees.add(copyOf(attendee));
+        }
+        return copy;
+    }
+
+    /*
+     * A write made on the caller's thread once the queue is closed.
+     */
+    private interface DirectWrite {
+        void run() throws IOException;
+    }
+
+    /*
+     * Queues an individual or meeting in its project's next batch for the file
+     * manager, or in the batch it is already queued in, waiting for room first
+     * unless it replaces one already queued. The writer thread never waits, as
+     * it is the one that makes room.
+     */
+    private <T> CompletableFuture<Void> add(FileManager through, Project project, UUID id, T entity, Function<Batch, Map<UUID, T>> entities,
+            DirectWrite directWrite) {
+        if (!through.getProjectsRoot().getAbsolutePath().equals(fileManager.getProjectsRoot().getAbsolutePath())) {
+            throw new IllegalArgumentException("File manager reads from " + through.getProjectsRoot() + ", not " + fileManager.getProjectsRoot());
+        }
+        lock.lock();
+        try {
+            while (!closed && queuedCount >= capacity && Thread.currentThread() != writer && queuedIn(project.id, id, entities) == null) {
+                notFull.awaitUninterruptibly();
+            }
+            if (!closed) {
+                Batch batch = queuedIn(project.id, id, entities);
+                if (batch == null) {
+                    batch = batchFor(through, project.id);
+                    queuedCount++;
+                }
+                batch.project = project;
+                entities.apply(batch).put(id, entity);
+                notEmpty.signal();
+                return batch.written.copy();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        close(); // Waits for the writer to finish, so older queued versions never land after this
+        try {
+            directWrite.run();
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /*
+     * Returns the queued batch an individual or meeting is in, or null if it is
+     * not queued.
+     */
+    private <T> Batch queuedIn(UUID projectId, UUID id, Function<Batch, Map<UUID, T>> entities) {
+        for (Batch batch : queued.getOrDefault(projectId, Collections.emptyList())) {
+            if (entities.apply(batch).containsKey(id)) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    private Batch batchFor(FileManager through, UUID projectId) {
+        List<Batch> batches = queued.computeIfAbsent(projectId, key -> new ArrayList<>(1));
+        for (Batch batch : batches) {
+            if (batch.fileManager == through) {
+                return batch;
+            }
+        }
+        Batch batch = new Batch(through);
+        batches.add(batch);
+        return batch;
+    }
+
+    /*
+     * Waits until every write queued before this was called is on disk, or has
+     * failed.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            long target = queuedCount > 0 ? batchesTaken + 1 : batchesTaken;
+            while (batchesDone < target && writer.isAlive()) {
+                batchWritten.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Writes everything still queued, forcing it to disk, and stops the writer.
+     * Writes added from now on are made straight away on the caller's thread.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (Thread.currentThread() == writer) {
+            return;
+        }
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Run by the writer thread: takes everything queued and writes it, one batch
+     * per project, until the queue is closed and empty.
+     */
+    private void writeQueued() {
+        while (true) {
+            Map<UUID, List<Batch>> batches;
+            lock.lock();
+            try {
+                while (queued.isEmpty() && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (queued.isEmpty()) {
+                    return;
+                }
+                batches = queued;
+                writing = batches;
+                queued = new LinkedHashMap<>();
+                queuedCount = 0;
+                batchesTaken++;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            Map<Batch, Throwable> errors = new HashMap<>();
+            for (List<Batch> projectBatches : batches.values()) {
+                for (Batch batch : projectBatches) {
+                    try {
+                        batch.fileManager.writeBehind(batch.project, new ArrayList<>(batch.individuals.values()), new ArrayList<>(batch.meetings.values()));
+                    } catch (IOException | RuntimeException e) {
+                        errors.put(batch, e);
+                    }
+                }
+            }
+
+            lock.lock();
+            try {
+                writing = Collections.emptyMap();
+                batchesDone++;
+                batchWritten.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            for (List<Batch> projectBatches : batches.values()) {
+                for (Batch batch : projectBatches) {
+                    Throwable error = errors.get(batch);
+                    if (error == null) {
+                        batch.written.complete(null);
+                    } else {
+                        batch.written.completeExceptionally(error);
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Copies the writes not yet on disk. The batch being written comes first so
+     * anything queued again since replaces it.
+     */
+    private Pending pending() {
+        lock.lock();
+        try {
+            if (queuedCount == 0 && writing.isEmpty()) {
+                return Pending.NONE;
+            }
+            Map<UUID, Batch> projects = new LinkedHashMap<>();
+            for (Map<UUID, List<Batch>> batches : List.of(writing, queued)) {
+                for (Map.Entry<UUID, List<Batch>> entry : batches.entrySet()) {
+                    Batch copy = projects.computeIfAbsent(entry.getKey(), projectId -> new Batch(fileManager));
+                    for (Batch batch : entry.getValue()) {
+                        copy.individuals.putAll(batch.individuals);
+                        copy.meetings.putAll(batch.meetings);
+                    }
+                }
+            }
+            return new Pending(projects);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * The individuals and meetings of one project queued or being written
+     * together through one file manager, in the order they were first queued.
+     */
+    private static class Batch {
+        final FileManager fileManager;
+        Project project;
+        final Map<UUID, Individual> individuals = new LinkedHashMap<>();
+        final Map<UUID, Meeting> meetings = new LinkedHashMap<>();
+        final CompletableFuture<Void> written = new CompletableFuture<>();
+
+        Batch(FileManager fileManager) {
+            this.fileManager = fileManager;
+        }
+    }
+
+    /*
+     * A copy of the writes in a projects folder that are not on disk yet, taken
+     * before reading from it, so that whatever was queued before the read is
+     * either already on disk or in the copy.
+     */
+    static class Pending {
+        static final Pending NONE = new Pending(Collections.emptyMap());
+
+        private final Map<UUID, Batch> projects;
+
+        private Pending(Map<UUID, Batch> projects) {
+            this.projects = projects;
+        }
+
+        /*
+         * Adds the queued individuals and meetings to the projects read from
+         * disk, replacing any older versions of them, and returns the projects.
+         */
+        List<Project> addTo(List<Project> loaded) {
+            if (!projects.isEmpty()) {
+                for (Project project : loaded) {
+                    addTo(project);
+                }
+            }
+            return loaded;
+        }
+
+        /*
+         * The queued individuals and meetings are added as copies, and every
+         * meeting's attendees are resolved by id against the project's
+         * individuals once they are merged, so a meeting names the same
+         * Individual instances as its project, as it does when read from disk,
+         * and nothing handed out shares objects with the callers that queued
+         * them. Attendees that are not individuals of the project are left out,
+         * as they are on disk.
+         */
+        Project addTo(Project project) {
+            Batch batch = project == null ? null : projects.get(project.id);
+            if (batch == null) {
+                return project;
+            }
+            Map<UUID, Individual> queuedIndividuals = new LinkedHashMap<>();
+            for (Individual individual : batch.individuals.values()) {
+                queuedIndividuals.put(individual.id, WriteBehindQueue.copyOf(individual));
+            }
+            merge(project.individuals, queuedIndividuals, individual -> individual.id);
+            Map<UUID, Individual> individualsById = new HashMap<>(project.individuals.size() * 2);
+            for (Individual individual : project.individuals) {
+                individualsById.put(individual.id, individual);
+            }
+
+            if (!queuedIndividuals.isEmpty()) {
+                for (ListIterator<Meeting> meetings = project.meetings.listIterator(); meetings.hasNext();) {
+                    Meeting meeting = meetings.next();
+                    if (!batch.meetings.containsKey(meeting.id) && namesAny(meeting, queuedIndividuals)) {
+                        meetings.set(copyOf(meeting, individualsById));
+                    }
+                }
+            }
+            Map<UUID, Meeting> queuedMeetings = new LinkedHashMap<>();
+            for (Meeting meeting : batch.meetings.values()) {
+                queuedMeetings.put(meeting.id, copyOf(meeting, individualsById));
+            }
+            merge(project.meetings, queuedMeetings, meeting -> meeting.id);
+            return project;
+        }
+
+        /*
+         * Returns a copy of a queued individual, or null if none is queued.
+         */
+        Individual individual(UUID projectId, UUID individualId) {
+            Batch batch = projects.get(projectId);
+            Individual individual = batch == null ? null : batch.individuals.get(individualId);
+            return individual == null ? null : WriteBehindQueue.copyOf(individual);
+        }
+
+        /*
+         * Returns a copy of a queued meeting, or null if none is queued. Its
+         * attendees are copies too, as queued if they are.
+         */
+        Meeting meeting(UUID projectId, UUID meetingId) {
+            Batch batch = projects.get(projectId);
+            Meeting meeting = batch == null ? null : batch.meetings.get(meetingId);
+            if (meeting == null) {
+                return null;
+            }
+            Map<UUID, Individual> attendees = new HashMap<>();
+            for (Individual attendee : meeting.attendees) {
+                Individual queued = batch.individuals.get(attendee.id);
+                attendees.put(attendee.id, WriteBehindQueue.copyOf(queued != null ? queued : attendee));
+            }
+            return copyOf(meeting, attendees);
+        }
+
+        private static <T> void merge(List<T> loaded, Map<UUID, T> queued, Function<T, UUID> idOf) {
+            Map<UUID, T> remaining = new LinkedHashMap<>(queued);
+            for (ListIterator<T> entities = loaded.listIterator(); entities.hasNext();) {
+                T replacement = remaining.remove(idOf.apply(entities.next()));
+                if (replacement != null) {
+                    entities.set(replacement);
+                }
+            }
+            loaded.addAll(remaining.values());
+        }
+
+        private static boolean namesAny(Meeting meeting, Map<UUID, Individual> individuals) {
+            for (Individual attendee : meeting.attendees) {
+                if (individuals.containsKey(attendee.id)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static Meeting copyOf(Meeting meeting, Map<UUID, Individual> individualsById) {
+            Meeting copy = new Meeting();
+            copy.id = meeting.id;
+            copy.title = meeting.title;
+            copy.date = meeting.date;
+            copy.summary = meeting.summary;
+            copy.attendees = new ArrayList<>(meeting.attendees.size());
+            for (Individual attendee : meeting.attendees) {
+                Individual individual = individualsById.get(attendee.id);
+                if (individual != null) {
+                    copy.attendees.add(individual);
+                }
+            }
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+import java.util.List;
+
+/*
+ * Told about each project, individual and meeting after FileManager has written
+ * it. Listeners keep derived data such as indexes in step with the store and
+ * must not throw; a listener that fails to update itself should make sure it is
+ * rebuilt rather than left out of date.
+ */
+public interface WriteListener {
+
+    default void projectWritten(Project project) {
+    }
+
+    default void individualWritten(Project project, Individual individual) {
+    }
+
+    default void meetingWritten(Project project, Meeting meeting) {
+    }
+
+    /*
+     * Told about a batch of individuals written to the same project at once.
+     * Listeners that can handle a batch more cheaply than one at a time should
+     * override this.
+     */
+    default void individualsWritten(Project project, List<Individual> individuals) {
+        for (Individual individual : individuals) {
+            individualWritten(project, individual);
+        }
+    }
+
+    default void meetingsWritten(Project project, List<Meeting> meetings) {
+        for (Meeting meeting : meetings) {
+            meetingWritten(project, meeting);
+        }
+    }
+}